@@ -22,20 +22,9 @@ import kotlinx.serialization.ExperimentalSerializationApi
 import kotlinx.serialization.SerializationException
 import kotlinx.serialization.builtins.SetSerializer
 import kotlinx.serialization.builtins.serializer
-import xyz.nulldev.androidcompat.util.SafePath
-import xyz.nulldev.ts.config.ApplicationRootDir
 import java.util.Properties
 import kotlin.concurrent.atomics.AtomicBoolean
 import kotlin.concurrent.atomics.ExperimentalAtomicApi
-import kotlin.io.path.Path
-import kotlin.io.path.copyTo
-import kotlin.io.path.createParentDirectories
-import kotlin.io.path.deleteExisting
-import kotlin.io.path.deleteIfExists
-import kotlin.io.path.exists
-import kotlin.io.path.inputStream
-import kotlin.io.path.name
-import kotlin.io.path.outputStream
 
 @OptIn(ExperimentalSerializationApi::class, ExperimentalSettingsApi::class)
 class JavaSharedPreferences(
@@ -58,21 +47,49 @@ class JavaSharedPreferences(
         data object Clear : Action()
     }
 
-    private val file =
-        Path(
-            ApplicationRootDir,
-            "settings",
-            "${SafePath.buildValidFilename(key)}.xml",
-        )
+    /**
+     * Records which properties changed, so only those have to be persisted by backends supporting incremental writes.
+     */
+    private class ChangeTrackingProperties : Properties() {
+        private var cleared = false
+        private val changedKeys = mutableSetOf<String>()
+
+        override fun put(
+            key: Any,
+            value: Any,
+        ): Any? {
+            changedKeys.add(key as String)
+            return super.put(key, value)
+        }
+
+        override fun remove(key: Any): Any? {
+            changedKeys.add(key as String)
+            return super.remove(key)
+        }
+
+        override fun clear() {
+            cleared = true
+            changedKeys.clear()
+            super.clear()
+        }
+
+        fun takeChanges(): PreferenceChanges {
+            val changes = PreferenceChanges(cleared, changedKeys.associateWith { getProperty(it) })
+            cleared = false
+            changedKeys.clear()
+            return changes
+        }
+    }
+
+    private val backend = PreferencesBackend.create(key)
     private val properties =
-        Properties().also { properties ->
+        ChangeTrackingProperties().also { properties ->
             try {
-                if (file.exists()) {
-                    file.inputStream().use { properties.loadFromXML(it) }
-                }
+                properties.putAll(backend.load())
             } catch (e: Exception) {
                 logger.error(e) { "Error loading settings from $key" }
             }
+            properties.takeChanges()
         }
     private val preferences = PropertiesSettings(properties)
 
@@ -187,24 +204,25 @@ class JavaSharedPreferences(
     @OptIn(ExperimentalAtomicApi::class)
     private var pendingAsyncSave = AtomicBoolean(false)
 
-    private fun save(properties: Properties): Boolean =
-        synchronized(file) {
+    /**
+     * Persists the changes made since the last save.
+     *
+     * Draining the changes and writing them happens under the same lock, to prevent concurrent saves from persisting
+     * older changes after newer ones.
+     */
+    private fun save(
+        actions: List<Action>,
+        sync: Boolean,
+    ): Boolean =
+        synchronized(backend) {
             try {
-                if (properties.isEmpty) {
-                    file.deleteIfExists()
-                } else {
-                    file.createParentDirectories()
-
-                    val tempFile = file.resolveSibling("${file.name}.tmp")
-
-                    tempFile.outputStream().use {
-                        properties.storeToXML(it, null)
+                val changes =
+                    synchronized(properties) {
+                        saveActions(actions)
+                        properties.takeChanges()
                     }
 
-                    file.deleteIfExists()
-                    tempFile.copyTo(file)
-                    tempFile.deleteExisting()
-                }
+                backend.write(changes, ::getSnapshot, sync)
 
                 return true
             } catch (e: Exception) {
@@ -213,17 +231,7 @@ class JavaSharedPreferences(
             }
         }
 
-    private fun save(actions: List<Action>): Boolean {
-        val snapshot =
-            synchronized(properties) {
-                saveActions(actions)
-                getSnapshot()
-            }
-
-        return save(snapshot)
-    }
-
-    private fun save(): Boolean = save(getSnapshot())
+    private fun save(actions: List<Action>): Boolean = save(actions, sync = true)
 
     @OptIn(DelicateCoroutinesApi::class, ExperimentalAtomicApi::class)
     private fun startAsyncSaver() {
@@ -235,7 +243,7 @@ class JavaSharedPreferences(
             while (true) {
                 dirty.store(false)
 
-                save(getSnapshot())
+                save(emptyList(), sync = false)
 
                 if (!dirty.load()) {
                     pendingAsyncSave.store(false)
@@ -354,7 +362,9 @@ class JavaSharedPreferences(
     }
 
     fun deleteAll(): Boolean {
-        preferences.clear()
+        synchronized(properties) {
+            preferences.clear()
+        }
         return true
     }
 }
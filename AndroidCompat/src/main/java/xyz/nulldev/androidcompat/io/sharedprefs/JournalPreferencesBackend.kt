@@ -0,0 +1,287 @@
+package xyz.nulldev.androidcompat.io.sharedprefs
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.DelicateCoroutinesApi
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.Properties
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.zip.CRC32
+import kotlin.io.path.createParentDirectories
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.fileSize
+import kotlin.io.path.inputStream
+import kotlin.io.path.moveTo
+import kotlin.io.path.name
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Appends only the changed properties to a journal file instead of rewriting all of them.
+ *
+ * Every write is appended as a single checksummed batch, thus a torn write at the end of the journal only loses that
+ * batch. Asynchronous writes get fsynced together after a short delay, synchronous ones immediately. Once the journal
+ * grew larger than its last compacted state, it gets rewritten to a temporary file and atomically renamed over the
+ * journal.
+ *
+ * Existing XML files get migrated on the first load.
+ */
+class JournalPreferencesBackend(
+    private val key: String,
+) : PreferencesBackend {
+    companion object {
+        private val logger = KotlinLogging.logger {}
+
+        const val EXTENSION = "journal"
+
+        private const val OP_PUT = 1
+        private const val OP_REMOVE = 2
+        private const val OP_CLEAR = 3
+
+        private const val BATCH_HEADER_SIZE = 8
+        private const val MIN_COMPACTION_SIZE = 64 * 1024L
+
+        private val FSYNC_DELAY = 1.seconds
+
+        /**
+         * Replays the journal into [state].
+         *
+         * @return the size of the valid part of the journal
+         */
+        private fun replay(
+            file: Path,
+            state: MutableMap<String, String>,
+        ): Long {
+            val fileSize = file.fileSize()
+            var validSize = 0L
+
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                try {
+                    while (true) {
+                        val size = input.readInt()
+                        val checksum = input.readInt()
+                        if (size < 0 || validSize + BATCH_HEADER_SIZE + size > fileSize) {
+                            break
+                        }
+
+                        val batch = ByteArray(size)
+                        input.readFully(batch)
+                        if (CRC32().apply { update(batch) }.value.toInt() != checksum) {
+                            break
+                        }
+
+                        apply(batch, state)
+                        validSize += BATCH_HEADER_SIZE + size
+                    }
+                } catch (_: EOFException) {
+                    // incomplete last batch
+                }
+            }
+
+            return validSize
+        }
+
+        fun read(file: Path): Map<String, String> = mutableMapOf<String, String>().also { replay(file, it) }
+
+        private fun apply(
+            batch: ByteArray,
+            state: MutableMap<String, String>,
+        ) {
+            DataInputStream(ByteArrayInputStream(batch)).use { input ->
+                while (input.available() > 0) {
+                    when (input.readUnsignedByte()) {
+                        OP_PUT -> state[input.readString()] = input.readString()
+                        OP_REMOVE -> state.remove(input.readString())
+                        OP_CLEAR -> state.clear()
+                    }
+                }
+            }
+        }
+
+        private fun encode(changes: PreferenceChanges): ByteBuffer {
+            val batch =
+                ByteArrayOutputStream().also { output ->
+                    DataOutputStream(output).use { data ->
+                        if (changes.cleared) {
+                            data.writeByte(OP_CLEAR)
+                        }
+                        changes.values.forEach { (key, value) ->
+                            if (value != null) {
+                                data.writeByte(OP_PUT)
+                                data.writeString(key)
+                                data.writeString(value)
+                            } else {
+                                data.writeByte(OP_REMOVE)
+                                data.writeString(key)
+                            }
+                        }
+                    }
+                }.toByteArray()
+
+            return ByteBuffer
+                .allocate(BATCH_HEADER_SIZE + batch.size)
+                .putInt(batch.size)
+                .putInt(CRC32().apply { update(batch) }.value.toInt())
+                .put(batch)
+                .flip()
+        }
+
+        private fun DataOutputStream.writeString(value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            writeInt(bytes.size)
+            write(bytes)
+        }
+
+        private fun DataInputStream.readString(): String {
+            val bytes = ByteArray(readInt())
+            readFully(bytes)
+            return bytes.toString(Charsets.UTF_8)
+        }
+    }
+
+    private val file = PreferencesBackend.getFile(key, EXTENSION)
+
+    private val state = mutableMapOf<String, String>()
+    private lateinit var channel: FileChannel
+
+    private var compactedSize = 0L
+    private var appendedSize = 0L
+
+    private val pendingFsync = AtomicBoolean(false)
+
+    @Synchronized
+    override fun load(): Map<String, String> {
+        val xmlFile = PreferencesBackend.getFile(key, "xml")
+
+        val migrateXml = !file.exists() && xmlFile.exists()
+        if (migrateXml) {
+            state.putAll(XmlPreferencesBackend.read(xmlFile))
+        } else if (file.exists()) {
+            val validSize = replay(file, state)
+            if (validSize < file.fileSize()) {
+                logger.warn { "Discarding incomplete changes at the end of the settings journal $key" }
+            }
+        }
+
+        // start with a journal only containing the current state, this also drops an incomplete last batch
+        compact()
+
+        if (migrateXml) {
+            xmlFile.deleteIfExists()
+            logger.info { "Migrated settings $key from xml to journal" }
+        }
+
+        return state.toMap()
+    }
+
+    private fun openChannel(): FileChannel =
+        FileChannel
+            .open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            .apply { position(size()) }
+
+    private fun compact() {
+        if (::channel.isInitialized) {
+            channel.close()
+        }
+
+        file.createParentDirectories()
+
+        val tempFile = file.resolveSibling("${file.name}.tmp")
+        val snapshot = encode(PreferenceChanges(cleared = true, values = state))
+
+        FileChannel
+            .open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+            .use { tempChannel ->
+                while (snapshot.hasRemaining()) {
+                    tempChannel.write(snapshot)
+                }
+                tempChannel.force(true)
+            }
+
+        tempFile.moveTo(file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+
+        compactedSize = file.fileSize()
+        appendedSize = 0
+        channel = openChannel()
+    }
+
+    @Synchronized
+    override fun write(
+        changes: PreferenceChanges,
+        snapshot: () -> Properties,
+        sync: Boolean,
+    ) {
+        if (changes.isEmpty()) {
+            return
+        }
+
+        if (changes.cleared) {
+            state.clear()
+        }
+        changes.values.forEach { (key, value) ->
+            if (value != null) {
+                state[key] = value
+            } else {
+                state.remove(key)
+            }
+        }
+
+        if (appendedSize > maxOf(compactedSize, MIN_COMPACTION_SIZE)) {
+            compact()
+            return
+        }
+
+        val batch = encode(changes)
+        appendedSize += batch.remaining()
+        while (batch.hasRemaining()) {
+            channel.write(batch)
+        }
+
+        if (sync) {
+            channel.force(false)
+        } else {
+            scheduleFsync()
+        }
+    }
+
+    @OptIn(DelicateCoroutinesApi::class)
+    private fun scheduleFsync() {
+        if (!pendingFsync.compareAndSet(false, true)) {
+            return
+        }
+
+        GlobalScope.launch(Dispatchers.IO) {
+            delay(FSYNC_DELAY)
+            pendingFsync.set(false)
+            fsync()
+        }
+    }
+
+    @Synchronized
+    private fun fsync() {
+        try {
+            channel.force(false)
+        } catch (e: Exception) {
+            logger.error(e) { "Error syncing settings journal $key" }
+        }
+    }
+}
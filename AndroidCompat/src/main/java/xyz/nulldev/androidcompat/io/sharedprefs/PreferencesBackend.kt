@@ -0,0 +1,83 @@
+package xyz.nulldev.androidcompat.io.sharedprefs
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import xyz.nulldev.androidcompat.util.SafePath
+import xyz.nulldev.ts.config.ApplicationRootDir
+import java.nio.file.Path
+import java.util.Properties
+import kotlin.io.path.Path
+
+/**
+ * The properties changed since the last time they got persisted.
+ *
+ * @param cleared all properties got removed before [values] got applied
+ * @param values the new values of the changed properties, null in case the property got removed
+ */
+data class PreferenceChanges(
+    val cleared: Boolean,
+    val values: Map<String, String?>,
+) {
+    fun isEmpty(): Boolean = !cleared && values.isEmpty()
+}
+
+/**
+ * Storage of the properties of a single [JavaSharedPreferences] namespace.
+ *
+ * Calls are serialized by [JavaSharedPreferences].
+ */
+interface PreferencesBackend {
+    fun load(): Map<String, String>
+
+    /**
+     * @param snapshot all current properties, for backends that can't persist only the changes
+     * @param sync wait until the changes are durable
+     */
+    fun write(
+        changes: PreferenceChanges,
+        snapshot: () -> Properties,
+        sync: Boolean,
+    )
+
+    companion object {
+        /**
+         * Namespaces that get persisted via [JournalPreferencesBackend], all others use [XmlPreferencesBackend].
+         *
+         * An entry ending with "*" matches all namespaces starting with it. Only applies to namespaces that get
+         * opened afterward.
+         */
+        @Volatile
+        var journaledNamespaces: List<String> = emptyList()
+
+        private fun isJournaled(key: String): Boolean =
+            journaledNamespaces.any { namespace ->
+                if (namespace.endsWith("*")) {
+                    key.startsWith(namespace.dropLast(1))
+                } else {
+                    key == namespace
+                }
+            }
+
+        fun create(key: String): PreferencesBackend =
+            if (isJournaled(key)) {
+                JournalPreferencesBackend(key)
+            } else {
+                XmlPreferencesBackend(key)
+            }
+
+        internal fun getFile(
+            key: String,
+            extension: String,
+        ): Path =
+            Path(
+                ApplicationRootDir,
+                "settings",
+                "${SafePath.buildValidFilename(key)}.$extension",
+            )
+    }
+}
@@ -0,0 +1,85 @@
+package xyz.nulldev.androidcompat.io.sharedprefs
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.Properties
+import kotlin.io.path.createParentDirectories
+import kotlin.io.path.deleteIfExists
+import kotlin.io.path.exists
+import kotlin.io.path.inputStream
+import kotlin.io.path.moveTo
+import kotlin.io.path.name
+import kotlin.io.path.outputStream
+
+/**
+ * Stores all properties of a namespace in a single XML file, which gets rewritten completely on every change.
+ */
+class XmlPreferencesBackend(
+    private val key: String,
+) : PreferencesBackend {
+    companion object {
+        private val logger = KotlinLogging.logger {}
+
+        fun read(file: Path): Map<String, String> {
+            val properties = Properties()
+            file.inputStream().use { properties.loadFromXML(it) }
+            return properties.stringPropertyNames().associateWith { properties.getProperty(it) }
+        }
+    }
+
+    private val file = PreferencesBackend.getFile(key, "xml")
+
+    override fun load(): Map<String, String> {
+        val journalFile = PreferencesBackend.getFile(key, JournalPreferencesBackend.EXTENSION)
+        if (!file.exists() && journalFile.exists()) {
+            // namespace got switched back from the journal backend
+            val properties = Properties().apply { putAll(JournalPreferencesBackend.read(journalFile)) }
+            write(properties)
+            journalFile.deleteIfExists()
+            logger.info { "Migrated settings $key from journal to xml" }
+        }
+
+        if (!file.exists()) {
+            return emptyMap()
+        }
+
+        return read(file)
+    }
+
+    private fun write(properties: Properties) {
+        if (properties.isEmpty) {
+            file.deleteIfExists()
+            return
+        }
+
+        file.createParentDirectories()
+
+        val tempFile = file.resolveSibling("${file.name}.tmp")
+
+        tempFile.outputStream().use {
+            properties.storeToXML(it, null)
+        }
+
+        tempFile.moveTo(file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    }
+
+    override fun write(
+        changes: PreferenceChanges,
+        snapshot: () -> Properties,
+        sync: Boolean,
+    ) {
+        if (changes.isEmpty()) {
+            return
+        }
+
+        write(snapshot())
+    }
+}
@@ -30,6 +30,7 @@ plugins {
             .get()
             .pluginId,
     )
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
@@ -116,6 +117,22 @@ jte {
     generate()
 }
 
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    // the benchmarks reuse the application and database setup of the tests
+    includeTests.set(true)
+    resultFormat.set("JSON")
+    // e.g. -Pjmh.includes=ImageBenchmark
+    project.findProperty("jmh.includes")?.let { includes.add(it.toString()) }
+}
+
+kotlin {
+    // allows benchmarking internal functions
+    target.compilations.named("jmh") {
+        associateWith(target.compilations.getByName("main"))
+    }
+}
+
 application {
     applicationDefaultJvmArgs =
         listOf(
@@ -139,6 +156,15 @@ sourceSets {
             srcDir("build/generated/src/test/resources")
         }
     }
+    create("loadTest") {
+        compileClasspath += main.get().output
+        runtimeClasspath += main.get().output
+    }
+}
+
+configurations {
+    named("loadTestImplementation") { extendsFrom(implementation.get()) }
+    named("loadTestRuntimeOnly") { extendsFrom(runtimeOnly.get()) }
 }
 
 buildConfig {
@@ -182,6 +208,103 @@ tasks {
         archiveClassifier.set("")
         destinationDirectory.set(File("$rootDir/server/build"))
         mergeServiceFiles()
+
+        from(named("generateGraphQLSchema")) {
+            into("graphql")
+        }
+    }
+
+    register<JavaExec>("generateGraphQLSchema") {
+        group = "build"
+        description = "Generates the GraphQL schema in SDL, fails in case the schema can't be generated"
+
+        val output = layout.buildDirectory.file("generated/graphql/schema.graphqls")
+        inputs.files(sourceSets.main.get().output)
+        outputs.file(output)
+
+        classpath = sourceSets.main.get().runtimeClasspath
+        mainClass.set("suwayomi.tachidesk.graphql.server.GraphQLSchemaExporterKt")
+        args(output.get().asFile.absolutePath)
+    }
+
+    register<Exec>("generateAppCds") {
+        group = "build"
+        description = "Starts the server jar once and records the classes loaded during startup into an AppCDS archive"
+        dependsOn(shadowJar)
+
+        val jar = shadowJar.flatMap { it.archiveFile }
+        val archive = File("$rootDir/server/build/${rootProject.name}.jsa")
+        val dataRoot = layout.buildDirectory.dir("tmp/appcds")
+        inputs.file(jar)
+        outputs.file(archive)
+
+        doFirst {
+            dataRoot.get().asFile.deleteRecursively()
+        }
+
+        commandLine(
+            "${System.getProperty("java.home")}/bin/java",
+            "-XX:ArchiveClassesAtExit=${archive.absolutePath}",
+            "-Dsuwayomi.tachidesk.exitAfterStartup=true",
+            "-Dsuwayomi.tachidesk.config.server.rootDir=${dataRoot.get().asFile.absolutePath}",
+            "-Dsuwayomi.tachidesk.config.server.port=0",
+            "-Dsuwayomi.tachidesk.config.server.webUIEnabled=false",
+            "-Dsuwayomi.tachidesk.config.server.systemTrayEnabled=false",
+            "-Dsuwayomi.tachidesk.config.server.initialOpenInBrowserEnabled=false",
+            "-jar",
+            jar.get().asFile.absolutePath,
+        )
+    }
+
+    val loadTestReports = layout.buildDirectory.dir("reports/loadtest")
+    val virtualThreadsProperty = "suwayomi.tachidesk.config.server.virtualThreadsEnabled"
+
+    fun JavaExec.configureLoadTest(report: File) {
+        group = "verification"
+
+        val loadTest = sourceSets["loadTest"]
+        val dataRoot = layout.buildDirectory.dir("tmp/loadtest")
+        outputs.upToDateWhen { false }
+
+        classpath = loadTest.runtimeClasspath
+        mainClass.set("suwayomi.tachidesk.loadtest.LoadTestKt")
+        jvmArgs("-Djava.awt.headless=true")
+        systemProperty("suwayomi.tachidesk.config.server.rootDir", dataRoot.get().asFile.absolutePath)
+        systemProperty("suwayomi.tachidesk.config.server.webUIEnabled", "false")
+        systemProperty("suwayomi.tachidesk.config.server.systemTrayEnabled", "false")
+        systemProperty("suwayomi.tachidesk.config.server.initialOpenInBrowserEnabled", "false")
+        systemProperty("loadtest.report", report.absolutePath)
+        // e.g. -Ploadtest.mangaCount=50000 -Ploadtest.baseline=path/to/report.json
+        project.properties
+            .filterKeys { it.startsWith("loadtest.") }
+            .forEach { (key, value) -> systemProperty(key, value.toString()) }
+        // the database and thread settings, e.g. -Dsuwayomi.tachidesk.config.server.databaseType=POSTGRESQL
+        System
+            .getProperties()
+            .stringPropertyNames()
+            .filter { it.startsWith("suwayomi.tachidesk.config.server.database") || it == virtualThreadsProperty }
+            .forEach { systemProperty(it, System.getProperty(it)) }
+    }
+
+    register<JavaExec>("loadTest") {
+        description = "Starts the server with a generated library and reports the latencies of concurrent API requests"
+        configureLoadTest(loadTestReports.get().file("report.json").asFile)
+    }
+
+    val platformThreadsReport = loadTestReports.get().file("platform-threads.json").asFile
+    val loadTestPlatformThreads =
+        register<JavaExec>("loadTestPlatformThreads") {
+            description = "Runs the load test with the web requests handled on the shared thread pools"
+            configureLoadTest(platformThreadsReport)
+            systemProperty(virtualThreadsProperty, "false")
+        }
+
+    register<JavaExec>("loadTestVirtualThreads") {
+        description = "Runs the load test with the web requests handled on virtual threads and compares it to loadTestPlatformThreads"
+        dependsOn(loadTestPlatformThreads)
+        configureLoadTest(loadTestReports.get().file("virtual-threads.json").asFile)
+        systemProperty(virtualThreadsProperty, "true")
+        systemProperty("loadtest.compareWith", platformThreadsReport.absolutePath)
     }
 
     test {
@@ -1139,6 +1139,233 @@ class ServerConfig(
         description = "List of extension store index URLs",
     )
 
+    val trackerUpdateDebounce: MutableStateFlow<Duration> by DurationSetting(
+        protoNumber = 98,
+        group = SettingGroup.TRACKER,
+        privacySafe = true,
+        defaultValue = 10.seconds,
+        min = 0.seconds,
+        max = 10.minutes,
+        description = "Time to wait for further read progress changes before sending the latest progress to the trackers",
+    )
+
+    val trackerUpdateMaxParallel: MutableStateFlow<Int> by IntSetting(
+        protoNumber = 99,
+        group = SettingGroup.TRACKER,
+        privacySafe = true,
+        defaultValue = 2,
+        min = 1,
+        max = 10,
+        description = "How many progress updates can be sent to a single tracker service in parallel",
+    )
+
+    val graphqlEntityCacheSize: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 100,
+        group = SettingGroup.GRAPHQL,
+        privacySafe = true,
+        defaultValue = 0,
+        min = 100,
+        max = 100_000,
+        description = "Maximum number of mangas, sources and categories (each) kept in a cache shared by all GraphQL requests",
+    )
+
+    val journaledPreferences: MutableStateFlow<List<String>> by ListSetting<String>(
+        protoNumber = 101,
+        group = SettingGroup.MISC,
+        privacySafe = true,
+        defaultValue =
+            listOf(
+                "cookie_store",
+                "server_util",
+                "source_*",
+                "suwayomi.tachidesk.manga.impl.download.DownloadManager",
+            ),
+        requiresRestart = true,
+        itemToValidValue = { namespace ->
+            namespace.trim().ifEmpty { null }
+        },
+        typeInfo =
+            SettingsRegistry.PartialTypeInfo(
+                specificType = "List<String>",
+            ),
+        description =
+            "Preference namespaces persisted incrementally via a journal instead of rewriting their whole xml file on every change. " +
+                "Entries ending with \"*\" match all namespaces starting with it",
+    )
+
+    val metricsEnabled: MutableStateFlow<Boolean> by BooleanSetting(
+        protoNumber = 102,
+        group = SettingGroup.MISC,
+        privacySafe = true,
+        defaultValue = false,
+        description = "Expose metrics in the Prometheus text format at /metrics",
+    )
+
+    val virtualThreadsEnabled: MutableStateFlow<Boolean> by BooleanSetting(
+        protoNumber = 103,
+        group = SettingGroup.MISC,
+        privacySafe = true,
+        defaultValue = false,
+        requiresRestart = true,
+        description = "Handle requests and their blocking database and filesystem work on virtual threads",
+    )
+
+    val imageCacheSize: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 104,
+        group = SettingGroup.MISC,
+        privacySafe = true,
+        defaultValue = 2048,
+        min = 64,
+        max = 1_048_576,
+        description = "Maximum size in MB of the cached pages and thumbnails, the least recently used ones get deleted first",
+    )
+
+    val readerPrefetchPages: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 105,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = 0,
+        min = 1,
+        max = 20,
+        description = "Number of pages following a read page of a not downloaded chapter that get fetched in the background",
+    )
+
+    val webViewMaxFrameRate: MutableStateFlow<Int> by IntSetting(
+        protoNumber = 106,
+        group = SettingGroup.WEB_VIEW,
+        privacySafe = true,
+        defaultValue = 30,
+        min = 1,
+        max = 60,
+        description = "Maximum number of frames per second sent to the WebView client",
+    )
+
+    val webViewFrameQuality: MutableStateFlow<Double> by DoubleSetting(
+        protoNumber = 107,
+        group = SettingGroup.WEB_VIEW,
+        privacySafe = true,
+        defaultValue = 0.8,
+        min = 0.1,
+        max = 1.0,
+        description = "JPEG quality of the frames sent to WebView clients that support binary frames",
+    )
+
+    val serveTileHeight: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 108,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = 0,
+        min = 1000,
+        max = 30000,
+        description = "Pages taller than this many pixels can be served split into tiles of equal height, at most this tall",
+    )
+
+    val downloadDeduplication: MutableStateFlow<Boolean> by BooleanSetting(
+        protoNumber = 109,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = false,
+        description = "Store identical pages of folder downloads only once, by hardlinking them to a shared copy",
+    )
+
+    val downloadChaptersInParallel: MutableStateFlow<Int> by IntSetting(
+        protoNumber = 110,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = 1,
+        min = 1,
+        max = 10,
+        description = "How many chapters of a single source can be downloaded in parallel, the first queued chapter is prioritized",
+    )
+
+    val downloadChaptersInParallelOverrides: MutableStateFlow<List<String>> by ListSetting<String>(
+        protoNumber = 111,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = emptyList(),
+        itemValidator = { override ->
+            val pkgName = override.substringBefore('=', "")
+            val count = override.substringAfter('=', "").trim().toIntOrNull()
+            if (pkgName.isNotBlank() && count != null && count in 1..10) {
+                null
+            } else {
+                "Expected \"<extension package name>=<1..10>\", got \"$override\""
+            }
+        },
+        typeInfo =
+            SettingsRegistry.PartialTypeInfo(
+                specificType = "List<String>",
+            ),
+        description =
+            "Overrides downloadChaptersInParallel for the sources of an extension, " +
+                "e.g. \"eu.kanade.tachiyomi.extension.en.example=3\"",
+    )
+
+    val downloadBandwidthLimit: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 112,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = 0,
+        min = 16,
+        max = 1_048_576,
+        description = "Maximum bandwidth in KB/s all downloads together may use, pages loaded by readers are not limited",
+    )
+
+    val downloadBandwidthLimitOverrides: MutableStateFlow<List<String>> by ListSetting<String>(
+        protoNumber = 113,
+        group = SettingGroup.DOWNLOADER,
+        privacySafe = true,
+        defaultValue = emptyList(),
+        itemValidator = { override ->
+            val pkgName = override.substringBefore('=', "")
+            val limit = override.substringAfter('=', "").trim().toIntOrNull()
+            if (pkgName.isNotBlank() && limit != null && limit in 16..1_048_576) {
+                null
+            } else {
+                "Expected \"<extension package name>=<16..1048576>\", got \"$override\""
+            }
+        },
+        typeInfo =
+            SettingsRegistry.PartialTypeInfo(
+                specificType = "List<String>",
+            ),
+        description =
+            "Maximum bandwidth in KB/s the downloads of the sources of an extension may use, " +
+                "e.g. \"eu.kanade.tachiyomi.extension.en.example=2048\"",
+    )
+
+    val graphqlMaxQueryDepth: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 114,
+        group = SettingGroup.GRAPHQL,
+        privacySafe = true,
+        defaultValue = 0,
+        min = 5,
+        max = 100,
+        description = "Maximum nesting depth of the fields of a GraphQL operation, introspection fields are not counted",
+    )
+
+    val graphqlMaxQueryCost: MutableStateFlow<Int> by DisableableIntSetting(
+        protoNumber = 115,
+        group = SettingGroup.GRAPHQL,
+        privacySafe = true,
+        defaultValue = 0,
+        min = 1000,
+        max = 100_000_000,
+        description =
+            "Maximum estimated number of fields a GraphQL operation may resolve. " +
+                "Paginated lists count their \"first\" or \"last\" items, other lists count as 50 items",
+    )
+
+    val graphqlOperationTimeout: MutableStateFlow<Duration> by DurationSetting(
+        protoNumber = 116,
+        group = SettingGroup.GRAPHQL,
+        privacySafe = true,
+        defaultValue = 0.seconds,
+        min = 0.seconds,
+        max = 30.minutes,
+        description = "Time after which GraphQL queries and mutations stop resolving further fields, 0s disables the timeout",
+    )
+
     /** ****************************************************************** **/
     /**                                                                    **/
     /**                          Renamed settings                          **/
@@ -18,7 +18,9 @@ enum class SettingGroup(
     OPDS("OPDS"),
     KOREADER_SYNC("KOReader sync"),
     WEB_VIEW("WebView"),
-    SYNCYOMI("SyncYomi")
+    SYNCYOMI("SyncYomi"),
+    TRACKER("Tracker"),
+    GRAPHQL("GraphQL"),
     ;
 
     override fun toString(): String = value
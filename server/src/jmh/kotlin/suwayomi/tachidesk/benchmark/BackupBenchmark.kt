@@ -0,0 +1,92 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.serialization.protobuf.ProtoBuf
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import suwayomi.tachidesk.manga.impl.backup.proto.models.Backup
+import suwayomi.tachidesk.manga.impl.backup.proto.models.BackupCategory
+import suwayomi.tachidesk.manga.impl.backup.proto.models.BackupChapter
+import suwayomi.tachidesk.manga.impl.backup.proto.models.BackupManga
+import suwayomi.tachidesk.manga.impl.backup.proto.models.BackupSource
+import java.util.concurrent.TimeUnit
+
+/**
+ * Encodes and decodes the protobuf of a backup, without the gzip compression.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+open class BackupBenchmark {
+    @Param("100", "1000")
+    @JvmField
+    var mangaCount = 0
+
+    @Param("100")
+    @JvmField
+    var chaptersPerManga = 0
+
+    private lateinit var backup: Backup
+    private lateinit var encodedBackup: ByteArray
+
+    @Setup
+    fun setup() {
+        backup =
+            Backup(
+                backupManga =
+                    (0 until mangaCount).map { mangaIndex ->
+                        BackupManga(
+                            source = mangaIndex % 10L,
+                            url = "/manga/$mangaIndex",
+                            title = "Manga $mangaIndex",
+                            author = "Author ${mangaIndex % 100}",
+                            description = "Description of manga $mangaIndex",
+                            genre = listOf("Action", "Comedy", "Genre ${mangaIndex % 20}"),
+                            thumbnailUrl = "https://example.com/cover/$mangaIndex.jpg",
+                            dateAdded = 1_600_000_000_000L + mangaIndex,
+                            chapters =
+                                (1..chaptersPerManga).map { chapterNumber ->
+                                    BackupChapter(
+                                        url = "/manga/$mangaIndex/chapter/$chapterNumber",
+                                        name = "Chapter $chapterNumber",
+                                        scanlator = "Group ${mangaIndex % 50}",
+                                        read = chapterNumber < chaptersPerManga / 2,
+                                        dateUpload = 1_600_000_000_000L + chapterNumber,
+                                        chapterNumber = chapterNumber.toFloat(),
+                                        sourceOrder = chaptersPerManga - chapterNumber,
+                                    )
+                                },
+                            categories = listOf(mangaIndex % 5),
+                        )
+                    },
+                backupCategories = (0 until 5).map { BackupCategory(name = "Category $it", order = it) },
+                backupSources = (0 until 10L).map { BackupSource(name = "Source $it", sourceId = it) },
+                serverSettings = null,
+            )
+        encodedBackup = ProtoBuf.encodeToByteArray(Backup.serializer(), backup)
+    }
+
+    @Benchmark
+    fun encode(): ByteArray = ProtoBuf.encodeToByteArray(Backup.serializer(), backup)
+
+    @Benchmark
+    fun decode(): Backup = ProtoBuf.decodeFromByteArray(Backup.serializer(), encodedBackup)
+}
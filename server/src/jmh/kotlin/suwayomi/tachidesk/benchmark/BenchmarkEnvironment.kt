@@ -0,0 +1,68 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import suwayomi.tachidesk.test.ApplicationTest
+import suwayomi.tachidesk.test.setLoggingEnabled
+import xyz.nulldev.ts.config.CONFIG_PREFIX
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import java.io.File
+import javax.imageio.ImageIO
+import kotlin.random.Random
+
+/**
+ * Sets up the application with an in-memory database like the tests do, once per forked benchmark JVM.
+ */
+object BenchmarkEnvironment {
+    const val BASE_PATH = "build/tmp/jmh"
+
+    private var initialized = false
+
+    @Synchronized
+    fun setup() {
+        if (initialized) {
+            return
+        }
+
+        System.setProperty("$CONFIG_PREFIX.server.rootDir", File(BASE_PATH).absolutePath)
+        ApplicationTest.testingSetup()
+        ApplicationTest.databaseSetup()
+        setLoggingEnabled(false)
+
+        initialized = true
+    }
+
+    /**
+     * @param format an informal name of the image format, e.g. "jpg" or "png"
+     * @return an image of noise, to get the size of a typical page
+     */
+    fun createImage(
+        format: String,
+        width: Int = 800,
+        height: Int = 1200,
+        seed: Int = 0,
+    ): ByteArray {
+        val random = Random(seed)
+        val image = BufferedImage(width, height, BufferedImage.TYPE_INT_RGB)
+        val graphics = image.createGraphics()
+        for (x in 0 until width step 8) {
+            for (y in 0 until height step 8) {
+                graphics.color = Color(random.nextInt(0xFFFFFF))
+                graphics.fillRect(x, y, 8, 8)
+            }
+        }
+        graphics.dispose()
+
+        return ByteArrayOutputStream().use {
+            ImageIO.write(image, format, it)
+            it.toByteArray()
+        }
+    }
+}
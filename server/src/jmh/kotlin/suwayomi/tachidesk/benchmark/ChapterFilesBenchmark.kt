@@ -0,0 +1,153 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.local.LocalSource
+import kotlinx.coroutines.runBlocking
+import kotlinx.serialization.json.JsonObject
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.insertAndGetId
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import suwayomi.tachidesk.manga.impl.Page
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
+import suwayomi.tachidesk.manga.impl.download.fileProvider.ChaptersFilesProvider
+import suwayomi.tachidesk.manga.impl.download.fileProvider.impl.ArchiveProvider
+import suwayomi.tachidesk.manga.impl.download.fileProvider.impl.FolderProvider
+import suwayomi.tachidesk.manga.impl.util.getChapterCbzPath
+import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath
+import suwayomi.tachidesk.manga.impl.util.lang.EMPTY
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.test.clearTables
+import suwayomi.tachidesk.test.createChapters
+import java.io.File
+import java.util.concurrent.TimeUnit
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+/**
+ * Reads the pages of a downloaded chapter like serving them to a reader does, i.e. with a new provider per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class ChapterFilesBenchmark {
+    @Param("folder", "archive")
+    @JvmField
+    var format = ""
+
+    @Param("true", "false")
+    @JvmField
+    var withManifest = false
+
+    @Param("50")
+    @JvmField
+    var pageCount = 0
+
+    private var mangaId = 0
+    private var chapterId = 0
+    private var pageIndex = 0
+
+    @Setup
+    fun setup() {
+        BenchmarkEnvironment.setup()
+
+        mangaId =
+            transaction {
+                MangaTable
+                    .insertAndGetId {
+                        it[title] = "Benchmark"
+                        it[url] = "benchmark"
+                        it[sourceReference] = LocalSource.ID
+                        it[inLibrary] = true
+                        it[memo] = JsonObject.EMPTY
+                    }.value
+            }
+        createChapters(mangaId, 1, false)
+        chapterId =
+            transaction {
+                ChapterTable
+                    .select(ChapterTable.id)
+                    .where { ChapterTable.manga eq mangaId }
+                    .first()[ChapterTable.id]
+                    .value
+            }
+
+        val images = (0 until pageCount).map { BenchmarkEnvironment.createImage("jpg", seed = it) }
+        runBlocking {
+            if (format == "folder") {
+                val folder = File(getChapterDownloadPath(mangaId, chapterId))
+                folder.mkdirs()
+                images.forEachIndexed { index, image ->
+                    File(folder, "${Page.getPageName(index, pageCount)}.jpg").writeBytes(image)
+                }
+            } else {
+                val cbz = File(getChapterCbzPath(mangaId, chapterId))
+                cbz.parentFile.mkdirs()
+                ZipOutputStream(cbz.outputStream()).use { zip ->
+                    images.forEachIndexed { index, image ->
+                        zip.putNextEntry(ZipEntry("${Page.getPageName(index, pageCount)}.jpg"))
+                        zip.write(image)
+                        zip.closeEntry()
+                    }
+                }
+            }
+
+            if (withManifest) {
+                DownloadManifest.record(mangaId, chapterId, withHash = false)
+            } else {
+                DownloadManifest.remove(chapterId)
+            }
+        }
+    }
+
+    private fun createProvider(): ChaptersFilesProvider<*> =
+        if (format == "folder") {
+            FolderProvider(mangaId, chapterId)
+        } else {
+            ArchiveProvider(mangaId, chapterId)
+        }
+
+    @Benchmark
+    fun getImage(): Int {
+        pageIndex = (pageIndex + 1) % pageCount
+
+        return runBlocking {
+            createProvider()
+                .getImageImpl(pageIndex)
+                .first
+                .use { it.readAllBytes().size }
+        }
+    }
+
+    @TearDown
+    fun tearDown() {
+        DownloadManifest.remove(chapterId)
+        runBlocking {
+            File(getChapterDownloadPath(mangaId, chapterId)).deleteRecursively()
+            File(getChapterCbzPath(mangaId, chapterId)).delete()
+        }
+        clearTables(ChapterTable, MangaTable)
+    }
+}
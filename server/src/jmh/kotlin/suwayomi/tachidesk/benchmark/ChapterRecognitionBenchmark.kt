@@ -0,0 +1,47 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.util.chapter.ChapterRecognition
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class ChapterRecognitionBenchmark {
+    private val mangaTitle = "Mokushiroku Alice"
+
+    /** Names of the different patterns the recognition handles */
+    private val chapterNames =
+        listOf(
+            "Mokushiroku Alice Vol.1 Ch. 4: Misrepresentation",
+            "Bleach 567: Down With Snowwhite",
+            "Mokushiroku Alice Vol.1 Ch.4.5: Misrepresentation",
+            "Prison School 12 v.1 vol004 version1243 volume64",
+            "One Piece 12 special",
+            "Chapter 101.a",
+            "Vol.12 Ch.123 extra",
+            "Episode 7 - The Beginning",
+            "Oneshot",
+        )
+
+    @Benchmark
+    fun parseChapterNumber(): Double = chapterNames.sumOf { ChapterRecognition.parseChapterNumber(mangaTitle, it) }
+}
@@ -0,0 +1,84 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.network.NetworkHelper
+import eu.kanade.tachiyomi.network.PersistentCookieStore
+import okhttp3.Cookie
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import uy.kohesive.injekt.Injekt
+import uy.kohesive.injekt.api.get
+import java.util.concurrent.TimeUnit
+
+/**
+ * Looks up the cookies of a request, happens for every request of the sources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class CookieStoreBenchmark {
+    /** Number of domains with stored cookies */
+    @Param("10", "1000")
+    @JvmField
+    var domains = 0
+
+    private lateinit var cookieStore: PersistentCookieStore
+    private lateinit var urls: List<HttpUrl>
+    private var urlIndex = 0
+
+    @Setup
+    fun setup() {
+        BenchmarkEnvironment.setup()
+
+        cookieStore = Injekt.get<NetworkHelper>().cookieStore
+        cookieStore.removeAll()
+
+        urls = (0 until domains).map { "https://www.site$it.example/manga/$it".toHttpUrl() }
+        urls.forEach { url ->
+            cookieStore.addAll(
+                url,
+                listOf("session", "cf_clearance", "preferences").map { name ->
+                    Cookie
+                        .Builder()
+                        .domain(url.host)
+                        .name(name)
+                        .value("value of $name")
+                        .build()
+                },
+            )
+        }
+    }
+
+    @Benchmark
+    fun get(): List<Cookie> {
+        urlIndex = (urlIndex + 1) % urls.size
+
+        return cookieStore.get(urls[urlIndex])
+    }
+
+    @TearDown
+    fun tearDown() {
+        cookieStore.removeAll()
+    }
+}
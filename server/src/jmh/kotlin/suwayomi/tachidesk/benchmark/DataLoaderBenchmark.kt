@@ -0,0 +1,91 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import com.expediagroup.graphql.dataloader.KotlinDataLoader
+import graphql.GraphQLContext
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import suwayomi.tachidesk.graphql.dataLoaders.ChapterFlagCountForMangaDataLoader
+import suwayomi.tachidesk.graphql.dataLoaders.ChaptersForMangaDataLoader
+import suwayomi.tachidesk.graphql.dataLoaders.LastReadChapterForMangaDataLoader
+import suwayomi.tachidesk.graphql.dataLoaders.MangaChapterStats
+import suwayomi.tachidesk.graphql.types.ChapterNodeList
+import suwayomi.tachidesk.graphql.types.ChapterType
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.test.clearTables
+import suwayomi.tachidesk.test.createChapters
+import suwayomi.tachidesk.test.createLibraryManga
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs the batch functions of the data loaders the library screen uses for a page of manga.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class DataLoaderBenchmark {
+    /** Number of manga loaded in one batch */
+    @Param("50", "500")
+    @JvmField
+    var batchSize = 0
+
+    @Param("100")
+    @JvmField
+    var chaptersPerManga = 0
+
+    private lateinit var mangaIds: List<Int>
+
+    private val graphQLContext = GraphQLContext.newContext().build()
+
+    @Setup
+    fun setup() {
+        BenchmarkEnvironment.setup()
+
+        mangaIds =
+            (0 until batchSize).map { index ->
+                createLibraryManga("Manga $index").also { createChapters(it, chaptersPerManga, index % 2 == 0) }
+            }
+    }
+
+    private fun <V> load(dataLoader: KotlinDataLoader<Int, V>): List<V> {
+        val loader = dataLoader.getDataLoader(graphQLContext)
+        val result = loader.loadMany(mangaIds)
+        loader.dispatch()
+
+        return result.join()
+    }
+
+    @Benchmark
+    fun chaptersForManga(): List<ChapterNodeList> = load(ChaptersForMangaDataLoader())
+
+    @Benchmark
+    fun chapterFlagCountForManga(): List<MangaChapterStats> = load(ChapterFlagCountForMangaDataLoader())
+
+    @Benchmark
+    fun lastReadChapterForManga(): List<ChapterType?> = load(LastReadChapterForMangaDataLoader())
+
+    @TearDown
+    fun tearDown() {
+        clearTables(ChapterTable, MangaTable)
+    }
+}
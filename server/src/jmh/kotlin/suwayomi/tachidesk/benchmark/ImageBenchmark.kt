@@ -0,0 +1,81 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import suwayomi.tachidesk.graphql.types.DownloadConversion
+import suwayomi.tachidesk.manga.impl.Page
+import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
+import java.io.ByteArrayInputStream
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class ImageTypeBenchmark {
+    @Param("jpg", "png", "gif")
+    @JvmField
+    var format = ""
+
+    private lateinit var image: ByteArray
+
+    @Setup
+    fun setup() {
+        image = BenchmarkEnvironment.createImage(format)
+    }
+
+    @Benchmark
+    fun findImageType(): ImageUtil.ImageType? = ImageUtil.findImageType(ByteArrayInputStream(image))
+}
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+open class ImageConversionBenchmark {
+    /** source and target format */
+    @Param("image/jpeg>image/png", "image/png>image/jpeg")
+    @JvmField
+    var conversion = ""
+
+    private lateinit var image: ByteArray
+    private lateinit var sourceMimeType: String
+    private lateinit var target: DownloadConversion
+
+    @Setup
+    fun setup() {
+        BenchmarkEnvironment.setup()
+
+        sourceMimeType = conversion.substringBefore('>')
+        val targetMimeType = conversion.substringAfter('>')
+        image = BenchmarkEnvironment.createImage(sourceMimeType.substringAfter('/'))
+        target = DownloadConversion(targetMimeType, compressionLevel = if (targetMimeType == "image/jpeg") 0.8 else null)
+    }
+
+    @Benchmark
+    fun convertToFormat(): Int =
+        Page
+            .convertToFormat(ByteArrayInputStream(image), sourceMimeType, target)!!
+            .first
+            .use { it.readAllBytes().size }
+}
@@ -0,0 +1,63 @@
+package suwayomi.tachidesk.benchmark
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Fork
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Warmup
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.test.clearTables
+import suwayomi.tachidesk.test.createChapters
+import suwayomi.tachidesk.test.createLibraryManga
+import xyz.nulldev.androidcompat.db.ScrollableResultSet
+import java.util.concurrent.TimeUnit
+
+/**
+ * Wrapping a result set caches all of its rows, like it happens for the queries of the extensions' databases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+open class ScrollableResultSetBenchmark {
+    @Param("100", "10000")
+    @JvmField
+    var rows = 0
+
+    @Setup
+    fun setup() {
+        BenchmarkEnvironment.setup()
+
+        val mangaId = createLibraryManga("Benchmark")
+        createChapters(mangaId, rows, false)
+    }
+
+    @Benchmark
+    fun create(): Int =
+        transaction {
+            exec("SELECT * FROM ${ChapterTable.nameInDatabaseCase()}") { ScrollableResultSet(it).resultSetLength }!!
+        }
+
+    @TearDown
+    fun tearDown() {
+        clearTables(ChapterTable, MangaTable)
+    }
+}
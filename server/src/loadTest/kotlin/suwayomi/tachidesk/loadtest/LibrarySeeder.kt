@@ -0,0 +1,142 @@
+package suwayomi.tachidesk.loadtest
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.serialization.json.JsonObject
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.batchInsert
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.global.impl.GlobalMeta
+import suwayomi.tachidesk.manga.impl.util.lang.EMPTY
+import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
+import suwayomi.tachidesk.manga.model.table.CategoryTable
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import java.time.Instant
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Inserts the library of [LoadTestSource] into the database.
+ *
+ * The library is the same for every run with the same options. It gets reused in case the database already contains
+ * it, the options it got seeded with are stored with it. Delete the data directory of the load test to seed it again.
+ */
+object LibrarySeeder {
+    private val logger = KotlinLogging.logger {}
+
+    private const val MANGAS_PER_TRANSACTION = 200
+    private const val SEED_OPTIONS_META_KEY = "loadtest.seedOptions"
+
+    private fun LoadTestOptions.toSeedOptions(): String =
+        "mangaCount=$mangaCount, chaptersPerManga=$chaptersPerManga, pagesPerChapter=$pagesPerChapter, categoryCount=$categoryCount"
+
+    /**
+     * @throws IllegalStateException in case the database contains a library seeded with other options, comparing runs
+     * with different libraries would be meaningless
+     */
+    fun seed(options: LoadTestOptions) {
+        val seedOptions = options.toSeedOptions()
+        val existingMangaCount =
+            transaction {
+                MangaTable.selectAll().where { MangaTable.sourceReference eq LoadTestSource.ID }.count()
+            }
+        if (existingMangaCount > 0) {
+            // missing in case a previous seeding got aborted
+            val existingSeedOptions = GlobalMeta.getMetaMap()[SEED_OPTIONS_META_KEY]
+            check(existingSeedOptions == seedOptions) {
+                "The database contains a library seeded with other options (${existingSeedOptions ?: "incomplete"}) " +
+                    "than the requested ones ($seedOptions), delete the data directory of the load test to seed it again"
+            }
+
+            logger.info { "Reusing the library of a previous run ($existingMangaCount manga, $seedOptions)" }
+            return
+        }
+
+        logger.info {
+            "Seeding ${options.mangaCount} manga with ${options.chaptersPerManga} chapters each into ${options.categoryCount} categories"
+        }
+        val start = System.nanoTime()
+        val now = Instant.now().epochSecond
+
+        val categoryIds =
+            transaction {
+                CategoryTable
+                    .batchInsert(1..options.categoryCount) {
+                        this[CategoryTable.name] = "Category $it"
+                        this[CategoryTable.order] = it
+                    }.map { it[CategoryTable.id].value }
+            }
+
+        (0 until options.mangaCount).chunked(MANGAS_PER_TRANSACTION).forEach { mangaNumbers ->
+            transaction {
+                val mangaIds =
+                    MangaTable
+                        .batchInsert(mangaNumbers) { mangaNumber ->
+                            val manga = LoadTestSource.mangaOf(mangaNumber)
+                            this[MangaTable.url] = manga.url
+                            this[MangaTable.title] = manga.title
+                            this[MangaTable.author] = manga.author
+                            this[MangaTable.artist] = manga.artist
+                            this[MangaTable.genre] = manga.genre
+                            this[MangaTable.description] = manga.description
+                            this[MangaTable.status] = manga.status
+                            this[MangaTable.thumbnail_url] = manga.thumbnail_url
+                            this[MangaTable.initialized] = true
+                            this[MangaTable.sourceReference] = LoadTestSource.ID
+                            this[MangaTable.inLibrary] = true
+                            this[MangaTable.inLibraryAt] = now - mangaNumber
+                            this[MangaTable.lastFetchedAt] = now
+                            this[MangaTable.chaptersLastFetchedAt] = now
+                            this[MangaTable.memo] = JsonObject.EMPTY
+                        }.map { it[MangaTable.id].value }
+                val mangas = mangaNumbers.zip(mangaIds)
+
+                if (categoryIds.isNotEmpty()) {
+                    CategoryMangaTable.batchInsert(mangas, shouldReturnGeneratedValues = false) { (mangaNumber, mangaId) ->
+                        this[CategoryMangaTable.category] = categoryIds[mangaNumber % categoryIds.size]
+                        this[CategoryMangaTable.manga] = mangaId
+                    }
+                }
+
+                val chapters =
+                    mangas.flatMap { (mangaNumber, mangaId) ->
+                        (1..options.chaptersPerManga).map { chapterNumber -> Triple(mangaNumber, mangaId, chapterNumber) }
+                    }
+                ChapterTable.batchInsert(chapters, shouldReturnGeneratedValues = false) { (mangaNumber, mangaId, chapterNumber) ->
+                    val chapter = LoadTestSource.chapterOf(mangaNumber, chapterNumber)
+                    // a part of each manga has been read already, the unread chapters have never been opened
+                    val isRead = chapterNumber <= mangaNumber % options.chaptersPerManga
+                    this[ChapterTable.url] = chapter.url
+                    this[ChapterTable.name] = chapter.name
+                    this[ChapterTable.chapter_number] = chapter.chapter_number
+                    this[ChapterTable.date_upload] = chapter.date_upload
+                    this[ChapterTable.scanlator] = chapter.scanlator
+                    this[ChapterTable.sourceOrder] = chapterNumber
+                    this[ChapterTable.isRead] = isRead
+                    this[ChapterTable.lastPageRead] = if (isRead) options.pagesPerChapter - 1 else 0
+                    this[ChapterTable.lastReadAt] = if (isRead) now - chapterNumber else 0
+                    this[ChapterTable.pageCount] = if (isRead) options.pagesPerChapter else -1
+                    this[ChapterTable.fetchedAt] = now
+                    this[ChapterTable.manga] = mangaId
+                    this[ChapterTable.memo] = JsonObject.EMPTY
+                }
+            }
+
+            val seeded = mangaNumbers.last() + 1
+            if (seeded % (MANGAS_PER_TRANSACTION * 25) == 0) {
+                logger.info { "Seeded $seeded/${options.mangaCount} manga" }
+            }
+        }
+
+        GlobalMeta.modifyMeta(SEED_OPTIONS_META_KEY, seedOptions)
+
+        logger.info { "Seeded the library in ${(System.nanoTime() - start).nanoseconds}" }
+    }
+}
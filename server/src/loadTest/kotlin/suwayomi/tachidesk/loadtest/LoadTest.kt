@@ -0,0 +1,72 @@
+package suwayomi.tachidesk.loadtest
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.runBlocking
+import suwayomi.tachidesk.graphql.server.GraphQLSchemaProvider
+import suwayomi.tachidesk.server.JavalinSetup.javalinSetup
+import suwayomi.tachidesk.server.applicationSetup
+import suwayomi.tachidesk.server.util.ExitCode
+import suwayomi.tachidesk.server.util.shutdownApp
+import java.net.ServerSocket
+import kotlin.system.exitProcess
+
+private val logger = KotlinLogging.logger {}
+
+private const val PORT_PROPERTY = "suwayomi.tachidesk.config.server.port"
+
+/**
+ * Starts the server with a generated library and measures the latencies of concurrent API requests, see
+ * [LoadTestOptions] and [TrafficDriver].
+ *
+ * Started via `./gradlew :server:loadTest`, the database can be changed via the database settings, e.g.
+ * `-Dsuwayomi.tachidesk.config.server.databaseType=POSTGRESQL`. `./gradlew :server:loadTestVirtualThreads` runs it with
+ * both thread modes (`server.virtualThreadsEnabled`) and lists their throughput and p99 latencies side by side.
+ */
+fun main() {
+    val options = LoadTestOptions.fromSystemProperties()
+
+    val port = System.getProperty(PORT_PROPERTY)?.toIntOrNull() ?: ServerSocket(0).use { it.localPort }
+    System.setProperty(PORT_PROPERTY, port.toString())
+
+    GraphQLSchemaProvider.init()
+    applicationSetup()
+    javalinSetup()
+
+    LoadTestSource.register(options)
+    try {
+        LibrarySeeder.seed(options)
+    } catch (e: IllegalStateException) {
+        logger.error { e.message }
+        exitProcess(1)
+    }
+
+    val report = runBlocking { TrafficDriver(options, "http://127.0.0.1:$port").run() }
+    logger.info { "Results:\n${report.format()}" }
+
+    options.report?.let {
+        report.writeTo(it)
+        logger.info { "Wrote the report to $it" }
+    }
+
+    options.compareWith?.let {
+        logger.info { "Compared to $it:\n${report.formatComparison(LoadTestReport.readFrom(it))}" }
+    }
+
+    val regressions =
+        options.baseline
+            ?.let { report.findRegressions(LoadTestReport.readFrom(it), options.maxRegression) }
+            .orEmpty()
+    if (regressions.isNotEmpty()) {
+        logger.error { "Slower than the baseline ${options.baseline}:\n${regressions.joinToString("\n")}" }
+        exitProcess(1)
+    }
+
+    shutdownApp(ExitCode.Success)
+}
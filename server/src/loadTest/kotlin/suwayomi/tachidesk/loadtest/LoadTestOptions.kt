@@ -0,0 +1,67 @@
+package suwayomi.tachidesk.loadtest
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import java.io.File
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Configured via system properties prefixed with "loadtest.", e.g. `-Ploadtest.mangaCount=50000` when started via the
+ * gradle task.
+ */
+data class LoadTestOptions(
+    val mangaCount: Int,
+    val chaptersPerManga: Int,
+    val pagesPerChapter: Int,
+    val categoryCount: Int,
+    /** Clients opening chapters, loading their pages and reporting the progress */
+    val readers: Int,
+    /** Clients paging through the library like the WebUI does */
+    val libraryClients: Int,
+    /** Clients paging through the OPDS feeds */
+    val opdsClients: Int,
+    /** Whether a global update gets started at the beginning of the measurement */
+    val libraryUpdate: Boolean,
+    /** Simulated response time of the source */
+    val sourceLatency: Duration,
+    val warmup: Duration,
+    val duration: Duration,
+    val report: File?,
+    /** A report of a previous run, the run fails in case it is slower by more than [maxRegression] */
+    val baseline: File?,
+    val maxRegression: Double,
+    /** A report of a previous run, e.g. with the other thread mode, its throughput and latencies get listed next to this run */
+    val compareWith: File?,
+) {
+    companion object {
+        private const val PREFIX = "loadtest."
+
+        private fun property(name: String): String? = System.getProperty(PREFIX + name)?.takeIf { it.isNotBlank() }
+
+        fun fromSystemProperties(): LoadTestOptions =
+            LoadTestOptions(
+                mangaCount = property("mangaCount")?.toInt() ?: 20_000,
+                chaptersPerManga = property("chaptersPerManga")?.toInt() ?: 100,
+                pagesPerChapter = property("pagesPerChapter")?.toInt() ?: 20,
+                categoryCount = property("categoryCount")?.toInt() ?: 10,
+                readers = property("readers")?.toInt() ?: 64,
+                libraryClients = property("libraryClients")?.toInt() ?: 16,
+                opdsClients = property("opdsClients")?.toInt() ?: 16,
+                libraryUpdate = property("libraryUpdate")?.toBooleanStrict() ?: true,
+                sourceLatency = property("sourceLatencyMs")?.toLong()?.milliseconds ?: 50.milliseconds,
+                warmup = property("warmupSeconds")?.toLong()?.seconds ?: 15.seconds,
+                duration = property("durationSeconds")?.toLong()?.seconds ?: 60.seconds,
+                report = property("report")?.let(::File),
+                baseline = property("baseline")?.let(::File),
+                maxRegression = property("maxRegression")?.toDouble() ?: 0.2,
+                compareWith = property("compareWith")?.let(::File),
+            )
+    }
+}
@@ -0,0 +1,162 @@
+package suwayomi.tachidesk.loadtest
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration
+
+@Serializable
+data class RequestStats(
+    val name: String,
+    val requests: Int,
+    val errors: Int,
+    /** Requests per second */
+    val throughput: Double,
+    val p50Ms: Double,
+    val p90Ms: Double,
+    val p99Ms: Double,
+    val maxMs: Double,
+)
+
+@Serializable
+data class LoadTestReport(
+    val mangaCount: Int,
+    val chaptersPerManga: Int,
+    val clients: Int,
+    val durationSeconds: Long,
+    val requests: List<RequestStats>,
+    /** Null in case there was no update or it didn't finish during the measurement */
+    val libraryUpdateSeconds: Double?,
+    /** Whether the web requests got handled on virtual threads, see `server.virtualThreadsEnabled` */
+    val virtualThreads: Boolean = false,
+) {
+    private val threadMode: String
+        get() = if (virtualThreads) "virtual threads" else "platform threads"
+
+    fun format(): String =
+        buildString {
+            appendLine("thread mode: $threadMode")
+            appendLine(
+                "%-28s %9s %7s %9s %9s %9s %9s %9s"
+                    .format("request", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms"),
+            )
+            requests.forEach {
+                appendLine(
+                    "%-28s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f"
+                        .format(it.name, it.requests, it.errors, it.throughput, it.p50Ms, it.p90Ms, it.p99Ms, it.maxMs),
+                )
+            }
+            append("library update: ${libraryUpdateSeconds?.let { "%.1f s".format(it) } ?: "-"}")
+        }
+
+    /**
+     * @return a description of each request that got slower than in the [baseline] by more than [maxRegression]
+     */
+    fun findRegressions(
+        baseline: LoadTestReport,
+        maxRegression: Double,
+    ): List<String> {
+        val baselineByName = baseline.requests.associateBy { it.name }
+
+        return requests.flatMap { stats ->
+            val baselineStats = baselineByName[stats.name] ?: return@flatMap emptyList()
+
+            listOfNotNull(
+                "${stats.name}: p99 ${stats.p99Ms} ms, was ${baselineStats.p99Ms} ms"
+                    .takeIf { stats.p99Ms > baselineStats.p99Ms * (1 + maxRegression) },
+                "${stats.name}: ${stats.throughput} req/s, was ${baselineStats.throughput} req/s"
+                    .takeIf { stats.throughput < baselineStats.throughput * (1 - maxRegression) },
+                "${stats.name}: ${stats.errors} errors, was ${baselineStats.errors}"
+                    .takeIf { stats.errors > baselineStats.errors },
+            )
+        }
+    }
+
+    /**
+     * Lists the throughput and p99 latency of each request next to the ones of [other], e.g. a run with the other thread
+     * mode
+     */
+    fun formatComparison(other: LoadTestReport): String =
+        buildString {
+            val otherByName = other.requests.associateBy { it.name }
+
+            appendLine("%-28s %18s %18s %18s %18s".format("request", "req/s", "req/s", "p99 ms", "p99 ms"))
+            appendLine("%-28s %18s %18s %18s %18s".format("", other.threadMode, threadMode, other.threadMode, threadMode))
+            requests.forEach { stats ->
+                val otherStats = otherByName[stats.name] ?: return@forEach
+                appendLine(
+                    "%-28s %18.1f %18.1f %18.1f %18.1f"
+                        .format(stats.name, otherStats.throughput, stats.throughput, otherStats.p99Ms, stats.p99Ms),
+                )
+            }
+            append(
+                "library update: ${other.libraryUpdateSeconds?.let { "%.1f s".format(it) } ?: "-"} / " +
+                    (libraryUpdateSeconds?.let { "%.1f s".format(it) } ?: "-"),
+            )
+        }
+
+    fun writeTo(file: File) {
+        file.parentFile?.mkdirs()
+        file.writeText(json.encodeToString(this))
+    }
+
+    companion object {
+        private val json = Json { prettyPrint = true }
+
+        fun readFrom(file: File): LoadTestReport = json.decodeFromString(file.readText())
+    }
+}
+
+/**
+ * Collects the latencies of the requests while [isRecording], requests of the warmup are dropped.
+ */
+class LatencyRecorder {
+    @Volatile
+    var isRecording = false
+
+    private val latencies = ConcurrentHashMap<String, ConcurrentLinkedQueue<Long>>()
+    private val errors = ConcurrentHashMap<String, AtomicInteger>()
+
+    fun record(
+        name: String,
+        nanos: Long,
+    ) {
+        if (isRecording) {
+            latencies.getOrPut(name) { ConcurrentLinkedQueue() }.add(nanos)
+        }
+    }
+
+    fun recordError(name: String) {
+        if (isRecording) {
+            errors.getOrPut(name) { AtomicInteger() }.incrementAndGet()
+        }
+    }
+
+    fun getStats(elapsed: Duration): List<RequestStats> =
+        (latencies.keys + errors.keys).sorted().map { name ->
+            val sorted = latencies[name].orEmpty().sorted()
+            fun percentile(percentile: Double): Double =
+                if (sorted.isEmpty()) 0.0 else sorted[((sorted.size - 1) * percentile).toInt()] / 1_000_000.0
+
+            RequestStats(
+                name = name,
+                requests = sorted.size,
+                errors = errors[name]?.get() ?: 0,
+                throughput = sorted.size / (elapsed.inWholeMilliseconds / 1000.0),
+                p50Ms = percentile(0.50),
+                p90Ms = percentile(0.90),
+                p99Ms = percentile(0.99),
+                maxMs = percentile(1.0),
+            )
+        }
+}
@@ -0,0 +1,220 @@
+package suwayomi.tachidesk.loadtest
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.network.GET
+import eu.kanade.tachiyomi.source.model.FilterList
+import eu.kanade.tachiyomi.source.model.MangasPage
+import eu.kanade.tachiyomi.source.model.Page
+import eu.kanade.tachiyomi.source.model.SChapter
+import eu.kanade.tachiyomi.source.model.SManga
+import eu.kanade.tachiyomi.source.online.HttpSource
+import okhttp3.Interceptor
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.insert
+import org.jetbrains.exposed.v1.jdbc.insertAndGetId
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.impl.util.source.GetSource
+import suwayomi.tachidesk.manga.model.table.ExtensionTable
+import suwayomi.tachidesk.manga.model.table.SourceTable
+import java.awt.Color
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import java.util.concurrent.TimeUnit
+import javax.imageio.ImageIO
+import kotlin.random.Random
+
+/**
+ * A source that doesn't do any network requests, all responses get generated locally after waiting for the configured
+ * latency of the source.
+ *
+ * The manga and chapters match the ones of [LibrarySeeder]. Each manga has one more chapter than got seeded, thus the
+ * first global update finds a new chapter for every manga.
+ */
+class LoadTestSource(
+    private val options: LoadTestOptions,
+) : HttpSource() {
+    override val name = NAME
+    override val lang = LANG
+    override val id = ID
+    override val supportsLatest = false
+    override val baseUrl = "http://loadtest.invalid"
+
+    override val client: OkHttpClient by lazy {
+        network.client
+            .newBuilder()
+            .addInterceptor(GeneratedResponseInterceptor())
+            .build()
+    }
+
+    override fun popularMangaRequest(page: Int): Request = GET("$baseUrl/popular?page=$page", headers)
+
+    override fun popularMangaParse(response: Response): MangasPage {
+        val page = response.request.url.queryParameter("page")!!.toInt()
+        val mangaNumbers = ((page - 1) * MANGAS_PER_PAGE until page * MANGAS_PER_PAGE).filter { it < options.mangaCount }
+
+        return MangasPage(
+            mangaNumbers.map { mangaOf(it) },
+            hasNextPage = page * MANGAS_PER_PAGE < options.mangaCount,
+        )
+    }
+
+    override fun searchMangaRequest(
+        page: Int,
+        query: String,
+        filters: FilterList,
+    ): Request = popularMangaRequest(page)
+
+    override fun searchMangaParse(response: Response): MangasPage = popularMangaParse(response)
+
+    override fun mangaDetailsParse(response: Response): SManga = mangaOf(mangaNumberOf(response.request))
+
+    override fun chapterListParse(response: Response): List<SChapter> {
+        val mangaNumber = mangaNumberOf(response.request)
+
+        return (options.chaptersPerManga + 1 downTo 1).map { chapterOf(mangaNumber, it) }
+    }
+
+    override fun pageListParse(response: Response): List<Page> {
+        val chapterPath = response.request.url.encodedPath
+
+        return (0 until options.pagesPerChapter).map { Page(it, imageUrl = "$baseUrl/image$chapterPath/$it.jpg") }
+    }
+
+    override fun imageUrlParse(response: Response): String = throw UnsupportedOperationException()
+
+    private fun mangaNumberOf(request: Request): Int = request.url.pathSegments[1].toInt()
+
+    private inner class GeneratedResponseInterceptor : Interceptor {
+        override fun intercept(chain: Interceptor.Chain): Response {
+            Thread.sleep(options.sourceLatency.inWholeMilliseconds)
+
+            val request = chain.request()
+            val body =
+                if (request.url.pathSegments.first() == "image") {
+                    images[request.url.hashCode().mod(images.size)].toResponseBody("image/jpeg".toMediaType())
+                } else {
+                    // the responses get parsed from the request url
+                    "".toResponseBody("text/html".toMediaType())
+                }
+
+            return Response
+                .Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .body(body)
+                .build()
+        }
+    }
+
+    companion object {
+        const val ID = 1_000_000_000_000L
+        const val NAME = "Load test"
+        const val LANG = "en"
+
+        private const val MANGAS_PER_PAGE = 20
+        private const val IMAGE_VARIANTS = 8
+        private const val IMAGE_WIDTH = 800
+        private const val IMAGE_HEIGHT = 1200
+
+        /** Noise, to get the size of a typical page instead of a few bytes for a single color */
+        private val images: List<ByteArray> by lazy {
+            val random = Random(0)
+            (0 until IMAGE_VARIANTS).map {
+                val image = BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB)
+                val graphics = image.createGraphics()
+                for (x in 0 until IMAGE_WIDTH step 8) {
+                    for (y in 0 until IMAGE_HEIGHT step 8) {
+                        graphics.color = Color(random.nextInt(0xFFFFFF))
+                        graphics.fillRect(x, y, 8, 8)
+                    }
+                }
+                graphics.dispose()
+
+                ByteArrayOutputStream().use { output ->
+                    ImageIO.write(image, "jpg", output)
+                    output.toByteArray()
+                }
+            }
+        }
+
+        fun mangaUrl(mangaNumber: Int) = "/manga/$mangaNumber"
+
+        fun chapterUrl(
+            mangaNumber: Int,
+            chapterNumber: Int,
+        ) = "/manga/$mangaNumber/chapter/$chapterNumber"
+
+        fun mangaOf(mangaNumber: Int): SManga =
+            SManga.create().apply {
+                url = mangaUrl(mangaNumber)
+                title = "Manga $mangaNumber"
+                author = "Author ${mangaNumber % 500}"
+                artist = author
+                genre = "Genre ${mangaNumber % 20}, Genre ${mangaNumber % 7 + 20}"
+                description = "Generated manga $mangaNumber of the load test"
+                status = mangaNumber % 3 + 1
+                thumbnail_url = "http://loadtest.invalid/image/cover/$mangaNumber.jpg"
+                initialized = true
+            }
+
+        fun chapterOf(
+            mangaNumber: Int,
+            chapterNumber: Int,
+        ): SChapter =
+            SChapter.create().apply {
+                url = chapterUrl(mangaNumber, chapterNumber)
+                name = "Chapter $chapterNumber"
+                chapter_number = chapterNumber.toFloat()
+                date_upload = uploadDateOf(chapterNumber)
+                scanlator = "Group ${mangaNumber % 50}"
+            }
+
+        fun uploadDateOf(chapterNumber: Int): Long = 1_600_000_000_000L + TimeUnit.DAYS.toMillis(chapterNumber.toLong())
+
+        fun register(options: LoadTestOptions) {
+            transaction {
+                val sourceRecord = SourceTable.selectAll().where { SourceTable.id eq ID }.firstOrNull()
+
+                if (sourceRecord == null) {
+                    // must do this to avoid database integrity errors
+                    val extensionId =
+                        ExtensionTable.insertAndGetId {
+                            it[apkName] = "loadTestSource"
+                            it[name] = NAME
+                            it[pkgName] = LoadTestSource::class.java.`package`.name
+                            it[versionName] = "1.0"
+                            it[versionCode] = 0
+                            it[lang] = LANG
+                            it[extensionLib] = "1.5"
+                            it[contentWarning] = 0
+                            it[isInstalled] = true
+                        }
+
+                    SourceTable.insert {
+                        it[id] = ID
+                        it[name] = NAME
+                        it[lang] = LANG
+                        it[extension] = extensionId
+                    }
+                }
+            }
+
+            GetSource.registerSource(ID to LoadTestSource(options))
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package suwayomi.tachidesk.loadtest
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.future.await
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.boolean
+import kotlinx.serialization.json.buildJsonObject
+import kotlinx.serialization.json.int
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.put
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.model.table.CategoryTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.server.util.ServerDispatchers
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.Executors
+import kotlin.random.Random
+import kotlin.time.Duration.Companion.nanoseconds
+import kotlin.time.Duration.Companion.seconds
+import kotlin.time.toJavaDuration
+
+/**
+ * Simulates the clients of a server with a large library:
+ * - readers open a chapter, load its pages and report the reading progress, like the WebUI reader does
+ * - library clients page through the library and the categories
+ * - OPDS clients follow the pages of the series feed and open the chapter feeds
+ *
+ * Optionally a global update runs at the same time.
+ */
+class TrafficDriver(
+    private val options: LoadTestOptions,
+    private val baseUrl: String,
+) {
+    private val logger = KotlinLogging.logger {}
+
+    private val recorder = LatencyRecorder()
+
+    private val http =
+        HttpClient
+            .newBuilder()
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .connectTimeout(10.seconds.toJavaDuration())
+            .build()
+
+    private lateinit var mangaIds: List<Int>
+    private lateinit var categoryIds: List<Int>
+
+    private data class ChapterNode(
+        val id: Int,
+        val sourceOrder: Int,
+    )
+
+    suspend fun run(): LoadTestReport =
+        coroutineScope {
+            transaction {
+                mangaIds =
+                    MangaTable
+                        .select(MangaTable.id)
+                        .where { MangaTable.sourceReference eq LoadTestSource.ID }
+                        .map { it[MangaTable.id].value }
+                categoryIds = CategoryTable.selectAll().map { it[CategoryTable.id].value }
+            }
+
+            val clients =
+                launch {
+                    repeat(options.readers) { launch { runClient(Random(it), ::reader) } }
+                    repeat(options.libraryClients) { launch { runClient(Random(it + 10_000), ::libraryClient) } }
+                    repeat(options.opdsClients) { launch { runClient(Random(it + 20_000), ::opdsClient) } }
+                }
+
+            logger.info { "Warming up for ${options.warmup}" }
+            delay(options.warmup)
+
+            logger.info { "Measuring for ${options.duration}" }
+            recorder.isRecording = true
+            val start = System.nanoTime()
+
+            var libraryUpdateSeconds: Double? = null
+            val libraryUpdate =
+                if (options.libraryUpdate) {
+                    launch {
+                        libraryUpdateSeconds = runLibraryUpdate()?.let { it / 1_000_000_000.0 }
+                    }
+                } else {
+                    null
+                }
+
+            delay(options.duration)
+            recorder.isRecording = false
+            val elapsed = (System.nanoTime() - start).nanoseconds
+
+            clients.cancelAndJoin()
+            libraryUpdate?.cancelAndJoin()
+
+            LoadTestReport(
+                mangaCount = mangaIds.size,
+                chaptersPerManga = options.chaptersPerManga,
+                clients = options.readers + options.libraryClients + options.opdsClients,
+                durationSeconds = elapsed.inWholeSeconds,
+                requests = recorder.getStats(elapsed),
+                libraryUpdateSeconds = libraryUpdateSeconds,
+                virtualThreads = ServerDispatchers.virtualThreadsEnabled,
+            )
+        }
+
+    private suspend fun runClient(
+        random: Random,
+        session: suspend (Random) -> Unit,
+    ) = coroutineScope {
+        while (isActive) {
+            try {
+                session(random)
+            } catch (e: Exception) {
+                if (e is CancellationException) throw e
+                logger.debug(e) { "Session failed" }
+            }
+            // think time
+            delay(random.nextLong(50, 250))
+        }
+    }
+
+    private suspend fun reader(random: Random) {
+        val mangaId = mangaIds.random(random)
+        val chapters =
+            graphQL(
+                "graphql: chapters",
+                CHAPTERS_QUERY,
+                buildJsonObject { put("mangaId", mangaId) },
+            )?.get("chapters")
+                ?.jsonObject
+                ?.get("nodes")
+                ?.jsonArray
+                ?.map {
+                    ChapterNode(it.jsonObject["id"]!!.jsonPrimitive.int, it.jsonObject["sourceOrder"]!!.jsonPrimitive.int)
+                }
+        val chapter = chapters?.randomOrNull(random) ?: return
+
+        repeat(minOf(options.pagesPerChapter, PAGES_READ_PER_SESSION)) { page ->
+            get("rest: page", "/api/v1/manga/$mangaId/chapter/${chapter.sourceOrder}/page/$page")
+            graphQL(
+                "graphql: reading progress",
+                PROGRESS_MUTATION,
+                buildJsonObject {
+                    put("id", chapter.id)
+                    put("lastPageRead", page)
+                },
+            )
+        }
+    }
+
+    private suspend fun libraryClient(random: Random) {
+        val pages = random.nextInt(1, 6)
+        repeat(pages) { page ->
+            graphQL(
+                "graphql: library",
+                LIBRARY_QUERY,
+                buildJsonObject { put("offset", page * LIBRARY_PAGE_SIZE) },
+            )
+        }
+
+        if (categoryIds.isNotEmpty()) {
+            get("rest: category", "/api/v1/category/${categoryIds.random(random)}")
+        }
+    }
+
+    private suspend fun opdsClient(random: Random) {
+        val pages = random.nextInt(1, 6)
+        for (page in 1..pages) {
+            get("opds: library series", "/api/opds/v1.2/library/series?pageNumber=$page")
+        }
+
+        get("opds: series chapters", "/api/opds/v1.2/series/${mangaIds.random(random)}/chapters")
+    }
+
+    /**
+     * @return the nanoseconds it took to update the library, null in case it didn't finish
+     */
+    private suspend fun runLibraryUpdate(): Long? {
+        val start = System.nanoTime()
+        send("rest: start update", request("/api/v1/update/fetch").POST(HttpRequest.BodyPublishers.noBody()))
+            ?: return null
+
+        // give the updater some time to fill the queue
+        delay(1.seconds)
+        while (true) {
+            val summary = get("rest: update summary", "/api/v1/update/summary") ?: return null
+            if (!Json.parseToJsonElement(summary).jsonObject["running"]!!.jsonPrimitive.boolean) {
+                return System.nanoTime() - start
+            }
+            delay(1.seconds)
+        }
+    }
+
+    private fun request(path: String): HttpRequest.Builder =
+        HttpRequest
+            .newBuilder(URI.create(baseUrl + path))
+            .timeout(60.seconds.toJavaDuration())
+
+    private suspend fun get(
+        name: String,
+        path: String,
+    ): String? = send(name, request(path).GET())
+
+    /**
+     * @return the data of the response, null in case of errors
+     */
+    private suspend fun graphQL(
+        name: String,
+        query: String,
+        variables: JsonObject,
+    ): JsonObject? {
+        val body =
+            buildJsonObject {
+                put("query", query)
+                put("variables", variables)
+            }
+        val response =
+            send(
+                name,
+                request("/api/graphql")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body.toString())),
+            ) ?: return null
+
+        return Json.parseToJsonElement(response).jsonObject["data"]?.jsonObject
+    }
+
+    /**
+     * @return the body of the response, null in case of errors
+     */
+    private suspend fun send(
+        name: String,
+        request: HttpRequest.Builder,
+    ): String? {
+        val start = System.nanoTime()
+        try {
+            val response = http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString()).await()
+            val body = response.body()
+
+            // graphql reports errors with status 200
+            val isGraphQLError = name.startsWith("graphql") && "\"errors\"" in body
+            if (response.statusCode() !in 200..299 || isGraphQLError) {
+                recorder.recordError(name)
+                logger.debug { "$name failed with ${response.statusCode()}: ${body.take(500)}" }
+                return null
+            }
+
+            recorder.record(name, System.nanoTime() - start)
+            return body
+        } catch (e: Exception) {
+            if (e is CancellationException) throw e
+            recorder.recordError(name)
+            logger.debug(e) { "$name failed" }
+            return null
+        }
+    }
+
+    companion object {
+        private const val PAGES_READ_PER_SESSION = 5
+        private const val LIBRARY_PAGE_SIZE = 50
+
+        private val LIBRARY_QUERY =
+            """
+            query Library(${'$'}offset: Int!) {
+              mangas(condition: { inLibrary: true }, first: $LIBRARY_PAGE_SIZE, offset: ${'$'}offset) {
+                totalCount
+                nodes { id title thumbnailUrl unreadCount categories { nodes { id } } }
+              }
+            }
+            """.trimIndent()
+
+        private val CHAPTERS_QUERY =
+            """
+            query Chapters(${'$'}mangaId: Int!) {
+              chapters(condition: { mangaId: ${'$'}mangaId }, order: [{ by: SOURCE_ORDER, byType: DESC }], first: 50) {
+                nodes { id sourceOrder isRead lastPageRead }
+              }
+            }
+            """.trimIndent()
+
+        private val PROGRESS_MUTATION =
+            """
+            mutation Progress(${'$'}id: Int!, ${'$'}lastPageRead: Int!) {
+              updateChapter(input: { id: ${'$'}id, patch: { lastPageRead: ${'$'}lastPageRead } }) {
+                chapter { id lastPageRead }
+              }
+            }
+            """.trimIndent()
+    }
+}
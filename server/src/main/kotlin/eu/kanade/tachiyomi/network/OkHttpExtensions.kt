@@ -1,5 +1,6 @@
 package eu.kanade.tachiyomi.network
 
+import eu.kanade.tachiyomi.network.interceptor.RateLimitScheduler
 import kotlinx.coroutines.suspendCancellableCoroutine
 import kotlinx.serialization.DeserializationStrategy
 import kotlinx.serialization.json.Json
@@ -11,6 +12,7 @@ import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Response
+import okio.Source
 import rx.Observable
 import rx.Producer
 import rx.Subscription
@@ -75,6 +77,16 @@ fun Call.asObservableSuccess(): Observable<Response> {
 // Based on https://github.com/square/okhttp/blob/master/okhttp-coroutines/src/main/kotlin/okhttp3/coroutines/ExecuteAsync.kt
 // and https://github.com/gildor/kotlin-coroutines-okhttp
 private suspend fun Call.await(callStack: Array<StackTraceElement>): Response {
+    // wait for the rate limits by suspending instead of blocking an OkHttp dispatcher thread in the interceptor
+    RateLimitScheduler.reserve(this)
+    try {
+        return awaitResponse(callStack)
+    } finally {
+        RateLimitScheduler.releaseReservations(this)
+    }
+}
+
+private suspend fun Call.awaitResponse(callStack: Array<StackTraceElement>): Response {
     return suspendCancellableCoroutine { continuation ->
         continuation.invokeOnCancellation {
             try {
@@ -129,6 +141,7 @@ suspend fun Call.awaitSuccess(): Response {
 fun OkHttpClient.newCachelessCallWithProgress(
     request: Request,
     listener: ProgressListener,
+    throttle: (Source) -> Source = { it },
 ): Call {
     val progressClient =
         newBuilder()
@@ -137,7 +150,7 @@ fun OkHttpClient.newCachelessCallWithProgress(
                 val originalResponse = chain.proceed(chain.request())
                 originalResponse
                     .newBuilder()
-                    .body(ProgressResponseBody(originalResponse.body, listener))
+                    .body(ProgressResponseBody(originalResponse.body, listener, throttle))
                     .build()
             }.build()
 
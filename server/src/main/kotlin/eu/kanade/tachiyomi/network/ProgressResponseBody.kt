@@ -12,9 +12,10 @@ import java.io.IOException
 class ProgressResponseBody(
     private val responseBody: ResponseBody,
     private val progressListener: ProgressListener,
+    private val throttle: (Source) -> Source = { it },
 ) : ResponseBody() {
     private val bufferedSource: BufferedSource by lazy {
-        source(responseBody.source()).buffer()
+        source(throttle(responseBody.source())).buffer()
     }
 
     override fun contentType(): MediaType? = responseBody.contentType()
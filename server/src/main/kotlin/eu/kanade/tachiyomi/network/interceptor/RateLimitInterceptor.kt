@@ -1,12 +1,9 @@
 package eu.kanade.tachiyomi.network.interceptor
 
-import android.os.SystemClock
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
 import okhttp3.Response
 import java.io.IOException
-import java.util.ArrayDeque
-import java.util.concurrent.Semaphore
 import java.util.concurrent.TimeUnit
 import kotlin.time.Duration
 import kotlin.time.Duration.Companion.seconds
@@ -56,77 +53,28 @@ fun OkHttpClient.Builder.rateLimit(
 ) = addInterceptor(RateLimitInterceptor(null, permits, period))
 
 /** We can probably accept domains or wildcards by comparing with [endsWith], etc. */
-@Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
 internal class RateLimitInterceptor(
-    private val host: String?,
-    private val permits: Int,
+    host: String?,
+    permits: Int,
     period: Duration,
 ) : Interceptor {
-    private val requestQueue = ArrayDeque<Long>(permits)
-    private val rateLimitMillis = period.inWholeMilliseconds
-    private val fairLock = Semaphore(1, true)
+    val bucket = RateLimitBucket(host, permits, period)
 
     override fun intercept(chain: Interceptor.Chain): Response {
         val call = chain.call()
         if (call.isCanceled()) throw IOException("Canceled")
 
         val request = chain.request()
-        when (host) {
-            // need rate limit
-            null, request.url.host -> {}
-
-            else -> {
-                return chain.proceed(request)
-            }
-        }
-
-        try {
-            fairLock.acquire()
-        } catch (e: InterruptedException) {
-            throw IOException(e)
+        if (!bucket.appliesTo(request.url.host)) {
+            return chain.proceed(request)
         }
 
-        val requestQueue = this.requestQueue
-        val timestamp: Long
-
-        try {
-            synchronized(requestQueue) {
-                while (requestQueue.size >= permits) { // queue is full, remove expired entries
-                    val periodStart = SystemClock.elapsedRealtime() - rateLimitMillis
-                    var hasRemovedExpired = false
-                    while (requestQueue.isEmpty().not() && requestQueue.first <= periodStart) {
-                        requestQueue.removeFirst()
-                        hasRemovedExpired = true
-                    }
-                    if (call.isCanceled()) {
-                        throw IOException("Canceled")
-                    } else if (hasRemovedExpired) {
-                        break
-                    } else {
-                        try {
-                            // wait for the first entry to expire, or notified by cached response
-                            (requestQueue as Object).wait(requestQueue.first - periodStart)
-                        } catch (_: InterruptedException) {
-                            continue
-                        }
-                    }
-                }
-
-                // add request to queue
-                timestamp = SystemClock.elapsedRealtime()
-                requestQueue.addLast(timestamp)
-            }
-        } finally {
-            fairLock.release()
-        }
+        // suspending calls already waited for their slot before getting enqueued
+        val slot = RateLimitScheduler.consumeReservation(call, bucket) ?: bucket.acquireBlocking(call)
 
         val response = chain.proceed(request)
-        if (response.networkResponse == null) { // response is cached, remove it from queue
-            synchronized(requestQueue) {
-                if (requestQueue.isEmpty() || timestamp < requestQueue.first()) return@synchronized
-                requestQueue.removeFirstOccurrence(timestamp)
-                (requestQueue as Object).notifyAll()
-            }
+        if (response.networkResponse == null) { // response is cached, give back the slot
+            bucket.release(slot)
         }
 
         return response
@@ -0,0 +1,340 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+import eu.kanade.tachiyomi.source.Source
+import eu.kanade.tachiyomi.source.online.HttpSource
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.delay
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import okhttp3.internal.connection.RealCall
+import java.io.IOException
+import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Sliding window rate limit of a single [RateLimitInterceptor].
+ *
+ * Allows at most [permits] requests within any [period]. Callers reserve their slot upfront (first come, first served)
+ * and then wait for it without holding any lock, either by suspending ([acquire]) or, for synchronous calls, by
+ * sleeping ([acquireBlocking]). Low priority requests don't queue, they only take slots that can be spared
+ * ([tryReserveSpare]).
+ */
+internal class RateLimitBucket(
+    val host: String?,
+    permits: Int,
+    period: Duration,
+) {
+    data class Stats(
+        val host: String?,
+        val requestHosts: Set<String>,
+        val queueDepth: Int,
+        val requests: Long,
+        val delayedRequests: Long,
+        val totalWait: Duration,
+        val maxWait: Duration,
+    )
+
+    private val permits = permits.coerceAtLeast(1)
+    private val periodNanos = period.inWholeNanoseconds.coerceAtLeast(1)
+
+    /**
+     * The reserved slots ([System.nanoTime]) of the last [period] and the future, in ascending order.
+     *
+     * Every slot is at least [period] after the slot [permits] positions before it, thus any [period] contains at most
+     * [permits] slots. Giving back a slot keeps this true.
+     */
+    private val slots = ArrayDeque<Long>()
+
+    private val requestHosts = ConcurrentHashMap.newKeySet<String>()
+    private val queueDepth = AtomicInteger()
+    private val requests = AtomicLong()
+    private val delayedRequests = AtomicLong()
+    private val totalWaitNanos = AtomicLong()
+    private val maxWaitNanos = AtomicLong()
+
+    init {
+        RateLimitScheduler.register(this)
+    }
+
+    fun appliesTo(requestHost: String): Boolean = host == null || host == requestHost
+
+    /** Must be called while holding the lock of the bucket */
+    private fun getNextSlot(now: Long): Long {
+        // slots that ended before the window of the next slot can't limit it anymore
+        while (slots.isNotEmpty() && slots.first() <= now - periodNanos) {
+            slots.removeFirst()
+        }
+
+        if (slots.size < permits) {
+            return maxOf(now, slots.lastOrNull() ?: now)
+        }
+
+        return maxOf(now, slots.last(), slots[slots.size - permits] + periodNanos)
+    }
+
+    /**
+     * Reserves the next slot.
+     *
+     * @return the reserved slot, to be passed to [release] in case it does not get used
+     */
+    @Synchronized
+    internal fun reserve(now: Long = System.nanoTime()): Long = getNextSlot(now).also { slots.addLast(it) }
+
+    /**
+     * Reserves a slot for a low priority request, only in case it is free right now, no other request waits for its slot
+     * and another slot of the period stays free for the other requests.
+     *
+     * @return the reserved slot, null in case no slot can be spared
+     */
+    @Synchronized
+    internal fun tryReserveSpare(now: Long = System.nanoTime()): Long? {
+        if (queueDepth.get() > 0) {
+            return null
+        }
+
+        val slot = getNextSlot(now)
+        val freeSlots = permits - slots.size
+        if (slot > now || freeSlots < minOf(SPARED_SLOTS + 1, permits)) {
+            return null
+        }
+
+        slots.addLast(slot)
+        return slot
+    }
+
+    /**
+     * Gives back a reserved slot, e.g. in case the response was served from the cache or the call got canceled.
+     */
+    @Synchronized
+    fun release(slot: Long) {
+        slots.remove(slot)
+    }
+
+    @Synchronized
+    fun getEstimatedWait(): Duration {
+        val now = System.nanoTime()
+        return (getNextSlot(now) - now).nanoseconds
+    }
+
+    private fun recordWait(
+        requestHost: String,
+        waitNanos: Long,
+    ) {
+        requestHosts.add(requestHost)
+        requests.incrementAndGet()
+        if (waitNanos > 0) {
+            delayedRequests.incrementAndGet()
+            totalWaitNanos.addAndGet(waitNanos)
+            maxWaitNanos.accumulateAndGet(waitNanos) { current, new -> maxOf(current, new) }
+        }
+    }
+
+    /**
+     * Suspends until a reserved slot is reached.
+     *
+     * @param isLowPriority whether the request only takes spare slots, see [RateLimitScheduler.LowPriority]
+     * @return the reserved slot
+     */
+    suspend fun acquire(
+        requestHost: String,
+        isLowPriority: () -> Boolean = { false },
+    ): Long {
+        val start = System.nanoTime()
+        // checked again while waiting, the request might not be low priority anymore
+        while (isLowPriority()) {
+            val slot = tryReserveSpare()
+            if (slot != null) {
+                recordWait(requestHost, slot - start)
+                return slot
+            }
+
+            delay(maxOf(getEstimatedWait(), SPARE_SLOT_CHECK_INTERVAL))
+        }
+
+        val slot = reserve()
+        val waitNanos = (slot - System.nanoTime()).coerceAtLeast(0)
+        recordWait(requestHost, waitNanos)
+        if (waitNanos == 0L) {
+            return slot
+        }
+
+        queueDepth.incrementAndGet()
+        try {
+            delay(waitNanos.nanoseconds)
+        } catch (e: CancellationException) {
+            release(slot)
+            throw e
+        } finally {
+            queueDepth.decrementAndGet()
+        }
+
+        return slot
+    }
+
+    /**
+     * Blocks until a reserved slot is reached.
+     *
+     * @return the reserved slot
+     */
+    fun acquireBlocking(call: Call): Long {
+        val requestHost = call.request().url.host
+        val slot = reserve()
+        val waitNanos = (slot - System.nanoTime()).coerceAtLeast(0)
+        recordWait(requestHost, waitNanos)
+        if (waitNanos == 0L) {
+            return slot
+        }
+
+        queueDepth.incrementAndGet()
+        try {
+            val waitUntil = System.nanoTime() + waitNanos
+            while (true) {
+                if (call.isCanceled()) {
+                    release(slot)
+                    throw IOException("Canceled")
+                }
+
+                val remaining = waitUntil - System.nanoTime()
+                if (remaining <= 0) {
+                    break
+                }
+
+                try {
+                    // wake up regularly to react to the call getting canceled
+                    TimeUnit.NANOSECONDS.sleep(minOf(remaining, CANCEL_CHECK_INTERVAL.inWholeNanoseconds))
+                } catch (e: InterruptedException) {
+                    release(slot)
+                    throw IOException(e)
+                }
+            }
+        } finally {
+            queueDepth.decrementAndGet()
+        }
+
+        return slot
+    }
+
+    fun getStats(): Stats =
+        Stats(
+            host = host,
+            requestHosts = requestHosts.toSet(),
+            queueDepth = queueDepth.get(),
+            requests = requests.get(),
+            delayedRequests = delayedRequests.get(),
+            totalWait = totalWaitNanos.get().nanoseconds,
+            maxWait = maxWaitNanos.get().nanoseconds,
+        )
+
+    companion object {
+        private val CANCEL_CHECK_INTERVAL = 100.milliseconds
+        private val SPARE_SLOT_CHECK_INTERVAL = 100.milliseconds
+
+        /** The free slots of a period low priority requests leave to the other requests */
+        private const val SPARED_SLOTS = 1
+    }
+}
+
+/**
+ * Coordinates the [RateLimitBucket]s of all rate limited clients.
+ *
+ * Calls made via the suspending [eu.kanade.tachiyomi.network.await] reserve their slots before they get enqueued and
+ * suspend until then, so no OkHttp dispatcher thread is blocked by a rate limit. [RateLimitInterceptor] only has to
+ * wait itself for calls that were executed synchronously.
+ */
+object RateLimitScheduler {
+    /**
+     * Marks the requests of a coroutine as low priority while [isLowPriority] returns true, e.g. the pages of chapters
+     * that get downloaded next to the first chapter of a source.
+     *
+     * Low priority requests never queue for a slot of a rate limit and thus never delay other requests, they only take
+     * slots that are free right now and leave a free slot to the other requests.
+     */
+    class LowPriority(
+        val isLowPriority: () -> Boolean,
+    ) : AbstractCoroutineContextElement(Key) {
+        companion object Key : CoroutineContext.Key<LowPriority>
+    }
+
+    private val buckets = Collections.synchronizedSet(Collections.newSetFromMap(WeakHashMap<RateLimitBucket, Boolean>()))
+    private val reservations = ConcurrentHashMap<Call, MutableMap<RateLimitBucket, Long>>()
+
+    internal fun register(bucket: RateLimitBucket) {
+        buckets.add(bucket)
+    }
+
+    private fun getBuckets(client: OkHttpClient): List<RateLimitBucket> =
+        client.interceptors.filterIsInstance<RateLimitInterceptor>().map { it.bucket }
+
+    /**
+     * Suspends until all rate limits of the call's client that apply to its request have a free slot, low priority
+     * requests (see [LowPriority]) wait for spare slots.
+     *
+     * The reserved slots get consumed by the [RateLimitInterceptor]s once the call gets executed, unused ones have to be
+     * given back via [releaseReservations].
+     */
+    suspend fun reserve(call: Call) {
+        val client = (call as? RealCall)?.client ?: return
+        val requestHost = call.request().url.host
+        val callBuckets = getBuckets(client).filter { it.appliesTo(requestHost) }
+        if (callBuckets.isEmpty()) {
+            return
+        }
+
+        val isLowPriority = currentCoroutineContext()[LowPriority]?.isLowPriority ?: { false }
+        val reserved = ConcurrentHashMap<RateLimitBucket, Long>()
+        try {
+            callBuckets.forEach { bucket ->
+                reserved[bucket] = bucket.acquire(requestHost, isLowPriority)
+            }
+        } catch (e: CancellationException) {
+            reserved.forEach { (bucket, slot) -> bucket.release(slot) }
+            throw e
+        }
+
+        reservations[call] = reserved
+    }
+
+    /**
+     * @return the slot the call reserved in the bucket, null in case it did not reserve one
+     */
+    internal fun consumeReservation(
+        call: Call,
+        bucket: RateLimitBucket,
+    ): Long? = reservations[call]?.remove(bucket)
+
+    fun releaseReservations(call: Call) {
+        reservations.remove(call)?.forEach { (bucket, slot) -> bucket.release(slot) }
+    }
+
+    /**
+     * The time a request of [client] would currently have to wait for its slot.
+     */
+    fun getEstimatedWait(client: OkHttpClient): Duration = getBuckets(client).maxOfOrNull { it.getEstimatedWait() } ?: Duration.ZERO
+
+    fun getEstimatedWait(source: Source?): Duration = (source as? HttpSource)?.client?.let(::getEstimatedWait) ?: Duration.ZERO
+
+    /**
+     * Suspends until requests of [source] would not get delayed by its rate limits.
+     */
+    suspend fun awaitCapacity(source: Source?) {
+        while (true) {
+            val wait = getEstimatedWait(source)
+            if (wait <= Duration.ZERO) {
+                return
+            }
+            delay(wait)
+        }
+    }
+
+    internal fun getStats(): List<RateLimitBucket.Stats> = synchronized(buckets) { buckets.map { it.getStats() } }
+}
@@ -16,6 +16,7 @@ import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Response
 import rx.Observable
+import suwayomi.tachidesk.manga.impl.download.DownloadBandwidth
 import suwayomi.tachidesk.manga.impl.util.lang.awaitSingle
 import uy.kohesive.injekt.injectLazy
 import java.net.URI
@@ -420,7 +421,7 @@ abstract class HttpSource : CatalogueSource {
 
     suspend fun getImage(page: Page): Response =
         client
-            .newCachelessCallWithProgress(imageRequest(page), page)
+            .newCachelessCallWithProgress(imageRequest(page), page, DownloadBandwidth.getThrottle(id))
             .awaitSuccess()
 
     /**
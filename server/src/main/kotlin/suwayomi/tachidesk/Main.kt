@@ -7,13 +7,32 @@ package suwayomi.tachidesk
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
+import kotlinx.coroutines.runBlocking
 import suwayomi.tachidesk.graphql.server.GraphQLSchemaProvider
 import suwayomi.tachidesk.server.JavalinSetup.javalinSetup
 import suwayomi.tachidesk.server.applicationSetup
+import suwayomi.tachidesk.server.util.ExitCode
+import suwayomi.tachidesk.server.util.StartupTimeline
+import suwayomi.tachidesk.server.util.shutdownApp
+
+/**
+ * Exits as soon as the server got started, used to record the loaded classes for the AppCDS archive
+ */
+private const val EXIT_AFTER_STARTUP_PROPERTY = "suwayomi.tachidesk.exitAfterStartup"
 
 fun main() {
+    StartupTimeline.mark("JVM startup")
+
     // Trigger graphql schema generation as early as possible, takes multiple seconds, delaying the javalin startup otherwise
     GraphQLSchemaProvider.init()
     applicationSetup()
     javalinSetup()
+
+    StartupTimeline.mark("Web server")
+    StartupTimeline.report()
+
+    if (System.getProperty(EXIT_AFTER_STARTUP_PROPERTY).toBoolean()) {
+        runBlocking { GraphQLSchemaProvider.getSchema() }
+        shutdownApp(ExitCode.Success)
+    }
 }
@@ -2,6 +2,7 @@ package suwayomi.tachidesk.global.impl
 
 import eu.kanade.tachiyomi.network.NetworkHelper
 import io.github.oshai.kotlinlogging.KotlinLogging
+import io.javalin.websocket.WsContext
 import kotlinx.coroutines.runBlocking
 import kotlinx.serialization.SerialName
 import kotlinx.serialization.Serializable
@@ -39,18 +40,17 @@ import java.awt.event.InputEvent
 import java.awt.event.KeyEvent
 import java.awt.event.MouseEvent
 import java.awt.event.MouseWheelEvent
-import java.awt.image.BufferedImage
-import java.awt.image.DataBufferInt
-import java.io.ByteArrayOutputStream
 import java.nio.ByteBuffer
-import java.nio.ByteOrder
 import java.util.Date
-import javax.imageio.ImageIO
 import javax.swing.JPanel
 
 class KcefWebView {
     private val logger = KotlinLogging.logger {}
     private val renderHandler = RenderHandler()
+    private val frameStreamer =
+        WebViewFrameStreamer(
+            encodeJsonFrame = { image -> Json.encodeToString<Event>(RenderEvent(image)) },
+        )
     private var kcefClient: CefClient? = null
     private var browser: CefBrowser? = null
     private var width = 1000
@@ -225,8 +225,6 @@ class KcefWebView {
     // Loosely based on
     // https://github.com/JetBrains/jcef/blob/main/java/org/cef/browser/CefBrowserOsr.java
     private inner class RenderHandler : CefRenderHandlerAdapter() {
-        var myImage: BufferedImage? = null
-
         override fun getViewRect(browser: CefBrowser): Rectangle = Rectangle(0, 0, width, height)
 
         override fun onPaint(
@@ -237,28 +235,7 @@ class KcefWebView {
             width: Int,
             height: Int,
         ) {
-            var image = myImage ?: BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE)
-
-            if (image.width != width || image.height != height) {
-                image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE)
-            }
-
-            val dst = (image.raster.getDataBuffer() as DataBufferInt).getData()
-            val src = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
-            src.get(dst)
-
-            myImage = image
-            val stream = ByteArrayOutputStream()
-            val success = ImageIO.write(myImage, "png", stream)
-            if (!success) {
-                throw IllegalStateException("Failed to convert image to PNG")
-            }
-
-            WebView.notifyAllClients(
-                Json.encodeToString<Event>(
-                    RenderEvent(stream.toByteArray()),
-                ),
-            )
+            frameStreamer.onPaint(dirtyRects, buffer, width, height)
         }
     }
 
@@ -294,6 +271,7 @@ class KcefWebView {
 
     fun destroy() {
         flush()
+        frameStreamer.stop()
         browser?.close(true)
         browser?.dispose()
         browser = null
@@ -301,6 +279,28 @@ class KcefWebView {
         kcefClient = null
     }
 
+    fun onClientConnected(ctx: WsContext) {
+        frameStreamer.onClientConnected(ctx)
+    }
+
+    fun onClientDisconnected(ctx: WsContext) {
+        frameStreamer.onClientDisconnected(ctx)
+    }
+
+    fun enableBinaryFrames(
+        ctx: WsContext,
+        enabled: Boolean,
+    ) {
+        frameStreamer.enableBinaryFrames(ctx, enabled)
+    }
+
+    fun acknowledgeFrame(
+        ctx: WsContext,
+        sequence: Int,
+    ) {
+        frameStreamer.onAck(ctx, sequence)
+    }
+
     fun loadUrl(url: String) {
         browser?.close(true)
         browser?.dispose()
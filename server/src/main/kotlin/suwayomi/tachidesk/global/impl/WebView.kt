@@ -16,18 +16,23 @@ object WebView : Websocket<String>() {
     override fun addClient(ctx: WsContext) {
         if (clients.isNotEmpty()) {
             // TODO: allow multiple concurrent accesses?
-            clients.forEach { it.value.closeSession(CloseStatus(1001, "Other client connected")) }
+            clients.forEach {
+                driver?.onClientDisconnected(it.value)
+                it.value.closeSession(CloseStatus(1001, "Other client connected"))
+            }
             clients.clear()
         }
         if (driver == null) {
             driver = KcefWebView()
         }
+        driver?.onClientConnected(ctx)
         super.addClient(ctx)
         ctx.enableAutomaticPings()
     }
 
     override fun removeClient(ctx: WsContext) {
         super.removeClient(ctx)
+        driver?.onClientDisconnected(ctx)
         if (clients.isEmpty()) {
             driver?.destroy()
             driver = null
@@ -93,6 +98,19 @@ object WebView : Websocket<String>() {
     @SerialName("ping")
     class JsPingMessage : TypeObject()
 
+    /** Switches to binary frames, see [WebViewFrameStreamer] */
+    @Serializable
+    @SerialName("binaryFrames")
+    private data class BinaryFramesMessage(
+        val enabled: Boolean = true,
+    ) : TypeObject()
+
+    @Serializable
+    @SerialName("frameAck")
+    private data class FrameAckMessage(
+        val sequence: Int,
+    ) : TypeObject()
+
     override fun handleRequest(ctx: WsMessageContext) {
         val dr = driver ?: return
         try {
@@ -124,6 +142,14 @@ object WebView : Websocket<String>() {
                 is JsPingMessage -> {
                     notifyAllClients("{\"type\":\"pong\"}")
                 }
+
+                is BinaryFramesMessage -> {
+                    dr.enableBinaryFrames(ctx, event.enabled)
+                }
+
+                is FrameAckMessage -> {
+                    dr.acknowledgeFrame(ctx, event.sequence)
+                }
             }
         } catch (e: Exception) {
             logger.warn(e) { "Failed to deserialize client request: ${ctx.message()}" }
@@ -0,0 +1,333 @@
+package suwayomi.tachidesk.global.impl
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.javalin.websocket.WsContext
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import suwayomi.tachidesk.server.serverConfig
+import java.awt.Rectangle
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferInt
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ConcurrentHashMap
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageWriteParam
+import javax.imageio.stream.MemoryCacheImageOutputStream
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Sends the frames painted by the [KcefWebView] to the client.
+ *
+ * Painting only copies the changed regions into the frame, encoding and sending happens on a separate coroutine,
+ * limited to [serverConfig.webViewMaxFrameRate]. Regions that change while a frame gets sent are merged into the
+ * next frame.
+ *
+ * By default, the whole frame gets sent as a PNG in a JSON "render" event. Clients that sent a "binaryFrames" message
+ * instead receive binary websocket messages that only contain the changed regions as JPEGs:
+ * ```
+ * u8  version (1)
+ * u32 sequence number
+ * u16 frame width, u16 frame height
+ * u16 region count
+ * per region: u16 x, u16 y, u16 width, u16 height, u32 length, JPEG bytes
+ * ```
+ * (big endian). These clients have to acknowledge each frame with a "frameAck" message containing its sequence number,
+ * at most [MAX_FRAMES_IN_FLIGHT] frames get sent without being acknowledged, thus slow clients get fewer frames.
+ *
+ * The protocol and the acknowledged frames are tracked per client, thus the frames get encoded per client.
+ */
+class WebViewFrameStreamer(
+    private val encodeJsonFrame: (ByteArray) -> String,
+) {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    private val lock = Any()
+
+    /** guarded by [lock] */
+    private var frame: BufferedImage? = null
+
+    /**
+     * The protocol, the acknowledged frames and the changed regions of a connected client, every client gets its own
+     * frames since they depend on both
+     */
+    private class Client(
+        val ctx: WsContext,
+    ) {
+        @Volatile
+        var binaryFrames = false
+
+        @Volatile
+        var sequence = 0
+
+        @Volatile
+        var acknowledgedSequence = 0
+
+        /** The regions that changed since the last frame sent to the client, guarded by [lock] */
+        val dirtyRegions = mutableListOf<Rectangle>()
+
+        val frameSignal = Channel<Unit>(Channel.CONFLATED)
+        val ackSignal = Channel<Unit>(Channel.CONFLATED)
+
+        var sender: Job? = null
+    }
+
+    private val clients = ConcurrentHashMap<String, Client>()
+
+    companion object {
+        private const val FRAME_VERSION: Byte = 1
+        private const val MAX_FRAMES_IN_FLIGHT = 2
+
+        /** Regions get merged into their bounding box in case there are more of them */
+        private const val MAX_REGIONS = 8
+
+        /** Don't wait forever for clients that stopped acknowledging frames */
+        private val ackTimeout = 1.seconds
+    }
+
+    /**
+     * Copies the changed regions of the CEF off-screen buffer, only valid during the paint callback.
+     */
+    fun onPaint(
+        dirtyRects: Array<Rectangle>,
+        buffer: ByteBuffer,
+        width: Int,
+        height: Int,
+    ) {
+        synchronized(lock) {
+            var image = frame
+            val src = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer()
+
+            if (image == null || image.width != width || image.height != height) {
+                image = BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE)
+                src.get((image.raster.dataBuffer as DataBufferInt).data)
+                frame = image
+                clients.values.forEach { client ->
+                    client.dirtyRegions.clear()
+                    client.dirtyRegions.add(Rectangle(0, 0, width, height))
+                }
+            } else {
+                val dst = (image.raster.dataBuffer as DataBufferInt).data
+                val bounds = Rectangle(0, 0, width, height)
+                dirtyRects.map { it.intersection(bounds) }.filter { !it.isEmpty }.forEach { rect ->
+                    for (y in rect.y until rect.y + rect.height) {
+                        val offset = y * width + rect.x
+                        src.position(offset)
+                        src.get(dst, offset, rect.width)
+                    }
+                    clients.values.forEach { client -> addDirtyRegion(client.dirtyRegions, rect) }
+                }
+            }
+        }
+
+        clients.values.forEach { it.frameSignal.trySend(Unit) }
+    }
+
+    private fun addDirtyRegion(
+        dirtyRegions: MutableList<Rectangle>,
+        rect: Rectangle,
+    ) {
+        if (dirtyRegions.any { it.contains(rect) }) {
+            return
+        }
+
+        dirtyRegions.removeAll { rect.contains(it) }
+        dirtyRegions.add(rect)
+
+        if (dirtyRegions.size > MAX_REGIONS) {
+            val union = dirtyRegions.reduce { acc, region -> acc.union(region) }
+            dirtyRegions.clear()
+            dirtyRegions.add(union)
+        }
+    }
+
+    /**
+     * Starts sending frames to the client, using the default protocol, beginning with the whole frame.
+     */
+    fun onClientConnected(ctx: WsContext) {
+        val client = Client(ctx)
+        clients.put(ctx.sessionId(), client)?.sender?.cancel()
+        startSender(client)
+        requestFullFrame(client)
+    }
+
+    fun onClientDisconnected(ctx: WsContext) {
+        clients.remove(ctx.sessionId())?.sender?.cancel()
+    }
+
+    /**
+     * Switches the client to binary frames, see [WebViewFrameStreamer]
+     */
+    fun enableBinaryFrames(
+        ctx: WsContext,
+        enabled: Boolean,
+    ) {
+        val client = clients[ctx.sessionId()] ?: return
+        client.binaryFrames = enabled
+        client.acknowledgedSequence = client.sequence
+        requestFullFrame(client)
+    }
+
+    fun onAck(
+        ctx: WsContext,
+        sequence: Int,
+    ) {
+        val client = clients[ctx.sessionId()] ?: return
+        client.acknowledgedSequence = maxOf(client.acknowledgedSequence, sequence)
+        client.ackSignal.trySend(Unit)
+    }
+
+    private fun requestFullFrame(client: Client) {
+        synchronized(lock) {
+            val image = frame ?: return
+            client.dirtyRegions.clear()
+            client.dirtyRegions.add(Rectangle(0, 0, image.width, image.height))
+        }
+
+        client.frameSignal.trySend(Unit)
+    }
+
+    private fun startSender(client: Client) {
+        client.sender =
+            scope.launch {
+                var lastFrameAt = 0L
+                while (isActive) {
+                    client.frameSignal.receive()
+
+                    val minFrameInterval = 1000L / serverConfig.webViewMaxFrameRate.value.coerceAtLeast(1)
+                    delay(lastFrameAt + minFrameInterval - System.currentTimeMillis())
+
+                    if (client.binaryFrames) {
+                        while (client.sequence - client.acknowledgedSequence >= MAX_FRAMES_IN_FLIGHT) {
+                            if (withTimeoutOrNull(ackTimeout) { client.ackSignal.receive() } == null) {
+                                logger.debug { "Frame ${client.sequence} not acknowledged in time" }
+                                client.acknowledgedSequence = client.sequence
+                            }
+                        }
+                    }
+
+                    lastFrameAt = System.currentTimeMillis()
+                    try {
+                        sendFrame(client)
+                    } catch (e: Exception) {
+                        if (e is CancellationException) throw e
+                        logger.warn(e) { "Failed to send frame" }
+                    }
+                }
+            }
+    }
+
+    private fun sendFrame(client: Client) {
+        if (!client.binaryFrames) {
+            val image =
+                synchronized(lock) {
+                    if (client.dirtyRegions.isEmpty()) {
+                        return
+                    }
+                    client.dirtyRegions.clear()
+                    frame?.let { copyRegion(it, Rectangle(0, 0, it.width, it.height), BufferedImage.TYPE_INT_ARGB_PRE) }
+                } ?: return
+
+            val stream = ByteArrayOutputStream()
+            check(ImageIO.write(image, "png", stream)) { "Failed to convert image to PNG" }
+            client.ctx.send(encodeJsonFrame(stream.toByteArray()))
+            return
+        }
+
+        // copy the regions while holding the lock and encode them afterward to not block painting
+        val (frameWidth, frameHeight, regions) =
+            synchronized(lock) {
+                val image = frame ?: return
+                val regions = client.dirtyRegions.map { it to copyRegion(image, it, BufferedImage.TYPE_INT_RGB) }
+                client.dirtyRegions.clear()
+                Triple(image.width, image.height, regions)
+            }
+        if (regions.isEmpty()) {
+            return
+        }
+
+        val encodedRegions = regions.map { (rect, image) -> rect to encodeJpeg(image) }
+        val message =
+            ByteBuffer.allocate(11 + encodedRegions.sumOf { (_, bytes) -> 12 + bytes.size }).apply {
+                put(FRAME_VERSION)
+                putInt(++client.sequence)
+                putShort(frameWidth.toShort())
+                putShort(frameHeight.toShort())
+                putShort(encodedRegions.size.toShort())
+                encodedRegions.forEach { (rect, bytes) ->
+                    putShort(rect.x.toShort())
+                    putShort(rect.y.toShort())
+                    putShort(rect.width.toShort())
+                    putShort(rect.height.toShort())
+                    putInt(bytes.size)
+                    put(bytes)
+                }
+            }
+
+        client.ctx.send(ByteBuffer.wrap(message.array()))
+    }
+
+    private fun copyRegion(
+        image: BufferedImage,
+        rect: Rectangle,
+        type: Int,
+    ): BufferedImage {
+        val copy = BufferedImage(rect.width, rect.height, type)
+        val graphics = copy.createGraphics()
+        try {
+            graphics.drawImage(image.getSubimage(rect.x, rect.y, rect.width, rect.height), 0, 0, null)
+        } finally {
+            graphics.dispose()
+        }
+        return copy
+    }
+
+    private fun encodeJpeg(image: BufferedImage): ByteArray {
+        val writer = ImageIO.getImageWritersByFormatName("jpeg").next()
+        val params =
+            writer.defaultWriteParam.apply {
+                compressionMode = ImageWriteParam.MODE_EXPLICIT
+                compressionQuality = serverConfig.webViewFrameQuality.value.toFloat()
+            }
+
+        val stream = ByteArrayOutputStream()
+        try {
+            MemoryCacheImageOutputStream(stream).use { output ->
+                writer.output = output
+                writer.write(null, IIOImage(image, null, null), params)
+            }
+        } finally {
+            writer.dispose()
+        }
+        return stream.toByteArray()
+    }
+
+    /**
+     * Stops sending frames and drops the current frame.
+     */
+    fun stop() {
+        clients.values.forEach { it.sender?.cancel() }
+        clients.clear()
+        synchronized(lock) {
+            frame = null
+        }
+    }
+}
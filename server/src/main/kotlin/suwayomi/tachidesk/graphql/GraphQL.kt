@@ -21,6 +21,8 @@ object GraphQL {
         // graphql playground
         get("graphql", GraphQLController::playground)
 
+        get("graphql/schema.graphqls", GraphQLController::schema)
+
         path("graphql/files") {
             get("backup/{file}", GraphQLController::retrieveFile)
         }
@@ -0,0 +1,348 @@
+package suwayomi.tachidesk.graphql.cache
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.jetbrains.exposed.v1.core.Column
+import org.jetbrains.exposed.v1.core.EqOp
+import org.jetbrains.exposed.v1.core.Expression
+import org.jetbrains.exposed.v1.core.LiteralOp
+import org.jetbrains.exposed.v1.core.Op
+import org.jetbrains.exposed.v1.core.QueryParameter
+import org.jetbrains.exposed.v1.core.Table
+import org.jetbrains.exposed.v1.core.Transaction
+import org.jetbrains.exposed.v1.core.dao.id.EntityID
+import org.jetbrains.exposed.v1.core.ops.SingleValueInListOp
+import org.jetbrains.exposed.v1.core.statements.BatchInsertStatement
+import org.jetbrains.exposed.v1.core.statements.BatchUpdateStatement
+import org.jetbrains.exposed.v1.core.statements.BatchUpsertStatement
+import org.jetbrains.exposed.v1.core.statements.DeleteStatement
+import org.jetbrains.exposed.v1.core.statements.GlobalStatementInterceptor
+import org.jetbrains.exposed.v1.core.statements.InsertStatement
+import org.jetbrains.exposed.v1.core.statements.Statement
+import org.jetbrains.exposed.v1.core.statements.StatementContext
+import org.jetbrains.exposed.v1.core.statements.StatementType
+import org.jetbrains.exposed.v1.core.statements.UpdateStatement
+import org.jetbrains.exposed.v1.core.statements.UpsertStatement
+import suwayomi.tachidesk.graphql.types.CategoryType
+import suwayomi.tachidesk.graphql.types.MangaType
+import suwayomi.tachidesk.graphql.types.SourceType
+import suwayomi.tachidesk.manga.model.table.CategoryTable
+import suwayomi.tachidesk.manga.model.table.ExtensionTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.SourceTable
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.minutes
+
+/**
+ * Bounded LRU cache for entities of a single type, shared by all GraphQL requests.
+ *
+ * The entries of the rows written by a transaction get dropped as soon as it got committed, all entries in case the
+ * written rows are unknown. Values loaded while such a write was happening don't get cached, since they might already
+ * be outdated.
+ *
+ * @param keyColumns the cached tables with the column containing the keys of the entities, null for tables whose rows
+ * can't be mapped to keys
+ * @param copy copies mutable values, the cache only hands out copies of its values
+ */
+class EntityCacheRegion<K : Any, V : Any>(
+    val name: String,
+    private val keyColumns: Map<Table, Column<*>?>,
+    private val copy: (V) -> V = { it },
+) {
+    data class Stats(
+        val name: String,
+        val size: Int,
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val invalidations: Long,
+    )
+
+    private val entries =
+        object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>?): Boolean {
+                val evict = size > maxSize
+                if (evict) {
+                    evictions.incrementAndGet()
+                }
+                return evict
+            }
+        }
+
+    @Volatile
+    private var maxSize = 0
+    private var generation = 0L
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val evictions = AtomicLong()
+    private val invalidations = AtomicLong()
+
+    val isEnabled: Boolean
+        get() = maxSize > 0
+
+    val tables: Set<Table>
+        get() = keyColumns.keys
+
+    fun getKeyColumn(table: Table): Column<*>? = keyColumns[table]
+
+    @Synchronized
+    fun resize(size: Int) {
+        maxSize = size
+        generation++
+        entries.clear()
+    }
+
+    @Synchronized
+    fun invalidate() {
+        generation++
+        entries.clear()
+        invalidations.incrementAndGet()
+    }
+
+    @Synchronized
+    fun invalidate(keys: Set<Any>) {
+        generation++
+        @Suppress("UNCHECKED_CAST")
+        entries.keys.removeAll(keys as Set<K>)
+        invalidations.incrementAndGet()
+    }
+
+    @Synchronized
+    private fun getCached(keys: List<K>): Pair<Long, Map<K, V>> {
+        val cached = keys.mapNotNull { key -> entries[key]?.let { key to it } }.toMap()
+        return generation to cached
+    }
+
+    @Synchronized
+    private fun putAll(
+        loadedGeneration: Long,
+        values: Map<K, V>,
+    ) {
+        if (loadedGeneration != generation) {
+            return
+        }
+        entries.putAll(values)
+    }
+
+    /**
+     * Returns the values for [keys] in the same order, only loading the keys that are not cached via [load].
+     *
+     * Keys missing in the result of [load] are returned as null and don't get cached.
+     */
+    suspend fun getOrLoad(
+        keys: List<K>,
+        load: suspend (keys: List<K>) -> Map<K, V>,
+    ): List<V?> {
+        if (!isEnabled) {
+            val values = load(keys)
+            return keys.map { values[it] }
+        }
+
+        val (loadedGeneration, cachedValues) = getCached(keys)
+        val cached = cachedValues.mapValues { (_, value) -> copy(value) }
+        hits.addAndGet(cached.size.toLong())
+
+        val missingKeys = keys.filterNot { it in cached }.distinct()
+        if (missingKeys.isEmpty()) {
+            return keys.map { cached[it] }
+        }
+        misses.addAndGet(missingKeys.size.toLong())
+
+        val loaded = load(missingKeys)
+        putAll(loadedGeneration, loaded.mapValues { (_, value) -> copy(value) })
+
+        return keys.map { cached[it] ?: loaded[it] }
+    }
+
+    @Synchronized
+    fun getStats(): Stats = Stats(name, entries.size, hits.get(), misses.get(), evictions.get(), invalidations.get())
+}
+
+/**
+ * Process-wide cache beneath the per-request DataLoaders for the entities the clients poll the most.
+ *
+ * Invalidation is driven by [EntityCacheInvalidator], which sees every committed write, thus mutations as well as
+ * background jobs (library update, downloader, ...) are covered without them having to know about this cache.
+ */
+object EntityCache {
+    private val logger = KotlinLogging.logger {}
+
+    val manga = EntityCacheRegion<Int, MangaType>("manga", mapOf(MangaTable to MangaTable.id), MangaType::copy)
+
+    // the rows of the extension table can't be mapped to the ids of their sources without querying them
+    val source = EntityCacheRegion<Long, SourceType>("source", mapOf(SourceTable to SourceTable.id, ExtensionTable to null))
+    val category = EntityCacheRegion<Int, CategoryType>("category", mapOf(CategoryTable to CategoryTable.id))
+
+    private val regions = listOf(manga, source, category)
+
+    private val cachedTables = regions.flatMap { it.tables }.toSet()
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val statsLogInterval = 15.minutes
+
+    init {
+        serverConfig.subscribeTo(
+            serverConfig.graphqlEntityCacheSize,
+            { size ->
+                logger.debug { "resize to $size" }
+                regions.forEach { it.resize(size) }
+            },
+            ignoreInitialValue = false,
+        )
+
+        scope.launch {
+            while (true) {
+                delay(statsLogInterval)
+                regions.filter { it.isEnabled }.forEach { logger.info { it.getStats() } }
+            }
+        }
+    }
+
+    fun isCached(table: Table): Boolean = table in cachedTables
+
+    fun getKeyColumn(table: Table): Column<*>? = regions.firstNotNullOfOrNull { it.getKeyColumn(table) }
+
+    /**
+     * @param writtenKeys the keys of the written rows per table, null for tables whose written rows are unknown
+     */
+    fun invalidate(writtenKeys: Map<Table, Set<Any>?>) {
+        regions
+            .filter { region -> region.isEnabled && region.tables.any { it in writtenKeys } }
+            .forEach { region ->
+                val keys = region.tables.filter { it in writtenKeys }.map { writtenKeys[it] }
+                if (keys.any { it == null }) {
+                    region.invalidate()
+                } else {
+                    val writtenRegionKeys = keys.flatMap { it.orEmpty() }.toSet()
+                    if (writtenRegionKeys.isNotEmpty()) {
+                        region.invalidate(writtenRegionKeys)
+                    }
+                }
+            }
+    }
+
+    fun getStats(): List<EntityCacheRegion.Stats> = regions.map { it.getStats() }
+}
+
+/**
+ * Collects the keys of the rows of cached tables written by a transaction and invalidates them in the affected
+ * [EntityCache] regions once the transaction got committed.
+ *
+ * The keys are taken from the rows of batch updates and from "id = ?" and "id IN (...)" conditions, new rows don't
+ * invalidate anything. All entries of a region get invalidated for any other write to one of its tables.
+ *
+ * Registered via META-INF/services, thus applied to all transactions.
+ */
+class EntityCacheInvalidator : GlobalStatementInterceptor {
+    /** The written keys per table, null for tables whose written rows are unknown */
+    private val writtenKeysByTransaction = ConcurrentHashMap<Transaction, MutableMap<Table, MutableSet<Any>?>>()
+
+    override fun beforeExecution(
+        transaction: Transaction,
+        context: StatementContext,
+    ) {
+        val statement = context.statement
+        if (statement.type == StatementType.SELECT) {
+            return
+        }
+
+        val writtenTables = statement.targets.filter(EntityCache::isCached)
+        if (writtenTables.isEmpty()) {
+            return
+        }
+
+        val writtenKeys = writtenKeysByTransaction.getOrPut(transaction) { HashMap() }
+        synchronized(writtenKeys) {
+            writtenTables.forEach { table ->
+                val keys = EntityCache.getKeyColumn(table)?.let { getWrittenKeys(statement, it) }
+                if (keys == null) {
+                    writtenKeys[table] = null
+                } else if (table !in writtenKeys) {
+                    writtenKeys[table] = keys.toHashSet()
+                } else {
+                    writtenKeys[table]?.addAll(keys)
+                }
+            }
+        }
+    }
+
+    override fun afterCommit(transaction: Transaction) {
+        val writtenKeys = writtenKeysByTransaction.remove(transaction) ?: return
+        EntityCache.invalidate(synchronized(writtenKeys) { writtenKeys.toMap() })
+    }
+
+    override fun afterRollback(transaction: Transaction) {
+        writtenKeysByTransaction.remove(transaction)
+    }
+
+    /**
+     * @return the keys of the rows the statement writes, null in case they are unknown
+     */
+    private fun getWrittenKeys(
+        statement: Statement<*>,
+        keyColumn: Column<*>,
+    ): Set<Any>? =
+        when (statement) {
+            is BatchUpdateStatement -> {
+                if (statement.table == keyColumn.table) statement.data.map { (id, _) -> id.value }.toSet() else null
+            }
+
+            is UpdateStatement -> {
+                statement.where?.let { getKeys(it, keyColumn) }
+            }
+
+            is DeleteStatement -> {
+                statement.where?.let { getKeys(it, keyColumn) }
+            }
+
+            // might update existing rows
+            is UpsertStatement<*>, is BatchUpsertStatement -> {
+                null
+            }
+
+            // new rows are not cached yet
+            is InsertStatement<*>, is BatchInsertStatement -> {
+                emptySet()
+            }
+
+            else -> {
+                null
+            }
+        }
+
+    private fun getKeys(
+        where: Op<Boolean>,
+        keyColumn: Column<*>,
+    ): Set<Any>? =
+        when {
+            where is EqOp && where.expr1 == keyColumn -> getValue(where.expr2)?.let(::setOf)
+            where is EqOp && where.expr2 == keyColumn -> getValue(where.expr1)?.let(::setOf)
+            where is SingleValueInListOp<*> && where.isInList && where.expr == keyColumn -> {
+                where.list.map { unwrap(it) ?: return null }.toSet()
+            }
+            else -> null
+        }
+
+    private fun getValue(expression: Expression<*>): Any? =
+        when (expression) {
+            is QueryParameter<*> -> unwrap(expression.value)
+            is LiteralOp<*> -> unwrap(expression.value)
+            else -> null
+        }
+
+    private fun unwrap(value: Any?): Any? = if (value is EntityID<*>) value.value else value
+}
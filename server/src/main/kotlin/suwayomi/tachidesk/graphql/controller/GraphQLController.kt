@@ -11,8 +11,11 @@ import io.javalin.http.ContentType
 import io.javalin.http.Context
 import io.javalin.http.HttpStatus
 import io.javalin.websocket.WsConfig
+import suwayomi.tachidesk.graphql.server.GRAPHQL_SCHEMA_RESOURCE
+import suwayomi.tachidesk.graphql.server.GraphQLSchemaProvider
 import suwayomi.tachidesk.graphql.server.TachideskGraphQLServer
 import suwayomi.tachidesk.graphql.server.TemporaryFileStorage
+import suwayomi.tachidesk.graphql.server.toSdl
 import suwayomi.tachidesk.server.JavalinSetup.future
 import kotlin.io.path.inputStream
 
@@ -39,6 +42,22 @@ object GraphQLController {
         ctx.result(javaClass.getResourceAsStream("/graphql-playground.html")!!)
     }
 
+    /** the schema in SDL, for clients generating code from it */
+    fun schema(ctx: Context) {
+        ctx.contentType("text/plain; charset=utf-8")
+
+        val generatedSchema = javaClass.getResourceAsStream(GRAPHQL_SCHEMA_RESOURCE)
+        if (generatedSchema != null) {
+            ctx.result(generatedSchema)
+            return
+        }
+
+        // e.g. running from the IDE without the schema having been generated
+        ctx.future {
+            future { GraphQLSchemaProvider.getSchema().toSdl() }.thenApply { ctx.result(it) }
+        }
+    }
+
     fun retrieveFile(ctx: Context) {
         val filename = ctx.pathParam("file")
         val file = TemporaryFileStorage.retrieveFile(filename)
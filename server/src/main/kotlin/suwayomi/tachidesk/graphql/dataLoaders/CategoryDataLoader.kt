@@ -15,6 +15,7 @@ import org.jetbrains.exposed.v1.core.Slf4jSqlDebugLogger
 import org.jetbrains.exposed.v1.core.inList
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.graphql.cache.EntityCache
 import suwayomi.tachidesk.graphql.types.CategoryNodeList
 import suwayomi.tachidesk.graphql.types.CategoryNodeList.Companion.toNodeList
 import suwayomi.tachidesk.graphql.types.CategoryType
@@ -28,15 +29,15 @@ class CategoryDataLoader : KotlinDataLoader<Int, CategoryType> {
     override fun getDataLoader(graphQLContext: GraphQLContext): DataLoader<Int, CategoryType> =
         DataLoaderFactory.newDataLoader { ids ->
             future {
-                transaction {
-                    addLogger(Slf4jSqlDebugLogger)
-                    val categories =
+                EntityCache.category.getOrLoad(ids) { missingIds ->
+                    transaction {
+                        addLogger(Slf4jSqlDebugLogger)
                         CategoryTable
                             .selectAll()
-                            .where { CategoryTable.id inList ids }
+                            .where { CategoryTable.id inList missingIds }
                             .map { CategoryType(it) }
                             .associateBy { it.id }
-                    ids.map { categories[it] }
+                    }
                 }
             }
         }
@@ -11,24 +11,24 @@ import com.expediagroup.graphql.dataloader.KotlinDataLoader
 import graphql.GraphQLContext
 import org.dataloader.DataLoader
 import org.dataloader.DataLoaderFactory
-import org.jetbrains.exposed.v1.core.Case
+import org.jetbrains.exposed.v1.core.Column
+import org.jetbrains.exposed.v1.core.JoinType
+import org.jetbrains.exposed.v1.core.ResultRow
 import org.jetbrains.exposed.v1.core.Slf4jSqlDebugLogger
-import org.jetbrains.exposed.v1.core.SortOrder
 import org.jetbrains.exposed.v1.core.and
 import org.jetbrains.exposed.v1.core.count
-import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.core.greater
 import org.jetbrains.exposed.v1.core.greaterEq
 import org.jetbrains.exposed.v1.core.inList
-import org.jetbrains.exposed.v1.core.intLiteral
-import org.jetbrains.exposed.v1.core.sum
 import org.jetbrains.exposed.v1.jdbc.select
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import suwayomi.tachidesk.graphql.types.ChapterNodeList
 import suwayomi.tachidesk.graphql.types.ChapterNodeList.Companion.toNodeList
 import suwayomi.tachidesk.graphql.types.ChapterType
+import suwayomi.tachidesk.manga.impl.ChapterStats
 import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaChapterStatsTable
 import suwayomi.tachidesk.server.JavalinSetup.future
 
 class ChapterDataLoader : KotlinDataLoader<Int, ChapterType> {
@@ -75,8 +75,19 @@ data class MangaChapterStats(
     val unreadCount: Int,
     val downloadCount: Int,
     val bookmarkCount: Int,
+    val chapterCount: Int,
+    val lastReadAt: Long,
 )
 
+fun ResultRow.toMangaChapterStats() =
+    MangaChapterStats(
+        unreadCount = this[MangaChapterStatsTable.unreadCount],
+        downloadCount = this[MangaChapterStatsTable.downloadCount],
+        bookmarkCount = this[MangaChapterStatsTable.bookmarkCount],
+        chapterCount = this[MangaChapterStatsTable.chapterCount],
+        lastReadAt = this[MangaChapterStatsTable.lastReadAt],
+    )
+
 class ChapterFlagCountForMangaDataLoader : KotlinDataLoader<Int, MangaChapterStats> {
     override val dataLoaderName = "ChapterFlagCountForMangaDataLoader"
 
@@ -85,51 +96,19 @@ class ChapterFlagCountForMangaDataLoader : KotlinDataLoader<Int, MangaChapterSta
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-
-                    val unreadCount =
-                        Case()
-                            .When(ChapterTable.isRead eq false, intLiteral(1))
-                            .Else(intLiteral(0))
-                            .sum()
-
-                    val downloadCount =
-                        Case()
-                            .When(ChapterTable.isDownloaded eq true, intLiteral(1))
-                            .Else(intLiteral(0))
-                            .sum()
-
-                    val bookmarkCount =
-                        Case()
-                            .When(ChapterTable.isBookmarked eq true, intLiteral(1))
-                            .Else(intLiteral(0))
-                            .sum()
-
                     val statsByMangaId =
-                        ChapterTable
-                            .select(
-                                ChapterTable.manga,
-                                unreadCount,
-                                downloadCount,
-                                bookmarkCount,
-                            ).where {
-                                ChapterTable.manga inList ids
-                            }.groupBy(ChapterTable.manga)
-                            .associate {
-                                val mangaId = it[ChapterTable.manga].value
-
-                                mangaId to
-                                    MangaChapterStats(
-                                        unreadCount = it[unreadCount] ?: 0,
-                                        downloadCount = it[downloadCount] ?: 0,
-                                        bookmarkCount = it[bookmarkCount] ?: 0,
-                                    )
-                            }
+                        MangaChapterStatsTable
+                            .selectAll()
+                            .where { MangaChapterStatsTable.manga inList ids }
+                            .associate { it[MangaChapterStatsTable.manga].value to it.toMangaChapterStats() }
 
                     ids.map {
                         statsByMangaId[it] ?: MangaChapterStats(
                             unreadCount = 0,
                             downloadCount = 0,
                             bookmarkCount = 0,
+                            chapterCount = 0,
+                            lastReadAt = 0,
                         )
                     }
                 }
@@ -164,6 +143,22 @@ class HasDuplicateChaptersForMangaDataLoader : KotlinDataLoader<Int, Boolean> {
         }
 }
 
+/**
+ * Loads the chapters referenced by [reference] of the passed mangas from the materialized [MangaChapterStatsTable].
+ */
+private fun getChaptersByStatsReference(
+    mangaIds: List<Int>,
+    reference: Column<Int?>,
+): Map<Int, ChapterType> {
+    ChapterStats.refreshChapterReferences(mangaIds)
+
+    return MangaChapterStatsTable
+        .join(ChapterTable, JoinType.INNER, reference, ChapterTable.id)
+        .select(ChapterTable.columns)
+        .where { MangaChapterStatsTable.manga inList mangaIds }
+        .associate { it[ChapterTable.manga].value to ChapterType(it) }
+}
+
 class LastReadChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterType> {
     override val dataLoaderName = "LastReadChapterForMangaDataLoader"
 
@@ -172,13 +167,8 @@ class LastReadChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterType> {
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-                    val lastReadChaptersByMangaId =
-                        ChapterTable
-                            .selectAll()
-                            .where { (ChapterTable.manga inList ids) }
-                            .orderBy(ChapterTable.lastReadAt to SortOrder.DESC)
-                            .groupBy { it[ChapterTable.manga].value }
-                    ids.map { id -> lastReadChaptersByMangaId[id]?.let { chapters -> ChapterType(chapters.first()) } }
+                    val chaptersByMangaId = getChaptersByStatsReference(ids, MangaChapterStatsTable.lastReadChapter)
+                    ids.map { chaptersByMangaId[it] }
                 }
             }
         }
@@ -192,13 +182,8 @@ class LatestReadChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterType> {
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-                    val latestReadChaptersByMangaId =
-                        ChapterTable
-                            .selectAll()
-                            .where { (ChapterTable.manga inList ids) and (ChapterTable.isRead eq true) }
-                            .orderBy(ChapterTable.sourceOrder to SortOrder.DESC)
-                            .groupBy { it[ChapterTable.manga].value }
-                    ids.map { id -> latestReadChaptersByMangaId[id]?.let { chapters -> ChapterType(chapters.first()) } }
+                    val chaptersByMangaId = getChaptersByStatsReference(ids, MangaChapterStatsTable.latestReadChapter)
+                    ids.map { chaptersByMangaId[it] }
                 }
             }
         }
@@ -212,13 +197,8 @@ class LatestFetchedChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterType
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-                    val latestFetchedChaptersByMangaId =
-                        ChapterTable
-                            .selectAll()
-                            .where { (ChapterTable.manga inList ids) }
-                            .orderBy(ChapterTable.fetchedAt to SortOrder.DESC, ChapterTable.sourceOrder to SortOrder.DESC)
-                            .groupBy { it[ChapterTable.manga].value }
-                    ids.map { id -> latestFetchedChaptersByMangaId[id]?.let { chapters -> ChapterType(chapters.first()) } }
+                    val chaptersByMangaId = getChaptersByStatsReference(ids, MangaChapterStatsTable.latestFetchedChapter)
+                    ids.map { chaptersByMangaId[it] }
                 }
             }
         }
@@ -232,13 +212,8 @@ class LatestUploadedChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterTyp
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-                    val latestUploadedChaptersByMangaId =
-                        ChapterTable
-                            .selectAll()
-                            .where { (ChapterTable.manga inList ids) }
-                            .orderBy(ChapterTable.date_upload to SortOrder.DESC, ChapterTable.sourceOrder to SortOrder.DESC)
-                            .groupBy { it[ChapterTable.manga].value }
-                    ids.map { id -> latestUploadedChaptersByMangaId[id]?.let { chapters -> ChapterType(chapters.first()) } }
+                    val chaptersByMangaId = getChaptersByStatsReference(ids, MangaChapterStatsTable.latestUploadedChapter)
+                    ids.map { chaptersByMangaId[it] }
                 }
             }
         }
@@ -252,13 +227,8 @@ class FirstUnreadChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterType>
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-                    val firstUnreadChaptersByMangaId =
-                        ChapterTable
-                            .selectAll()
-                            .where { (ChapterTable.manga inList ids) and (ChapterTable.isRead eq false) }
-                            .orderBy(ChapterTable.sourceOrder to SortOrder.ASC)
-                            .groupBy { it[ChapterTable.manga].value }
-                    ids.map { id -> firstUnreadChaptersByMangaId[id]?.let { chapters -> ChapterType(chapters.first()) } }
+                    val chaptersByMangaId = getChaptersByStatsReference(ids, MangaChapterStatsTable.firstUnreadChapter)
+                    ids.map { chaptersByMangaId[it] }
                 }
             }
         }
@@ -272,17 +242,8 @@ class HighestNumberedChapterForMangaDataLoader : KotlinDataLoader<Int, ChapterTy
             future {
                 transaction {
                     addLogger(Slf4jSqlDebugLogger)
-                    val highestNumberedChaptersByMangaId =
-                        ChapterTable
-                            .selectAll()
-                            .where { (ChapterTable.manga inList ids) and (ChapterTable.chapter_number greater 0f) }
-                            .orderBy(ChapterTable.chapter_number to SortOrder.DESC_NULLS_LAST)
-                            .groupBy { it[ChapterTable.manga].value }
-                    ids.map { id ->
-                        highestNumberedChaptersByMangaId[id]
-                            ?.firstOrNull()
-                            ?.let { chapter -> ChapterType(chapter) }
-                    }
+                    val chaptersByMangaId = getChaptersByStatsReference(ids, MangaChapterStatsTable.highestNumberedChapter)
+                    ids.map { chaptersByMangaId[it] }
                 }
             }
         }
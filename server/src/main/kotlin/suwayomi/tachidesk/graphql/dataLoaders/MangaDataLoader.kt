@@ -20,6 +20,7 @@ import org.jetbrains.exposed.v1.jdbc.andWhere
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import suwayomi.tachidesk.graphql.cache.CustomCacheMap
+import suwayomi.tachidesk.graphql.cache.EntityCache
 import suwayomi.tachidesk.graphql.types.MangaNodeList
 import suwayomi.tachidesk.graphql.types.MangaNodeList.Companion.toNodeList
 import suwayomi.tachidesk.graphql.types.MangaType
@@ -33,15 +34,15 @@ class MangaDataLoader : KotlinDataLoader<Int, MangaType> {
     override fun getDataLoader(graphQLContext: GraphQLContext): DataLoader<Int, MangaType> =
         DataLoaderFactory.newDataLoader { ids ->
             future {
-                transaction {
-                    addLogger(Slf4jSqlDebugLogger)
-                    val manga =
+                EntityCache.manga.getOrLoad(ids) { missingIds ->
+                    transaction {
+                        addLogger(Slf4jSqlDebugLogger)
                         MangaTable
                             .selectAll()
-                            .where { MangaTable.id inList ids }
+                            .where { MangaTable.id inList missingIds }
                             .map { MangaType(it) }
                             .associateBy { it.id }
-                    ids.map { manga[it] }
+                    }
                 }
             }
         }
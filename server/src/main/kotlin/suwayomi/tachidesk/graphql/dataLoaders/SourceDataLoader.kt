@@ -15,6 +15,7 @@ import org.jetbrains.exposed.v1.core.Slf4jSqlDebugLogger
 import org.jetbrains.exposed.v1.core.inList
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.suspendTransaction
+import suwayomi.tachidesk.graphql.cache.EntityCache
 import suwayomi.tachidesk.graphql.types.SourceNodeList
 import suwayomi.tachidesk.graphql.types.SourceNodeList.Companion.toNodeList
 import suwayomi.tachidesk.graphql.types.SourceType
@@ -28,15 +29,15 @@ class SourceDataLoader : KotlinDataLoader<Long, SourceType> {
     override fun getDataLoader(graphQLContext: GraphQLContext): DataLoader<Long, SourceType> =
         DataLoaderFactory.newDataLoader { ids ->
             future {
-                suspendTransaction {
-                    addLogger(Slf4jSqlDebugLogger)
-                    val source =
+                EntityCache.source.getOrLoad(ids) { missingIds ->
+                    suspendTransaction {
+                        addLogger(Slf4jSqlDebugLogger)
                         SourceTable
                             .selectAll()
-                            .where { SourceTable.id inList ids }
+                            .where { SourceTable.id inList missingIds }
                             .mapNotNull { SourceType(it) }
                             .associateBy { it.id }
-                    ids.map { source[it] }
+                    }
                 }
             }
         }
@@ -3,10 +3,12 @@
 package suwayomi.tachidesk.graphql.mutations
 
 import com.expediagroup.graphql.generator.annotations.GraphQLDeprecated
+import com.expediagroup.graphql.generator.annotations.GraphQLDescription
 import kotlinx.coroutines.GlobalScope
 import kotlinx.coroutines.launch
 import org.jetbrains.exposed.v1.core.LikePattern
 import org.jetbrains.exposed.v1.core.Op
+import org.jetbrains.exposed.v1.core.ResultRow
 import org.jetbrains.exposed.v1.core.and
 import org.jetbrains.exposed.v1.core.dao.id.EntityID
 import org.jetbrains.exposed.v1.core.eq
@@ -27,10 +29,13 @@ import suwayomi.tachidesk.graphql.types.MetaInput
 import suwayomi.tachidesk.graphql.types.SyncConflictInfoType
 import suwayomi.tachidesk.manga.impl.Chapter
 import suwayomi.tachidesk.manga.impl.Manga
+import suwayomi.tachidesk.manga.impl.PageTiles
+import suwayomi.tachidesk.manga.impl.chapter.ChapterProgressBuffer
 import suwayomi.tachidesk.manga.impl.chapter.getChapterDownloadReadyById
 import suwayomi.tachidesk.manga.impl.sync.KoreaderSyncService
 import suwayomi.tachidesk.manga.model.table.ChapterMetaTable
 import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.toDataClass
 import suwayomi.tachidesk.server.JavalinSetup.future
 import java.net.URLEncoder
 import java.time.Instant
@@ -78,6 +83,15 @@ class ChapterMutation {
             return
         }
 
+        if (patch.isRead == null && patch.isBookmarked == null && patch.lastPageRead != null) {
+            bufferProgress(ids, patch.lastPageRead)
+            return
+        }
+
+        if (patch.lastPageRead != null) {
+            ChapterProgressBuffer.discard(ids)
+        }
+
         transaction {
             val chapterIdToPageCount =
                 if (patch.lastPageRead != null) {
@@ -124,6 +138,65 @@ class ChapterMutation {
         }
     }
 
+    /**
+     * Readers report their progress on every page, which only gets written to the database periodically.
+     */
+    private fun bufferProgress(
+        ids: List<Int>,
+        lastPageRead: Int,
+    ) {
+        // the chapters are already known in case the reader reported progress for them before
+        val pendingProgress = ids.associateWith { ChapterProgressBuffer.getPending(it) }
+        val unknownIds = pendingProgress.filterValues { it == null }.keys
+        val chapters =
+            if (unknownIds.isEmpty()) {
+                emptyMap()
+            } else {
+                transaction {
+                    ChapterTable
+                        .select(ChapterTable.id, ChapterTable.manga, ChapterTable.sourceOrder, ChapterTable.pageCount)
+                        .where { ChapterTable.id inList unknownIds }
+                        .associateBy(
+                            { it[ChapterTable.id].value },
+                            { Triple(it[ChapterTable.manga].value, it[ChapterTable.sourceOrder], it[ChapterTable.pageCount]) },
+                        )
+                }
+            }
+
+        pendingProgress.forEach { (chapterId, progress) ->
+            val (mangaId, chapterIndex, pageCount) =
+                progress?.let { Triple(it.mangaId, it.chapterIndex, it.pageCount) }
+                    ?: chapters[chapterId]
+                    ?: return@forEach
+
+            ChapterProgressBuffer.record(
+                chapterId = chapterId,
+                mangaId = mangaId,
+                chapterIndex = chapterIndex,
+                pageCount = pageCount,
+                lastPageRead = lastPageRead.coerceAtMost(pageCount).coerceAtLeast(0),
+            )
+        }
+
+        // Sync with KoreaderSync when progress is updated
+        GlobalScope.launch {
+            ids.forEach { chapterId ->
+                KoreaderSyncService.pushProgress(chapterId)
+            }
+        }
+    }
+
+    /**
+     * @return the chapter including its progress that has not been written to the database yet
+     */
+    private fun ResultRow.toChapterType(): ChapterType {
+        val progress = ChapterProgressBuffer.getPending(this[ChapterTable.id].value) ?: return ChapterType(this)
+
+        return ChapterType(
+            ChapterTable.toDataClass(this).copy(lastPageRead = progress.lastPageRead, lastReadAt = progress.lastReadAt),
+        )
+    }
+
     @RequireAuth
     fun updateChapter(input: UpdateChapterInput): UpdateChapterPayload? {
         val (clientMutationId, id, patch) = input
@@ -132,7 +205,7 @@ class ChapterMutation {
 
         val chapter =
             transaction {
-                ChapterType(ChapterTable.selectAll().where { ChapterTable.id eq id }.first())
+                ChapterTable.selectAll().where { ChapterTable.id eq id }.first().toChapterType()
             }
 
         return UpdateChapterPayload(
@@ -149,7 +222,7 @@ class ChapterMutation {
 
         val chapters =
             transaction {
-                ChapterTable.selectAll().where { ChapterTable.id inList ids }.map { ChapterType(it) }
+                ChapterTable.selectAll().where { ChapterTable.id inList ids }.map { it.toChapterType() }
             }
 
         return UpdateChaptersPayload(
@@ -386,6 +459,8 @@ class ChapterMutation {
         val clientMutationId: String? = null,
         val chapterId: Int,
         val format: String? = null,
+        @GraphQLDescription("Split tall pages into tiles, which are returned in place of their page, see \"serveTileHeight\"")
+        val tiled: Boolean? = null,
     ) {
         fun toParams(): Map<String, String> =
             buildMap {
@@ -456,8 +531,15 @@ class ChapterMutation {
             FetchChapterPagesPayload(
                 clientMutationId = clientMutationId,
                 pages =
-                    List(chapter.pageCount) { index ->
-                        "/api/v1/manga/${chapter.mangaId}/chapter/${chapter.index}/page/${index}$params"
+                    if (input.tiled == true) {
+                        PageTiles.getSubPages(chapter.mangaId, chapter.id, chapter.pageCount, chapter.downloaded).map { (index, tile) ->
+                            val tileParam = tile?.let { (if (params.isEmpty()) "?" else "&") + "tile=$it" }.orEmpty()
+                            "/api/v1/manga/${chapter.mangaId}/chapter/${chapter.index}/page/${index}$params$tileParam"
+                        }
+                    } else {
+                        List(chapter.pageCount) { index ->
+                            "/api/v1/manga/${chapter.mangaId}/chapter/${chapter.index}/page/${index}$params"
+                        }
                     },
                 chapter = ChapterType(chapter),
                 syncConflict = syncConflictInfo,
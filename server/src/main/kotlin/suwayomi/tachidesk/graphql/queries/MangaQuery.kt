@@ -21,6 +21,7 @@ import org.jetbrains.exposed.v1.core.like
 import org.jetbrains.exposed.v1.jdbc.select
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.graphql.dataLoaders.toMangaChapterStats
 import suwayomi.tachidesk.graphql.directives.RequireAuth
 import suwayomi.tachidesk.graphql.queries.filter.BooleanFilter
 import suwayomi.tachidesk.graphql.queries.filter.ComparableScalarFilter
@@ -46,6 +47,7 @@ import suwayomi.tachidesk.graphql.server.primitives.lessNotUnique
 import suwayomi.tachidesk.graphql.types.MangaNodeList
 import suwayomi.tachidesk.graphql.types.MangaType
 import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
+import suwayomi.tachidesk.manga.model.table.MangaChapterStatsTable
 import suwayomi.tachidesk.manga.model.table.MangaStatus
 import suwayomi.tachidesk.manga.model.table.MangaTable
 import java.util.concurrent.CompletableFuture
@@ -64,6 +66,10 @@ class MangaQuery {
         TITLE(MangaTable.title),
         IN_LIBRARY_AT(MangaTable.inLibraryAt),
         LAST_FETCHED_AT(MangaTable.lastFetchedAt),
+        UNREAD_COUNT(MangaChapterStatsTable.unreadCount),
+        DOWNLOAD_COUNT(MangaChapterStatsTable.downloadCount),
+        CHAPTER_COUNT(MangaChapterStatsTable.chapterCount),
+        LAST_READ_AT(MangaChapterStatsTable.lastReadAt),
         ;
 
         override fun greater(cursor: Cursor): Op<Boolean> =
@@ -72,6 +78,10 @@ class MangaQuery {
                 TITLE -> greaterNotUnique(MangaTable.title, MangaTable.id, cursor, String::toString)
                 IN_LIBRARY_AT -> greaterNotUnique(MangaTable.inLibraryAt, MangaTable.id, cursor, String::toLong)
                 LAST_FETCHED_AT -> greaterNotUnique(MangaTable.lastFetchedAt, MangaTable.id, cursor, String::toLong)
+                UNREAD_COUNT -> greaterNotUnique(MangaChapterStatsTable.unreadCount, MangaTable.id, cursor, String::toInt)
+                DOWNLOAD_COUNT -> greaterNotUnique(MangaChapterStatsTable.downloadCount, MangaTable.id, cursor, String::toInt)
+                CHAPTER_COUNT -> greaterNotUnique(MangaChapterStatsTable.chapterCount, MangaTable.id, cursor, String::toInt)
+                LAST_READ_AT -> greaterNotUnique(MangaChapterStatsTable.lastReadAt, MangaTable.id, cursor, String::toLong)
             }
 
         override fun less(cursor: Cursor): Op<Boolean> =
@@ -80,6 +90,10 @@ class MangaQuery {
                 TITLE -> lessNotUnique(MangaTable.title, MangaTable.id, cursor, String::toString)
                 IN_LIBRARY_AT -> lessNotUnique(MangaTable.inLibraryAt, MangaTable.id, cursor, String::toLong)
                 LAST_FETCHED_AT -> lessNotUnique(MangaTable.lastFetchedAt, MangaTable.id, cursor, String::toLong)
+                UNREAD_COUNT -> lessNotUnique(MangaChapterStatsTable.unreadCount, MangaTable.id, cursor, String::toInt)
+                DOWNLOAD_COUNT -> lessNotUnique(MangaChapterStatsTable.downloadCount, MangaTable.id, cursor, String::toInt)
+                CHAPTER_COUNT -> lessNotUnique(MangaChapterStatsTable.chapterCount, MangaTable.id, cursor, String::toInt)
+                LAST_READ_AT -> lessNotUnique(MangaChapterStatsTable.lastReadAt, MangaTable.id, cursor, String::toLong)
             }
 
         override fun asCursor(type: MangaType): Cursor {
@@ -89,6 +103,10 @@ class MangaQuery {
                     TITLE -> type.id.toString() + "-" + type.title
                     IN_LIBRARY_AT -> type.id.toString() + "-" + type.inLibraryAt.toString()
                     LAST_FETCHED_AT -> type.id.toString() + "-" + type.lastFetchedAt.toString()
+                    UNREAD_COUNT -> type.id.toString() + "-" + (type.chapterStats?.unreadCount ?: 0)
+                    DOWNLOAD_COUNT -> type.id.toString() + "-" + (type.chapterStats?.downloadCount ?: 0)
+                    CHAPTER_COUNT -> type.id.toString() + "-" + (type.chapterStats?.chapterCount ?: 0)
+                    LAST_READ_AT -> type.id.toString() + "-" + (type.chapterStats?.lastReadAt ?: 0)
                 }
             return Cursor(value)
         }
@@ -258,11 +276,12 @@ class MangaQuery {
                         .withDistinct()
                         .applyOps(condition, filter)
 
+                // the materialized chapter stats are always joined to allow sorting by them
                 val res =
                     if (condition?.categoryIds != null || filter?.isFilteringForCategories() == true) {
-                        MangaTable.selectAll().where { MangaTable.id inSubQuery mangaIdsQuery }
+                        MangaTable.innerJoin(MangaChapterStatsTable).selectAll().where { MangaTable.id inSubQuery mangaIdsQuery }
                     } else {
-                        MangaTable.selectAll().applyOps(condition, filter)
+                        MangaTable.innerJoin(MangaChapterStatsTable).selectAll().applyOps(condition, filter)
                     }
 
                 val baseSort = listOf(MangaOrder(MangaOrderBy.ID, SortOrder.ASC))
@@ -289,7 +308,7 @@ class MangaQuery {
 
         val getAsCursor: (MangaType) -> Cursor = (order?.firstOrNull()?.by ?: MangaOrderBy.ID)::asCursor
 
-        val resultsAsType = queryResults.results.map { MangaType(it) }
+        val resultsAsType = queryResults.results.map { row -> MangaType(row).apply { chapterStats = row.toMangaChapterStats() } }
 
         return MangaNodeList(
             resultsAsType,
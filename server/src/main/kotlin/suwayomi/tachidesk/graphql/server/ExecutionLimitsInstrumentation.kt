@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+package suwayomi.tachidesk.graphql.server
+
+import graphql.ExecutionResult
+import graphql.analysis.QueryTraverser
+import graphql.analysis.QueryVisitorFieldEnvironment
+import graphql.analysis.QueryVisitorStub
+import graphql.execution.AbortExecutionException
+import graphql.execution.CoercedVariables
+import graphql.execution.instrumentation.InstrumentationContext
+import graphql.execution.instrumentation.InstrumentationState
+import graphql.execution.instrumentation.SimplePerformantInstrumentation
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters
+import graphql.execution.instrumentation.parameters.InstrumentationExecuteOperationParameters
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters
+import graphql.execution.instrumentation.parameters.InstrumentationFieldFetchParameters
+import graphql.language.Document
+import graphql.language.OperationDefinition
+import graphql.schema.DataFetcher
+import graphql.schema.GraphQLList
+import graphql.schema.GraphQLObjectType
+import graphql.schema.GraphQLSchema
+import graphql.schema.GraphQLTypeUtil
+import io.github.oshai.kotlinlogging.KotlinLogging
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.CompletableFuture
+import kotlin.time.Duration
+
+/**
+ * Rejects operations that exceed the configured depth or estimated cost before executing them, and stops resolving the
+ * fields of operations that exceed the configured timeout.
+ *
+ * The cost of an operation is the number of fields it would resolve. The fields of paginated lists count once per item
+ * requested via "first" or "last", lists without these arguments count as [UNBOUNDED_LIST_SIZE] items. Introspection
+ * fields are free.
+ */
+class ExecutionLimitsInstrumentation : SimplePerformantInstrumentation() {
+    class OperationLimitExceededException(
+        message: String,
+    ) : AbortExecutionException(message)
+
+    private class State : InstrumentationState {
+        /** [System.nanoTime] after which no further fields get resolved, null for no timeout */
+        @Volatile
+        var deadline: Long? = null
+
+        @Volatile
+        var timeout: Duration = Duration.ZERO
+
+        @Volatile
+        var hasTimedOut = false
+    }
+
+    override fun createState(parameters: InstrumentationCreateStateParameters): InstrumentationState = State()
+
+    override fun beginExecuteOperation(
+        parameters: InstrumentationExecuteOperationParameters,
+        state: InstrumentationState?,
+    ): InstrumentationContext<ExecutionResult>? {
+        val executionContext = parameters.executionContext
+        val maxDepth = serverConfig.graphqlMaxQueryDepth.value
+        val maxCost = serverConfig.graphqlMaxQueryCost.value
+
+        if (maxDepth > 0 || maxCost > 0) {
+            val (depth, cost) =
+                analyze(
+                    executionContext.graphQLSchema,
+                    executionContext.document,
+                    executionContext.executionInput.operationName,
+                    executionContext.coercedVariables,
+                )
+
+            val operationName = executionContext.executionInput.operationName ?: "anonymous"
+            logger.trace { "Operation $operationName has a depth of $depth and an estimated cost of $cost" }
+
+            if (maxDepth > 0 && depth > maxDepth) {
+                throw OperationLimitExceededException(
+                    "Operation $operationName is nested $depth levels deep, the maximum is $maxDepth. " +
+                        "Split it into multiple operations.",
+                )
+            }
+            if (maxCost > 0 && cost > maxCost) {
+                throw OperationLimitExceededException(
+                    "Operation $operationName has an estimated cost of $cost, the maximum is $maxCost. " +
+                        "Limit the requested lists via \"first\" or \"last\", or split it into multiple operations.",
+                )
+            }
+        }
+
+        val timeout = serverConfig.graphqlOperationTimeout.value
+        val isSubscription = executionContext.operationDefinition.operation == OperationDefinition.Operation.SUBSCRIPTION
+        if (state is State && timeout.isPositive() && !isSubscription) {
+            state.timeout = timeout
+            state.deadline = System.nanoTime() + timeout.inWholeNanoseconds
+        }
+
+        return null
+    }
+
+    override fun instrumentDataFetcher(
+        dataFetcher: DataFetcher<*>,
+        parameters: InstrumentationFieldFetchParameters,
+        state: InstrumentationState?,
+    ): DataFetcher<*> {
+        if (state !is State || state.deadline == null || parameters.isTrivialDataFetcher) {
+            return dataFetcher
+        }
+
+        return DataFetcher { environment ->
+            if (System.nanoTime() > state.deadline!!) {
+                state.hasTimedOut = true
+                throw OperationLimitExceededException(getTimeoutMessage(state))
+            }
+
+            dataFetcher.get(environment)
+        }
+    }
+
+    override fun instrumentExecutionResult(
+        executionResult: ExecutionResult,
+        parameters: InstrumentationExecutionParameters,
+        state: InstrumentationState?,
+    ): CompletableFuture<ExecutionResult> {
+        if (state !is State || !state.hasTimedOut) {
+            return CompletableFuture.completedFuture(executionResult)
+        }
+
+        // every field resolved after the timeout failed, report it once
+        val errors =
+            executionResult.errors.filterNot { it is OperationLimitExceededException } +
+                OperationLimitExceededException(getTimeoutMessage(state))
+
+        return CompletableFuture.completedFuture(
+            ExecutionResult
+                .newExecutionResult()
+                .from(executionResult)
+                .errors(errors)
+                .build(),
+        )
+    }
+
+    /**
+     * @param cost the estimated number of fields the operation resolves, saturated at [Long.MAX_VALUE]
+     */
+    data class OperationAnalysis(
+        val depth: Int,
+        val cost: Long,
+    )
+
+    companion object {
+        private val logger = KotlinLogging.logger {}
+
+        /** The assumed number of items of lists whose size is not limited via "first" or "last" */
+        private const val UNBOUNDED_LIST_SIZE = 50
+
+        private val PAGINATION_ARGUMENTS = listOf("first", "last")
+
+        /** The fields of a node list whose items are already counted by the field returning the node list */
+        private val NODE_LIST_FIELDS = setOf("nodes", "edges")
+
+        /**
+         * Calculates the depth and the estimated cost of the operation.
+         *
+         * The costs are summed up as saturating [Long]s, huge lists or many aliased fields must not overflow the cost.
+         */
+        fun analyze(
+            schema: GraphQLSchema,
+            document: Document,
+            operationName: String?,
+            variables: CoercedVariables,
+        ): OperationAnalysis {
+            var depth = 0
+            var cost = 0L
+            // the summed up costs of the children of the fields, filled before visiting the fields (post order)
+            val childCosts = HashMap<QueryVisitorFieldEnvironment, Long>()
+
+            QueryTraverser
+                .newQueryTraverser()
+                .schema(schema)
+                .document(document)
+                .operationName(operationName)
+                .coercedVariables(variables)
+                .build()
+                .visitPostOrder(
+                    object : QueryVisitorStub() {
+                        override fun visitField(environment: QueryVisitorFieldEnvironment) {
+                            if (environment.isIntrospection()) {
+                                return
+                            }
+
+                            depth = maxOf(depth, environment.getDepth())
+
+                            val childCost = childCosts.remove(environment) ?: 0L
+                            val fieldCost = saturatedMultiply(environment.getListSize().toLong(), saturatedAdd(childCost, 1))
+
+                            val parent = environment.parentEnvironment
+                            if (parent == null) {
+                                cost = saturatedAdd(cost, fieldCost)
+                            } else {
+                                childCosts[parent] = saturatedAdd(childCosts[parent] ?: 0L, fieldCost)
+                            }
+                        }
+                    },
+                )
+
+            return OperationAnalysis(depth, cost)
+        }
+
+        private fun saturatedAdd(
+            a: Long,
+            b: Long,
+        ): Long =
+            try {
+                Math.addExact(a, b)
+            } catch (_: ArithmeticException) {
+                Long.MAX_VALUE
+            }
+
+        private fun saturatedMultiply(
+            a: Long,
+            b: Long,
+        ): Long =
+            try {
+                Math.multiplyExact(a, b)
+            } catch (_: ArithmeticException) {
+                Long.MAX_VALUE
+            }
+
+        private fun getTimeoutMessage(state: State): String =
+            "Operation exceeded the timeout of ${state.timeout}, the fields resolved afterwards are missing. " +
+                "Request less data at once."
+
+        private fun QueryVisitorFieldEnvironment.isIntrospection(): Boolean =
+            generateSequence(this) { it.parentEnvironment }.any { it.field.name.startsWith("__") }
+
+        private fun QueryVisitorFieldEnvironment.getDepth(): Int = generateSequence(this) { it.parentEnvironment }.count()
+
+        /** The number of times the selection of the field gets resolved */
+        private fun QueryVisitorFieldEnvironment.getListSize(): Int {
+            val requestedSize = PAGINATION_ARGUMENTS.firstNotNullOfOrNull { arguments[it] as? Int }
+            if (requestedSize != null) {
+                return requestedSize.coerceAtLeast(1)
+            }
+
+            if (field.name in NODE_LIST_FIELDS) {
+                return 1
+            }
+
+            val isList = GraphQLTypeUtil.unwrapNonNull(fieldDefinition.type) is GraphQLList
+            // e.g. all chapters of a manga
+            val isNodeList = (GraphQLTypeUtil.unwrapAll(fieldDefinition.type) as? GraphQLObjectType)?.getFieldDefinition("nodes") != null
+
+            return if (isList || isNodeList) UNBOUNDED_LIST_SIZE else 1
+        }
+    }
+}
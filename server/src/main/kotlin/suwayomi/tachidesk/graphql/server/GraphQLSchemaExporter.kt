@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+package suwayomi.tachidesk.graphql.server
+
+import graphql.schema.GraphQLSchema
+import graphql.schema.idl.SchemaPrinter
+import kotlinx.coroutines.runBlocking
+import java.io.File
+import kotlin.system.exitProcess
+
+/**
+ * Classpath resource of the schema in SDL, generated during the build
+ */
+const val GRAPHQL_SCHEMA_RESOURCE = "/graphql/schema.graphqls"
+
+fun GraphQLSchema.toSdl(): String = SchemaPrinter(SchemaPrinter.Options.defaultOptions().includeDirectives(false)).print(this)
+
+/**
+ * Writes the schema in SDL to the file passed as first argument.
+ *
+ * Run by the "generateGraphQLSchema" gradle task, which fails the build in case the schema can't be generated.
+ */
+fun main(args: Array<String>) {
+    val output = File(args.single())
+
+    val schema = runBlocking { GraphQLSchemaProvider.getSchema() }
+
+    output.parentFile.mkdirs()
+    output.writeText(schema.toSdl())
+
+    // the generated schema keeps non-daemon threads alive
+    exitProcess(0)
+}
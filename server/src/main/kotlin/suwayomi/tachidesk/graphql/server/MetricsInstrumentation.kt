@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+package suwayomi.tachidesk.graphql.server
+
+import graphql.ExecutionResult
+import graphql.execution.instrumentation.InstrumentationContext
+import graphql.execution.instrumentation.InstrumentationState
+import graphql.execution.instrumentation.SimpleInstrumentationContext
+import graphql.execution.instrumentation.SimplePerformantInstrumentation
+import graphql.execution.instrumentation.parameters.InstrumentationExecutionParameters
+import suwayomi.tachidesk.server.metrics.ServerMetrics
+
+/**
+ * Records the duration of every executed operation per operation name.
+ */
+class MetricsInstrumentation : SimplePerformantInstrumentation() {
+    override fun beginExecution(
+        parameters: InstrumentationExecutionParameters,
+        state: InstrumentationState?,
+    ): InstrumentationContext<ExecutionResult> {
+        val start = System.nanoTime()
+        val operation = parameters.operation ?: "anonymous"
+
+        return SimpleInstrumentationContext.whenCompleted { result, throwable ->
+            val failed = throwable != null || result?.errors?.isNotEmpty() == true
+            ServerMetrics.graphqlOperationDuration.observe(
+                (System.nanoTime() - start) / 1_000_000_000.0,
+                operation,
+                if (failed) "error" else "success",
+            )
+        }
+    }
+}
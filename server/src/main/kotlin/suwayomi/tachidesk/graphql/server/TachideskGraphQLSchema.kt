@@ -62,6 +62,7 @@ import suwayomi.tachidesk.graphql.subscriptions.DownloadSubscription
 import suwayomi.tachidesk.graphql.subscriptions.InfoSubscription
 import suwayomi.tachidesk.graphql.subscriptions.SyncSubscription
 import suwayomi.tachidesk.graphql.subscriptions.UpdateSubscription
+import suwayomi.tachidesk.server.util.StartupTimeline
 import kotlin.reflect.KClass
 import kotlin.reflect.KType
 import kotlin.time.Duration
@@ -92,6 +93,7 @@ object GraphQLSchemaProvider {
     @OptIn(DelicateCoroutinesApi::class)
     var schemaFuture =
         GlobalScope.async {
+            val start = System.nanoTime()
             toSchema(
                 config =
                     SchemaGeneratorConfig(
@@ -145,7 +147,7 @@ object GraphQLSchemaProvider {
                         TopLevelObject(SyncSubscription()),
                         TopLevelObject(UpdateSubscription()),
                     ),
-            )
+            ).also { StartupTimeline.recordConcurrent("GraphQL schema generation", start) }
         }
 
     suspend fun getSchema(): GraphQLSchema = schemaFuture.await()
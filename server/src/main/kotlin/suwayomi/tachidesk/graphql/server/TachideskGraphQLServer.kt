@@ -15,6 +15,7 @@ import graphql.GraphQL
 import graphql.execution.AsyncExecutionStrategy
 import graphql.execution.DataFetcherExceptionHandler
 import graphql.execution.DataFetcherExceptionHandlerResult
+import graphql.execution.instrumentation.ChainedInstrumentation
 import io.github.oshai.kotlinlogging.KotlinLogging
 import io.javalin.http.Context
 import io.javalin.websocket.WsCloseContext
@@ -59,6 +60,10 @@ class TachideskGraphQLServer(
                     val sourceLocation = handlerParameters.sourceLocation
                     val path = handlerParameters.path
 
+                    if (exception is ExecutionLimitsInstrumentation.OperationLimitExceededException) {
+                        return@future DataFetcherExceptionHandlerResult.newResult().error(exception).build()
+                    }
+
                     logger.error(exception) { "GraphQL execution failed due to" }
 
                     val error =
@@ -78,6 +83,7 @@ class TachideskGraphQLServer(
                 .queryExecutionStrategy(AsyncExecutionStrategy(exceptionHandler))
                 .mutationExecutionStrategy(AsyncExecutionStrategy(exceptionHandler))
                 .subscriptionExecutionStrategy(FlowSubscriptionExecutionStrategy(exceptionHandler))
+                .instrumentation(ChainedInstrumentation(MetricsInstrumentation(), ExecutionLimitsInstrumentation()))
                 .build()
 
         fun create(): TachideskGraphQLServer {
@@ -52,6 +52,7 @@ class DownloadSubscription {
                         downloadUpdates.status,
                         downloadUpdates.updates.subList(0, maxUpdates),
                         downloadUpdates.initial,
+                        downloadUpdates.bytesPerSecond,
                     )
                 } else {
                     downloadUpdates
@@ -39,6 +39,8 @@ data class ChapterDownloadReorder(
 data class DownloadStatus(
     val state: DownloaderState,
     val queue: List<DownloadType>,
+    @GraphQLDescription("The bytes per second the downloader received, averaged over the last few seconds")
+    val bytesPerSecond: Long,
 ) {
     constructor(downloadStatus: DownloadStatus) : this(
         when (downloadStatus.status) {
@@ -46,6 +48,7 @@ data class DownloadStatus(
             Status.Started -> DownloaderState.STARTED
         },
         downloadStatus.queue.mapIndexed { index, item -> DownloadType(item, index) },
+        downloadStatus.bytesPerSecond,
     )
 }
 
@@ -59,6 +62,8 @@ data class DownloadUpdates(
             "In case updates have been omitted, the \"downloadStatus\" query should be re-fetched.",
     )
     val omittedUpdates: Boolean,
+    @GraphQLDescription("The bytes per second the downloader received, averaged over the last few seconds")
+    val bytesPerSecond: Long,
 ) {
     constructor(downloadUpdates: DownloadUpdates, omittedUpdates: Boolean) : this(
         when (downloadUpdates.status) {
@@ -68,6 +73,7 @@ data class DownloadUpdates(
         downloadUpdates.updates.map { DownloadUpdate(it) },
         downloadUpdates.initial?.mapIndexed { index, item -> DownloadType(item, index) },
         omittedUpdates,
+        downloadUpdates.bytesPerSecond,
     )
 }
 
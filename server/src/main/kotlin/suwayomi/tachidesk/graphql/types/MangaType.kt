@@ -7,6 +7,7 @@
 
 package suwayomi.tachidesk.graphql.types
 
+import com.expediagroup.graphql.generator.annotations.GraphQLIgnore
 import com.expediagroup.graphql.server.extensions.getValueFromDataLoader
 import eu.kanade.tachiyomi.source.model.UpdateStrategy
 import graphql.schema.DataFetchingEnvironment
@@ -46,6 +47,12 @@ class MangaType(
     var lastFetchedAt: Long?, // todo
     var chaptersLastFetchedAt: Long?, // todo
 ) : Node {
+    /**
+     * The materialized chapter stats, in case they got selected together with the manga (used for the stats based sorting)
+     */
+    @get:GraphQLIgnore
+    var chapterStats: MangaChapterStats? = null
+
     companion object {
         fun clearCacheFor(
             mangaIds: List<Int>,
@@ -126,6 +133,32 @@ class MangaType(
         dataClass.chaptersLastFetchedAt,
     )
 
+    /**
+     * A copy that does not share the mutable properties, e.g. to hand out cached instances
+     */
+    @GraphQLIgnore
+    fun copy(): MangaType =
+        MangaType(
+            id,
+            sourceId,
+            url,
+            title,
+            thumbnailUrl,
+            thumbnailUrlLastFetched,
+            initialized,
+            artist,
+            author,
+            description,
+            genre,
+            status,
+            inLibrary,
+            inLibraryAt,
+            updateStrategy,
+            realUrl,
+            lastFetchedAt,
+            chaptersLastFetchedAt,
+        ).also { it.chapterStats = chapterStats }
+
     fun downloadCount(dataFetchingEnvironment: DataFetchingEnvironment): CompletableFuture<Int> =
         dataFetchingEnvironment.getValueFromDataLoader<Int, MangaChapterStats>("ChapterFlagCountForMangaDataLoader", id).thenApply {
             it.downloadCount
@@ -21,6 +21,7 @@ import suwayomi.tachidesk.manga.impl.ChapterDownloadHelper
 import suwayomi.tachidesk.manga.impl.Library
 import suwayomi.tachidesk.manga.impl.Manga
 import suwayomi.tachidesk.manga.impl.Page
+import suwayomi.tachidesk.manga.impl.PageTiles
 import suwayomi.tachidesk.manga.impl.chapter.getChapterDownloadReadyByIndex
 import suwayomi.tachidesk.manga.impl.sync.KoreaderSyncService
 import suwayomi.tachidesk.manga.model.dataclass.CategoryDataClass
@@ -471,15 +472,21 @@ object MangaController {
             queryParam<Boolean?>("updateProgress"),
             queryParam<String?>("format"),
             queryParam<Boolean?>("opds"),
+            queryParam<Int?>("tile"),
+            queryParam<Boolean?>("tiled"),
             documentWith = {
                 withOperation {
                     summary("Get a chapter page")
                     description(
-                        "Get a chapter page for a given index. Cache use can be disabled so it only retrieves it directly from the source.",
+                        "Get a chapter page for a given index. " +
+                            "Cache use can be disabled so it only retrieves it directly from the source. " +
+                            "\"tile\" selects a tile of a page that got split because of its height. " +
+                            "With \"tiled\" the index is the index of the sub-page in the list of pages and tiles of the chapter, " +
+                            "only supported for downloaded chapters.",
                     )
                 }
             },
-            behaviorOf = { ctx, mangaId, chapterIndex, index, updateProgress, format, opds ->
+            behaviorOf = { ctx, mangaId, chapterIndex, index, updateProgress, format, opds, tile, tiled ->
                 if (opds == true) {
                     ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 } else {
@@ -488,20 +495,33 @@ object MangaController {
 
                 ctx.future {
                     future {
-                        Page.getPageImageServe(
-                            mangaId = mangaId,
-                            chapterIndex = chapterIndex,
-                            index = index,
-                            format = format,
+                        val (subPage, isEndOfPage) =
+                            if (tiled == true) {
+                                PageTiles.getSubPage(mangaId, chapterIndex, index)
+                            } else {
+                                PageTiles.SubPage(index, tile) to true
+                            }
+
+                        Triple(
+                            subPage.index,
+                            isEndOfPage,
+                            Page.getPageImageServe(
+                                mangaId = mangaId,
+                                chapterIndex = chapterIndex,
+                                index = subPage.index,
+                                format = format,
+                                tile = subPage.tile,
+                            ),
                         )
-                    }.thenApply {
-                        ctx.header("content-type", it.second)
+                    }.thenApply { (pageIndex, isEndOfPage, image) ->
+                        ctx.header("content-type", image.second)
                         val httpCacheSeconds = 1.days.inWholeSeconds
                         ctx.header("cache-control", "max-age=$httpCacheSeconds")
-                        ctx.result(it.first)
+                        ctx.result(image.first)
 
-                        if (updateProgress == true) {
-                            val chapterId = Chapter.updateChapterProgress(mangaId, chapterIndex, pageNo = index)
+                        // the progress is tracked per page, a split page counts as read once its last tile got requested
+                        if (updateProgress == true && isEndOfPage) {
+                            val chapterId = Chapter.updateChapterProgress(mangaId, chapterIndex, pageNo = pageIndex)
                             // Sync progress with KoreaderSync if chapter update was successful
                             if (chapterId != -1) {
                                 GlobalScope.launch { KoreaderSyncService.pushProgress(chapterId) }
@@ -512,6 +532,7 @@ object MangaController {
             },
             withResults = {
                 image(HttpStatus.OK)
+                httpCode(HttpStatus.BAD_REQUEST)
                 httpCode(HttpStatus.NOT_FOUND)
             },
         )
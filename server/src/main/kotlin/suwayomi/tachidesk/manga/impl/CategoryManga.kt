@@ -9,15 +9,10 @@ package suwayomi.tachidesk.manga.impl
 
 import org.jetbrains.exposed.v1.core.ResultRow
 import org.jetbrains.exposed.v1.core.SortOrder
-import org.jetbrains.exposed.v1.core.alias
 import org.jetbrains.exposed.v1.core.and
-import org.jetbrains.exposed.v1.core.count
 import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.core.inList
 import org.jetbrains.exposed.v1.core.isNull
-import org.jetbrains.exposed.v1.core.leftJoin
-import org.jetbrains.exposed.v1.core.max
-import org.jetbrains.exposed.v1.core.wrapAsExpression
 import org.jetbrains.exposed.v1.jdbc.batchUpsert
 import org.jetbrains.exposed.v1.jdbc.deleteWhere
 import org.jetbrains.exposed.v1.jdbc.select
@@ -28,7 +23,7 @@ import suwayomi.tachidesk.manga.model.dataclass.CategoryDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
 import suwayomi.tachidesk.manga.model.table.CategoryTable
-import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaChapterStatsTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
 import suwayomi.tachidesk.manga.model.table.toDataClass
 import suwayomi.tachidesk.server.database.dbTransaction
@@ -99,57 +94,43 @@ object CategoryManga {
      * list of mangas that belong to a category
      */
     fun getCategoryMangaList(categoryId: Int): List<MangaDataClass> {
-        // Select the required columns from the MangaTable and add the aggregate functions to compute unread, download, and chapter counts
-        val unreadCount =
-            wrapAsExpression<Long>(
-                ChapterTable
-                    .select(
-                        ChapterTable.id.count(),
-                    ).where { ((ChapterTable.isRead eq false) and (ChapterTable.manga eq MangaTable.id)) },
-            )
-        val downloadedCount =
-            wrapAsExpression<Long>(
-                ChapterTable
-                    .select(
-                        ChapterTable.id.count(),
-                    ).where { ((ChapterTable.isDownloaded eq true) and (ChapterTable.manga eq MangaTable.id)) },
-            )
-
-        val chapterCount = ChapterTable.id.count().alias("chapter_count")
-        val lastReadAt = ChapterTable.lastReadAt.max().alias("last_read_at")
-        val selectedColumns = MangaTable.columns + unreadCount + downloadedCount + chapterCount + lastReadAt
+        // the chapter counts are read from the materialized stats instead of being aggregated over all chapters
+        val selectedColumns =
+            MangaTable.columns +
+                MangaChapterStatsTable.unreadCount +
+                MangaChapterStatsTable.downloadCount +
+                MangaChapterStatsTable.chapterCount +
+                MangaChapterStatsTable.lastReadAt
 
         val transform: (ResultRow) -> MangaDataClass = {
+            val chapterCount = it[MangaChapterStatsTable.chapterCount]
+
             // Map the data from the result row to the MangaDataClass
             MangaTable
                 .toDataClass(it)
                 .copy(
-                    lastReadAt = it[lastReadAt],
-                    unreadCount = it[unreadCount],
-                    downloadCount = it[downloadedCount],
-                    chapterCount = it[chapterCount],
+                    lastReadAt = it[MangaChapterStatsTable.lastReadAt].takeIf { chapterCount > 0 },
+                    unreadCount = it[MangaChapterStatsTable.unreadCount].toLong(),
+                    downloadCount = it[MangaChapterStatsTable.downloadCount].toLong(),
+                    chapterCount = chapterCount.toLong(),
                 )
         }
 
         return transaction {
             // Fetch data from the MangaTable and join with the CategoryMangaTable, if a category is specified
-            val query =
-                if (categoryId == DEFAULT_CATEGORY_ID) {
-                    MangaTable
-                        .leftJoin(ChapterTable, { MangaTable.id }, { ChapterTable.manga })
-                        .leftJoin(CategoryMangaTable)
-                        .select(columns = selectedColumns)
-                        .where { (MangaTable.inLibrary eq true) and CategoryMangaTable.category.isNull() }
-                } else {
-                    MangaTable
-                        .innerJoin(CategoryMangaTable)
-                        .leftJoin(ChapterTable, { MangaTable.id }, { ChapterTable.manga })
-                        .select(columns = selectedColumns)
-                        .where { (MangaTable.inLibrary eq true) and (CategoryMangaTable.category eq categoryId) }
-                }
-
-            // Join with the ChapterTable to fetch the last read chapter for each manga
-            query.groupBy(*MangaTable.columns.toTypedArray()).map(transform)
+            if (categoryId == DEFAULT_CATEGORY_ID) {
+                MangaTable
+                    .innerJoin(MangaChapterStatsTable)
+                    .leftJoin(CategoryMangaTable)
+                    .select(columns = selectedColumns)
+                    .where { (MangaTable.inLibrary eq true) and CategoryMangaTable.category.isNull() }
+            } else {
+                MangaTable
+                    .innerJoin(CategoryMangaTable)
+                    .innerJoin(MangaChapterStatsTable)
+                    .select(columns = selectedColumns)
+                    .where { (MangaTable.inLibrary eq true) and (CategoryMangaTable.category eq categoryId) }
+            }.map(transform)
         }
     }
 
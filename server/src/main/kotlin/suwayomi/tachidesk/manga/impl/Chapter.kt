@@ -35,9 +35,11 @@ import org.jetbrains.exposed.v1.jdbc.statements.toExecutable
 import org.jetbrains.exposed.v1.jdbc.transactions.suspendTransaction
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.impl.chapter.ChapterProgressBuffer
 import suwayomi.tachidesk.manga.impl.download.DownloadManager
 import suwayomi.tachidesk.manga.impl.download.DownloadManager.EnqueueInput
 import suwayomi.tachidesk.manga.impl.track.Track
+import suwayomi.tachidesk.manga.impl.util.invalidateDownloadPaths
 import suwayomi.tachidesk.manga.impl.util.updateChapterDownloadDir
 import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaChapterDataClass
@@ -344,6 +346,9 @@ object Chapter {
             }
         }
 
+        // names and scanlators of the chapters might have changed
+        invalidateDownloadPaths(mangaEntry[MangaTable.id].value)
+
         if (mangaEntry[MangaTable.inLibrary]) {
             // We have to query the inserted chapters to get the up-to-date data. I.e. "last_modified_at" is not returned by the insert statement, due to being set by a DB trigger
             val insertedChapters =
@@ -460,6 +465,10 @@ object Chapter {
         markPrevRead: Boolean?,
         lastPageRead: Int?,
     ): Int {
+        if (lastPageRead != null) {
+            ChapterProgressBuffer.findPending(mangaId, chapterIndex)?.let { (chapterId) -> ChapterProgressBuffer.discard(listOf(chapterId)) }
+        }
+
         val chapterId =
             transaction {
                 val chapter =
@@ -572,6 +581,15 @@ object Chapter {
                 }
             } ?: return
 
+        if (lastPageRead != null) {
+            val chapterIds =
+                input.chapterIds
+                    ?: input.chapterIndexes.orEmpty().mapNotNull { index ->
+                        mangaId?.let { ChapterProgressBuffer.findPending(it, index)?.first }
+                    }
+            ChapterProgressBuffer.discard(chapterIds)
+        }
+
         transaction {
             val now = Instant.now().epochSecond
             ChapterTable.update({ condition }) { update ->
@@ -784,29 +802,34 @@ object Chapter {
         chapterIndex: Int,
         pageNo: Int,
     ): Int {
-        val chapterData =
-            transaction {
-                ChapterTable
-                    .selectAll()
-                    .where {
-                        (ChapterTable.sourceOrder eq chapterIndex) and
-                            (ChapterTable.manga eq mangaId)
-                    }.first()
-                    .let { ChapterTable.toDataClass(it) }
-            }
+        val (chapterId, pageCount) =
+            ChapterProgressBuffer.findPending(mangaId, chapterIndex)?.let { (chapterId, progress) -> chapterId to progress.pageCount }
+                ?: transaction {
+                    ChapterTable
+                        .select(ChapterTable.id, ChapterTable.pageCount)
+                        .where {
+                            (ChapterTable.sourceOrder eq chapterIndex) and
+                                (ChapterTable.manga eq mangaId)
+                        }.first()
+                        .let { it[ChapterTable.id].value to it[ChapterTable.pageCount] }
+                }
 
         val oneIndexedPageNo = pageNo.inc()
-        val isRead = chapterData.pageCount.takeIf { it == oneIndexedPageNo }?.let { true }
+        if (pageCount != oneIndexedPageNo) {
+            ChapterProgressBuffer.record(chapterId, mangaId, chapterIndex, pageCount, lastPageRead = pageNo)
+            return chapterId
+        }
 
+        // finishing the chapter changes its read state, which has to be tracked right away
         modifyChapter(
             mangaId,
             chapterIndex,
-            isRead = isRead,
+            isRead = true,
             lastPageRead = pageNo,
             isBookmarked = null,
             markPrevRead = null,
         )
 
-        return chapterData.id
+        return chapterId
     }
 }
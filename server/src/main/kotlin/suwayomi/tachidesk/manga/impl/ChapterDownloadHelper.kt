@@ -5,6 +5,7 @@ import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.jdbc.select
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import suwayomi.tachidesk.manga.impl.chapter.getChapterDownloadReady
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
 import suwayomi.tachidesk.manga.impl.download.fileProvider.ChaptersFilesProvider
 import suwayomi.tachidesk.manga.impl.download.fileProvider.impl.ArchiveProvider
 import suwayomi.tachidesk.manga.impl.download.fileProvider.impl.FolderProvider
@@ -53,6 +54,13 @@ object ChapterDownloadHelper {
         mangaId: Int,
         chapterId: Int,
     ): ChaptersFilesProvider<*> {
+        val manifest = DownloadManifest.getIfUnchanged(mangaId, chapterId)
+        when (manifest?.format) {
+            DownloadManifest.Format.ARCHIVE -> return ArchiveProvider(mangaId, chapterId, manifest)
+            DownloadManifest.Format.FOLDER -> return FolderProvider(mangaId, chapterId, manifest)
+            null -> {}
+        }
+
         val chapterFolder = File(getChapterDownloadPath(mangaId, chapterId))
         val cbzFile = File(getChapterCbzPath(mangaId, chapterId))
         if (cbzFile.exists()) return ArchiveProvider(mangaId, chapterId)
@@ -70,6 +78,11 @@ object ChapterDownloadHelper {
         chapterId: Int,
     ): Long = provider(mangaId, chapterId).getArchiveSize()
 
+    suspend fun getKoreaderHash(
+        mangaId: Int,
+        chapterId: Int,
+    ): String? = provider(mangaId, chapterId).getKoreaderHash()
+
     private fun getChapterWithCbzFileName(chapterId: Int): Pair<ChapterDataClass, String> =
         transaction {
             val row =
@@ -0,0 +1,101 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.and
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.core.inList
+import org.jetbrains.exposed.v1.core.neq
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaChapterStatsTable
+
+object ChapterStats {
+    private data class ChapterInfo(
+        val id: Int,
+        val isRead: Boolean,
+        val lastReadAt: Long,
+        val sourceOrder: Int,
+        val fetchedAt: Long,
+        val uploadDate: Long,
+        val chapterNumber: Float,
+    )
+
+    /**
+     * Recalculates the chapter references of [MangaChapterStatsTable] for all passed mangas whose chapters changed
+     * since the last calculation.
+     *
+     * Has to be called inside a transaction.
+     */
+    fun refreshChapterReferences(mangaIds: Collection<Int>) {
+        if (mangaIds.isEmpty()) {
+            return
+        }
+
+        val staleRevisionByMangaId =
+            MangaChapterStatsTable
+                .select(MangaChapterStatsTable.manga, MangaChapterStatsTable.revision)
+                .where {
+                    (MangaChapterStatsTable.manga inList mangaIds) and
+                        (MangaChapterStatsTable.revision neq MangaChapterStatsTable.computedRevision)
+                }.associate { it[MangaChapterStatsTable.manga].value to it[MangaChapterStatsTable.revision] }
+
+        if (staleRevisionByMangaId.isEmpty()) {
+            return
+        }
+
+        val chaptersByMangaId =
+            ChapterTable
+                .select(
+                    ChapterTable.id,
+                    ChapterTable.manga,
+                    ChapterTable.isRead,
+                    ChapterTable.lastReadAt,
+                    ChapterTable.sourceOrder,
+                    ChapterTable.fetchedAt,
+                    ChapterTable.date_upload,
+                    ChapterTable.chapter_number,
+                ).where { ChapterTable.manga inList staleRevisionByMangaId.keys }
+                .toList()
+                .groupBy(
+                    { it[ChapterTable.manga].value },
+                    {
+                        ChapterInfo(
+                            id = it[ChapterTable.id].value,
+                            isRead = it[ChapterTable.isRead],
+                            lastReadAt = it[ChapterTable.lastReadAt],
+                            sourceOrder = it[ChapterTable.sourceOrder],
+                            fetchedAt = it[ChapterTable.fetchedAt],
+                            uploadDate = it[ChapterTable.date_upload],
+                            chapterNumber = it[ChapterTable.chapter_number],
+                        )
+                    },
+                )
+
+        staleRevisionByMangaId.forEach { (mangaId, revision) ->
+            val chapters = chaptersByMangaId[mangaId].orEmpty()
+            val readChapters = chapters.filter { it.isRead }
+            val unreadChapters = chapters.filterNot { it.isRead }
+            val numberedChapters = chapters.filter { it.chapterNumber > 0 }
+
+            // only store the result in case no chapter got changed in the meantime, otherwise the next read recalculates them
+            MangaChapterStatsTable.update({
+                (MangaChapterStatsTable.manga eq mangaId) and (MangaChapterStatsTable.revision eq revision)
+            }) { update ->
+                update[lastReadChapter] = chapters.maxByOrNull { it.lastReadAt }?.id
+                update[latestReadChapter] = readChapters.maxByOrNull { it.sourceOrder }?.id
+                update[latestFetchedChapter] = chapters.maxWithOrNull(compareBy({ it.fetchedAt }, { it.sourceOrder }))?.id
+                update[latestUploadedChapter] = chapters.maxWithOrNull(compareBy({ it.uploadDate }, { it.sourceOrder }))?.id
+                update[firstUnreadChapter] = unreadChapters.minByOrNull { it.sourceOrder }?.id
+                update[highestNumberedChapter] = numberedChapters.maxByOrNull { it.chapterNumber }?.id
+                update[computedRevision] = revision
+            }
+        }
+    }
+}
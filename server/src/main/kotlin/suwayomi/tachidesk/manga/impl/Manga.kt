@@ -42,6 +42,7 @@ import org.jetbrains.exposed.v1.jdbc.transactions.suspendTransaction
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
 import suwayomi.tachidesk.manga.impl.download.fileProvider.impl.MissingThumbnailException
+import suwayomi.tachidesk.manga.impl.util.invalidateDownloadPaths
 import suwayomi.tachidesk.manga.impl.util.network.await
 import suwayomi.tachidesk.manga.impl.util.source.GetSource.getSourceOrNull
 import suwayomi.tachidesk.manga.impl.util.source.GetSource.getSourceOrStub
@@ -191,62 +192,69 @@ object Manga {
         source: Source,
         sManga: SManga,
     ): SManga {
-        suspendTransaction {
-            val mangaId = mangaEntry[MangaTable.id].value
-            val currentTitle = mangaEntry[MangaTable.title]
-            val remoteTitle =
-                try {
-                    sManga.title
-                } catch (_: UninitializedPropertyAccessException) {
-                    ""
-                }
+        val hasUpdatedTitle =
+            suspendTransaction {
+                val mangaId = mangaEntry[MangaTable.id].value
+                val currentTitle = mangaEntry[MangaTable.title]
+                val remoteTitle =
+                    try {
+                        sManga.title
+                    } catch (_: UninitializedPropertyAccessException) {
+                        ""
+                    }
 
-            val hasChangedTitle = remoteTitle.isNotEmpty() && remoteTitle != currentTitle
-            val canUpdateTitle =
-                hasChangedTitle &&
-                    updateMangaDownloadDir(mangaId, currentTitle, source.toString(), remoteTitle)
+                val hasChangedTitle = remoteTitle.isNotEmpty() && remoteTitle != currentTitle
+                val canUpdateTitle =
+                    hasChangedTitle &&
+                        updateMangaDownloadDir(mangaId, currentTitle, source.toString(), remoteTitle)
 
-            MangaTable.update({ MangaTable.id eq mangaEntry[MangaTable.id] }) {
-                if (canUpdateTitle) {
-                    it[MangaTable.title] = remoteTitle
-                }
-                it[MangaTable.initialized] = true
-
-                it[MangaTable.artist] = sManga.artist ?: mangaEntry[MangaTable.artist]
-                it[MangaTable.author] = sManga.author ?: mangaEntry[MangaTable.author]
-                it[MangaTable.description] = sManga.description
-                    ?: mangaEntry[MangaTable.description]
-                it[MangaTable.genre] = sManga.genre ?: mangaEntry[MangaTable.genre]
-                it[MangaTable.status] = sManga.status
-                if (!sManga.thumbnail_url.isNullOrEmpty()) {
-                    it[MangaTable.thumbnail_url] = sManga.thumbnail_url
-                    it[MangaTable.thumbnailUrlLastFetched] = Instant.now().epochSecond
-                    clearThumbnail(mangaId)
+                MangaTable.update({ MangaTable.id eq mangaEntry[MangaTable.id] }) {
+                    if (canUpdateTitle) {
+                        it[MangaTable.title] = remoteTitle
+                    }
+                    it[MangaTable.initialized] = true
+
+                    it[MangaTable.artist] = sManga.artist ?: mangaEntry[MangaTable.artist]
+                    it[MangaTable.author] = sManga.author ?: mangaEntry[MangaTable.author]
+                    it[MangaTable.description] = sManga.description
+                        ?: mangaEntry[MangaTable.description]
+                    it[MangaTable.genre] = sManga.genre ?: mangaEntry[MangaTable.genre]
+                    it[MangaTable.status] = sManga.status
+                    if (!sManga.thumbnail_url.isNullOrEmpty()) {
+                        it[MangaTable.thumbnail_url] = sManga.thumbnail_url
+                        it[MangaTable.thumbnailUrlLastFetched] = Instant.now().epochSecond
+                        clearThumbnail(mangaId)
+                    }
+
+                    it[MangaTable.realUrl] =
+                        runCatching {
+                            (source as? HttpSource)?.getMangaUrl(
+                                SManga.create().apply {
+                                    url = mangaEntry[MangaTable.url]
+                                    title = remoteTitle.ifEmpty { currentTitle }
+                                    thumbnail_url = mangaEntry[MangaTable.thumbnail_url]
+                                    artist = sManga.artist ?: mangaEntry[MangaTable.artist]
+                                    author = sManga.author ?: mangaEntry[MangaTable.author]
+                                    description = sManga.description ?: mangaEntry[MangaTable.description]
+                                    genre = sManga.genre ?: mangaEntry[MangaTable.genre]
+                                    status = sManga.status
+                                    update_strategy = sManga.update_strategy
+                                    memo = sManga.memo
+                                },
+                            )
+                        }.getOrNull()
+
+                    it[MangaTable.lastFetchedAt] = Instant.now().epochSecond
+
+                    it[MangaTable.updateStrategy] = sManga.update_strategy.name
+                    it[MangaTable.memo] = sManga.memo
                 }
 
-                it[MangaTable.realUrl] =
-                    runCatching {
-                        (source as? HttpSource)?.getMangaUrl(
-                            SManga.create().apply {
-                                url = mangaEntry[MangaTable.url]
-                                title = remoteTitle.ifEmpty { currentTitle }
-                                thumbnail_url = mangaEntry[MangaTable.thumbnail_url]
-                                artist = sManga.artist ?: mangaEntry[MangaTable.artist]
-                                author = sManga.author ?: mangaEntry[MangaTable.author]
-                                description = sManga.description ?: mangaEntry[MangaTable.description]
-                                genre = sManga.genre ?: mangaEntry[MangaTable.genre]
-                                status = sManga.status
-                                update_strategy = sManga.update_strategy
-                                memo = sManga.memo
-                            },
-                        )
-                    }.getOrNull()
-
-                it[MangaTable.lastFetchedAt] = Instant.now().epochSecond
-
-                it[MangaTable.updateStrategy] = sManga.update_strategy.name
-                it[MangaTable.memo] = sManga.memo
+                canUpdateTitle
             }
+
+        if (hasUpdatedTitle) {
+            invalidateDownloadPaths(mangaEntry[MangaTable.id].value)
         }
 
         return sManga
@@ -20,6 +20,7 @@ import org.jetbrains.exposed.v1.jdbc.batchInsert
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.statements.toExecutable
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.impl.util.invalidateDownloadPaths
 import suwayomi.tachidesk.manga.impl.util.source.GetSource.getSourceOrStub
 import suwayomi.tachidesk.manga.model.dataclass.PagedMangaListDataClass
 import suwayomi.tachidesk.manga.model.table.MangaTable
@@ -119,22 +120,35 @@ object MangaList {
                     .execute(this@transaction)
             }
 
+            val renamedMangaIds =
+                mangaToUpdate
+                    .filter { (sManga, manga) -> sManga.title != manga[MangaTable.title] }
+                    .map { (_, manga) -> manga[MangaTable.id].value }
+
             val mangaUrlsToId =
                 existingMangaUrlsToId
                     .mapValues { it.value[MangaTable.id].value } + insertedMangaUrlsToId
 
-            mangas.map { manga ->
-                mangaUrlsToId[manga.url]
-                    ?: throw Exception("MangaList::insertOrGet($sourceId): Something went wrong inserting browsed source mangas")
-            }
+            val mangaIds =
+                mangas.map { manga ->
+                    mangaUrlsToId[manga.url]
+                        ?: throw Exception("MangaList::insertOrGet($sourceId): Something went wrong inserting browsed source mangas")
+                }
+
+            mangaIds to renamedMangaIds
+        }.let { (mangaIds, renamedMangaIds) ->
+            // only after the commit, otherwise a concurrent lookup could cache the path of the old title again
+            renamedMangaIds.forEach { invalidateDownloadPaths(it) }
+
+            mangaIds
         }
 
     fun MangasPage.processEntries(sourceId: Long): PagedMangaListDataClass {
         val mangasPage = this
+        val mangaIds = insertOrUpdate(sourceId)
         val mangaList =
             transaction {
-                val mangaIds = insertOrUpdate(sourceId)
-                return@transaction MangaTable.selectAll().where { MangaTable.id inList mangaIds }.map { MangaTable.toDataClass(it) }
+                MangaTable.selectAll().where { MangaTable.id inList mangaIds }.map { MangaTable.toDataClass(it) }
             }
         return PagedMangaListDataClass(
             mangaList,
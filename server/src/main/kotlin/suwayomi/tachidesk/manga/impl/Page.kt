@@ -11,11 +11,15 @@ import eu.kanade.tachiyomi.source.local.LocalSource
 import eu.kanade.tachiyomi.source.model.Page
 import eu.kanade.tachiyomi.source.online.HttpSource
 import io.github.oshai.kotlinlogging.KotlinLogging
+import io.github.reactivecircus.cache4k.Cache
 import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import libcore.net.MimeUtils
 import org.jetbrains.exposed.v1.core.SortOrder
 import org.jetbrains.exposed.v1.core.and
 import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.select
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
@@ -27,6 +31,7 @@ import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
 import suwayomi.tachidesk.manga.model.table.PageTable
+import suwayomi.tachidesk.server.metrics.ServerMetrics
 import suwayomi.tachidesk.server.serverConfig
 import suwayomi.tachidesk.util.ConversionUtil
 import java.io.ByteArrayInputStream
@@ -37,10 +42,17 @@ import javax.imageio.IIOImage
 import javax.imageio.ImageIO
 import javax.imageio.ImageWriteParam
 import javax.imageio.ImageWriter
+import kotlin.time.Duration.Companion.minutes
 
 object Page {
     private val logger = KotlinLogging.logger {}
 
+    private val mutexByPage: Cache<Pair<Int, Int>, Mutex> =
+        Cache
+            .Builder<Pair<Int, Int>, Mutex>()
+            .expireAfterAccess(10.minutes)
+            .build()
+
     /**
      * A page might have a imageUrl ready from the get go, or we might need to
      * go an extra step and call fetchImageUrl to get it.
@@ -121,37 +133,57 @@ object Page {
         val source = getSourceOrNull(mangaEntry[MangaTable.sourceReference])!!
         source as HttpSource
 
-        if (pageEntry[PageTable.imageUrl] == null) {
-            val trueImageUrl = getTrueImageUrl(tachiyomiPage, source)
-            transaction {
-                PageTable.update({ (PageTable.chapter eq chapterId) and (PageTable.index eq index) }) {
-                    it[imageUrl] = trueImageUrl
-                }
-            }
-        }
-
         val fileName = getPageName(index, chapterEntry[ChapterTable.pageCount])
 
         val cacheSaveDir = getChapterCachePath(mangaId, chapterId)
 
-        // Note: don't care about invalidating cache because OS cache is not permanent
-        return getImageResponse(cacheSaveDir, fileName) {
-            source.getImage(tachiyomiPage)
+        // the size of the cache is limited by ImageCache
+        // the page might get requested by the reader while it's getting prefetched, see PagePrefetcher
+        return mutexByPage.get(chapterId to index) { Mutex() }.withLock {
+            getImageResponse(cacheSaveDir, fileName) {
+                // only resolve the image url in case the page is not cached yet
+                if (pageEntry[PageTable.imageUrl] == null) {
+                    val trueImageUrl = getTrueImageUrl(tachiyomiPage, source)
+                    transaction {
+                        PageTable.update({ (PageTable.chapter eq chapterId) and (PageTable.index eq index) }) {
+                            it[imageUrl] = trueImageUrl
+                        }
+                    }
+                }
+
+                source.getImage(tachiyomiPage)
+            }
         }
     }
 
+    /**
+     * @param tile the tile of the page to serve, see [PageTiles]
+     */
     suspend fun getPageImageServe(
         mangaId: Int,
         chapterIndex: Int,
         index: Int,
         format: String? = null,
+        tile: Int? = null,
     ): Pair<InputStream, String> {
-        val (inputStream, mime) =
-            getPageImage(
-                mangaId = mangaId,
-                chapterIndex = chapterIndex,
-                index = index,
-            )
+        PagePrefetcher.onPageRequested(mangaId, chapterIndex, index)
+
+        val openImage: suspend () -> Pair<InputStream, String> =
+            if (tile != null) {
+                val chapterId =
+                    transaction {
+                        ChapterTable
+                            .select(ChapterTable.id)
+                            .where { ChapterTable.manga eq mangaId and (ChapterTable.sourceOrder eq chapterIndex) }
+                            .first()[ChapterTable.id]
+                            .value
+                    }
+                ({ PageTiles.getTile(mangaId, chapterId, index, tile) })
+            } else {
+                ({ getPageImage(mangaId = mangaId, chapterIndex = chapterIndex, index = index) })
+            }
+
+        val (inputStream, mime) = openImage()
         val conversions = serverConfig.serveConversions.value
         val defaultConversion = conversions["default"]
         val formatConversion = format?.let { DownloadConversion(target = it) }
@@ -172,7 +204,7 @@ object Page {
                 logger.error(e) { "Error while post-processing image" }
                 // re-open cached image in case of an error, since conversion likely (partially) consumed the input stream
                 // so it's likely not possible to serve it
-                getPageImage(mangaId = mangaId, chapterIndex = chapterIndex, index = index)
+                openImage()
             }
         return converted?.also { inputStream.close() } ?: (inputStream to mime)
     }
@@ -259,12 +291,14 @@ object Page {
         if (ConversionUtil.isHttpPostProcess(conversion)) {
             try {
                 val processedStream =
-                    ConversionUtil
-                        .imageHttpPostProcess(
-                            inputStream = image,
-                            mimeType = mime,
-                            conversion = conversion,
-                        )?.buffered()
+                    ServerMetrics.imageConversionDuration.time("http", "") {
+                        ConversionUtil
+                            .imageHttpPostProcess(
+                                inputStream = image,
+                                mimeType = mime,
+                                conversion = conversion,
+                            )?.buffered()
+                    }
                 if (processedStream != null) {
                     val mime =
                         ImageUtil.findImageType(processedStream)?.mime
@@ -283,11 +317,13 @@ object Page {
                 return null
             }
 
-            return convertToFormat(image, mime, conversion)
+            return ServerMetrics.imageConversionDuration.time("format", conversion.target) {
+                convertToFormat(image, mime, conversion)
+            }
         }
     }
 
-    private fun convertToFormat(
+    internal fun convertToFormat(
         inputStream: InputStream,
         sourceMimeType: String,
         target: DownloadConversion,
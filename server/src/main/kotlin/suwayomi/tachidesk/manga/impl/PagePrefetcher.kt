@@ -0,0 +1,196 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.local.LocalSource
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.github.reactivecircus.cache4k.Cache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.jetbrains.exposed.v1.core.ResultRow
+import org.jetbrains.exposed.v1.core.and
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.impl.chapter.refreshChapterPageList
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration.Companion.minutes
+
+/**
+ * Fetches the pages following the page a reader requested into the page cache, so that turning the page doesn't have
+ * to wait for the source.
+ *
+ * Close to the end of a chapter, the page list and first pages of the next chapter get fetched as well. The prefetched
+ * page list gets used once the reader opens the next chapter, see [takePrefetchedPageList].
+ */
+object PagePrefetcher {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /** The running prefetch per chapter id */
+    private val prefetchJobs = ConcurrentHashMap<Int, Job>()
+
+    /** Only one page gets prefetched at a time per source, to not delay the pages the readers are waiting for */
+    private val sourceSemaphores = ConcurrentHashMap<Long, Semaphore>()
+
+    /** Ids of the chapters whose page list got fetched ahead of time */
+    private val prefetchedPageLists: Cache<Int, Unit> =
+        Cache
+            .Builder<Int, Unit>()
+            .expireAfterWrite(10.minutes)
+            .build()
+
+    private fun getChapter(
+        mangaId: Int,
+        chapterIndex: Int,
+    ): ResultRow? =
+        transaction {
+            ChapterTable
+                .selectAll()
+                .where { (ChapterTable.manga eq mangaId) and (ChapterTable.sourceOrder eq chapterIndex) }
+                .firstOrNull()
+        }
+
+    fun onPageRequested(
+        mangaId: Int,
+        chapterIndex: Int,
+        index: Int,
+    ) {
+        val prefetchPages = serverConfig.readerPrefetchPages.value
+        if (prefetchPages <= 0) {
+            return
+        }
+
+        scope.launch {
+            try {
+                prefetch(mangaId, chapterIndex, index, prefetchPages)
+            } catch (e: Exception) {
+                if (e is CancellationException) throw e
+                logger.warn(e) { "Failed to prefetch pages of chapter $chapterIndex of manga $mangaId" }
+            }
+        }
+    }
+
+    private fun prefetch(
+        mangaId: Int,
+        chapterIndex: Int,
+        index: Int,
+        prefetchPages: Int,
+    ) {
+        val chapter = getChapter(mangaId, chapterIndex) ?: return
+        val pageCount = chapter[ChapterTable.pageCount]
+        if (chapter[ChapterTable.isDownloaded] || pageCount <= 0) {
+            return
+        }
+
+        val sourceId =
+            transaction {
+                MangaTable
+                    .select(MangaTable.sourceReference)
+                    .where { MangaTable.id eq mangaId }
+                    .first()[MangaTable.sourceReference]
+            }
+        if (sourceId == LocalSource.ID) {
+            return
+        }
+
+        val chapterId = chapter[ChapterTable.id].value
+        launchOnce(chapterId) {
+            warm(mangaId, chapterId, sourceId, index + 1 until minOf(index + 1 + prefetchPages, pageCount))
+        }
+
+        val isCloseToEnd = index + prefetchPages >= pageCount - 1
+        if (!isCloseToEnd) {
+            return
+        }
+
+        val nextChapter = getChapter(mangaId, chapterIndex + 1) ?: return
+        if (nextChapter[ChapterTable.isDownloaded]) {
+            return
+        }
+
+        val nextChapterId = nextChapter[ChapterTable.id].value
+        launchOnce(nextChapterId) {
+            val nextPageCount =
+                if (prefetchedPageLists.get(nextChapterId) != null) {
+                    nextChapter[ChapterTable.pageCount]
+                } else {
+                    refreshChapterPageList(mangaId, nextChapterId, nextChapter).also {
+                        prefetchedPageLists.put(nextChapterId, Unit)
+                    }
+                }
+
+            warm(mangaId, nextChapterId, sourceId, 0 until minOf(prefetchPages, nextPageCount))
+        }
+    }
+
+    /**
+     * Only one prefetch runs per chapter, requests for pages of a chapter that is still being prefetched are ignored.
+     */
+    private fun launchOnce(
+        chapterId: Int,
+        block: suspend () -> Unit,
+    ) {
+        val job =
+            scope.launch(start = CoroutineStart.LAZY) {
+                try {
+                    block()
+                } catch (e: Exception) {
+                    if (e is CancellationException) throw e
+                    logger.debug(e) { "Stopped prefetching pages of chapter $chapterId" }
+                }
+            }
+
+        if (prefetchJobs.putIfAbsent(chapterId, job) != null) {
+            job.cancel()
+            return
+        }
+
+        job.invokeOnCompletion { prefetchJobs.remove(chapterId, job) }
+        job.start()
+    }
+
+    private suspend fun warm(
+        mangaId: Int,
+        chapterId: Int,
+        sourceId: Long,
+        indices: IntRange,
+    ) {
+        val semaphore = sourceSemaphores.getOrPut(sourceId) { Semaphore(1) }
+        indices.forEach { index ->
+            // already cached pages get served without a request to the source
+            semaphore.withPermit {
+                Page.getPageImage(mangaId = mangaId, chapterId = chapterId, index = index).first.close()
+            }
+        }
+    }
+
+    /**
+     * @return whether the page list of the chapter got prefetched recently, in which case it doesn't have to be
+     * fetched again when the reader opens the chapter
+     */
+    fun takePrefetchedPageList(chapterId: Int): Boolean {
+        if (prefetchedPageLists.get(chapterId) == null) {
+            return false
+        }
+
+        prefetchedPageLists.invalidate(chapterId)
+        return true
+    }
+}
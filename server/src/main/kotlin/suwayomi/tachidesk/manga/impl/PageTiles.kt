@@ -0,0 +1,314 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.github.reactivecircus.cache4k.Cache
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.jetbrains.exposed.v1.core.and
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.impl.util.getChapterCachePath
+import suwayomi.tachidesk.manga.impl.util.storage.ImageCache
+import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.serverConfig
+import uy.kohesive.injekt.injectLazy
+import java.awt.Rectangle
+import java.io.File
+import java.io.InputStream
+import javax.imageio.IIOImage
+import javax.imageio.ImageIO
+import javax.imageio.ImageReader
+import javax.imageio.ImageWriteParam
+import kotlin.math.ceil
+import kotlin.time.Duration.Companion.minutes
+
+/**
+ * Splits pages that are taller than [serverConfig.serveTileHeight] into tiles of equal height, so that readers don't
+ * have to decode huge bitmaps of long strip pages.
+ *
+ * The tiles are sub-pages of their page, addressed by the page index and the tile index. They get generated on first
+ * request and are kept in the image cache for following readers.
+ *
+ * Only pages whose file is available locally (downloaded or in the page cache) are split in the page lists, the size of
+ * all other pages is unknown without fetching them.
+ */
+object PageTiles {
+    private val logger = KotlinLogging.logger {}
+
+    private val applicationDirs: ApplicationDirs by injectLazy()
+
+    private const val JPEG_QUALITY = 0.9f
+
+    data class PageSize(
+        val width: Int,
+        val height: Int,
+    )
+
+    /**
+     * A page of a chapter or one of its tiles
+     *
+     * @param tile the index of the tile, null for pages that are not split
+     */
+    data class SubPage(
+        val index: Int,
+        val tile: Int?,
+    )
+
+    /** The sizes of pages, only read the headers of the images once */
+    private val pageSizes: Cache<Pair<Int, Int>, PageSize> =
+        Cache
+            .Builder<Pair<Int, Int>, PageSize>()
+            .maximumCacheSize(20_000)
+            .build()
+
+    private val mutexByPage: Cache<Pair<Int, Int>, Mutex> =
+        Cache
+            .Builder<Pair<Int, Int>, Mutex>()
+            .expireAfterAccess(10.minutes)
+            .build()
+
+    fun isEnabled(): Boolean = serverConfig.serveTileHeight.value > 0
+
+    /**
+     * @return the number of tiles and the height of the tiles of the page, the last tile might be less tall
+     */
+    fun getTiling(size: PageSize): Pair<Int, Int> {
+        val maxTileHeight = serverConfig.serveTileHeight.value
+        if (maxTileHeight <= 0 || size.height <= maxTileHeight) {
+            return 1 to size.height
+        }
+
+        val tileCount = ceil(size.height / maxTileHeight.toDouble()).toInt()
+        return tileCount to ceil(size.height / tileCount.toDouble()).toInt()
+    }
+
+    /**
+     * The sub-pages of the chapter, pages whose size is unknown are not split.
+     *
+     * Only reads the pages that are available locally.
+     */
+    suspend fun getSubPages(
+        mangaId: Int,
+        chapterId: Int,
+        pageCount: Int,
+        isDownloaded: Boolean,
+    ): List<SubPage> {
+        if (!isEnabled()) {
+            return List(pageCount) { SubPage(it, null) }
+        }
+
+        return (0 until pageCount).flatMap { index ->
+            val size =
+                pageSizes.get(chapterId to index)
+                    ?: readLocalPageSize(mangaId, chapterId, index, pageCount, isDownloaded)
+            val tileCount = size?.let { getTiling(it).first } ?: 1
+
+            if (tileCount > 1) {
+                List(tileCount) { SubPage(index, it) }
+            } else {
+                listOf(SubPage(index, null))
+            }
+        }
+    }
+
+    /**
+     * The sub-pages of the chapter in case the sizes of all of its pages are already known, does not read any page.
+     */
+    fun getCachedSubPages(
+        chapterId: Int,
+        pageCount: Int,
+    ): List<SubPage>? {
+        if (!isEnabled() || pageCount <= 0) {
+            return null
+        }
+
+        return (0 until pageCount).flatMap { index ->
+            val size = pageSizes.get(chapterId to index) ?: return null
+            val tileCount = getTiling(size).first
+
+            if (tileCount > 1) {
+                List(tileCount) { SubPage(index, it) }
+            } else {
+                listOf(SubPage(index, null))
+            }
+        }
+    }
+
+    /**
+     * Resolves the index of a sub-page of the list returned by [getSubPages] for the chapter.
+     *
+     * Only downloaded chapters are supported, for all other chapters the list changes while their pages get cached.
+     *
+     * @return the sub-page and whether it is the last sub-page of its page
+     */
+    suspend fun getSubPage(
+        mangaId: Int,
+        chapterIndex: Int,
+        subPageIndex: Int,
+    ): Pair<SubPage, Boolean> {
+        val (chapterId, pageCount, isDownloaded) =
+            transaction {
+                ChapterTable
+                    .select(ChapterTable.id, ChapterTable.pageCount, ChapterTable.isDownloaded)
+                    .where { (ChapterTable.manga eq mangaId) and (ChapterTable.sourceOrder eq chapterIndex) }
+                    .first()
+                    .let { Triple(it[ChapterTable.id].value, it[ChapterTable.pageCount], it[ChapterTable.isDownloaded]) }
+            }
+        require(isDownloaded) { "Sub-pages are only available for downloaded chapters, chapter $chapterId is not downloaded" }
+
+        val subPages = getSubPages(mangaId, chapterId, pageCount, isDownloaded = true)
+        val subPage =
+            subPages.getOrNull(subPageIndex)
+                ?: throw NoSuchElementException("Chapter $chapterId has no sub-page $subPageIndex")
+
+        return subPage to (subPages.getOrNull(subPageIndex + 1)?.index != subPage.index)
+    }
+
+    private suspend fun readLocalPageSize(
+        mangaId: Int,
+        chapterId: Int,
+        index: Int,
+        pageCount: Int,
+        isDownloaded: Boolean,
+    ): PageSize? {
+        val stream =
+            try {
+                if (isDownloaded) {
+                    ChapterDownloadHelper.getImage(mangaId, chapterId, index).first
+                } else {
+                    val cacheDir = getChapterCachePath(mangaId, chapterId)
+                    ImageResponse
+                        .findFileNameStartingWith(cacheDir, Page.getPageName(index, pageCount))
+                        ?.takeUnless { it.endsWith(".tmp") }
+                        ?.let { File(it).inputStream() }
+                }
+            } catch (e: Exception) {
+                logger.debug(e) { "Could not open page $index of chapter $chapterId" }
+                null
+            } ?: return null
+
+        return stream.use { readPageSize(it) }?.also { pageSizes.put(chapterId to index, it) }
+    }
+
+    private fun <T> withImageReader(
+        stream: InputStream,
+        block: (ImageReader) -> T,
+    ): T? =
+        ImageIO.createImageInputStream(stream)?.use { imageStream ->
+            val reader = ImageIO.getImageReaders(imageStream).asSequence().firstOrNull() ?: return null
+            try {
+                reader.input = imageStream
+                block(reader)
+            } finally {
+                reader.dispose()
+            }
+        }
+
+    private fun readPageSize(stream: InputStream): PageSize? =
+        try {
+            withImageReader(stream) { reader -> PageSize(reader.getWidth(0), reader.getHeight(0)) }
+        } catch (e: Exception) {
+            logger.debug(e) { "Could not read the size of the image" }
+            null
+        }
+
+    private fun getTileDir(chapterId: Int): String = "${applicationDirs.tempPageTileCacheRoot}/$chapterId"
+
+    /**
+     * The tile of a page, the page gets fetched in case it's not available locally.
+     *
+     * Only the rows of the tile are kept in memory while decoding, the other tiles get generated once they get requested.
+     */
+    suspend fun getTile(
+        mangaId: Int,
+        chapterId: Int,
+        index: Int,
+        tile: Int,
+    ): Pair<InputStream, String> {
+        val maxTileHeight = serverConfig.serveTileHeight.value
+        val tileDir = getTileDir(chapterId)
+        val tileName = "${index}_${maxTileHeight}_$tile"
+
+        return mutexByPage.get(chapterId to index) { Mutex() }.withLock {
+            val cachedTile = ImageResponse.findFileNameStartingWith(tileDir, tileName)?.takeUnless { it.endsWith(".tmp") }
+            if (cachedTile != null) {
+                ImageCache.recordHit(cachedTile)
+                val cachedMime = if (cachedTile.endsWith(".png")) "image/png" else "image/jpeg"
+                return@withLock File(cachedTile).inputStream().buffered() to cachedMime
+            }
+            ImageCache.recordMiss("$tileDir/$tileName")
+
+            val (stream, mime) = Page.getPageImage(mangaId = mangaId, chapterId = chapterId, index = index)
+            val tileImage =
+                stream.use {
+                    withImageReader(it) { reader ->
+                        val size = PageSize(reader.getWidth(0), reader.getHeight(0))
+                        pageSizes.put(chapterId to index, size)
+
+                        val (tileCount, tileHeight) = getTiling(size)
+                        if (tile !in 0 until tileCount) {
+                            throw NoSuchElementException("Page $index of chapter $chapterId has no tile $tile")
+                        }
+                        if (tileCount == 1) {
+                            return@withImageReader null
+                        }
+
+                        val top = tile * tileHeight
+                        val param =
+                            reader.defaultReadParam.apply {
+                                sourceRegion = Rectangle(0, top, size.width, minOf(tileHeight, size.height - top))
+                            }
+                        reader.read(0, param)
+                    }
+                }
+
+            if (tileImage == null) {
+                // the page is not split or can't be decoded, serve it as is
+                return@withLock Page.getPageImage(mangaId = mangaId, chapterId = chapterId, index = index)
+            }
+
+            // keep the transparency of e.g. png pages, everything else is stored as jpeg
+            val (format, tileMime) = if (tileImage.colorModel.hasAlpha()) "png" to "image/png" else "jpg" to "image/jpeg"
+            val writer = ImageIO.getImageWritersByMIMEType(tileMime).next()
+            val tileFile = File(tileDir, "$tileName.$format")
+            val tmpFile = File(tileDir, "$tileName.tmp")
+
+            try {
+                File(tileDir).mkdirs()
+                ImageIO.createImageOutputStream(tmpFile).use { output ->
+                    writer.output = output
+                    val writeParam =
+                        writer.defaultWriteParam.apply {
+                            if (tileMime == "image/jpeg") {
+                                compressionMode = ImageWriteParam.MODE_EXPLICIT
+                                compressionQuality = JPEG_QUALITY
+                            }
+                        }
+                    writer.write(null, IIOImage(tileImage, null, null), writeParam)
+                }
+            } catch (e: Exception) {
+                tmpFile.delete()
+                logger.warn(e) { "Could not create tile $tile of page $index of chapter $chapterId ($mime)" }
+                throw e
+            } finally {
+                writer.dispose()
+            }
+            tmpFile.renameTo(tileFile)
+
+            val inputStream = tileFile.inputStream().buffered()
+            // only after opening the file, otherwise it might get evicted right away
+            ImageCache.recordWrite(tileFile.absolutePath)
+            inputStream to tileMime
+        }
+    }
+}
@@ -23,6 +23,7 @@ import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
 import suwayomi.tachidesk.manga.impl.ChapterDownloadHelper
+import suwayomi.tachidesk.manga.impl.PagePrefetcher
 import suwayomi.tachidesk.manga.impl.util.source.GetSource.getSourceOrStub
 import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
 import suwayomi.tachidesk.manga.model.table.ChapterTable
@@ -159,8 +160,12 @@ private class ChapterForDownload(
         log.debug { "isMarkedAsDownloaded= $isMarkedAsDownloaded, dbPageCount= $dbPageCount, downloadPageCount= $downloadPageCount" }
 
         return if (!doesDownloadExist) {
-            log.debug { "reset download status and fetch page list" }
-            refreshChapterPageList(mangaId, chapterId, chapterEntry)
+            if (PagePrefetcher.takePrefetchedPageList(chapterId)) {
+                log.debug { "use prefetched page list" }
+            } else {
+                log.debug { "reset download status and fetch page list" }
+                refreshChapterPageList(mangaId, chapterId, chapterEntry)
+            }
             chapterEntry = freshChapterEntry(optChapterId = chapterId)
             ChapterTable.toDataClass(chapterEntry)
         } else {
@@ -0,0 +1,149 @@
+package suwayomi.tachidesk.manga.impl.chapter
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import org.jetbrains.exposed.v1.core.dao.id.EntityID
+import org.jetbrains.exposed.v1.core.statements.BatchUpdateStatement
+import org.jetbrains.exposed.v1.jdbc.statements.toExecutable
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.server.database.DBManager
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Buffers the reading progress readers report while turning pages and writes it in one batch.
+ *
+ * Only the last read page of a chapter gets buffered, changes of the read state are still written immediately since
+ * they trigger tracking. The buffer gets written every [flushInterval], once a reader continues with another chapter
+ * of the manga and before the database gets closed on shutdown.
+ *
+ * Explicit changes of a chapter have to [discard] its buffered progress, otherwise it would overwrite them.
+ */
+object ChapterProgressBuffer {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val flushInterval = 5.seconds
+
+    data class Progress(
+        val mangaId: Int,
+        val chapterIndex: Int,
+        val pageCount: Int,
+        val lastPageRead: Int,
+        val lastReadAt: Long,
+    )
+
+    /** The buffered progress by chapter id */
+    private val pending = ConcurrentHashMap<Int, Progress>()
+
+    private val flushLock = Any()
+
+    private var flusher: Job? = null
+
+    fun start() {
+        DBManager.doBeforeShutdown { flush() }
+
+        flusher?.cancel()
+        flusher =
+            scope.launch {
+                while (isActive) {
+                    delay(flushInterval)
+
+                    try {
+                        flush()
+                    } catch (e: Exception) {
+                        if (e is CancellationException) throw e
+                        logger.error(e) { "Failed to write the reading progress" }
+                    }
+                }
+            }
+    }
+
+    fun record(
+        chapterId: Int,
+        mangaId: Int,
+        chapterIndex: Int,
+        pageCount: Int,
+        lastPageRead: Int,
+    ) {
+        val isOtherChapterOfManga = pending.any { (id, progress) -> id != chapterId && progress.mangaId == mangaId }
+
+        pending[chapterId] = Progress(mangaId, chapterIndex, pageCount, lastPageRead, Instant.now().epochSecond)
+
+        // the reader continued with another chapter, the progress of the previous one is final
+        if (isOtherChapterOfManga) {
+            scope.launch {
+                try {
+                    flush()
+                } catch (e: Exception) {
+                    if (e is CancellationException) throw e
+                    logger.error(e) { "Failed to write the reading progress" }
+                }
+            }
+        }
+    }
+
+    fun getPending(chapterId: Int): Progress? = pending[chapterId]
+
+    /**
+     * @return the buffered progress of the chapter of the manga, null in case there is none
+     */
+    fun findPending(
+        mangaId: Int,
+        chapterIndex: Int,
+    ): Pair<Int, Progress>? =
+        pending.entries
+            .firstOrNull { (_, progress) -> progress.mangaId == mangaId && progress.chapterIndex == chapterIndex }
+            ?.toPair()
+
+    fun discard(chapterIds: Collection<Int>) {
+        // wait for a running flush, it must not write the discarded progress after the explicit change
+        synchronized(flushLock) {
+            chapterIds.forEach { pending.remove(it) }
+        }
+    }
+
+    /**
+     * Writes the buffered progress in one transaction.
+     */
+    fun flush() {
+        synchronized(flushLock) {
+            val progressByChapterId = pending.toMap()
+            if (progressByChapterId.isEmpty()) {
+                return
+            }
+
+            transaction {
+                BatchUpdateStatement(ChapterTable)
+                    .apply {
+                        progressByChapterId.forEach { (chapterId, progress) ->
+                            addBatch(EntityID(chapterId, ChapterTable))
+
+                            this[ChapterTable.lastPageRead] = progress.lastPageRead
+                            this[ChapterTable.lastReadAt] = progress.lastReadAt
+                        }
+                    }.toExecutable()
+                    .execute(this)
+            }
+
+            // keep progress that got reported while writing
+            progressByChapterId.forEach { (chapterId, progress) -> pending.remove(chapterId, progress) }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.currentCoroutineContext
+import okio.Buffer
+import okio.ForwardingSource
+import okio.Source
+import okio.Throttler
+import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse
+import suwayomi.tachidesk.server.metrics.ServerMetrics
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+/**
+ * Limits the bandwidth the downloader uses to fetch pages, globally and per source.
+ *
+ * Only the requests of coroutines marked with [DownloadTraffic] are throttled, pages requested by readers are exempted.
+ * Reading a throttled response blocks the reading thread until the limits allow further bytes, thus the responses get
+ * read interruptibly on [kotlinx.coroutines.Dispatchers.IO] (see [ImageResponse.getImageResponse]).
+ */
+object DownloadBandwidth {
+    /** Marks the coroutines of the downloader */
+    object DownloadTraffic : AbstractCoroutineContextElement(Key) {
+        object Key : CoroutineContext.Key<DownloadTraffic>
+    }
+
+    private const val THROUGHPUT_WINDOW_SECONDS = 5
+
+    private val globalThrottler = Throttler()
+    private val sourceThrottlers = ConcurrentHashMap<Long, Throttler>()
+
+    /** Bytes received by the downloader per second, for the last [THROUGHPUT_WINDOW_SECONDS] seconds */
+    private val receivedBytes = LongArray(THROUGHPUT_WINDOW_SECONDS)
+    private val receivedBytesSeconds = LongArray(THROUGHPUT_WINDOW_SECONDS)
+
+    fun start() {
+        serverConfig.subscribeTo(
+            serverConfig.downloadBandwidthLimit,
+            { limit -> globalThrottler.bytesPerSecond(limit * 1024L) },
+            ignoreInitialValue = false,
+        )
+        serverConfig.subscribeTo(serverConfig.downloadBandwidthLimitOverrides, {
+            sourceThrottlers.forEach { (sourceId, throttler) -> throttler.bytesPerSecond(getSourceLimit(sourceId)) }
+        })
+    }
+
+    /** @return the limit of the source in bytes per second, 0 for no limit */
+    private fun getSourceLimit(sourceId: Long): Long =
+        (ExtensionOverrides.get(serverConfig.downloadBandwidthLimitOverrides.value, sourceId) ?: 0) * 1024L
+
+    private fun getSourceThrottler(sourceId: Long): Throttler =
+        sourceThrottlers.getOrPut(sourceId) { Throttler().apply { bytesPerSecond(getSourceLimit(sourceId)) } }
+
+    @Synchronized
+    private fun recordReceivedBytes(byteCount: Long) {
+        val second = System.currentTimeMillis() / 1000
+        val index = (second % THROUGHPUT_WINDOW_SECONDS).toInt()
+        if (receivedBytesSeconds[index] != second) {
+            receivedBytesSeconds[index] = second
+            receivedBytes[index] = 0
+        }
+        receivedBytes[index] += byteCount
+    }
+
+    /**
+     * The bytes per second the downloader received, averaged over the last few seconds
+     */
+    @Synchronized
+    fun getBytesPerSecond(): Long {
+        val oldestSecond = System.currentTimeMillis() / 1000 - THROUGHPUT_WINDOW_SECONDS
+        val bytes = receivedBytes.indices.filter { receivedBytesSeconds[it] > oldestSecond }.sumOf { receivedBytes[it] }
+
+        return bytes / THROUGHPUT_WINDOW_SECONDS
+    }
+
+    /**
+     * @return a function applying the bandwidth limits to the body of a response of the source and counting its bytes,
+     * in case the current coroutine belongs to the downloader
+     */
+    suspend fun getThrottle(sourceId: Long): (Source) -> Source {
+        if (currentCoroutineContext()[DownloadTraffic.Key] == null) {
+            return { it }
+        }
+
+        val sourceThrottler = getSourceThrottler(sourceId)
+        val sourceLabel = sourceId.toString()
+        return { source ->
+            val throttledSource = globalThrottler.source(sourceThrottler.source(source))
+            object : ForwardingSource(throttledSource) {
+                override fun read(
+                    sink: Buffer,
+                    byteCount: Long,
+                ): Long =
+                    super.read(sink, byteCount).also { bytesRead ->
+                        if (bytesRead > 0) {
+                            recordReceivedBytes(bytesRead)
+                            ServerMetrics.downloadedBytes.inc(sourceLabel, amount = bytesRead.toDouble())
+                        }
+                    }
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ package suwayomi.tachidesk.manga.impl.download
 
 import android.app.Application
 import android.content.Context
+import eu.kanade.tachiyomi.network.interceptor.RateLimitScheduler
 import io.github.oshai.kotlinlogging.KotlinLogging
 import io.javalin.websocket.WsContext
 import io.javalin.websocket.WsMessageContext
@@ -44,6 +45,7 @@ import suwayomi.tachidesk.manga.impl.download.model.DownloadUpdateType
 import suwayomi.tachidesk.manga.impl.download.model.DownloadUpdates
 import suwayomi.tachidesk.manga.impl.download.model.OldDownloadStatus
 import suwayomi.tachidesk.manga.impl.download.model.Status
+import suwayomi.tachidesk.manga.impl.util.source.GetSource
 import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.table.ChapterTable
@@ -226,6 +228,7 @@ object DownloadManager {
                 Status.Stopped
             },
             downloadQueue.toList(),
+            DownloadBandwidth.getBytesPerSecond(),
         )
 
     fun getOldStatus(status: DownloadStatus): OldDownloadStatus =
@@ -270,6 +273,7 @@ object DownloadManager {
             },
             downloadUpdates.toList(),
             if (addInitial) downloadQueue.toList() else null,
+            DownloadBandwidth.getBytesPerSecond(),
         )
 
     private val downloaderWatch = MutableSharedFlow<Unit>(extraBufferCapacity = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
@@ -302,6 +306,9 @@ object DownloadManager {
                         "Failed: ${downloadQueue.size - availableDownloads.size}"
                 }
 
+                // running downloaders might be able to download further chapters in parallel
+                runningDownloaders.forEach { it.start() }
+
                 if (runningDownloaders.size < serverConfig.maxSourcesInParallel.value) {
                     availableDownloads
                         .asSequence()
@@ -309,7 +316,15 @@ object DownloadManager {
                         .distinct()
                         .minus(
                             runningDownloaders.map { it.sourceId }.toSet(),
-                        ).take((serverConfig.maxSourcesInParallel.value - runningDownloaders.size).coerceAtLeast(0))
+                        )
+                        // prefer sources that are currently not throttled by their rate limit, then the ones that waited the longest
+                        .sortedWith(
+                            compareBy(
+                                { RateLimitScheduler.getEstimatedWait(GetSource.getLoadedSourceOrNull(it)) },
+                                { downloaders[it]?.lastStartedAt ?: 0L },
+                            ),
+                        )
+                        .take((serverConfig.maxSourcesInParallel.value - runningDownloaders.size).coerceAtLeast(0))
                         .map { getDownloader(it) }
                         .forEach {
                             it.start()
@@ -335,9 +350,23 @@ object DownloadManager {
                 notifier = ::handleDownloadUpdate,
                 onComplete = ::refreshDownloaders,
                 onDownloadFinished = ::triggerSaveDownloadQueue,
+                shouldYield = { hasWaitingSources() },
             )
         }
 
+    /**
+     * Whether all source slots are taken while chapters of other sources are queued, the running downloaders then hand
+     * over their slot after each chapter to interleave the sources.
+     */
+    private fun hasWaitingSources(): Boolean {
+        val runningSourceIds = downloaders.values.filter { it.isActive }.map { it.sourceId }.toSet()
+        if (runningSourceIds.size < serverConfig.maxSourcesInParallel.value) {
+            return false
+        }
+
+        return downloadQueue.any { it.state != Error && it.sourceId !in runningSourceIds }
+    }
+
     fun enqueueWithChapterIndex(
         mangaId: Int,
         chapterIndex: Int,
@@ -0,0 +1,394 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.local.metadata.COMIC_INFO_FILE
+import eu.kanade.tachiyomi.util.lang.withIOContext
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import org.apache.commons.compress.archivers.zip.ZipFile
+import org.jetbrains.exposed.v1.core.ResultRow
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.core.inList
+import org.jetbrains.exposed.v1.core.inSubQuery
+import org.jetbrains.exposed.v1.jdbc.batchUpsert
+import org.jetbrains.exposed.v1.jdbc.deleteWhere
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath
+import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPaths
+import suwayomi.tachidesk.manga.impl.util.storage.PageBlobStore
+import suwayomi.tachidesk.manga.impl.util.storage.StoredZipArchive
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.DownloadManifestTable
+import suwayomi.tachidesk.server.ApplicationDirs
+import uy.kohesive.injekt.injectLazy
+import java.io.File
+import java.io.InputStream
+import java.security.MessageDigest
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.minutes
+
+/**
+ * Index of the files of downloaded chapters, see [DownloadManifestTable].
+ *
+ * The manifest gets written once a download completed. Downloads that got changed, added or removed outside the server
+ * are detected by [reconcile], which runs in the background periodically, followed by deleting the page blobs that are
+ * not referenced anymore (see [PageBlobStore.collectGarbage]).
+ */
+object DownloadManifest {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val applicationDirs: ApplicationDirs by injectLazy()
+    private val json: Json by injectLazy()
+
+    private const val RECONCILE_BATCH_SIZE = 500
+    private val initialReconcileDelay = 1.minutes
+    private val reconcileInterval = 24.hours
+
+    private var reconciler: Job? = null
+
+    enum class Format {
+        FOLDER,
+        ARCHIVE,
+    }
+
+    @Serializable
+    data class PageFile(
+        val name: String,
+        val size: Long,
+    )
+
+    data class Manifest(
+        val chapterId: Int,
+        val format: Format,
+        /** The page files sorted by page index */
+        val pages: List<PageFile>,
+        /** The size of the download as cbz, see [DownloadManifestTable.totalBytes] */
+        val totalBytes: Long,
+        val hash: String?,
+        val lastModified: Long,
+    )
+
+    private fun ResultRow.toManifest(): Manifest =
+        Manifest(
+            chapterId = this[DownloadManifestTable.chapter].value,
+            format = Format.valueOf(this[DownloadManifestTable.format]),
+            pages = json.decodeFromString(this[DownloadManifestTable.pages]),
+            totalBytes = this[DownloadManifestTable.totalBytes],
+            hash = this[DownloadManifestTable.hash],
+            lastModified = this[DownloadManifestTable.lastModified],
+        )
+
+    fun get(chapterId: Int): Manifest? =
+        transaction {
+            DownloadManifestTable
+                .selectAll()
+                .where { DownloadManifestTable.chapter eq chapterId }
+                .firstOrNull()
+                ?.toManifest()
+        }
+
+    fun get(chapterIds: Collection<Int>): Map<Int, Manifest> {
+        if (chapterIds.isEmpty()) {
+            return emptyMap()
+        }
+
+        return transaction {
+            DownloadManifestTable
+                .selectAll()
+                .where { DownloadManifestTable.chapter inList chapterIds }
+                .associate { it[DownloadManifestTable.chapter].value to it.toManifest() }
+        }
+    }
+
+    /**
+     * The manifest of the chapter, in case its download did not change since the manifest got written.
+     *
+     * Only stats the download folder or archive. The manifest of a download that got removed outside the server gets
+     * dropped, changed downloads get scanned again by [reconcile].
+     */
+    suspend fun getIfUnchanged(
+        mangaId: Int,
+        chapterId: Int,
+    ): Manifest? = get(chapterId)?.let { takeIfUnchanged(mangaId, it) }
+
+    /**
+     * Checks a manifest read in bulk via [get], see [getIfUnchanged]
+     */
+    suspend fun takeIfUnchanged(
+        mangaId: Int,
+        manifest: Manifest,
+    ): Manifest? {
+        val chapterDownloadPath = getChapterDownloadPath(mangaId, manifest.chapterId)
+        if (isUnchanged(manifest, chapterDownloadPath)) {
+            return manifest
+        }
+
+        if (!File("$chapterDownloadPath.cbz").isFile && !File(chapterDownloadPath).isDirectory) {
+            logger.debug { "Download of chapter ${manifest.chapterId} got removed, dropping its manifest" }
+            remove(manifest.chapterId)
+        }
+
+        return null
+    }
+
+    fun remove(chapterId: Int) {
+        transaction {
+            DownloadManifestTable.deleteWhere { DownloadManifestTable.chapter eq chapterId }
+        }
+    }
+
+    private fun save(manifests: List<Manifest>) {
+        if (manifests.isEmpty()) {
+            return
+        }
+
+        val now = System.currentTimeMillis()
+        transaction {
+            DownloadManifestTable.batchUpsert(manifests) { manifest ->
+                this[DownloadManifestTable.chapter] = manifest.chapterId
+                this[DownloadManifestTable.format] = manifest.format.name
+                this[DownloadManifestTable.pages] = json.encodeToString(manifest.pages)
+                this[DownloadManifestTable.totalBytes] = manifest.totalBytes
+                this[DownloadManifestTable.hash] = manifest.hash
+                this[DownloadManifestTable.lastModified] = manifest.lastModified
+                this[DownloadManifestTable.createdAt] = now
+            }
+        }
+    }
+
+    /**
+     * Writes the manifest of the current state of the download.
+     *
+     * @param withHash whether to hash the pages, requires reading all of them
+     */
+    suspend fun record(
+        mangaId: Int,
+        chapterId: Int,
+        withHash: Boolean = true,
+    ): Manifest? {
+        val manifest = withIOContext { scan(chapterId, getChapterDownloadPath(mangaId, chapterId), withHash) }
+        if (manifest == null) {
+            remove(chapterId)
+            return null
+        }
+
+        save(listOf(manifest))
+        return manifest
+    }
+
+    private fun isPage(fileName: String): Boolean = fileName != COMIC_INFO_FILE
+
+    private fun hash(pages: List<() -> InputStream>): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        pages.forEach { openPage ->
+            openPage().use { input ->
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+        }
+
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    /**
+     * Reads the download of the chapter from the filesystem.
+     *
+     * @return null in case the chapter is not downloaded
+     */
+    private fun scan(
+        chapterId: Int,
+        chapterDownloadPath: String,
+        withHash: Boolean,
+    ): Manifest? {
+        val cbzFile = File("$chapterDownloadPath.cbz")
+        if (cbzFile.isFile) {
+            ZipFile.builder().setFile(cbzFile).get().use { zipFile ->
+                val entries =
+                    zipFile.entries
+                        .toList()
+                        .filter { !it.isDirectory && isPage(it.name) }
+                        .sortedBy { it.name }
+                val hash = if (withHash) hash(entries.map { entry -> { zipFile.getInputStream(entry) } }) else null
+
+                return Manifest(
+                    chapterId = chapterId,
+                    format = Format.ARCHIVE,
+                    pages = entries.map { PageFile(it.name, it.size) },
+                    totalBytes = cbzFile.length(),
+                    hash = hash,
+                    lastModified = cbzFile.lastModified(),
+                )
+            }
+        }
+
+        val folder = File(chapterDownloadPath)
+        if (!folder.isDirectory) {
+            return null
+        }
+
+        val files = folder.listFiles().orEmpty().filter { it.isFile }
+        val pages = files.filter { isPage(it.name) }.sortedBy { it.name }
+        if (pages.isEmpty()) {
+            return null
+        }
+
+        return Manifest(
+            chapterId = chapterId,
+            format = Format.FOLDER,
+            pages = pages.map { PageFile(it.name, it.length()) },
+            // the folder gets served as cbz, its size only depends on the names and sizes of the files
+            totalBytes = StoredZipArchive(files.sortedBy { it.name }).size,
+            hash = if (withHash) hash(pages.map { page -> { page.inputStream() } }) else null,
+            lastModified = folder.lastModified(),
+        )
+    }
+
+    private fun isUnchanged(
+        manifest: Manifest,
+        chapterDownloadPath: String,
+    ): Boolean =
+        when (manifest.format) {
+            Format.ARCHIVE -> {
+                val cbzFile = File("$chapterDownloadPath.cbz")
+                cbzFile.isFile && cbzFile.length() == manifest.totalBytes && cbzFile.lastModified() == manifest.lastModified
+            }
+
+            // adding, removing or renaming files changes the modification time of the folder
+            Format.FOLDER -> {
+                val folder = File(chapterDownloadPath)
+                folder.isDirectory && folder.lastModified() == manifest.lastModified
+            }
+        }
+
+    fun start() {
+        reconciler?.cancel()
+        reconciler =
+            scope.launch {
+                delay(initialReconcileDelay)
+
+                while (isActive) {
+                    try {
+                        reconcile()
+                    } catch (e: Exception) {
+                        if (e is CancellationException) throw e
+                        logger.error(e) { "Failed to reconcile the download manifests" }
+                    }
+
+                    // downloads that got deleted outside the server leave their page blobs unreferenced
+                    try {
+                        val deletedBlobs = PageBlobStore.collectGarbage()
+                        logger.info { "Deleted $deletedBlobs unreferenced page blob(s)" }
+                    } catch (e: Exception) {
+                        if (e is CancellationException) throw e
+                        logger.error(e) { "Failed to delete the unreferenced page blobs" }
+                    }
+
+                    delay(reconcileInterval)
+                }
+            }
+    }
+
+    /**
+     * Compares the manifests of the downloaded chapters with the filesystem.
+     *
+     * Only the modification times (and sizes of archives) get checked, downloads get only scanned again in case they
+     * changed or have no manifest yet. Chapters whose download is missing are marked as not downloaded.
+     */
+    suspend fun reconcile() {
+        if (!File(applicationDirs.mangaDownloadsRoot).isDirectory) {
+            // e.g. an unmounted network share, this must not result in all chapters being marked as not downloaded
+            logger.warn { "Skipping download manifest reconciliation, the downloads folder is not available" }
+            return
+        }
+
+        transaction {
+            DownloadManifestTable.deleteWhere {
+                DownloadManifestTable.chapter inSubQuery
+                    ChapterTable.select(ChapterTable.id).where { ChapterTable.isDownloaded eq false }
+            }
+        }
+
+        val downloadedChapterIds =
+            transaction {
+                ChapterTable
+                    .select(ChapterTable.id)
+                    .where { ChapterTable.isDownloaded eq true }
+                    .map { it[ChapterTable.id].value }
+            }
+
+        var updatedCount = 0
+        var missingCount = 0
+
+        downloadedChapterIds.chunked(RECONCILE_BATCH_SIZE).forEach { chapterIds ->
+            val manifests = get(chapterIds)
+            val chapterDownloadPaths = getChapterDownloadPaths(chapterIds)
+
+            val updatedManifests = mutableListOf<Manifest>()
+            val missingChapterIds = mutableListOf<Int>()
+
+            withIOContext {
+                chapterIds.forEach { chapterId ->
+                    val chapterDownloadPath = chapterDownloadPaths[chapterId] ?: return@forEach
+                    val manifest = manifests[chapterId]
+                    if (manifest != null && isUnchanged(manifest, chapterDownloadPath)) {
+                        return@forEach
+                    }
+
+                    try {
+                        val scanned = scan(chapterId, chapterDownloadPath, withHash = false)
+                        if (scanned == null) {
+                            missingChapterIds.add(chapterId)
+                        } else {
+                            // the hash is still valid in case only e.g. the ComicInfo.xml got changed
+                            val hash = manifest?.hash?.takeIf { manifest.pages == scanned.pages }
+                            updatedManifests.add(scanned.copy(hash = hash))
+                        }
+                    } catch (e: Exception) {
+                        logger.warn(e) { "Failed to scan the download of chapter $chapterId" }
+                    }
+                }
+            }
+
+            save(updatedManifests)
+
+            if (missingChapterIds.isNotEmpty()) {
+                transaction {
+                    ChapterTable.update({ ChapterTable.id inList missingChapterIds }) {
+                        it[isDownloaded] = false
+                    }
+                    DownloadManifestTable.deleteWhere { DownloadManifestTable.chapter inList missingChapterIds }
+                }
+            }
+
+            updatedCount += updatedManifests.size
+            missingCount += missingChapterIds.size
+        }
+
+        logger.info {
+            "Reconciled ${downloadedChapterIds.size} downloaded chapters, $updatedCount changed or without manifest, $missingCount missing"
+        }
+    }
+}
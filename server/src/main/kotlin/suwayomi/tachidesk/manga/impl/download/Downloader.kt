@@ -7,6 +7,7 @@ package suwayomi.tachidesk.manga.impl.download
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
+import eu.kanade.tachiyomi.network.interceptor.RateLimitScheduler
 import eu.kanade.tachiyomi.source.local.LocalSource
 import io.github.oshai.kotlinlogging.KLogger
 import io.github.oshai.kotlinlogging.KotlinLogging
@@ -14,6 +15,8 @@ import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.currentCoroutineContext
 import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.isActive
@@ -36,8 +39,19 @@ import suwayomi.tachidesk.manga.impl.download.model.DownloadUpdateType.PAUSED
 import suwayomi.tachidesk.manga.impl.download.model.DownloadUpdateType.PROGRESS
 import suwayomi.tachidesk.manga.impl.download.model.DownloadUpdateType.STOPPED
 import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.server.serverConfig
 import java.util.concurrent.CopyOnWriteArrayList
 
+/**
+ * Downloads the queued chapters of a source, up to [getMaxChaptersInParallel] chapters at once.
+ *
+ * The chapters being downloaded are always the first ones of the source in the queue, chapters that got moved out of
+ * this window are paused. The first chapter has priority: the requests of the others are low priority for the rate
+ * limit of the source (see [RateLimitScheduler.LowPriority]), they only take spare slots and never delay its requests.
+ * Sources without a rate limit download the chapters of the window alike.
+ *
+ * @param shouldYield whether the downloader should hand over its slot to a waiting source, checked after each chapter
+ */
 class Downloader(
     private val scope: CoroutineScope,
     val sourceId: Long,
@@ -45,6 +59,7 @@ class Downloader(
     private val notifier: (immediate: Boolean, download: DownloadUpdate?) -> Unit,
     private val onComplete: () -> Unit,
     private val onDownloadFinished: () -> Unit,
+    private val shouldYield: () -> Boolean,
 ) {
     companion object {
         private const val MAX_RETRIES = 3
@@ -56,6 +71,26 @@ class Downloader(
     private val availableSourceDownloads
         get() = downloadQueue.filter { it.sourceId == sourceId }
 
+    /** Wakes up the [run] loop to (re)fill the free chapter slots */
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+
+    var lastStartedAt = 0L
+        private set
+
+    private fun getMaxChaptersInParallel(): Int =
+        ExtensionOverrides.get(serverConfig.downloadChaptersInParallelOverrides.value, sourceId)
+            ?: serverConfig.downloadChaptersInParallel.value
+
+    /** The downloads of the source that are supposed to be downloading, the first one has priority */
+    private fun getDownloadWindow(): List<DownloadQueueItem> =
+        availableSourceDownloads.filter { it.state != Error }.take(getMaxChaptersInParallel())
+
+    private fun isFirstInDownloadWindow(download: DownloadQueueItem): Boolean =
+        availableSourceDownloads.firstOrNull { it.state != Error } == download
+
+    private fun isDownloadable(download: DownloadQueueItem): Boolean =
+        download.state == Queued || download.state == Finished || (download.state == Error && download.tries < MAX_RETRIES)
+
     class StopDownloadException : Exception("Cancelled download")
 
     class PauseDownloadException : Exception("Pause download")
@@ -89,7 +124,19 @@ class Downloader(
     ) {
         notify(immediate, type, download)
         currentCoroutineContext().ensureActive()
-        if (download != null && download != availableSourceDownloads.firstOrNull { it.state != Error }) {
+        if (download == null) {
+            return
+        }
+
+        ensureInDownloadWindow(download)
+    }
+
+    /**
+     * @throws PauseDownloadException in case the download got moved out of the download window
+     * @throws StopDownloadException in case the download got removed from the queue
+     */
+    internal fun ensureInDownloadWindow(download: DownloadQueueItem) {
+        if (download !in getDownloadWindow()) {
             if (download in downloadQueue) {
                 throw PauseDownloadException()
             } else {
@@ -102,7 +149,11 @@ class Downloader(
         get() = job?.isActive == true
 
     fun start() {
-        if (!isActive) {
+        if (isActive) {
+            // chapter slots might have become available, e.g. due to newly queued chapters
+            wakeUp.trySend(Unit)
+        } else {
+            lastStartedAt = System.currentTimeMillis()
             job =
                 scope
                     .launch {
@@ -136,78 +187,108 @@ class Downloader(
     }
 
     private suspend fun run() {
-        while (downloadQueue.isNotEmpty() && currentCoroutineContext().isActive) {
-            val download =
-                availableSourceDownloads.firstOrNull {
-                    (it.state == Queued || it.state == Finished || (it.state == Error && it.tries < MAX_RETRIES))
-                } ?: break
-
-            val logContext = "${logger.name} - downloadChapter($download))"
-            val downloadLogger = KotlinLogging.logger(logContext)
-
-            // Skip local source downloads
-            if (sourceId == LocalSource.ID) {
-                finishDownload(downloadLogger, download)
-                continue
-            }
+        coroutineScope {
+            val chapterJobs = mutableMapOf<DownloadQueueItem, Job>()
+            var isYielding = false
+
+            while (isActive) {
+                val hasFinishedChapter = chapterJobs.values.removeAll { it.isCompleted }
+                if (hasFinishedChapter && shouldYield()) {
+                    logger.debug { "yielding to a waiting source" }
+                    isYielding = true
+                }
 
-            downloadLogger.debug { "start" }
+                if (!isYielding) {
+                    val freeSlots = getMaxChaptersInParallel() - chapterJobs.size
+                    availableSourceDownloads
+                        .filter { it !in chapterJobs && isDownloadable(it) }
+                        .take(freeSlots.coerceAtLeast(0))
+                        .forEach { download ->
+                            val priority = RateLimitScheduler.LowPriority { !isFirstInDownloadWindow(download) }
+                            chapterJobs[download] =
+                                launch(DownloadBandwidth.DownloadTraffic + priority) { downloadChapter(download) }.also {
+                                    it.invokeOnCompletion { wakeUp.trySend(Unit) }
+                                }
+                        }
+                }
+
+                if (chapterJobs.isEmpty()) {
+                    break
+                }
 
-            // handle cases were the downloader was stopped before the finished download could be removed from the queue
-            // otherwise, it will create an endless loop, due to never removing the finished chapter and thinking that the
-            // current download chapter was moved down in the queue
-            if (download.state == Finished) {
-                finishDownload(downloadLogger, download)
-                break
+                wakeUp.receive()
             }
+        }
+    }
 
-            try {
-                download.state = Downloading
-                step(PROGRESS, download, true)
+    private suspend fun downloadChapter(download: DownloadQueueItem) {
+        val logContext = "${logger.name} - downloadChapter($download))"
+        val downloadLogger = KotlinLogging.logger(logContext)
 
-                val chapter = getChapterDownloadReadyById(download.chapterId)
+        // Skip local source downloads
+        if (sourceId == LocalSource.ID) {
+            finishDownload(downloadLogger, download)
+            return
+        }
 
-                if (chapter.pageCount <= 0) {
-                    throw EmptyChapterException()
-                }
+        downloadLogger.debug { "start" }
 
-                download.pageCount = chapter.pageCount
+        // handle cases were the downloader was stopped before the finished download could be removed from the queue
+        // otherwise, it will create an endless loop, due to never removing the finished chapter and thinking that the
+        // current download chapter was moved down in the queue
+        if (download.state == Finished) {
+            finishDownload(downloadLogger, download)
+            return
+        }
 
-                ChapterDownloadHelper.download(download.mangaId, download.chapterId, download, scope) { downloadChapter, immediate ->
-                    step(PROGRESS, downloadChapter, immediate)
-                }
-                download.state = Finished
-                transaction {
-                    ChapterTable.update(
-                        { (ChapterTable.id eq download.chapterId) },
-                    ) {
-                        it[isDownloaded] = true
-                    }
+        try {
+            download.state = Downloading
+            step(PROGRESS, download, true)
+
+            val chapter = getChapterDownloadReadyById(download.chapterId)
+
+            if (chapter.pageCount <= 0) {
+                throw EmptyChapterException()
+            }
+
+            download.pageCount = chapter.pageCount
+
+            ChapterDownloadHelper.download(download.mangaId, download.chapterId, download, scope) { downloadChapter, immediate ->
+                step(PROGRESS, downloadChapter, immediate)
+            }
+            download.state = Finished
+            transaction {
+                ChapterTable.update(
+                    { (ChapterTable.id eq download.chapterId) },
+                ) {
+                    it[isDownloaded] = true
                 }
-                finishDownload(downloadLogger, download)
-            } catch (e: CancellationException) {
-                downloadLogger.debug { "Downloader was stopped" }
-                availableSourceDownloads.filter { it.state == Downloading }.forEach { it.state = Queued }
-                notify(false, STOPPED, download)
-            } catch (e: StopDownloadException) {
-                downloadLogger.debug { "Download was dequeued" }
-            } catch (e: PauseDownloadException) {
-                downloadLogger.debug { "paused" }
+            }
+            finishDownload(downloadLogger, download)
+        } catch (e: CancellationException) {
+            downloadLogger.debug { "Downloader was stopped" }
+            if (download.state == Downloading) {
                 download.state = Queued
-                notify(false, PAUSED, download)
-            } catch (e: EmptyChapterException) {
-                downloadLogger.warn(e) { "failed due to" }
-                download.tries = MAX_RETRIES
+            }
+            notify(false, STOPPED, download)
+        } catch (e: StopDownloadException) {
+            downloadLogger.debug { "Download was dequeued" }
+        } catch (e: PauseDownloadException) {
+            downloadLogger.debug { "paused" }
+            download.state = Queued
+            notify(false, PAUSED, download)
+        } catch (e: EmptyChapterException) {
+            downloadLogger.warn(e) { "failed due to" }
+            download.tries = MAX_RETRIES
+            download.state = Error
+            notify(false, ERROR, download)
+        } catch (e: Exception) {
+            downloadLogger.warn(e) { "failed due to" }
+            download.tries++
+            download.state = Queued
+            if (download.tries >= MAX_RETRIES) {
                 download.state = Error
                 notify(false, ERROR, download)
-            } catch (e: Exception) {
-                downloadLogger.warn(e) { "failed due to" }
-                download.tries++
-                download.state = Queued
-                if (download.tries >= MAX_RETRIES) {
-                    download.state = Error
-                    notify(false, ERROR, download)
-                }
             }
         }
     }
@@ -0,0 +1,57 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.model.table.ExtensionTable
+import suwayomi.tachidesk.manga.model.table.SourceTable
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Resolves the per-extension overrides of the download settings, entries of the form "<extension package name>=<value>".
+ */
+object ExtensionOverrides {
+    /** The package names of the extensions of the sources, empty for unknown sources */
+    private val extensionPkgNames = ConcurrentHashMap<Long, String>()
+
+    private fun getExtensionPkgName(sourceId: Long): String =
+        extensionPkgNames.getOrPut(sourceId) {
+            transaction {
+                SourceTable
+                    .innerJoin(ExtensionTable)
+                    .select(ExtensionTable.pkgName)
+                    .where { SourceTable.id eq sourceId }
+                    .firstOrNull()
+                    ?.get(ExtensionTable.pkgName)
+                    .orEmpty()
+            }
+        }
+
+    /**
+     * @return the value of the override for the extension of the source, null in case there is none
+     */
+    fun get(
+        overrides: List<String>,
+        sourceId: Long,
+    ): Int? {
+        if (overrides.isEmpty()) {
+            return null
+        }
+
+        val pkgName = getExtensionPkgName(sourceId)
+        return overrides.firstNotNullOfOrNull { override ->
+            override
+                .substringAfter('=')
+                .trim()
+                .toIntOrNull()
+                .takeIf { pkgName.isNotEmpty() && override.substringBefore('=').trim() == pkgName }
+        }
+    }
+}
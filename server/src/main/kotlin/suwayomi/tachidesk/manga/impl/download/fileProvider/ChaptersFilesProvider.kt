@@ -17,16 +17,18 @@ import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
 import suwayomi.tachidesk.manga.impl.Page
 import suwayomi.tachidesk.manga.impl.chapter.getChapterDownloadReady
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
 import suwayomi.tachidesk.manga.impl.download.model.DownloadQueueItem
 import suwayomi.tachidesk.manga.impl.util.KoreaderHelper
 import suwayomi.tachidesk.manga.impl.util.createComicInfoFile
 import suwayomi.tachidesk.manga.impl.util.getChapterCachePath
-import suwayomi.tachidesk.manga.impl.util.getChapterCbzPath
 import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath
-import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse
+import suwayomi.tachidesk.manga.impl.util.storage.ImageCache
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.server.metrics.ServerMetrics
 import java.io.File
+import java.io.IOException
 import java.io.InputStream
 
 sealed class FileType {
@@ -67,14 +69,46 @@ sealed class FileType {
 abstract class ChaptersFilesProvider<Type : FileType>(
     val mangaId: Int,
     val chapterId: Int,
+    private var loadedManifest: DownloadManifest.Manifest? = null,
 ) : DownloadedFilesProvider {
     protected val logger = KotlinLogging.logger {}
 
+    protected abstract val format: DownloadManifest.Format
+
     protected abstract suspend fun getImageFiles(): List<Type>
 
     protected abstract suspend fun getImageInputStream(image: Type): InputStream
 
+    /**
+     * Opens the page file with a name taken from the [DownloadManifest]
+     */
+    protected abstract suspend fun getImageInputStream(fileName: String): InputStream
+
+    /**
+     * The manifest of the completed download, allows to skip listing the download folder or opening the archive.
+     *
+     * Manifests of downloads that got changed or removed outside the server are ignored (see
+     * [DownloadManifest.getIfUnchanged]), the download gets listed instead.
+     */
+    protected suspend fun getManifest(): DownloadManifest.Manifest? {
+        val manifest = loadedManifest ?: DownloadManifest.getIfUnchanged(mangaId, chapterId)?.also { loadedManifest = it }
+        return manifest?.takeIf { it.format == format }
+    }
+
     suspend fun getImageImpl(index: Int): Pair<InputStream, String> {
+        val manifestPage = getManifest()?.pages?.getOrNull(index)
+        if (manifestPage != null) {
+            try {
+                val imageFileType = manifestPage.name.substringAfterLast(".")
+                return Pair(
+                    getImageInputStream(manifestPage.name).buffered(),
+                    MimeUtils.guessMimeTypeFromExtension(imageFileType) ?: "image/$imageFileType",
+                )
+            } catch (e: IOException) {
+                logger.warn(e) { "Download of chapter $chapterId does not match its manifest" }
+            }
+        }
+
         val images = getImageFiles().filter { it.getName() != COMIC_INFO_FILE }.sortedBy { it.getName() }
 
         if (images.isEmpty()) {
@@ -87,7 +121,7 @@ abstract class ChaptersFilesProvider<Type : FileType>(
         return Pair(getImageInputStream(image).buffered(), MimeUtils.guessMimeTypeFromExtension(imageFileType) ?: "image/$imageFileType")
     }
 
-    suspend fun getImageCount(): Int = getImageFiles().filter { it.getName() != COMIC_INFO_FILE }.size
+    suspend fun getImageCount(): Int = getManifest()?.pages?.size ?: getImageFiles().filter { it.getName() != COMIC_INFO_FILE }.size
 
     override suspend fun getImage(): RetrieveFile1Args<Int> = RetrieveFile1Args(::getImageImpl)
 
@@ -119,6 +153,10 @@ abstract class ChaptersFilesProvider<Type : FileType>(
 
         val doesUnrecognizedDownloadExist = existingDownloadPageCount == pageCount
         if (doesUnrecognizedDownloadExist) {
+            if (getManifest() == null) {
+                DownloadManifest.record(mangaId, chapterId)
+            }
+
             download.progress = 1f
             step(download, false)
 
@@ -133,64 +171,75 @@ abstract class ChaptersFilesProvider<Type : FileType>(
         val downloadCacheFolder = File(cacheChapterDir)
         downloadCacheFolder.mkdirs()
 
-        for (pageNum in 0 until pageCount) {
-            var pageProgressJob: Job? = null
-            val fileName = Page.getPageName(pageNum, pageCount) // might have to change this to index stored in database
-
-            val pageExistsInFinalDownloadFolder = ImageResponse.findFileNameStartingWith(finalDownloadFolder, fileName) != null
-            val pageExistsInCacheDownloadFolder = ImageResponse.findFileNameStartingWith(cacheChapterDir, fileName) != null
-
-            val doesPageAlreadyExist = pageExistsInFinalDownloadFolder || pageExistsInCacheDownloadFolder
-            if (doesPageAlreadyExist) {
-                continue
-            }
+        // the pages of the download must not get evicted before moving them to the final download folder
+        ImageCache.pin(cacheChapterDir)
+        try {
+            // list the folders once instead of once per page, the final download folder might be on a slow network mount
+            val existingPageNames =
+                (File(finalDownloadFolder).list().orEmpty() + downloadCacheFolder.list().orEmpty())
+                    .map { it.substringBeforeLast(".") }
+                    .toSet()
+
+            for (pageNum in 0 until pageCount) {
+                var pageProgressJob: Job? = null
+                val fileName = Page.getPageName(pageNum, pageCount) // might have to change this to index stored in database
+
+                val doesPageAlreadyExist = fileName in existingPageNames
+                if (doesPageAlreadyExist) {
+                    continue
+                }
 
-            try {
-                Page
-                    .getPageImageDownload(
-                        mangaId = download.mangaId,
-                        chapterId = download.chapterId,
-                        index = pageNum,
-                        downloadCacheFolder,
-                        fileName,
-                    ) { flow ->
-                        pageProgressJob =
-                            flow
-                                .sample(100)
-                                .distinctUntilChanged()
-                                .onEach {
-                                    download.progress = (pageNum.toFloat() + (it.toFloat() * 0.01f)) / pageCount
-                                    step(
-                                        null,
-                                        false,
-                                    ) // don't throw on canceled download here since we can't do anything
-                                }.launchIn(scope)
-                    }
-            } finally {
-                // always cancel the page progress job even if it throws an exception to avoid memory leaks
-                pageProgressJob?.cancel()
+                try {
+                    Page
+                        .getPageImageDownload(
+                            mangaId = download.mangaId,
+                            chapterId = download.chapterId,
+                            index = pageNum,
+                            downloadCacheFolder,
+                            fileName,
+                        ) { flow ->
+                            pageProgressJob =
+                                flow
+                                    .sample(100)
+                                    .distinctUntilChanged()
+                                    .onEach {
+                                        download.progress = (pageNum.toFloat() + (it.toFloat() * 0.01f)) / pageCount
+                                        step(
+                                            null,
+                                            false,
+                                        ) // don't throw on canceled download here since we can't do anything
+                                    }.launchIn(scope)
+                        }
+                } finally {
+                    // always cancel the page progress job even if it throws an exception to avoid memory leaks
+                    pageProgressJob?.cancel()
+                }
+                // the bytes of the page are counted while receiving them, see DownloadBandwidth.getThrottle
+                ServerMetrics.downloadedPages.inc(download.sourceId.toString())
+                // TODO: retry on error with 2,4,8 seconds of wait
+                download.progress = ((pageNum + 1).toFloat()) / pageCount
+                step(download, false)
             }
-            // TODO: retry on error with 2,4,8 seconds of wait
-            download.progress = ((pageNum + 1).toFloat()) / pageCount
-            step(download, false)
-        }
 
-        createComicInfoFile(
-            downloadCacheFolder.toPath(),
-            transaction {
-                MangaTable.selectAll().where { MangaTable.id eq mangaId }.first()
-            },
-            transaction {
-                ChapterTable.selectAll().where { ChapterTable.id eq chapterId }.first()
-            },
-        )
-
-        handleSuccessfulDownload()
-
-        // Calculate and save Koreader hash for CBZ files
-        val chapterFile = File(getChapterCbzPath(mangaId, chapterId))
-        if (chapterFile.exists()) {
-            val koreaderHash = KoreaderHelper.hashContents(chapterFile)
+            createComicInfoFile(
+                downloadCacheFolder.toPath(),
+                transaction {
+                    MangaTable.selectAll().where { MangaTable.id eq mangaId }.first()
+                },
+                transaction {
+                    ChapterTable.selectAll().where { ChapterTable.id eq chapterId }.first()
+                },
+            )
+
+            handleSuccessfulDownload()
+
+            val koreaderHash =
+                try {
+                    getKoreaderHash()
+                } catch (e: Exception) {
+                    logger.warn(e) { "Could not calculate the Koreader hash of chapter $chapterId" }
+                    null
+                }
             if (koreaderHash != null) {
                 transaction {
                     ChapterTable.update({ ChapterTable.id eq chapterId }) {
@@ -198,9 +247,14 @@ abstract class ChaptersFilesProvider<Type : FileType>(
                     }
                 }
             }
+
+            DownloadManifest.record(mangaId, chapterId)
+        } finally {
+            ImageCache.unpin(cacheChapterDir)
         }
 
         File(cacheChapterDir).deleteRecursively()
+        ImageCache.recordRemoval(cacheChapterDir)
 
         return true
     }
@@ -216,4 +270,9 @@ abstract class ChaptersFilesProvider<Type : FileType>(
     abstract suspend fun getAsArchiveStream(): Pair<InputStream, Long>
 
     abstract suspend fun getArchiveSize(): Long
+
+    /**
+     * The Koreader hash of the download served as cbz, see [KoreaderHelper.hashContents]
+     */
+    abstract suspend fun getKoreaderHash(): String?
 }
@@ -9,8 +9,10 @@ import org.apache.commons.compress.archivers.zip.ZipFile
 import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
 import suwayomi.tachidesk.manga.impl.download.fileProvider.ChaptersFilesProvider
 import suwayomi.tachidesk.manga.impl.download.fileProvider.FileType
+import suwayomi.tachidesk.manga.impl.util.KoreaderHelper
 import suwayomi.tachidesk.manga.impl.util.getChapterCachePath
 import suwayomi.tachidesk.manga.impl.util.getChapterCbzPath
 import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath
@@ -20,6 +22,7 @@ import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.server.ApplicationDirs
 import uy.kohesive.injekt.injectLazy
 import java.io.File
+import java.io.FileNotFoundException
 import java.io.InputStream
 import java.util.zip.Deflater
 
@@ -28,7 +31,10 @@ private val applicationDirs: ApplicationDirs by injectLazy()
 class ArchiveProvider(
     mangaId: Int,
     chapterId: Int,
-) : ChaptersFilesProvider<FileType.ZipFile>(mangaId, chapterId) {
+    manifest: DownloadManifest.Manifest? = null,
+) : ChaptersFilesProvider<FileType.ZipFile>(mangaId, chapterId, manifest) {
+    override val format = DownloadManifest.Format.ARCHIVE
+
     override suspend fun getImageFiles(): List<FileType.ZipFile> {
         val zipFile = ZipFile.builder().setFile(getChapterCbzPath(mangaId, chapterId)).get()
         return zipFile.entries.toList().map { FileType.ZipFile(it) }
@@ -41,6 +47,12 @@ class ArchiveProvider(
             .get()
             .getInputStream(image.entry)
 
+    override suspend fun getImageInputStream(fileName: String): InputStream {
+        val zipFile = ZipFile.builder().setFile(getChapterCbzPath(mangaId, chapterId)).get()
+        val entry = zipFile.getEntry(fileName) ?: throw FileNotFoundException("$fileName not found in archive")
+        return zipFile.getInputStream(entry)
+    }
+
     override suspend fun extractExistingDownload() {
         val outputFile = File(getChapterCbzPath(mangaId, chapterId))
         val chapterDownloadFolder = File(getChapterDownloadPath(mangaId, chapterId))
@@ -99,6 +111,7 @@ class ArchiveProvider(
                     it[koreaderHash] = null
                 }
             }
+            DownloadManifest.remove(chapterId)
         }
         FileDeletionHelper.cleanupParentFoldersFor(cbzFile, applicationDirs.mangaDownloadsRoot)
         return cbzDeleted
@@ -114,10 +127,14 @@ class ArchiveProvider(
     }
 
     override suspend fun getArchiveSize(): Long {
+        getManifest()?.let { return it.totalBytes }
+
         val cbzFile = File(getChapterCbzPath(mangaId, chapterId))
         return if (cbzFile.exists()) cbzFile.length() else 0L
     }
 
+    override suspend fun getKoreaderHash(): String? = KoreaderHelper.hashContents(File(getChapterCbzPath(mangaId, chapterId)))
+
     private fun extractCbzFile(
         cbzFile: File,
         chapterFolder: File,
@@ -1,25 +1,23 @@
 package suwayomi.tachidesk.manga.impl.download.fileProvider.impl
 
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
-import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream
 import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
 import suwayomi.tachidesk.manga.impl.download.fileProvider.ChaptersFilesProvider
 import suwayomi.tachidesk.manga.impl.download.fileProvider.FileType.RegularFile
+import suwayomi.tachidesk.manga.impl.util.KoreaderHelper
 import suwayomi.tachidesk.manga.impl.util.getChapterCachePath
 import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath
 import suwayomi.tachidesk.manga.impl.util.storage.FileDeletionHelper
+import suwayomi.tachidesk.manga.impl.util.storage.PageBlobStore
+import suwayomi.tachidesk.manga.impl.util.storage.StoredZipArchive
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.server.ApplicationDirs
 import uy.kohesive.injekt.injectLazy
-import java.io.BufferedOutputStream
-import java.io.ByteArrayInputStream
-import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileInputStream
 import java.io.InputStream
-import java.util.zip.Deflater
 
 private val applicationDirs: ApplicationDirs by injectLazy()
 
@@ -29,7 +27,10 @@ private val applicationDirs: ApplicationDirs by injectLazy()
 class FolderProvider(
     mangaId: Int,
     chapterId: Int,
-) : ChaptersFilesProvider<RegularFile>(mangaId, chapterId) {
+    manifest: DownloadManifest.Manifest? = null,
+) : ChaptersFilesProvider<RegularFile>(mangaId, chapterId, manifest) {
+    override val format = DownloadManifest.Format.FOLDER
+
     override suspend fun getImageFiles(): List<RegularFile> {
         val chapterFolder = File(getChapterDownloadPath(mangaId, chapterId))
 
@@ -46,6 +47,9 @@ class FolderProvider(
 
     override suspend fun getImageInputStream(image: RegularFile): FileInputStream = FileInputStream(image.file)
 
+    override suspend fun getImageInputStream(fileName: String): InputStream =
+        FileInputStream(File(getChapterDownloadPath(mangaId, chapterId), fileName))
+
     override suspend fun extractExistingDownload() {
         // nothing to do
     }
@@ -56,6 +60,8 @@ class FolderProvider(
 
         val cacheChapterDir = getChapterCachePath(mangaId, chapterId)
         File(cacheChapterDir).copyRecursively(folder, true)
+
+        PageBlobStore.deduplicateFolder(folder)
     }
 
     override suspend fun delete(): Boolean {
@@ -65,53 +71,50 @@ class FolderProvider(
             return true
         }
 
-        val chapterDirDeleted = chapterDir.deleteRecursively()
+        val chapterDirDeleted = FileDeletionHelper.deleteDownloadFolder(chapterDir)
         if (chapterDirDeleted) {
             transaction {
                 ChapterTable.update({ ChapterTable.id eq chapterId }) {
                     it[koreaderHash] = null
                 }
             }
+            DownloadManifest.remove(chapterId)
         }
         FileDeletionHelper.cleanupParentFoldersFor(chapterDir, applicationDirs.mangaDownloadsRoot)
         return chapterDirDeleted
     }
 
-    override suspend fun getAsArchiveStream(): Pair<InputStream, Long> {
+    /**
+     * The cbz of the download, the pages are stored uncompressed thus its layout is known without building it
+     */
+    private fun getArchive(): StoredZipArchive {
         val chapterDir = File(getChapterDownloadPath(mangaId, chapterId))
 
         if (!chapterDir.exists() || !chapterDir.isDirectory || chapterDir.listFiles().isNullOrEmpty()) {
             throw IllegalArgumentException("Invalid folder to create CBZ for chapter ID: $chapterId")
         }
 
-        val byteArrayOutputStream = ByteArrayOutputStream()
-        ZipArchiveOutputStream(BufferedOutputStream(byteArrayOutputStream)).use { zipOutputStream ->
-            zipOutputStream.setMethod(ZipArchiveOutputStream.DEFLATED)
-            zipOutputStream.setLevel(Deflater.DEFAULT_COMPRESSION)
-
+        return StoredZipArchive(
             chapterDir
                 .listFiles()
-                ?.filter { it.isFile }
-                ?.sortedBy { it.name }
-                ?.forEach { imageFile ->
-                    FileInputStream(imageFile).use { fileInputStream ->
-                        val zipEntry = ZipArchiveEntry(imageFile.name)
-                        zipEntry.time = 0L
-                        zipOutputStream.putArchiveEntry(zipEntry)
-                        fileInputStream.copyTo(zipOutputStream)
-                        zipOutputStream.closeArchiveEntry()
-                    }
-                }
-        }
+                .orEmpty()
+                .filter { it.isFile }
+                .sortedBy { it.name },
+        )
+    }
 
-        val zipData = byteArrayOutputStream.toByteArray()
-        return ByteArrayInputStream(zipData) to zipData.size.toLong()
+    override suspend fun getAsArchiveStream(): Pair<InputStream, Long> {
+        val archive = getArchive()
+        return archive.openStream() to archive.size
     }
 
     override suspend fun getArchiveSize(): Long {
+        getManifest()?.let { return it.totalBytes }
+
         val chapterDir = File(getChapterDownloadPath(mangaId, chapterId))
-        if (!chapterDir.exists() || !chapterDir.isDirectory) return 0L
-        // Approximation: actual CBZ size is slightly larger due to ZIP metadata, but sufficient for Content-Length header.
-        return chapterDir.listFiles()?.filter { it.isFile }?.sumOf { it.length() } ?: 0L
+        if (!chapterDir.exists() || !chapterDir.isDirectory || chapterDir.listFiles().isNullOrEmpty()) return 0L
+        return getArchive().size
     }
+
+    override suspend fun getKoreaderHash(): String? = KoreaderHelper.hashContents(getArchive())
 }
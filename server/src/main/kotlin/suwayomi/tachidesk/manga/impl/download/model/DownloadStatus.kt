@@ -20,10 +20,12 @@ data class OldDownloadStatus(
 data class DownloadStatus(
     val status: Status,
     val queue: List<DownloadQueueItem>,
+    val bytesPerSecond: Long,
 )
 
 data class DownloadUpdates(
     val status: Status,
     val updates: List<DownloadUpdate>,
     val initial: List<DownloadQueueItem>?,
+    val bytesPerSecond: Long,
 )
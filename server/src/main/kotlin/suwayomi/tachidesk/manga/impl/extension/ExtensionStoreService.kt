@@ -8,13 +8,19 @@ package suwayomi.tachidesk.manga.impl.extension
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
 import eu.kanade.tachiyomi.network.GET
+import eu.kanade.tachiyomi.network.HttpException
 import eu.kanade.tachiyomi.network.NetworkHelper
+import eu.kanade.tachiyomi.network.await
 import eu.kanade.tachiyomi.network.awaitSuccess
 import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.serialization.decodeFromByteArray
 import kotlinx.serialization.json.Json
 import kotlinx.serialization.json.okio.decodeFromBufferedSource
 import kotlinx.serialization.protobuf.ProtoBuf
+import okhttp3.Headers
 import okio.BufferedSource
 import okio.buffer
 import okio.gzip
@@ -25,6 +31,7 @@ import org.jetbrains.exposed.v1.jdbc.insert
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.impl.extension.github.BaseNetworkExtensionStore
 import suwayomi.tachidesk.manga.impl.extension.github.NetworkExtensionStore
 import suwayomi.tachidesk.manga.impl.extension.github.NetworkLegacyExtension
 import suwayomi.tachidesk.manga.impl.extension.github.NetworkLegacyExtensionRepo
@@ -35,6 +42,9 @@ import suwayomi.tachidesk.manga.model.dataclass.ExtensionStore
 import suwayomi.tachidesk.manga.model.table.ExtensionStoreTable
 import suwayomi.tachidesk.server.serverConfig
 import uy.kohesive.injekt.injectLazy
+import java.net.HttpURLConnection
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
 import kotlin.coroutines.cancellation.CancellationException
 
 object ExtensionStoreService {
@@ -44,46 +54,115 @@ object ExtensionStoreService {
     val protoBuf: ProtoBuf by injectLazy()
     val json: Json by injectLazy()
 
-    suspend fun fetch(indexUrl: String): ExtensionStore {
-        var updatedIndexUrl: String = indexUrl
+    private enum class IndexType {
+        STORE,
+        EXTENSIONS,
+    }
+
+    /**
+     * The last response of an index together with its validators
+     */
+    private class CachedIndex(
+        val etag: String?,
+        val lastModified: String?,
+        val value: Any,
+    )
+
+    class IndexResponse<T>(
+        val value: T,
+        val changed: Boolean,
+    )
+
+    private class ParsedStore(
+        val networkStore: BaseNetworkExtensionStore,
+        val indexUrl: String,
+    )
+
+    private val indexCache = ConcurrentHashMap<Pair<IndexType, String>, CachedIndex>()
+
+    /**
+     * Requests [url] with the validators of the last response. In case the server reports the index as not modified,
+     * the previously parsed value is returned instead of downloading and parsing it again.
+     */
+    private suspend fun <T : Any> fetchIndex(
+        url: String,
+        type: IndexType,
+        parse: suspend (BufferedSource) -> T,
+    ): IndexResponse<T> {
+        val cacheKey = type to url
+        val cached = indexCache[cacheKey]
+
+        val headers =
+            Headers
+                .Builder()
+                .apply {
+                    cached?.etag?.let { set("If-None-Match", it) }
+                    cached?.lastModified?.let { set("If-Modified-Since", it) }
+                }.build()
+
+        network.client.newCall(GET(url, headers)).await().use { response ->
+            if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                @Suppress("UNCHECKED_CAST")
+                return IndexResponse(cached.value as T, changed = false)
+            }
+
+            if (!response.isSuccessful) {
+                throw HttpException(response.code)
+            }
+
+            val value = response.body.source().decompressIfGzipped().use { parse(it) }
+
+            val etag = response.header("ETag")
+            val lastModified = response.header("Last-Modified")
+            if (etag != null || lastModified != null) {
+                indexCache[cacheKey] = CachedIndex(etag, lastModified, value)
+            } else {
+                indexCache.remove(cacheKey)
+            }
+
+            return IndexResponse(value, changed = true)
+        }
+    }
+
+    suspend fun fetch(indexUrl: String): ExtensionStore = fetchIfChanged(indexUrl).value
+
+    suspend fun fetchIfChanged(indexUrl: String): IndexResponse<ExtensionStore> {
         return try {
-            val response = network.client.newCall(GET(updatedIndexUrl)).awaitSuccess()
-            response.body.source().decompressIfGzipped().use { source ->
-                val networkStore =
+            val response =
+                fetchIndex(indexUrl, IndexType.STORE) { source ->
                     when (source.peek().readByte()) {
                         // "[..."
                         0x5B.toByte() -> {
-                            run {
-                                if (!indexUrl.endsWith("/index.min.json")) {
-                                    throw IllegalArgumentException("Provided legacy store url is not valid")
-                                }
-                                updatedIndexUrl = indexUrl.replace("/index.min.json", "/repo.json")
-                                network.client.newCall(GET(updatedIndexUrl)).awaitSuccess().body.source().use {
-                                    json.decodeFromBufferedSource<NetworkLegacyExtensionRepo>(it)
-                                }
+                            if (!indexUrl.endsWith("/index.min.json")) {
+                                throw IllegalArgumentException("Provided legacy store url is not valid")
+                            }
+                            val updatedIndexUrl = indexUrl.replace("/index.min.json", "/repo.json")
+                            network.client.newCall(GET(updatedIndexUrl)).awaitSuccess().body.source().use {
+                                ParsedStore(json.decodeFromBufferedSource<NetworkLegacyExtensionRepo>(it), updatedIndexUrl)
                             }
                         }
 
                         // "{..."
                         0x7B.toByte() -> {
                             try {
-                                json.decodeFromBufferedSource<NetworkLegacyExtensionRepo>(source.peek())
+                                ParsedStore(json.decodeFromBufferedSource<NetworkLegacyExtensionRepo>(source.peek()), indexUrl)
                             } catch (_: IllegalArgumentException) {
-                                json.decodeFromBufferedSource<NetworkExtensionStore>(source)
+                                ParsedStore(json.decodeFromBufferedSource<NetworkExtensionStore>(source), indexUrl)
                             }
                         }
 
                         else -> {
-                            protoBuf.decodeFromByteArray<NetworkExtensionStore>(source.readByteArray())
+                            ParsedStore(protoBuf.decodeFromByteArray<NetworkExtensionStore>(source.readByteArray()), indexUrl)
                         }
                     }
-
-                if (networkStore is NetworkLegacyExtensionRepo && networkStore.indexV2 != null) {
-                    return fetch(networkStore.indexV2)
                 }
 
-                networkStore.toExtensionStore(updatedIndexUrl)
+            val networkStore = response.value.networkStore
+            if (networkStore is NetworkLegacyExtensionRepo && networkStore.indexV2 != null) {
+                return fetchIfChanged(networkStore.indexV2)
             }
+
+            IndexResponse(networkStore.toExtensionStore(response.value.indexUrl), response.changed)
         } catch (e: Exception) {
             if (e is CancellationException) throw e
             logger.error(e) { "Failed to fetch extension store '$indexUrl'" }
@@ -129,27 +208,37 @@ object ExtensionStoreService {
             transaction {
                 ExtensionStoreTable.selectAll().toList()
             }
-        var needsPrefUpdate = false
+        val needsPrefUpdate = AtomicBoolean(false)
         val updateStores =
-            stores.mapNotNull { storeRow ->
-                val oldIndexUrl = storeRow[ExtensionStoreTable.indexUrl]
-                val oldName = storeRow[ExtensionStoreTable.name]
-                try {
-                    val store = fetch(oldIndexUrl)
-                    if (store.indexUrl != oldIndexUrl) {
-                        transaction {
-                            ExtensionStoreTable.deleteWhere { ExtensionStoreTable.indexUrl eq oldIndexUrl }
+            coroutineScope {
+                stores
+                    .map { storeRow ->
+                        async {
+                            val oldIndexUrl = storeRow[ExtensionStoreTable.indexUrl]
+                            val oldName = storeRow[ExtensionStoreTable.name]
+                            try {
+                                val response = fetchIfChanged(oldIndexUrl)
+                                val store = response.value
+                                if (store.indexUrl != oldIndexUrl) {
+                                    transaction {
+                                        ExtensionStoreTable.deleteWhere { ExtensionStoreTable.indexUrl eq oldIndexUrl }
+                                    }
+                                    needsPrefUpdate.set(true)
+                                    upsert(store)
+                                } else if (response.changed) {
+                                    upsert(store)
+                                }
+                                store
+                            } catch (e: Exception) {
+                                if (e is CancellationException) throw e
+                                logger.warn(e) { "Failed to fetch extension store '$oldName ($oldIndexUrl)'" }
+                                null
+                            }
                         }
-                        needsPrefUpdate = true
-                    }
-                    upsert(store)
-                    store
-                } catch (e: Exception) {
-                    logger.warn(e) { "Failed to fetch extension store '$oldName ($oldIndexUrl)'" }
-                    null
-                }
+                    }.awaitAll()
+                    .filterNotNull()
             }
-        if (needsPrefUpdate) syncDbToPrefs()
+        if (needsPrefUpdate.get()) syncDbToPrefs()
         return updateStores
     }
 
@@ -216,8 +305,7 @@ object ExtensionStoreService {
     suspend fun getExtensions(store: ExtensionStore): List<ExtensionInfo> {
         val extensions =
             if (store.extensionListUrl != null) {
-                val response = network.client.newCall(GET(store.extensionListUrl)).awaitSuccess()
-                response.body.source().decompressIfGzipped().use { source ->
+                fetchIndex(store.extensionListUrl, IndexType.EXTENSIONS) { source ->
                     when (source.peek().readByte()) {
                         // "{..."
                         0x7B.toByte() -> {
@@ -232,8 +320,7 @@ object ExtensionStoreService {
                     }.toExtensionInfos(store)
                 }
             } else if (!store.isLegacy) {
-                val response = network.client.newCall(GET(store.indexUrl)).awaitSuccess()
-                response.body.source().decompressIfGzipped().use { source ->
+                fetchIndex(store.indexUrl, IndexType.EXTENSIONS) { source ->
                     when (source.peek().readByte()) {
                         // "{..."
                         0x7B.toByte() -> json.decodeFromBufferedSource<NetworkExtensionStore>(source)
@@ -244,14 +331,13 @@ object ExtensionStoreService {
                 }
             } else {
                 val storeBaseUrl = store.indexUrl.removeSuffix("/repo.json")
-                val response = network.client.newCall(GET("$storeBaseUrl/index.min.json")).awaitSuccess()
-                response.body.source().use { source ->
+                fetchIndex("$storeBaseUrl/index.min.json", IndexType.EXTENSIONS) { source ->
                     json
                         .decodeFromBufferedSource<List<NetworkLegacyExtension>>(source)
                         .map { it.toExtensionInfo(store, storeBaseUrl) }
                 }
             }
-        return extensions
+        return extensions.value
     }
 
     private fun BufferedSource.decompressIfGzipped(): BufferedSource {
@@ -9,6 +9,9 @@ package suwayomi.tachidesk.manga.impl.extension
 
 import eu.kanade.tachiyomi.source.local.LocalSource
 import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import org.jetbrains.exposed.v1.core.ResultRow
@@ -27,6 +30,7 @@ import suwayomi.tachidesk.manga.model.dataclass.ExtensionDataClass
 import suwayomi.tachidesk.manga.model.dataclass.ExtensionInfo
 import suwayomi.tachidesk.manga.model.table.ExtensionTable
 import java.util.concurrent.ConcurrentHashMap
+import kotlin.coroutines.cancellation.CancellationException
 import kotlin.time.Duration.Companion.seconds
 
 object ExtensionsList {
@@ -36,18 +40,25 @@ object ExtensionsList {
     var updateMap = ConcurrentHashMap<String, ExtensionInfo>()
 
     suspend fun fetchExtensions() {
-        val allExtensions = mutableListOf<ExtensionInfo>()
-
-        ExtensionStoreService.getAndRefresh().forEach { store ->
-            try {
-                val extensions = ExtensionStoreService.getExtensions(store)
-                allExtensions.addAll(extensions)
-            } catch (e: Exception) {
-                logger.warn(e) {
-                    "Failed to fetch extensions for store: ${store.indexUrl}"
-                }
+        val allExtensions =
+            coroutineScope {
+                ExtensionStoreService
+                    .getAndRefresh()
+                    .map { store ->
+                        async {
+                            try {
+                                ExtensionStoreService.getExtensions(store)
+                            } catch (e: Exception) {
+                                if (e is CancellationException) throw e
+                                logger.warn(e) {
+                                    "Failed to fetch extensions for store: ${store.indexUrl}"
+                                }
+                                emptyList()
+                            }
+                        }
+                    }.awaitAll()
+                    .flatten()
             }
-        }
 
         updateExtensionDatabase(allExtensions)
     }
@@ -89,6 +100,36 @@ object ExtensionsList {
             }
         }
 
+    private data class InstalledExtensionUpdate(
+        val foundExtension: ExtensionInfo,
+        val extensionRecord: ResultRow,
+        val hasUpdate: Boolean,
+        val isObsolete: Boolean,
+    ) {
+        fun isChanged(): Boolean =
+            extensionRecord[ExtensionTable.iconUrl] != foundExtension.iconUrl ||
+                extensionRecord[ExtensionTable.storeIndexUrl] != foundExtension.storeIndexUrl ||
+                extensionRecord[ExtensionTable.apkUrl] != foundExtension.apkUrl ||
+                extensionRecord[ExtensionTable.jarUrl] != foundExtension.jarUrl ||
+                extensionRecord[ExtensionTable.hasUpdate] != hasUpdate ||
+                extensionRecord[ExtensionTable.isObsolete] != isObsolete
+    }
+
+    /**
+     * Whether the record of a not installed extension already contains the data of the store
+     */
+    private fun ExtensionInfo.matches(extensionRecord: ResultRow): Boolean =
+        extensionRecord[ExtensionTable.storeIndexUrl] == storeIndexUrl &&
+            extensionRecord[ExtensionTable.name] == name &&
+            extensionRecord[ExtensionTable.extensionLib] == extensionLib &&
+            extensionRecord[ExtensionTable.versionName] == versionName &&
+            extensionRecord[ExtensionTable.versionCode] == versionCode &&
+            extensionRecord[ExtensionTable.lang] == lang &&
+            extensionRecord[ExtensionTable.contentWarning] == contentWarning.ordinal &&
+            extensionRecord[ExtensionTable.apkUrl] == apkUrl &&
+            extensionRecord[ExtensionTable.jarUrl] == jarUrl &&
+            extensionRecord[ExtensionTable.iconUrl] == iconUrl
+
     private val updateExtensionDatabaseMutex = Mutex()
 
     private suspend fun updateExtensionDatabase(foundExtensions: List<ExtensionInfo>) {
@@ -123,46 +164,53 @@ object ExtensionsList {
                     val extensionsInstalled =
                         extensionsToUpdate
                             .groupBy { it.second[ExtensionTable.isInstalled] }
-                    val installedExtensionsToUpdate = extensionsInstalled[true].orEmpty()
+                    val installedExtensionsToUpdate =
+                        extensionsInstalled[true]
+                            .orEmpty()
+                            .map { (foundExtension, extensionRecord) ->
+                                var hasUpdate = extensionRecord[ExtensionTable.hasUpdate]
+                                var isObsolete = extensionRecord[ExtensionTable.isObsolete]
+
+                                // a previously removed extension is now available again
+                                if (isObsolete && foundExtension.versionCode >= extensionRecord[ExtensionTable.versionCode]) {
+                                    isObsolete = false
+                                }
+
+                                when {
+                                    foundExtension.versionCode > extensionRecord[ExtensionTable.versionCode] -> {
+                                        // there is an update
+                                        hasUpdate = true
+                                        updateMap.putIfAbsent(foundExtension.pkgName, foundExtension)
+                                    }
+
+                                    foundExtension.versionCode < extensionRecord[ExtensionTable.versionCode] -> {
+                                        // somehow the user installed an invalid version
+                                        isObsolete = true
+                                    }
+                                }
+
+                                InstalledExtensionUpdate(foundExtension, extensionRecord, hasUpdate, isObsolete)
+                            }.filter { it.isChanged() }
                     if (installedExtensionsToUpdate.isNotEmpty()) {
                         BatchUpdateStatement(ExtensionTable)
                             .apply {
-                                installedExtensionsToUpdate.forEach { (foundExtension, extensionRecord) ->
+                                installedExtensionsToUpdate.forEach { (foundExtension, extensionRecord, hasUpdate, isObsolete) ->
                                     addBatch(EntityID(extensionRecord[ExtensionTable.id].value, ExtensionTable))
                                     // Always update icon url and repo
                                     this[ExtensionTable.iconUrl] = foundExtension.iconUrl
                                     this[ExtensionTable.storeIndexUrl] = foundExtension.storeIndexUrl
                                     this[ExtensionTable.apkUrl] = foundExtension.apkUrl
                                     this[ExtensionTable.jarUrl] = foundExtension.jarUrl
-
-                                    // add these because batch updates need matching columns
-                                    this[ExtensionTable.hasUpdate] = extensionRecord[ExtensionTable.hasUpdate]
-                                    this[ExtensionTable.isObsolete] = extensionRecord[ExtensionTable.isObsolete]
-
-                                    // a previously removed extension is now available again
-                                    if (extensionRecord[ExtensionTable.isObsolete] &&
-                                        foundExtension.versionCode >= extensionRecord[ExtensionTable.versionCode]
-                                    ) {
-                                        this[ExtensionTable.isObsolete] = false
-                                    }
-
-                                    when {
-                                        foundExtension.versionCode > extensionRecord[ExtensionTable.versionCode] -> {
-                                            // there is an update
-                                            this[ExtensionTable.hasUpdate] = true
-                                            updateMap.putIfAbsent(foundExtension.pkgName, foundExtension)
-                                        }
-
-                                        foundExtension.versionCode < extensionRecord[ExtensionTable.versionCode] -> {
-                                            // somehow the user installed an invalid version
-                                            this[ExtensionTable.isObsolete] = true
-                                        }
-                                    }
+                                    this[ExtensionTable.hasUpdate] = hasUpdate
+                                    this[ExtensionTable.isObsolete] = isObsolete
                                 }
                             }.toExecutable()
                             .execute(this@transaction)
                     }
-                    val extensionsToFullyUpdate = extensionsInstalled[false].orEmpty()
+                    val extensionsToFullyUpdate =
+                        extensionsInstalled[false]
+                            .orEmpty()
+                            .filter { (foundExtension, extensionRecord) -> !foundExtension.matches(extensionRecord) }
                     if (extensionsToFullyUpdate.isNotEmpty()) {
                         BatchUpdateStatement(ExtensionTable)
                             .apply {
@@ -204,16 +252,19 @@ object ExtensionsList {
                 val extensionsToRemove =
                     extensionsToDelete
                         .groupBy { it[ExtensionTable.isInstalled] }
-                        .mapValues { (_, extensions) -> extensions.map { it[ExtensionTable.pkgName] } }
                 // not in the repo, so these extensions are obsolete
-                val obsoleteExtensions = extensionsToRemove[true].orEmpty()
+                val obsoleteExtensions =
+                    extensionsToRemove[true]
+                        .orEmpty()
+                        .filterNot { it[ExtensionTable.isObsolete] }
+                        .map { it[ExtensionTable.pkgName] }
                 if (obsoleteExtensions.isNotEmpty()) {
                     ExtensionTable.update({ ExtensionTable.pkgName inList obsoleteExtensions }) {
                         it[isObsolete] = true
                     }
                 }
                 // is not installed, so we can remove the record without a care
-                val removeExtensions = extensionsToRemove[false].orEmpty()
+                val removeExtensions = extensionsToRemove[false].orEmpty().map { it[ExtensionTable.pkgName] }
                 if (removeExtensions.isNotEmpty()) {
                     ExtensionTable.deleteWhere { ExtensionTable.pkgName inList removeExtensions }
                 }
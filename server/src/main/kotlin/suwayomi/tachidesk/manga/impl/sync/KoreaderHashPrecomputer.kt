@@ -0,0 +1,244 @@
+package suwayomi.tachidesk.manga.impl.sync
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import android.app.Application
+import android.content.Context
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withTimeoutOrNull
+import org.jetbrains.exposed.v1.core.SortOrder
+import org.jetbrains.exposed.v1.core.and
+import org.jetbrains.exposed.v1.core.dao.id.EntityID
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.core.greater
+import org.jetbrains.exposed.v1.core.isNotNull
+import org.jetbrains.exposed.v1.core.isNull
+import org.jetbrains.exposed.v1.core.statements.BatchUpdateStatement
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.statements.toExecutable
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.graphql.types.KoreaderSyncChecksumMethod
+import suwayomi.tachidesk.manga.impl.ChapterDownloadHelper
+import suwayomi.tachidesk.manga.impl.util.getChapterCbzPath
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.server.serverConfig
+import uy.kohesive.injekt.Injekt
+import uy.kohesive.injekt.api.get
+import java.io.File
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Computes the missing Koreader hashes of downloaded chapters in the background.
+ *
+ * Otherwise, the hash of a chapter gets computed when its progress gets synced for the first time, which delays the
+ * sync and makes Koreader unable to find the progress of chapters that were never synced from the server.
+ *
+ * Only runs while binary checksums are used and credentials are stored.
+ */
+object KoreaderHashPrecomputer {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private const val BATCH_SIZE = 500
+    private const val MAX_PARALLEL = 4
+    private val initialDelay = 2.minutes
+    private val interval = 6.hours
+
+    /** Lets a burst of changes settle before computing the hashes, e.g. multiple finished downloads */
+    private val settleDelay = 5.seconds
+
+    private const val FOLDER_HASHES_RESET_KEY = "koreaderFolderHashesReset"
+    private val preferences = Injekt.get<Application>().getSharedPreferences("server_util", Context.MODE_PRIVATE)
+
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+
+    private var worker: Job? = null
+
+    init {
+        serverConfig.subscribeTo(serverConfig.koreaderSyncChecksumMethod, { _ -> schedule() })
+    }
+
+    @Synchronized
+    fun start() {
+        if (worker?.isActive == true) {
+            return
+        }
+
+        worker =
+            scope.launch {
+                withTimeoutOrNull(initialDelay) { wakeUp.receive() }
+
+                while (isActive) {
+                    try {
+                        resetFolderHashes()
+                        precompute()
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        logger.error(e) { "Failed to precompute the Koreader hashes" }
+                    }
+
+                    withTimeoutOrNull(interval) { wakeUp.receive() }
+                    delay(settleDelay)
+                }
+            }
+    }
+
+    /**
+     * Computes the missing hashes as soon as possible
+     */
+    fun schedule() {
+        wakeUp.trySend(Unit)
+    }
+
+    /**
+     * The cbz of folder downloads stores its pages uncompressed now, which changed the Koreader hashes of these chapters.
+     *
+     * Clears the stored hashes once, except the ones of chapters downloaded as cbz. Whether a chapter is downloaded as
+     * cbz is checked on the filesystem, the cleared hashes get computed again.
+     */
+    private suspend fun resetFolderHashes() {
+        if (preferences.getBoolean(FOLDER_HASHES_RESET_KEY, false)) {
+            return
+        }
+
+        var lastChapterId = 0
+        var resetChapters = 0
+
+        while (true) {
+            val chapters =
+                transaction {
+                    ChapterTable
+                        .select(ChapterTable.id, ChapterTable.manga, ChapterTable.isDownloaded)
+                        .where { ChapterTable.koreaderHash.isNotNull() and (ChapterTable.id greater lastChapterId) }
+                        .orderBy(ChapterTable.id to SortOrder.ASC)
+                        .limit(BATCH_SIZE)
+                        .map { Triple(it[ChapterTable.id].value, it[ChapterTable.manga].value, it[ChapterTable.isDownloaded]) }
+                }
+
+            if (chapters.isEmpty()) {
+                break
+            }
+            lastChapterId = chapters.last().first
+
+            val folderChapterIds =
+                chapters
+                    .filterNot { (chapterId, mangaId, isDownloaded) ->
+                        isDownloaded && File(getChapterCbzPath(mangaId, chapterId)).isFile
+                    }.map { it.first }
+
+            if (folderChapterIds.isNotEmpty()) {
+                transaction {
+                    BatchUpdateStatement(ChapterTable)
+                        .apply {
+                            folderChapterIds.forEach { chapterId ->
+                                addBatch(EntityID(chapterId, ChapterTable))
+
+                                this[ChapterTable.koreaderHash] = null
+                            }
+                        }.toExecutable()
+                        .execute(this)
+                }
+                resetChapters += folderChapterIds.size
+            }
+        }
+
+        preferences.edit().putBoolean(FOLDER_HASHES_RESET_KEY, true).apply()
+        if (resetChapters > 0) {
+            logger.info { "Cleared the outdated Koreader hashes of $resetChapters chapter(s)" }
+        }
+    }
+
+    private suspend fun precompute() {
+        if (serverConfig.koreaderSyncChecksumMethod.value != KoreaderSyncChecksumMethod.BINARY ||
+            !KoreaderSyncService.hasCredentials()
+        ) {
+            return
+        }
+
+        val semaphore = Semaphore(MAX_PARALLEL)
+        var lastChapterId = 0
+        var hashedChapters = 0
+
+        while (true) {
+            val chapters =
+                transaction {
+                    ChapterTable
+                        .select(ChapterTable.id, ChapterTable.manga)
+                        .where {
+                            (ChapterTable.isDownloaded eq true) and
+                                ChapterTable.koreaderHash.isNull() and
+                                (ChapterTable.id greater lastChapterId)
+                        }.orderBy(ChapterTable.id to SortOrder.ASC)
+                        .limit(BATCH_SIZE)
+                        .map { it[ChapterTable.id].value to it[ChapterTable.manga].value }
+                }
+
+            if (chapters.isEmpty()) {
+                break
+            }
+            lastChapterId = chapters.last().first
+
+            val hashes =
+                coroutineScope {
+                    chapters
+                        .map { (chapterId, mangaId) ->
+                            async {
+                                semaphore.withPermit {
+                                    val hash =
+                                        try {
+                                            ChapterDownloadHelper.getKoreaderHash(mangaId, chapterId)
+                                        } catch (e: Exception) {
+                                            if (e is CancellationException) throw e
+                                            logger.debug(e) { "Could not hash the download of chapter $chapterId" }
+                                            null
+                                        }
+                                    hash?.let { chapterId to it }
+                                }
+                            }
+                        }.awaitAll()
+                        .filterNotNull()
+                }
+
+            if (hashes.isNotEmpty()) {
+                transaction {
+                    BatchUpdateStatement(ChapterTable)
+                        .apply {
+                            hashes.forEach { (chapterId, hash) ->
+                                addBatch(EntityID(chapterId, ChapterTable))
+
+                                this[ChapterTable.koreaderHash] = hash
+                            }
+                        }.toExecutable()
+                        .execute(this)
+                }
+                hashedChapters += hashes.size
+            }
+        }
+
+        if (hashedChapters > 0) {
+            logger.info { "Computed the Koreader hashes of $hashedChapters downloaded chapter(s)" }
+        }
+    }
+}
@@ -23,7 +23,7 @@ import suwayomi.tachidesk.graphql.types.KoSyncStatusPayload
 import suwayomi.tachidesk.graphql.types.KoreaderSyncChecksumMethod
 import suwayomi.tachidesk.graphql.types.KoreaderSyncConflictStrategy
 import suwayomi.tachidesk.manga.impl.ChapterDownloadHelper
-import suwayomi.tachidesk.manga.impl.util.KoreaderHelper
+import suwayomi.tachidesk.manga.impl.chapter.ChapterProgressBuffer
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
 import suwayomi.tachidesk.server.serverConfig
@@ -31,7 +31,6 @@ import suwayomi.tachidesk.server.util.Platform
 import uy.kohesive.injekt.Injekt
 import uy.kohesive.injekt.api.get
 import uy.kohesive.injekt.injectLazy
-import java.io.File
 import java.util.UUID
 import kotlin.math.abs
 
@@ -139,22 +138,10 @@ object KoreaderSyncService {
                         if (isDownloaded) {
                             logger.debug { "[KOSYNC HASH] No hash for chapterId=$chapterId. Generating from downloaded content." }
                             try {
-                                // Always create a CBZ in memory if it doesn't exist
-                                val (stream, _) = ChapterDownloadHelper.getArchiveStreamWithSize(mangaId, chapterId)
-                                // Write the stream to a temp file for partial hashing
-                                val tempFile = File.createTempFile("kosync-hash-", ".cbz")
-                                try {
-                                    tempFile.outputStream().use { fos ->
-                                        stream.use { it.copyTo(fos) }
-                                    }
-                                    // Use the same hashing method as for downloads
-                                    KoreaderHelper.hashContents(tempFile)
-                                } finally {
-                                    // Always delete the temp file
-                                    tempFile.delete()
-                                }
+                                // folder downloads are hashed from the layout of their cbz without building it
+                                ChapterDownloadHelper.getKoreaderHash(mangaId, chapterId)
                             } catch (e: Exception) {
-                                logger.warn(e) { "[KOSYNC HASH] Failed to generate archive stream for chapterId=$chapterId." }
+                                logger.warn(e) { "[KOSYNC HASH] Failed to hash the download of chapterId=$chapterId." }
                                 null
                             }
                         } else {
@@ -290,6 +277,7 @@ object KoreaderSyncService {
 
         if (authResult.success) {
             setCredentials(serverAddress, username, userkey)
+            KoreaderHashPrecomputer.schedule()
             return ConnectResult(
                 "Login successful.",
                 KoSyncStatusPayload(isLoggedIn = true, serverAddress = serverAddress, username = username),
@@ -301,6 +289,7 @@ object KoreaderSyncService {
             val registerResult = register(serverAddress, username, userkey)
             return if (registerResult.success) {
                 setCredentials(serverAddress, username, userkey)
+                KoreaderHashPrecomputer.schedule()
                 ConnectResult(
                     "Registration successful.",
                     KoSyncStatusPayload(isLoggedIn = true, serverAddress = serverAddress, username = username),
@@ -319,6 +308,14 @@ object KoreaderSyncService {
         )
     }
 
+    /**
+     * Whether credentials are stored, does not check them with the server
+     */
+    fun hasCredentials(): Boolean {
+        val (_, username, userkey) = getCredentials()
+        return username.isNotBlank() && userkey.isNotBlank()
+    }
+
     fun logout() {
         clearCredentials()
     }
@@ -367,7 +364,8 @@ object KoreaderSyncService {
                     .firstOrNull()
                     ?.let {
                         object {
-                            val lastPageRead = it[ChapterTable.lastPageRead]
+                            // the progress might not have been written to the database yet
+                            val lastPageRead = ChapterProgressBuffer.getPending(chapterId)?.lastPageRead ?: it[ChapterTable.lastPageRead]
                             val pageCount = it[ChapterTable.pageCount]
                         }
                     }
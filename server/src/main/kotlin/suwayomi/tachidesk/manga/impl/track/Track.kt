@@ -355,9 +355,7 @@ object Track {
             return
         }
         scope.launch {
-            mangaIds.forEach {
-                trackChapter(it)
-            }
+            TrackerOutbox.enqueue(mangaIds)
         }
     }
 
@@ -407,7 +405,7 @@ object Track {
         }
     }
 
-    private suspend fun trackChapterForTracker(
+    internal suspend fun trackChapterForTracker(
         it: ResultRow,
         chapterNumber: Double,
     ) {
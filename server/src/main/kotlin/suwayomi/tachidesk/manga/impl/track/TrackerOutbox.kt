@@ -0,0 +1,294 @@
+package suwayomi.tachidesk.manga.impl.track
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withTimeoutOrNull
+import org.jetbrains.exposed.v1.core.ResultRow
+import org.jetbrains.exposed.v1.core.SortOrder
+import org.jetbrains.exposed.v1.core.and
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.core.inList
+import org.jetbrains.exposed.v1.core.lessEq
+import org.jetbrains.exposed.v1.core.max
+import org.jetbrains.exposed.v1.core.notInList
+import org.jetbrains.exposed.v1.jdbc.batchInsert
+import org.jetbrains.exposed.v1.jdbc.deleteWhere
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import org.jetbrains.exposed.v1.jdbc.update
+import suwayomi.tachidesk.manga.impl.track.tracker.TrackerManager
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.TrackRecordTable
+import suwayomi.tachidesk.manga.model.table.TrackerOutboxTable
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.min
+import kotlin.time.Duration.Companion.hours
+import kotlin.time.Duration.Companion.minutes
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Persistent write-behind queue for tracker progress updates.
+ *
+ * Read state changes only record the latest read chapter per (manga, tracker) in [TrackerOutboxTable]. Entries get
+ * sent once no further change happened for [serverConfig.trackerUpdateDebounce], so that marking a run of chapters as
+ * read results in a single refresh + update per tracker instead of one per change.
+ *
+ * Pending entries survive restarts and get picked up again by [start].
+ */
+object TrackerOutbox {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private const val MAX_ATTEMPTS = 8
+    private val maxDebounce = 2.minutes
+    private val initialRetryDelay = 30.seconds
+    private val maxRetryDelay = 6.hours
+
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+    private val inFlight = ConcurrentHashMap.newKeySet<Int>()
+    private val trackerSemaphores = ConcurrentHashMap<Int, Semaphore>()
+
+    private var worker: Job? = null
+
+    private data class OutboxEntry(
+        val id: Int,
+        val mangaId: Int,
+        val trackerId: Int,
+        val lastChapterRead: Double,
+        val attempts: Int,
+        val updatedAt: Long,
+    )
+
+    private fun ResultRow.toOutboxEntry() =
+        OutboxEntry(
+            id = this[TrackerOutboxTable.id].value,
+            mangaId = this[TrackerOutboxTable.mangaId].value,
+            trackerId = this[TrackerOutboxTable.trackerId],
+            lastChapterRead = this[TrackerOutboxTable.lastChapterRead],
+            attempts = this[TrackerOutboxTable.attempts],
+            updatedAt = this[TrackerOutboxTable.updatedAt],
+        )
+
+    init {
+        serverConfig.subscribeTo(serverConfig.trackerUpdateMaxParallel, { trackerSemaphores.clear() })
+    }
+
+    @Synchronized
+    fun start() {
+        if (worker?.isActive == true) {
+            return
+        }
+
+        val pendingCount = transaction { TrackerOutboxTable.selectAll().count() }
+        if (pendingCount > 0) {
+            logger.info { "Resuming $pendingCount pending tracker update(s)" }
+        }
+
+        worker = scope.launch { processLoop() }
+    }
+
+    /**
+     * Records the current max read chapter of the passed mangas for all of their track records.
+     *
+     * An already pending entry is replaced with the new chapter number and its send is postponed by the debounce time
+     * (capped to [maxDebounce] since the entry was created).
+     */
+    fun enqueue(mangaIds: Set<Int>) {
+        if (mangaIds.isEmpty()) {
+            return
+        }
+
+        val now = System.currentTimeMillis()
+        val debounce = serverConfig.trackerUpdateDebounce.value.inWholeMilliseconds
+
+        transaction {
+            val maxChapterNumber = ChapterTable.chapter_number.max()
+            val maxReadChapterByManga =
+                ChapterTable
+                    .select(ChapterTable.manga, maxChapterNumber)
+                    .where { (ChapterTable.manga inList mangaIds) and (ChapterTable.isRead eq true) }
+                    .groupBy(ChapterTable.manga)
+                    .associate { it[ChapterTable.manga].value to it[maxChapterNumber] }
+                    .filterValues { it != null && it > 0 }
+
+            if (maxReadChapterByManga.isEmpty()) {
+                return@transaction
+            }
+
+            val trackerIdsByManga =
+                TrackRecordTable
+                    .select(TrackRecordTable.mangaId, TrackRecordTable.trackerId)
+                    .where { TrackRecordTable.mangaId inList maxReadChapterByManga.keys }
+                    .toList()
+                    .groupBy({ it[TrackRecordTable.mangaId].value }, { it[TrackRecordTable.trackerId] })
+
+            val existingEntries =
+                TrackerOutboxTable
+                    .selectAll()
+                    .where { TrackerOutboxTable.mangaId inList trackerIdsByManga.keys }
+                    .associateBy { it[TrackerOutboxTable.mangaId].value to it[TrackerOutboxTable.trackerId] }
+
+            val newEntries = mutableListOf<Triple<Int, Int, Double>>()
+
+            trackerIdsByManga.forEach { (mangaId, trackerIds) ->
+                val chapterNumber = maxReadChapterByManga[mangaId]!!.toDouble()
+
+                trackerIds.forEach { trackerId ->
+                    val existingEntry = existingEntries[mangaId to trackerId]
+                    if (existingEntry == null) {
+                        newEntries.add(Triple(mangaId, trackerId, chapterNumber))
+                        return@forEach
+                    }
+
+                    val entryCreatedAt = existingEntry[TrackerOutboxTable.createdAt]
+                    TrackerOutboxTable.update({ TrackerOutboxTable.id eq existingEntry[TrackerOutboxTable.id] }) {
+                        it[lastChapterRead] = chapterNumber
+                        it[attempts] = 0
+                        it[updatedAt] = now
+                        it[nextAttemptAt] = min(now + debounce, entryCreatedAt + maxDebounce.inWholeMilliseconds)
+                    }
+                }
+            }
+
+            TrackerOutboxTable.batchInsert(newEntries) { (mangaId, trackerId, chapterNumber) ->
+                this[TrackerOutboxTable.mangaId] = mangaId
+                this[TrackerOutboxTable.trackerId] = trackerId
+                this[TrackerOutboxTable.lastChapterRead] = chapterNumber
+                this[TrackerOutboxTable.createdAt] = now
+                this[TrackerOutboxTable.updatedAt] = now
+                this[TrackerOutboxTable.nextAttemptAt] = now + debounce
+            }
+        }
+
+        wakeUp.trySend(Unit)
+    }
+
+    private suspend fun processLoop() {
+        while (scope.isActive) {
+            try {
+                val now = System.currentTimeMillis()
+                val inFlightIds = inFlight.toList()
+                val (dueEntries, nextAttemptAt) =
+                    transaction {
+                        val due =
+                            TrackerOutboxTable
+                                .selectAll()
+                                .where {
+                                    (TrackerOutboxTable.id notInList inFlightIds) and (TrackerOutboxTable.nextAttemptAt lessEq now)
+                                }.orderBy(TrackerOutboxTable.nextAttemptAt to SortOrder.ASC)
+                                .map { it.toOutboxEntry() }
+                        val next =
+                            TrackerOutboxTable
+                                .selectAll()
+                                .where { TrackerOutboxTable.id notInList inFlightIds }
+                                .orderBy(TrackerOutboxTable.nextAttemptAt to SortOrder.ASC)
+                                .limit(1)
+                                .firstOrNull()
+                                ?.get(TrackerOutboxTable.nextAttemptAt)
+
+                        due to next
+                    }
+
+                dueEntries.forEach { entry ->
+                    inFlight.add(entry.id)
+                    scope.launch {
+                        try {
+                            getSemaphore(entry.trackerId).withPermit { process(entry) }
+                        } finally {
+                            inFlight.remove(entry.id)
+                            wakeUp.trySend(Unit)
+                        }
+                    }
+                }
+
+                val timeToNextAttempt =
+                    if (dueEntries.isNotEmpty() || nextAttemptAt == null) {
+                        Long.MAX_VALUE
+                    } else {
+                        (nextAttemptAt - System.currentTimeMillis()).coerceAtLeast(0)
+                    }
+                withTimeoutOrNull(timeToNextAttempt) { wakeUp.receive() }
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                logger.error(e) { "processLoop: failed due to" }
+                withTimeoutOrNull(initialRetryDelay) { wakeUp.receive() }
+            }
+        }
+    }
+
+    private fun getSemaphore(trackerId: Int): Semaphore =
+        trackerSemaphores.getOrPut(trackerId) { Semaphore(serverConfig.trackerUpdateMaxParallel.value) }
+
+    private suspend fun process(entry: OutboxEntry) {
+        val log =
+            KotlinLogging.logger {
+                "${logger.name}::process(mangaId= ${entry.mangaId}, tracker= ${entry.trackerId}, chapterNumber= ${entry.lastChapterRead})"
+            }
+
+        val record =
+            transaction {
+                TrackRecordTable
+                    .selectAll()
+                    .where { (TrackRecordTable.mangaId eq entry.mangaId) and (TrackRecordTable.trackerId eq entry.trackerId) }
+                    .firstOrNull()
+            }
+
+        try {
+            if (record != null && TrackerManager.getTracker(entry.trackerId) != null) {
+                Track.trackChapterForTracker(record, entry.lastChapterRead)
+            } else {
+                log.debug { "track record got removed, dropping update" }
+            }
+
+            transaction {
+                // only remove the entry in case it did not get replaced by a newer chapter in the meantime
+                TrackerOutboxTable.deleteWhere {
+                    (TrackerOutboxTable.id eq entry.id) and (TrackerOutboxTable.updatedAt eq entry.updatedAt)
+                }
+            }
+        } catch (e: CancellationException) {
+            throw e
+        } catch (e: Exception) {
+            val attempts = entry.attempts + 1
+            if (attempts >= MAX_ATTEMPTS) {
+                log.error(e) { "failed after $attempts attempts, dropping update" }
+                transaction {
+                    TrackerOutboxTable.deleteWhere {
+                        (TrackerOutboxTable.id eq entry.id) and (TrackerOutboxTable.updatedAt eq entry.updatedAt)
+                    }
+                }
+                return
+            }
+
+            val retryDelay = (initialRetryDelay * (1 shl (attempts - 1))).coerceAtMost(maxRetryDelay)
+            log.warn(e) { "failed (attempt $attempts/$MAX_ATTEMPTS), retrying in $retryDelay" }
+            transaction {
+                TrackerOutboxTable.update({
+                    (TrackerOutboxTable.id eq entry.id) and (TrackerOutboxTable.updatedAt eq entry.updatedAt)
+                }) {
+                    it[TrackerOutboxTable.attempts] = attempts
+                    it[nextAttemptAt] = System.currentTimeMillis() + retryDelay.inWholeMilliseconds
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package suwayomi.tachidesk.manga.impl.update
 
 import android.app.Application
 import android.content.Context
+import eu.kanade.tachiyomi.network.interceptor.RateLimitScheduler
 import eu.kanade.tachiyomi.source.model.UpdateStrategy
 import io.github.oshai.kotlinlogging.KotlinLogging
 import kotlinx.coroutines.CancellationException
@@ -32,10 +33,12 @@ import suwayomi.tachidesk.global.impl.sync.SyncManager
 import suwayomi.tachidesk.manga.impl.Category
 import suwayomi.tachidesk.manga.impl.CategoryManga
 import suwayomi.tachidesk.manga.impl.Manga
+import suwayomi.tachidesk.manga.impl.util.source.GetSource
 import suwayomi.tachidesk.manga.model.dataclass.CategoryDataClass
 import suwayomi.tachidesk.manga.model.dataclass.IncludeOrExclude
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.table.MangaStatus
+import suwayomi.tachidesk.server.metrics.ServerMetrics
 import suwayomi.tachidesk.server.serverConfig
 import suwayomi.tachidesk.util.HAScheduler
 import uy.kohesive.injekt.Injekt
@@ -277,6 +280,8 @@ class Updater : IUpdater {
         channel
             .consumeAsFlow()
             .onEach { job ->
+                // don't occupy one of the parallel update slots while the source is throttled by its rate limit
+                RateLimitScheduler.awaitCapacity(GetSource.getSourceOrNull(job.manga.sourceId.toLong()))
                 semaphore.withPermit {
                     process(job)
                 }
@@ -307,6 +312,7 @@ class Updater : IUpdater {
         tracker[job.manga.id] = job.copy(status = JobStatus.RUNNING)
         updateStatus(mangaUpdates = listOf(tracker[job.manga.id]!!))
 
+        val start = System.nanoTime()
         tracker[job.manga.id] =
             try {
                 logger.info { "Updating ${job.manga}" }
@@ -320,6 +326,11 @@ class Updater : IUpdater {
                 if (e is CancellationException) throw e
                 job.copy(status = JobStatus.FAILED)
             }
+        ServerMetrics.updaterJobDuration.observe(
+            (System.nanoTime() - start) / 1_000_000_000.0,
+            job.manga.sourceId,
+            tracker[job.manga.id]!!.status.name,
+        )
 
         val wasLastJob = tracker.values.none { it.status == JobStatus.PENDING || it.status == JobStatus.RUNNING }
 
@@ -12,9 +12,12 @@ import io.github.oshai.kotlinlogging.KotlinLogging
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.core.inList
+import org.jetbrains.exposed.v1.jdbc.select
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.suspendTransaction
 import suwayomi.tachidesk.manga.impl.util.source.GetSource
+import suwayomi.tachidesk.manga.impl.util.source.StubSource
 import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
@@ -22,6 +25,7 @@ import suwayomi.tachidesk.server.ApplicationDirs
 import uy.kohesive.injekt.injectLazy
 import xyz.nulldev.androidcompat.util.SafePath
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.io.path.Path
 import kotlin.io.path.moveTo
 import kotlin.io.path.notExists
@@ -40,41 +44,129 @@ private fun getMangaDir(
     return "$sourceDir/$mangaDir"
 }
 
-private suspend fun getMangaDir(mangaId: Int): String =
-    suspendTransaction {
-        val mangaEntry = MangaTable.selectAll().where { MangaTable.id eq mangaId }.first()
-        val source = GetSource.getSourceOrStub(mangaEntry[MangaTable.sourceReference])
+/*
+ * The download directories are cached to not have to query the database and load the source of the manga whenever the
+ * path of a downloaded chapter is needed, e.g. for every served page.
+ * They have to be invalidated whenever the title of a manga, the name or scanlator of a chapter or a source changes.
+ */
+private val mangaDirCache = ConcurrentHashMap<Int, String>()
+
+private data class CachedChapterDir(
+    val mangaId: Int,
+    val chapterDir: String,
+)
+
+private val chapterDirCache = ConcurrentHashMap<Int, CachedChapterDir>()
+private val cachedChapterIdsByManga = ConcurrentHashMap<Int, MutableSet<Int>>()
+
+/**
+ * Incremented on every invalidation, prevents caching directories that got resolved from data read before the invalidation
+ */
+private val cacheGeneration = AtomicLong()
+
+private fun cacheMangaDir(
+    mangaId: Int,
+    mangaDir: String,
+    generation: Long,
+) {
+    mangaDirCache[mangaId] = mangaDir
+    if (cacheGeneration.get() != generation) {
+        mangaDirCache.remove(mangaId)
+    }
+}
 
-        getMangaDir(mangaEntry[MangaTable.title], source.toString())
+private fun cacheChapterDir(
+    chapterId: Int,
+    mangaId: Int,
+    chapterDir: String,
+    generation: Long,
+) {
+    cachedChapterIdsByManga.getOrPut(mangaId) { ConcurrentHashMap.newKeySet() }.add(chapterId)
+    chapterDirCache[chapterId] = CachedChapterDir(mangaId, chapterDir)
+    if (cacheGeneration.get() != generation) {
+        chapterDirCache.remove(chapterId)
     }
+}
+
+/**
+ * Has to be called after the title of the manga or the name or scanlator of one of its chapters got changed
+ */
+fun invalidateDownloadPaths(mangaId: Int) {
+    cacheGeneration.incrementAndGet()
+    mangaDirCache.remove(mangaId)
+    cachedChapterIdsByManga.remove(mangaId)?.forEach { chapterDirCache.remove(it) }
+}
+
+/**
+ * Has to be called after a source got (un)loaded, since the name of the source is part of the path
+ */
+fun invalidateAllDownloadPaths() {
+    cacheGeneration.incrementAndGet()
+    mangaDirCache.clear()
+    chapterDirCache.clear()
+    cachedChapterIdsByManga.clear()
+}
+
+private suspend fun getMangaDir(mangaId: Int): String {
+    mangaDirCache[mangaId]?.let { return it }
+
+    val generation = cacheGeneration.get()
+    val (mangaDir, sourceLoaded) =
+        suspendTransaction {
+            val mangaEntry = MangaTable.selectAll().where { MangaTable.id eq mangaId }.first()
+            val sourceId = mangaEntry[MangaTable.sourceReference]
+            val source = GetSource.getSourceOrNull(sourceId)
+
+            getMangaDir(mangaEntry[MangaTable.title], (source ?: StubSource(sourceId)).toString()) to (source != null)
+        }
+
+    // the name of a stub source changes once its extension gets installed
+    if (sourceLoaded) {
+        cacheMangaDir(mangaId, mangaDir, generation)
+    }
+
+    return mangaDir
+}
+
+private fun getChapterDirName(
+    title: String,
+    scanlator: String?,
+): String =
+    SafePath.buildValidFilename(
+        when {
+            scanlator != null -> "${scanlator}_$title"
+            else -> title
+        },
+    )
 
 private suspend fun getChapterDir(
     mangaId: Int,
     title: String,
     scanlator: String?,
-): String {
-    val chapterDir =
-        SafePath.buildValidFilename(
-            when {
-                scanlator != null -> "${scanlator}_$title"
-                else -> title
-            },
-        )
-
-    return getMangaDir(mangaId) + "/" + chapterDir
-}
+): String = getMangaDir(mangaId) + "/" + getChapterDirName(title, scanlator)
 
 private suspend fun getChapterDir(
     mangaId: Int,
     chapterId: Int,
-): String =
-    suspendTransaction {
-        val chapterEntry = ChapterTable.selectAll().where { ChapterTable.id eq chapterId }.first()
+): String {
+    val chapterDir =
+        chapterDirCache[chapterId]?.chapterDir
+            ?: run {
+                val generation = cacheGeneration.get()
+                val chapterEntry =
+                    suspendTransaction {
+                        ChapterTable
+                            .select(ChapterTable.name, ChapterTable.scanlator)
+                            .where { ChapterTable.id eq chapterId }
+                            .first()
+                    }
+
+                getChapterDirName(chapterEntry[ChapterTable.name], chapterEntry[ChapterTable.scanlator])
+                    .also { cacheChapterDir(chapterId, mangaId, it, generation) }
+            }
 
-        // Get manga directory and combine with chapter directory
-        // Note: This creates a nested transaction, but Exposed handles this with useNestedTransactions=true
-        getChapterDir(mangaId, chapterEntry[ChapterTable.name], chapterEntry[ChapterTable.scanlator])
-    }
+    return getMangaDir(mangaId) + "/" + chapterDir
+}
 
 fun getThumbnailDownloadPath(mangaId: Int): String = applicationDirs.thumbnailDownloadsRoot + "/$mangaId"
 
@@ -112,6 +204,41 @@ suspend fun getChapterCbzPath(
     chapterId: Int,
 ): String = getChapterDownloadPath(mangaId, chapterId) + ".cbz"
 
+/**
+ * Resolves the download paths (without the ".cbz" extension) of multiple chapters at once.
+ * Only the chapters and manga without cached directories get queried, all of them with a single query.
+ */
+suspend fun getChapterDownloadPaths(chapterIds: Collection<Int>): Map<Int, String> {
+    val chapterDirs = chapterIds.mapNotNull { chapterId -> chapterDirCache[chapterId]?.let { chapterId to it } }.toMap(mutableMapOf())
+
+    val missingChapterIds = chapterIds.filterNot { it in chapterDirs }
+    if (missingChapterIds.isNotEmpty()) {
+        val generation = cacheGeneration.get()
+        val chapterEntries =
+            suspendTransaction {
+                ChapterTable
+                    .select(ChapterTable.id, ChapterTable.manga, ChapterTable.name, ChapterTable.scanlator)
+                    .where { ChapterTable.id inList missingChapterIds }
+                    .toList()
+            }
+
+        chapterEntries.forEach { chapterEntry ->
+            val chapterId = chapterEntry[ChapterTable.id].value
+            val mangaId = chapterEntry[ChapterTable.manga].value
+            val chapterDir = getChapterDirName(chapterEntry[ChapterTable.name], chapterEntry[ChapterTable.scanlator])
+
+            chapterDirs[chapterId] = CachedChapterDir(mangaId, chapterDir)
+            cacheChapterDir(chapterId, mangaId, chapterDir, generation)
+        }
+    }
+
+    val mangaDirs = chapterDirs.values.map { it.mangaId }.distinct().associateWith { getMangaDir(it) }
+
+    return chapterDirs.mapValues { (_, cached) ->
+        applicationDirs.mangaDownloadsRoot + "/" + mangaDirs[cached.mangaId] + "/" + cached.chapterDir
+    }
+}
+
 suspend fun getChapterCachePath(
     mangaId: Int,
     title: String,
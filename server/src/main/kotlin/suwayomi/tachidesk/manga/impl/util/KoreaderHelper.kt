@@ -1,6 +1,8 @@
 package suwayomi.tachidesk.manga.impl.util
 
+import suwayomi.tachidesk.manga.impl.util.storage.StoredZipArchive
 import java.io.File
+import java.io.RandomAccessFile
 import java.security.MessageDigest
 
 object KoreaderHelper {
@@ -21,28 +23,48 @@ object KoreaderHelper {
         }
 
         try {
-            file.inputStream().use { fs ->
-                val step = 1024
-                val size = 1024
-                val md5 = MessageDigest.getInstance("MD5")
-                val buffer = ByteArray(size)
-
-                for (i in -1 until 10) {
-                    val position = (step shl (2 * i)).toLong()
-                    if (position >= file.length()) break // Avoid seeking past the end of small files
-                    fs.channel.position(position)
-                    val bytesRead = fs.read(buffer, 0, size)
-                    if (bytesRead > 0) {
-                        md5.update(buffer, 0, bytesRead)
-                    } else {
-                        break
-                    }
+            RandomAccessFile(file, "r").use { raf ->
+                return hashSamples(raf.length()) { position, buffer ->
+                    raf.seek(position)
+                    raf.read(buffer, 0, buffer.size)
                 }
-                return md5.digest().toHexString().lowercase()
             }
         } catch (e: Exception) {
             // TODO: Should we log this error?
             return null
         }
     }
+
+    /**
+     * Hashes the cbz of a folder download, see [hashContents].
+     * Only the bytes at the sampled positions are read, the archive does not get built.
+     */
+    fun hashContents(archive: StoredZipArchive): String? =
+        try {
+            hashSamples(archive.size) { position, buffer -> archive.read(position, buffer) }
+        } catch (e: Exception) {
+            null
+        }
+
+    private inline fun hashSamples(
+        length: Long,
+        read: (position: Long, buffer: ByteArray) -> Int,
+    ): String {
+        val step = 1024
+        val size = 1024
+        val md5 = MessageDigest.getInstance("MD5")
+        val buffer = ByteArray(size)
+
+        for (i in -1 until 10) {
+            val position = (step shl (2 * i)).toLong()
+            if (position >= length) break // Avoid seeking past the end of small files
+            val bytesRead = read(position, buffer)
+            if (bytesRead > 0) {
+                md5.update(buffer, 0, bytesRead)
+            } else {
+                break
+            }
+        }
+        return md5.digest().toHexString().lowercase()
+    }
 }
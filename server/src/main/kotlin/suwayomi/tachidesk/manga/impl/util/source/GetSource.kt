@@ -15,6 +15,7 @@ import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.jdbc.selectAll
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
 import suwayomi.tachidesk.manga.impl.util.PackageTools.loadExtensionSources
+import suwayomi.tachidesk.manga.impl.util.invalidateAllDownloadPaths
 import suwayomi.tachidesk.manga.model.table.ExtensionTable
 import suwayomi.tachidesk.manga.model.table.SourceTable
 import suwayomi.tachidesk.server.ApplicationDirs
@@ -73,17 +74,25 @@ object GetSource {
 
     suspend fun getSourceOrStub(sourceId: Long): Source = getSourceOrNull(sourceId) ?: StubSource(sourceId)
 
+    /**
+     * Only returns the source in case it is already loaded
+     */
+    fun getLoadedSourceOrNull(sourceId: Long): Source? = sourceCache[sourceId]
+
     fun registerSource(sourcePair: Pair<Long, Source>) {
         sourceCache += sourcePair
+        invalidateAllDownloadPaths()
     }
 
     fun unregisterSource(sourceId: Long) {
         sourceCache.remove(sourceId)
+        invalidateAllDownloadPaths()
     }
 
     fun unregisterAllSources() {
         (sourceCache - 0L).forEach { (id, _) ->
             sourceCache.remove(id)
         }
+        invalidateAllDownloadPaths()
     }
 }
@@ -3,6 +3,15 @@ package suwayomi.tachidesk.manga.impl.util.storage
 import java.io.File
 
 object FileDeletionHelper {
+    /**
+     * Deletes the folder of a download, the page blobs only referenced by it get deleted as well, see [PageBlobStore]
+     */
+    fun deleteDownloadFolder(folder: File): Boolean {
+        PageBlobStore.release(folder.listFiles().orEmpty().toList())
+
+        return folder.deleteRecursively()
+    }
+
     /**
      * Recursively deletes all parent folders for the given deleted file until the parent folder is not empty, or it's the root folder
      */
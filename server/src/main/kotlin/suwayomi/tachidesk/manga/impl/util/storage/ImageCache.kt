@@ -0,0 +1,262 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.serverConfig
+import uy.kohesive.injekt.injectLazy
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.minutes
+
+/**
+ * Keeps the size of the temporary image caches (pages read without being downloaded, tiles of tall pages and manga
+ * thumbnails) within [serverConfig.imageCacheSize] by deleting the least recently accessed images.
+ *
+ * The sizes and access times of the cached files are only tracked in memory. They get rebuilt on startup by [start]
+ * from the filesystem, using the modification times of the files, which get updated on access.
+ */
+object ImageCache {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val applicationDirs: ApplicationDirs by injectLazy()
+
+    /** Accessing a file updates its modification time at most this often to keep the order across restarts */
+    private val touchInterval = 1.minutes.inWholeMilliseconds
+
+    private class Entry(
+        val size: Long,
+        var lastAccess: Long,
+    )
+
+    data class Stats(
+        val name: String,
+        val size: Long,
+        val entries: Int,
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+    )
+
+    private val roots by lazy {
+        listOf(
+            "pages" to File(applicationDirs.tempMangaCacheRoot).absolutePath,
+            "thumbnails" to File(applicationDirs.tempThumbnailCacheRoot).absolutePath,
+            "tiles" to File(applicationDirs.tempPageTileCacheRoot).absolutePath,
+        )
+    }
+
+    /** The cached files in access order, guarded by itself */
+    private val entries = LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private var totalSize = 0L
+
+    private val hits = ConcurrentHashMap<String, AtomicLong>()
+    private val misses = ConcurrentHashMap<String, AtomicLong>()
+    private val evictions = ConcurrentHashMap<String, AtomicLong>()
+
+    /** Folders whose files must not be evicted, e.g. the pages of a running download */
+    private val pinnedDirs = ConcurrentHashMap<String, Int>()
+
+    private fun maxSize(): Long = serverConfig.imageCacheSize.value.toLong() * 1024 * 1024
+
+    private fun normalize(path: String): String = File(path).absolutePath
+
+    /** @return the name of the cache the file belongs to, null in case it's not managed by this cache */
+    private fun cacheNameOf(path: String): String? = roots.firstOrNull { (_, root) -> path.startsWith(root + File.separator) }?.first
+
+    private fun ConcurrentHashMap<String, AtomicLong>.increment(cacheName: String) {
+        getOrPut(cacheName) { AtomicLong() }.incrementAndGet()
+    }
+
+    fun start() {
+        scope.launch {
+            try {
+                rebuild()
+            } catch (e: Exception) {
+                logger.error(e) { "Failed to scan the image cache" }
+            }
+        }
+
+        serverConfig.subscribeTo(serverConfig.imageCacheSize, { _ -> trim() })
+    }
+
+    /**
+     * Scans the cache folders to rebuild the accounting.
+     *
+     * Files that got accessed while scanning are kept as the most recently accessed ones.
+     */
+    private fun rebuild() {
+        val scanned =
+            roots
+                .flatMap { (_, root) ->
+                    File(root)
+                        .walkTopDown()
+                        .filter { it.isFile }
+                        .map { file -> file.absolutePath to Entry(file.length(), file.lastModified()) }
+                        .toList()
+                }.sortedBy { (_, entry) -> entry.lastAccess }
+
+        synchronized(entries) {
+            val accessedWhileScanning = entries.toList()
+
+            entries.clear()
+            scanned.forEach { (path, entry) -> entries[path] = entry }
+            accessedWhileScanning.forEach { (path, entry) -> entries[path] = entry }
+
+            totalSize = entries.values.sumOf { it.size }
+        }
+
+        logger.info { "Image cache contains ${scanned.size} files (${totalSize / 1024 / 1024} MB)" }
+
+        trim()
+    }
+
+    fun recordHit(path: String) {
+        val file = normalize(path)
+        val cacheName = cacheNameOf(file) ?: return
+        hits.increment(cacheName)
+
+        val now = System.currentTimeMillis()
+        val needsTouch =
+            synchronized(entries) {
+                val entry = entries[file] ?: return@synchronized false
+                (now - entry.lastAccess >= touchInterval).also { entry.lastAccess = now }
+            }
+
+        if (needsTouch) {
+            File(file).setLastModified(now)
+        }
+    }
+
+    fun recordMiss(path: String) {
+        val cacheName = cacheNameOf(normalize(path)) ?: return
+        misses.increment(cacheName)
+    }
+
+    fun recordWrite(path: String) {
+        val file = normalize(path)
+        cacheNameOf(file) ?: return
+
+        val size = File(file).length()
+        synchronized(entries) {
+            val previous = entries.put(file, Entry(size, System.currentTimeMillis()))
+            totalSize += size - (previous?.size ?: 0)
+        }
+
+        trim()
+    }
+
+    /**
+     * Removes the file or all files of the folder from the accounting, has to be called after deleting them.
+     */
+    fun recordRemoval(path: String) {
+        val target = normalize(path)
+
+        synchronized(entries) {
+            val removed = entries.remove(target)
+            if (removed != null) {
+                totalSize -= removed.size
+                return
+            }
+
+            val iterator = entries.iterator()
+            while (iterator.hasNext()) {
+                val (file, entry) = iterator.next()
+                if (file.startsWith(target + File.separator)) {
+                    totalSize -= entry.size
+                    iterator.remove()
+                }
+            }
+        }
+    }
+
+    /**
+     * Prevents the files of the folder from getting evicted until [unpin] got called
+     */
+    fun pin(dir: String) {
+        pinnedDirs.merge(normalize(dir), 1, Int::plus)
+    }
+
+    fun unpin(dir: String) {
+        pinnedDirs.computeIfPresent(normalize(dir)) { _, count -> (count - 1).takeIf { it > 0 } }
+    }
+
+    private fun isPinned(file: String): Boolean = pinnedDirs.keys.any { file.startsWith(it + File.separator) }
+
+    /**
+     * Deletes the least recently accessed files until the cache is within its max size.
+     */
+    fun trim() {
+        val maxSize = maxSize()
+        if (maxSize <= 0) {
+            return
+        }
+
+        val victims =
+            synchronized(entries) {
+                if (totalSize <= maxSize) {
+                    return
+                }
+
+                buildList {
+                    val iterator = entries.iterator()
+                    while (totalSize > maxSize && iterator.hasNext()) {
+                        val (file, entry) = iterator.next()
+                        if (isPinned(file)) {
+                            continue
+                        }
+
+                        totalSize -= entry.size
+                        iterator.remove()
+                        add(file)
+                    }
+                }
+            }
+
+        victims.forEach { path ->
+            val file = File(path)
+            if (!file.delete() && file.exists()) {
+                logger.debug { "Failed to evict $path from the image cache" }
+                return@forEach
+            }
+
+            val (cacheName, root) = roots.first { (_, root) -> path.startsWith(root + File.separator) }
+            evictions.increment(cacheName)
+            FileDeletionHelper.cleanupParentFoldersFor(file, root)
+        }
+    }
+
+    fun getStats(): List<Stats> {
+        val sizes =
+            synchronized(entries) {
+                entries
+                    .toList()
+                    .groupBy { (file) -> cacheNameOf(file) }
+                    .mapValues { (_, files) -> files.size to files.sumOf { (_, entry) -> entry.size } }
+            }
+
+        return roots.map { (name) ->
+            val (count, size) = sizes[name] ?: (0 to 0L)
+            Stats(
+                name = name,
+                size = size,
+                entries = count,
+                hits = hits[name]?.get() ?: 0,
+                misses = misses[name]?.get() ?: 0,
+                evictions = evictions[name]?.get() ?: 0,
+            )
+        }
+    }
+}
@@ -7,6 +7,8 @@ package suwayomi.tachidesk.manga.impl.util.storage
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
 import libcore.net.MimeUtils
 import okhttp3.Response
 import okhttp3.internal.closeQuietly
@@ -63,20 +65,29 @@ object ImageResponse {
 
         // in case the cached file is a ".tmp" file something went wrong with the previous download, and it has to be downloaded again
         if (cachedFile != null && !cachedFile.endsWith(".tmp")) {
+            ImageCache.recordHit(cachedFile)
             return getCachedImageResponse(cachedFile, filePath)
         }
 
+        ImageCache.recordMiss(filePath)
         val response = fetcher()
 
         try {
             if (response.code == 200) {
+                // reading the body blocks while it is throttled (see DownloadBandwidth), this must neither occupy the
+                // threads of the default dispatcher nor prevent cancelling the download
                 val (actualSavePath, imageType) =
-                    saveImage(
-                        filePath,
-                        response.body.byteStream(),
-                        response.header("Content-Type"),
-                    )
-                return pathToInputStream(actualSavePath) to imageType
+                    runInterruptible(Dispatchers.IO) {
+                        saveImage(
+                            filePath,
+                            response.body.byteStream(),
+                            response.header("Content-Type"),
+                        )
+                    }
+                val inputStream = pathToInputStream(actualSavePath)
+                // only after opening the file, otherwise it might get evicted right away
+                ImageCache.recordWrite(actualSavePath)
+                return inputStream to imageType
             } else {
                 throw Exception("request error! ${response.code}")
             }
@@ -124,8 +135,9 @@ object ImageResponse {
         val cachedFile = findFileNameStartingWith(saveDir, fileName)
         cachedFile?.also {
             File(it).delete()
+            ImageCache.recordRemoval(it)
         }
     }
 
-    fun clearImages(saveDir: String): Boolean = File(saveDir).deleteRecursively()
+    fun clearImages(saveDir: String): Boolean = File(saveDir).deleteRecursively().also { ImageCache.recordRemoval(saveDir) }
 }
@@ -0,0 +1,266 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.local.metadata.COMIC_INFO_FILE
+import io.github.oshai.kotlinlogging.KotlinLogging
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
+import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.serverConfig
+import uy.kohesive.injekt.injectLazy
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.security.MessageDigest
+
+/**
+ * Stores the pages of folder downloads once per content.
+ *
+ * The pages are hardlinks to a blob named after the SHA-256 of its content, thus identical pages of different chapters
+ * (e.g. credit pages, or chapters downloaded again after the scanlator got renamed) share their data on disk. The link
+ * count of the blob is its reference count, a blob only linked from the store is not used anymore.
+ *
+ * Archive downloads are not deduplicated, the cbz files have to stay self-contained.
+ *
+ * Requires a filesystem with hardlinks that exposes their link count (unix file attributes), otherwise nothing gets
+ * deduplicated.
+ */
+object PageBlobStore {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val applicationDirs: ApplicationDirs by injectLazy()
+
+    /** Marks that the existing downloads got deduplicated, the pass only has to run once */
+    private const val DEDUPLICATED_MARKER = ".deduplicated"
+
+    private const val RECENTLY_MODIFIED_MS = 10 * 60 * 1000L
+
+    private var deduplicationPass: Job? = null
+
+    /** Guards linking pages to blobs and deleting unreferenced blobs */
+    private val lock = Any()
+
+    private val root: File
+        get() = File(applicationDirs.pageBlobsRoot)
+
+    fun start() {
+        serverConfig.subscribeTo(
+            serverConfig.downloadDeduplication,
+            { enabled -> if (enabled) deduplicateExistingDownloads() },
+            ignoreInitialValue = false,
+        )
+    }
+
+    private fun isSupported(): Boolean {
+        val downloadsRoot = File(applicationDirs.mangaDownloadsRoot)
+        if (!downloadsRoot.exists()) {
+            return false
+        }
+
+        return Files.getFileStore(downloadsRoot.toPath()).supportsFileAttributeView("unix")
+    }
+
+    fun isEnabled(): Boolean = serverConfig.downloadDeduplication.value && isSupported()
+
+    private fun linkCount(path: Path): Int = Files.getAttribute(path, "unix:nlink") as Int
+
+    private fun blobFor(hash: String): File = File(root, "${hash.take(2)}/$hash")
+
+    private fun hashOf(file: File): String {
+        val digest = MessageDigest.getInstance("SHA-256")
+        val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+        file.inputStream().use { input ->
+            while (true) {
+                val read = input.read(buffer)
+                if (read < 0) break
+                digest.update(buffer, 0, read)
+            }
+        }
+
+        return digest.digest().joinToString("") { "%02x".format(it) }
+    }
+
+    private fun isPage(file: File): Boolean =
+        file.isFile && file.name != COMIC_INFO_FILE && file.extension.lowercase() !in setOf("cbz", "tmp", "link")
+
+    /**
+     * Replaces the page with a hardlink to the blob of its content, the page becomes the blob in case there is none yet.
+     *
+     * @return the number of bytes that got freed
+     */
+    private fun deduplicate(file: File): Long {
+        val path = file.toPath()
+        // already linked to its blob
+        if (linkCount(path) > 1) {
+            return 0
+        }
+
+        val blob = blobFor(hashOf(file))
+
+        synchronized(lock) {
+            if (!blob.exists()) {
+                blob.parentFile.mkdirs()
+                Files.createLink(blob.toPath(), path)
+                return 0
+            }
+
+            if (blob.length() != file.length()) {
+                logger.warn { "Blob ${blob.name} does not match the size of ${file.absolutePath}, skipping it" }
+                return 0
+            }
+
+            val link = File(file.parentFile, ".${file.name}.link").toPath()
+            Files.deleteIfExists(link)
+            Files.createLink(link, blob.toPath())
+            Files.move(link, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            return file.length()
+        }
+    }
+
+    /**
+     * Deduplicates the pages of the folder download.
+     *
+     * The modification time of the folder is kept, it is used to detect downloads that got changed outside the server.
+     *
+     * @return the number of bytes that got freed
+     */
+    fun deduplicateFolder(folder: File): Long {
+        if (!isEnabled()) {
+            return 0
+        }
+
+        val lastModified = folder.lastModified()
+        var freedBytes = 0L
+        folder.listFiles().orEmpty().filter(::isPage).forEach { file ->
+            try {
+                freedBytes += deduplicate(file)
+            } catch (e: Exception) {
+                logger.warn(e) { "Could not deduplicate ${file.absolutePath}" }
+            }
+        }
+        folder.setLastModified(lastModified)
+
+        return freedBytes
+    }
+
+    /**
+     * Deletes the blobs that are only referenced by the passed pages, has to be called before deleting them.
+     *
+     * Only the pages whose blob would be left unreferenced get hashed.
+     */
+    fun release(files: List<File>) {
+        if (!root.exists() || !isSupported()) {
+            return
+        }
+
+        files.filter(::isPage).forEach { file ->
+            try {
+                val path = file.toPath()
+                // referenced by other pages as well (> 2) or not deduplicated (1)
+                if (linkCount(path) != 2) {
+                    return@forEach
+                }
+
+                val blob = blobFor(hashOf(file))
+                synchronized(lock) {
+                    if (blob.exists() && Files.isSameFile(blob.toPath(), path) && linkCount(path) == 2) {
+                        blob.delete()
+                        FileDeletionHelper.cleanupParentFoldersFor(blob, root.absolutePath)
+                    }
+                }
+            } catch (e: Exception) {
+                logger.warn(e) { "Could not release the blob of ${file.absolutePath}" }
+            }
+        }
+    }
+
+    /**
+     * Deletes the blobs that are not referenced by any page, e.g. because the download got deleted outside the server.
+     *
+     * Runs daily after the reconciliation of the download manifests, see [DownloadManifest.start].
+     *
+     * @return the number of deleted blobs
+     */
+    fun collectGarbage(): Int {
+        if (!root.exists() || !isSupported()) {
+            return 0
+        }
+
+        var deletedBlobs = 0
+        root
+            .walkTopDown()
+            .filter { it.isFile && it.name != DEDUPLICATED_MARKER }
+            .forEach { blob ->
+                synchronized(lock) {
+                    if (linkCount(blob.toPath()) == 1 && blob.delete()) {
+                        deletedBlobs++
+                        FileDeletionHelper.cleanupParentFoldersFor(blob, root.absolutePath)
+                    }
+                }
+            }
+
+        return deletedBlobs
+    }
+
+    /**
+     * Deduplicates the pages of all existing folder downloads, only runs once.
+     */
+    @Synchronized
+    fun deduplicateExistingDownloads() {
+        if (deduplicationPass?.isActive == true) {
+            return
+        }
+
+        if (!isEnabled()) {
+            if (serverConfig.downloadDeduplication.value) {
+                logger.warn { "The filesystem of the downloads does not support hardlinks, pages can't be deduplicated" }
+            }
+            return
+        }
+
+        val marker = File(root, DEDUPLICATED_MARKER)
+        if (marker.exists()) {
+            return
+        }
+
+        deduplicationPass =
+            scope.launch {
+                try {
+                    logger.info { "Deduplicating the pages of the existing downloads" }
+
+                    // the pages of running downloads might still get copied into their folder
+                    val recentlyModified = System.currentTimeMillis() - RECENTLY_MODIFIED_MS
+
+                    var freedBytes = 0L
+                    File(applicationDirs.mangaDownloadsRoot)
+                        .walkTopDown()
+                        .filter { folder -> folder.isDirectory && folder.lastModified() < recentlyModified }
+                        .filter { folder -> folder.listFiles().orEmpty().any(::isPage) }
+                        .forEach { folder -> freedBytes += deduplicateFolder(folder) }
+                    val deletedBlobs = collectGarbage()
+
+                    root.mkdirs()
+                    marker.createNewFile()
+
+                    logger.info {
+                        "Deduplicated the pages of the existing downloads, freed ${freedBytes / 1024 / 1024} MB " +
+                            "and deleted $deletedBlobs unreferenced blob(s)"
+                    }
+                } catch (e: Exception) {
+                    logger.error(e) { "Failed to deduplicate the existing downloads" }
+                }
+            }
+    }
+}
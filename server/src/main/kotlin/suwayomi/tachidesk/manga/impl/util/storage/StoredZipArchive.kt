@@ -0,0 +1,284 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.InputStream
+import java.io.RandomAccessFile
+import java.io.SequenceInputStream
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.Enumeration
+import java.util.zip.CRC32
+
+/**
+ * A zip archive of files that are stored without compression, in the passed order.
+ *
+ * The layout only depends on the names and sizes of the files, thus the position of every byte is known without
+ * building the archive. This allows streaming the archive and reading parts of it without reading the files before
+ * them. Only the headers require the checksum of a file, which gets computed once one of its headers is read.
+ *
+ * Pages are already compressed images, storing them results in about the same size as deflating them.
+ */
+class StoredZipArchive(
+    files: List<File>,
+) {
+    private class Entry(
+        val file: File,
+        val name: ByteArray,
+        val size: Long,
+        val localHeaderOffset: Long,
+    ) {
+        val dataOffset: Long = localHeaderOffset + LOCAL_HEADER_SIZE + name.size
+
+        @Volatile
+        private var crc: Long? = null
+
+        fun getCrc(): Long =
+            crc ?: run {
+                val crc32 = CRC32()
+                val buffer = ByteArray(DEFAULT_BUFFER_SIZE)
+                file.inputStream().use { input ->
+                    while (true) {
+                        val read = input.read(buffer)
+                        if (read < 0) break
+                        crc32.update(buffer, 0, read)
+                    }
+                }
+                crc32.value.also { crc = it }
+            }
+    }
+
+    private sealed interface Segment {
+        val start: Long
+        val length: Long
+
+        fun open(): InputStream
+
+        /** Reads exactly [length] bytes starting at [position] of the segment */
+        fun read(
+            position: Long,
+            buffer: ByteArray,
+            offset: Int,
+            length: Int,
+        )
+    }
+
+    private class HeaderSegment(
+        override val start: Long,
+        override val length: Long,
+        private val bytes: () -> ByteArray,
+    ) : Segment {
+        override fun open(): InputStream = ByteArrayInputStream(bytes())
+
+        override fun read(
+            position: Long,
+            buffer: ByteArray,
+            offset: Int,
+            length: Int,
+        ) {
+            bytes().copyInto(buffer, offset, position.toInt(), position.toInt() + length)
+        }
+    }
+
+    private class FileSegment(
+        override val start: Long,
+        private val entry: Entry,
+    ) : Segment {
+        override val length: Long = entry.size
+
+        override fun open(): InputStream = entry.file.inputStream()
+
+        override fun read(
+            position: Long,
+            buffer: ByteArray,
+            offset: Int,
+            length: Int,
+        ) {
+            RandomAccessFile(entry.file, "r").use {
+                it.seek(position)
+                it.readFully(buffer, offset, length)
+            }
+        }
+    }
+
+    private val entries: List<Entry>
+    private val segments: List<Segment>
+
+    val size: Long
+
+    init {
+        require(files.size < MAX_ENTRIES) { "Too many files for an archive without zip64" }
+
+        var offset = 0L
+        entries =
+            files.map { file ->
+                Entry(file, file.name.toByteArray(Charsets.UTF_8), file.length(), offset).also {
+                    offset = it.dataOffset + it.size
+                }
+            }
+
+        val centralDirectoryOffset = offset
+        val centralDirectorySize = entries.sumOf { CENTRAL_HEADER_SIZE + it.name.size.toLong() }
+        size = centralDirectoryOffset + centralDirectorySize + END_OF_CENTRAL_DIRECTORY_SIZE
+
+        require(size <= MAX_SIZE) { "Files too large for an archive without zip64" }
+
+        segments =
+            buildList {
+                entries.forEach { entry ->
+                    add(HeaderSegment(entry.localHeaderOffset, entry.dataOffset - entry.localHeaderOffset) { localHeader(entry) })
+                    add(FileSegment(entry.dataOffset, entry))
+                }
+
+                var centralHeaderOffset = centralDirectoryOffset
+                entries.forEach { entry ->
+                    val length = CENTRAL_HEADER_SIZE + entry.name.size.toLong()
+                    add(HeaderSegment(centralHeaderOffset, length) { centralHeader(entry) })
+                    centralHeaderOffset += length
+                }
+
+                add(
+                    HeaderSegment(centralHeaderOffset, END_OF_CENTRAL_DIRECTORY_SIZE.toLong()) {
+                        endOfCentralDirectory(centralDirectoryOffset, centralDirectorySize)
+                    },
+                )
+            }
+    }
+
+    fun openStream(): InputStream {
+        val remaining = segments.iterator()
+
+        return SequenceInputStream(
+            object : Enumeration<InputStream> {
+                override fun hasMoreElements(): Boolean = remaining.hasNext()
+
+                override fun nextElement(): InputStream = remaining.next().open()
+            },
+        )
+    }
+
+    /**
+     * Reads the bytes of the archive starting at [position], only reads the files whose content or headers are part of
+     * the requested bytes.
+     *
+     * @return the number of read bytes, -1 in case [position] is at or past the end of the archive
+     */
+    fun read(
+        position: Long,
+        buffer: ByteArray,
+        offset: Int = 0,
+        length: Int = buffer.size - offset,
+    ): Int {
+        if (position >= size) {
+            return -1
+        }
+
+        val searchResult = segments.binarySearchBy(position) { it.start }
+        var segmentIndex = if (searchResult >= 0) searchResult else -(searchResult + 1) - 1
+
+        var read = 0
+        while (read < length && segmentIndex < segments.size) {
+            val segment = segments[segmentIndex]
+            val segmentPosition = position + read - segment.start
+            val count = minOf(length - read.toLong(), segment.length - segmentPosition).toInt()
+            if (count > 0) {
+                segment.read(segmentPosition, buffer, offset + read, count)
+                read += count
+            }
+            segmentIndex++
+        }
+
+        return read
+    }
+
+    private fun localHeader(entry: Entry): ByteArray =
+        ByteBuffer
+            .allocate(LOCAL_HEADER_SIZE + entry.name.size)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(LOCAL_HEADER_SIGNATURE)
+            .putShort(VERSION_NEEDED)
+            .putShort(FLAG_UTF8_NAMES)
+            .putShort(METHOD_STORED)
+            .putShort(DOS_TIME)
+            .putShort(DOS_DATE)
+            .putInt(entry.getCrc().toInt())
+            .putInt(entry.size.toInt())
+            .putInt(entry.size.toInt())
+            .putShort(entry.name.size.toShort())
+            .putShort(0)
+            .put(entry.name)
+            .array()
+
+    private fun centralHeader(entry: Entry): ByteArray =
+        ByteBuffer
+            .allocate(CENTRAL_HEADER_SIZE + entry.name.size)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(CENTRAL_HEADER_SIGNATURE)
+            .putShort(VERSION_MADE_BY)
+            .putShort(VERSION_NEEDED)
+            .putShort(FLAG_UTF8_NAMES)
+            .putShort(METHOD_STORED)
+            .putShort(DOS_TIME)
+            .putShort(DOS_DATE)
+            .putInt(entry.getCrc().toInt())
+            .putInt(entry.size.toInt())
+            .putInt(entry.size.toInt())
+            .putShort(entry.name.size.toShort())
+            // extra field, comment, disk number, internal and external attributes
+            .putShort(0)
+            .putShort(0)
+            .putShort(0)
+            .putShort(0)
+            .putInt(0)
+            .putInt(entry.localHeaderOffset.toInt())
+            .put(entry.name)
+            .array()
+
+    private fun endOfCentralDirectory(
+        centralDirectoryOffset: Long,
+        centralDirectorySize: Long,
+    ): ByteArray =
+        ByteBuffer
+            .allocate(END_OF_CENTRAL_DIRECTORY_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN)
+            .putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE)
+            // disk numbers
+            .putShort(0)
+            .putShort(0)
+            .putShort(entries.size.toShort())
+            .putShort(entries.size.toShort())
+            .putInt(centralDirectorySize.toInt())
+            .putInt(centralDirectoryOffset.toInt())
+            // comment
+            .putShort(0)
+            .array()
+
+    private companion object {
+        const val LOCAL_HEADER_SIZE = 30
+        const val CENTRAL_HEADER_SIZE = 46
+        const val END_OF_CENTRAL_DIRECTORY_SIZE = 22
+
+        const val LOCAL_HEADER_SIGNATURE = 0x04034b50
+        const val CENTRAL_HEADER_SIGNATURE = 0x02014b50
+        const val END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50
+
+        const val VERSION_MADE_BY: Short = 20
+        const val VERSION_NEEDED: Short = 10
+        const val FLAG_UTF8_NAMES: Short = 0x0800
+        const val METHOD_STORED: Short = 0
+
+        /** 1980-01-01 00:00, the earliest date zip supports, keeps the archive independent of the file dates */
+        const val DOS_TIME: Short = 0
+        const val DOS_DATE: Short = 0x21
+
+        const val MAX_ENTRIES = 0xFFFF
+        const val MAX_SIZE = 0xFFFFFFFFL
+    }
+}
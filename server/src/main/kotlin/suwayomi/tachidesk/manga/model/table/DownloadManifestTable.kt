@@ -0,0 +1,42 @@
+package suwayomi.tachidesk.manga.model.table
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.ReferenceOption
+import org.jetbrains.exposed.v1.core.Table
+
+/**
+ * The files of a downloaded chapter, written once its download completed.
+ *
+ * Allows serving the download state without listing directories or opening archives, which is slow on network mounted
+ * download folders. Kept in sync with out-of-band changes by [suwayomi.tachidesk.manga.impl.download.DownloadManifest.reconcile].
+ */
+object DownloadManifestTable : Table() {
+    val chapter = reference("chapter", ChapterTable, ReferenceOption.CASCADE)
+
+    /** [suwayomi.tachidesk.manga.impl.download.DownloadManifest.Format] */
+    val format = varchar("format", 16)
+
+    /** The page files as json, sorted by page index */
+    val pages = text("pages")
+
+    /**
+     * Size of the download as cbz, i.e. of the archive or of the uncompressed archive the files of the folder get served
+     * as (see [suwayomi.tachidesk.manga.impl.util.storage.StoredZipArchive])
+     */
+    val totalBytes = long("total_bytes")
+
+    /** SHA-256 of the page files, only known for downloads that got completed by the downloader */
+    val hash = varchar("hash", 64).nullable()
+
+    /** Last modification time of the archive or folder, used to detect out-of-band changes */
+    val lastModified = long("last_modified")
+    val createdAt = long("created_at")
+
+    override val primaryKey = PrimaryKey(chapter)
+}
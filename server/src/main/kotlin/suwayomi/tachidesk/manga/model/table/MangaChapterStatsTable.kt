@@ -0,0 +1,40 @@
+package suwayomi.tachidesk.manga.model.table
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.ReferenceOption
+import org.jetbrains.exposed.v1.core.Table
+
+/**
+ * Materialized chapter statistics per manga.
+ *
+ * The counts and [lastReadAt] are kept up to date by database triggers on every chapter insert, update and delete
+ * (see M0064_MangaChapterStats). The chapter references get recalculated lazily by
+ * [suwayomi.tachidesk.manga.impl.ChapterStats] whenever [revision] got bumped past [computedRevision].
+ */
+object MangaChapterStatsTable : Table() {
+    val manga = reference("manga", MangaTable, ReferenceOption.CASCADE)
+
+    val chapterCount = integer("chapter_count").default(0)
+    val unreadCount = integer("unread_count").default(0)
+    val downloadCount = integer("download_count").default(0)
+    val bookmarkCount = integer("bookmark_count").default(0)
+    val lastReadAt = long("last_read_at").default(0)
+
+    val revision = long("revision").default(0)
+    val computedRevision = long("computed_revision").default(-1)
+
+    val lastReadChapter = integer("last_read_chapter").nullable()
+    val latestReadChapter = integer("latest_read_chapter").nullable()
+    val latestFetchedChapter = integer("latest_fetched_chapter").nullable()
+    val latestUploadedChapter = integer("latest_uploaded_chapter").nullable()
+    val firstUnreadChapter = integer("first_unread_chapter").nullable()
+    val highestNumberedChapter = integer("highest_numbered_chapter").nullable()
+
+    override val primaryKey = PrimaryKey(manga)
+}
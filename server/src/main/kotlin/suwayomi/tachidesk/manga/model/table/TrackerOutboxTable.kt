@@ -0,0 +1,30 @@
+package suwayomi.tachidesk.manga.model.table
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.ReferenceOption
+import org.jetbrains.exposed.v1.core.dao.id.IntIdTable
+
+/**
+ * Pending tracker progress updates, one row per (manga, tracker).
+ *
+ * Rows get coalesced to the latest read chapter number and are removed once the tracker has been updated.
+ */
+object TrackerOutboxTable : IntIdTable() {
+    val mangaId = reference("manga_id", MangaTable, ReferenceOption.CASCADE)
+    val trackerId = integer("tracker_id")
+    val lastChapterRead = double("last_chapter_read")
+    val attempts = integer("attempts").default(0)
+    val createdAt = long("created_at")
+    val updatedAt = long("updated_at")
+    val nextAttemptAt = long("next_attempt_at")
+
+    init {
+        uniqueIndex(mangaId, trackerId)
+    }
+}
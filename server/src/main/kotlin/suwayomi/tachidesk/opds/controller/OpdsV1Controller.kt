@@ -1,6 +1,7 @@
 package suwayomi.tachidesk.opds.controller
 
 import io.javalin.http.Context
+import io.javalin.http.Header
 import io.javalin.http.HttpStatus
 import suwayomi.tachidesk.i18n.LocalizationHelper
 import suwayomi.tachidesk.i18n.MR
@@ -9,6 +10,7 @@ import suwayomi.tachidesk.opds.dto.OpdsMangaFilter
 import suwayomi.tachidesk.opds.dto.OpdsSearchCriteria
 import suwayomi.tachidesk.opds.dto.PrimaryFilterType
 import suwayomi.tachidesk.opds.impl.OpdsFeedBuilder
+import suwayomi.tachidesk.opds.repository.OpdsFeedCache
 import suwayomi.tachidesk.server.JavalinSetup.Attribute
 import suwayomi.tachidesk.server.JavalinSetup.future
 import suwayomi.tachidesk.server.JavalinSetup.getAttribute
@@ -17,6 +19,10 @@ import suwayomi.tachidesk.server.util.handler
 import suwayomi.tachidesk.server.util.pathParam
 import suwayomi.tachidesk.server.util.queryParam
 import suwayomi.tachidesk.server.util.withOperation
+import java.time.Instant
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
 import java.util.Locale
 
 /**
@@ -37,23 +43,68 @@ object OpdsV1Controller {
         isSearch: Boolean,
         pageNum: Int,
     ) {
+        resultCachedFeed(ctx, locale) {
+            OpdsFeedBuilder.getLibraryFeed(
+                BASE_URL,
+                locale,
+                criteria,
+                isSearch,
+                pageNum,
+                criteria.sort,
+                criteria.filter,
+            )
+        }
+    }
+
+    /**
+     * Helper function to send a feed that is only based on the library.
+     * Clients that already have the current version of the feed get a "304 Not Modified" response, otherwise the feed
+     * gets built asynchronously, see [OpdsFeedCache].
+     */
+    private fun resultCachedFeed(
+        ctx: Context,
+        locale: Locale,
+        buildFeed: suspend () -> String,
+    ) {
+        val lastChange = OpdsFeedCache.lastChange
+        val feedHash = "${ctx.fullUrl()}|${locale.toLanguageTag()}".hashCode().toUInt().toString(16)
+        val etag = "W/\"${lastChange.millis}-${OpdsFeedCache.getVersion()}-$feedHash\""
+
+        ctx.header(Header.ETAG, etag)
+        ctx.header(Header.LAST_MODIFIED, formatHttpDate(lastChange.millis))
+        ctx.header(Header.CACHE_CONTROL, "no-cache")
+
+        val ifNoneMatch = ctx.header(Header.IF_NONE_MATCH)
+        val isNotModified =
+            if (ifNoneMatch != null) {
+                ifNoneMatch.split(',').any { it.trim() == etag || it.trim() == "*" }
+            } else {
+                // the date has no milliseconds, it only matches in case there was no other change in the same second
+                ctx.header(Header.IF_MODIFIED_SINCE)?.let { parseHttpDate(it) }?.let { ifModifiedSince ->
+                    ifModifiedSince >= lastChange.millis ||
+                        (ifModifiedSince / 1000 == lastChange.millis / 1000 && lastChange.isOnlyChangeOfItsSecond)
+                } ?: false
+            }
+        if (isNotModified) {
+            ctx.status(HttpStatus.NOT_MODIFIED)
+            return
+        }
+
         ctx.future {
             future {
-                OpdsFeedBuilder.getLibraryFeed(
-                    BASE_URL,
-                    locale,
-                    criteria,
-                    isSearch,
-                    pageNum,
-                    criteria.sort,
-                    criteria.filter,
-                )
+                buildFeed()
             }.thenApply { xml ->
                 ctx.contentType(OPDS_MIME).result(xml)
             }
         }
     }
 
+    private fun formatHttpDate(millis: Long): String =
+        DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC))
+
+    private fun parseHttpDate(value: String): Long? =
+        runCatching { ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() }.getOrNull()
+
     /**
      * Serves the root navigation feed for the OPDS catalog.
      */
@@ -92,12 +143,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getHistoryFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getHistoryFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -156,12 +203,8 @@ object OpdsV1Controller {
 
                 if (isSearch) {
                     val opdsSearchCriteria = OpdsSearchCriteria(query, author, title)
-                    ctx.future {
-                        future {
-                            OpdsFeedBuilder.getSearchFeed(BASE_URL, locale, opdsSearchCriteria, pageNumber ?: 1)
-                        }.thenApply { xml ->
-                            ctx.contentType(OPDS_MIME).result(xml)
-                        }
+                    resultCachedFeed(ctx, locale) {
+                        OpdsFeedBuilder.getSearchFeed(BASE_URL, locale, opdsSearchCriteria, pageNumber ?: 1)
                     }
                 } else {
                     val criteria = OpdsMangaFilter.fromContext(ctx, PrimaryFilterType.NONE)
@@ -214,12 +257,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getLibrarySourcesFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getLibrarySourcesFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -241,12 +280,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getCategoriesFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getCategoriesFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -268,12 +303,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getGenresFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getGenresFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -295,12 +326,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getStatusFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getStatusFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -322,12 +349,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getLanguagesFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getLanguagesFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -349,12 +372,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, pageNumber, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getLibraryUpdatesFeed(BASE_URL, locale, pageNumber ?: 1)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getLibraryUpdatesFeed(BASE_URL, locale, pageNumber ?: 1)
                 }
             },
             withResults = { httpCode(HttpStatus.OK) },
@@ -525,12 +544,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, seriesId, pageNumber, sort, filter, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getSeriesChaptersFeed(BASE_URL, locale, seriesId, pageNumber ?: 1, sort, filter)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getSeriesChaptersFeed(BASE_URL, locale, seriesId, pageNumber ?: 1, sort, filter)
                 }
             },
             withResults = {
@@ -556,12 +571,8 @@ object OpdsV1Controller {
             behaviorOf = { ctx, seriesId, chapterIndex, lang ->
                 ctx.getAttribute(Attribute.TachideskUser).requireUserWithBasicFallback(ctx)
                 val locale: Locale = LocalizationHelper.ctxToLocale(ctx, lang)
-                ctx.future {
-                    future {
-                        OpdsFeedBuilder.getChapterMetadataFeed(BASE_URL, locale, seriesId, chapterIndex)
-                    }.thenApply { xml ->
-                        ctx.contentType(OPDS_MIME).result(xml)
-                    }
+                resultCachedFeed(ctx, locale) {
+                    OpdsFeedBuilder.getChapterMetadataFeed(BASE_URL, locale, seriesId, chapterIndex)
                 }
             },
             withResults = {
@@ -3,6 +3,7 @@ package suwayomi.tachidesk.opds.impl
 import dev.icerock.moko.resources.StringResource
 import suwayomi.tachidesk.i18n.MR
 import suwayomi.tachidesk.manga.impl.MangaList.proxyThumbnailUrl
+import suwayomi.tachidesk.manga.impl.PageTiles
 import suwayomi.tachidesk.manga.impl.sync.KoreaderSyncService
 import suwayomi.tachidesk.manga.model.table.MangaStatus
 import suwayomi.tachidesk.opds.constants.OpdsConstants
@@ -31,6 +32,30 @@ import java.util.Locale
 object OpdsEntryBuilder {
     private fun currentFormattedTime() = OpdsDateUtil.formatCurrentInstantForOpds()
 
+    /**
+     * The pages of an OPDS-PSE stream, tall pages are split into tiles in case their tiling is known
+     */
+    private data class PseStream(
+        val count: Int,
+        val lastRead: Int,
+        val params: String,
+    ) {
+        companion object {
+            fun of(
+                pageCount: Int,
+                lastPageRead: Int,
+                subPages: List<PageTiles.SubPage>?,
+            ): PseStream {
+                if (subPages == null || subPages.size == pageCount) {
+                    return PseStream(pageCount, lastPageRead, "")
+                }
+
+                val lastRead = subPages.indexOfFirst { it.index == lastPageRead }.coerceAtLeast(0)
+                return PseStream(subPages.size, lastRead, "&tiled=true")
+            }
+        }
+    }
+
     /**
      * Builds a concise summary for a manga entry, including status, source, and language.
      * @param entry The manga data object.
@@ -249,9 +274,13 @@ object OpdsEntryBuilder {
 
             // Provide Stream Link (OPDS-PSE) if page count is known
             if (chapter.pageCount > 0) {
+                // building the feed must not read the pages of all chapters, only the known tilings are used
+                val subPages =
+                    if (chapter.downloaded) PageTiles.getCachedSubPages(chapter.id, chapter.pageCount) else null
+                val pseStream = PseStream.of(chapter.pageCount, effectiveLastPageRead, subPages)
                 val basePageHref =
                     "/api/v1/manga/${manga.id}/chapter/${chapter.sourceOrder}/page/{pageNumber}" +
-                        "?updateProgress=${serverConfig.opdsEnablePageReadProgress.value}&opds=true"
+                        "?updateProgress=${serverConfig.opdsEnablePageReadProgress.value}&opds=true${pseStream.params}"
 
                 val titleRes =
                     if (effectiveLastPageRead > 0) {
@@ -266,8 +295,8 @@ object OpdsEntryBuilder {
                         href = basePageHref,
                         type = OpdsConstants.TYPE_IMAGE_JPEG,
                         title = titleRes.localized(locale),
-                        pseCount = chapter.pageCount,
-                        pseLastRead = effectiveLastPageRead.takeIf { it > 0 },
+                        pseCount = pseStream.count,
+                        pseLastRead = pseStream.lastRead.takeIf { it > 0 },
                         pseLastReadDate = effectiveLastReadAt.takeIf { it > 0 }?.let { OpdsDateUtil.formatEpochMillisForOpds(it * 1000) },
                     ),
                 )
@@ -457,9 +486,16 @@ object OpdsEntryBuilder {
             )
         }
         if (chapter.pageCount > 0) {
+            val subPages =
+                if (chapter.downloaded && PageTiles.isEnabled()) {
+                    PageTiles.getSubPages(manga.id, chapter.id, chapter.pageCount, isDownloaded = true)
+                } else {
+                    null
+                }
+            val pseStream = PseStream.of(chapter.pageCount, progressSource.lastPageRead, subPages)
             val basePageHref =
                 "/api/v1/manga/${manga.id}/chapter/${chapter.sourceOrder}/page/{pageNumber}" +
-                    "?updateProgress=${serverConfig.opdsEnablePageReadProgress.value}&opds=true"
+                    "?updateProgress=${serverConfig.opdsEnablePageReadProgress.value}&opds=true${pseStream.params}"
 
             val title: String =
                 when {
@@ -505,8 +541,8 @@ object OpdsEntryBuilder {
                     href = basePageHref,
                     type = OpdsConstants.TYPE_IMAGE_JPEG,
                     title = title,
-                    pseCount = chapter.pageCount,
-                    pseLastRead = progressSource.lastPageRead.takeIf { it > 0 },
+                    pseCount = pseStream.count,
+                    pseLastRead = pseStream.lastRead.takeIf { it > 0 },
                     pseLastReadDate = progressSource.lastReadAt.takeIf { it > 0 }?.let { OpdsDateUtil.formatEpochMillisForOpds(it * 1000) },
                 ),
             )
@@ -0,0 +1,93 @@
+package suwayomi.tachidesk.opds.repository
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import io.github.reactivecircus.cache4k.Cache
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import suwayomi.tachidesk.manga.impl.chapter.refreshChapterPageList
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.time.Duration.Companion.minutes
+
+/**
+ * Fetches the page lists of chapters whose page count is unknown in the background, so that building a chapter feed
+ * doesn't have to wait for the source.
+ *
+ * The chapters show up in the feed once their page count is known. Since fetching the page list updates the chapter,
+ * the clients notice the change via the ETag of the feed, see [OpdsFeedCache].
+ */
+object ChapterPageCountRefresher {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    /** Limits the requests of opening a single feed to not get rate limited by the source */
+    private const val MAX_REFRESHES_PER_SOURCE = 2
+
+    private val sourceSemaphores = ConcurrentHashMap<Long, Semaphore>()
+
+    /** Ids of the chapters that are queued or currently being refreshed */
+    private val pendingChapterIds = ConcurrentHashMap.newKeySet<Int>()
+
+    /** Ids of the chapters whose refresh failed recently, they don't get retried on every request of the feed */
+    private val failedChapterIds: Cache<Int, Unit> =
+        Cache
+            .Builder<Int, Unit>()
+            .expireAfterWrite(10.minutes)
+            .build()
+
+    fun refresh(
+        mangaId: Int,
+        chapterIds: List<Int>,
+    ) {
+        val queuedChapterIds = chapterIds.filter { failedChapterIds.get(it) == null && pendingChapterIds.add(it) }
+        if (queuedChapterIds.isEmpty()) {
+            return
+        }
+
+        scope.launch {
+            val sourceId =
+                try {
+                    transaction {
+                        MangaTable
+                            .select(MangaTable.sourceReference)
+                            .where { MangaTable.id eq mangaId }
+                            .first()[MangaTable.sourceReference]
+                    }
+                } catch (e: Exception) {
+                    logger.warn(e) { "Failed to get the source of manga $mangaId" }
+                    pendingChapterIds.removeAll(queuedChapterIds.toSet())
+                    return@launch
+                }
+
+            val semaphore = sourceSemaphores.getOrPut(sourceId) { Semaphore(MAX_REFRESHES_PER_SOURCE) }
+            queuedChapterIds.forEach { chapterId ->
+                launch {
+                    try {
+                        semaphore.withPermit { refreshChapterPageList(mangaId, chapterId) }
+                    } catch (e: Exception) {
+                        if (e is CancellationException) throw e
+                        logger.warn(e) { "Failed to fetch page count for chapter $chapterId" }
+                        failedChapterIds.put(chapterId, Unit)
+                    } finally {
+                        pendingChapterIds.remove(chapterId)
+                    }
+                }
+            }
+        }
+    }
+}
@@ -5,6 +5,8 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.async
 import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import kotlinx.coroutines.withContext
 import org.jetbrains.exposed.v1.core.Column
 import org.jetbrains.exposed.v1.core.JoinType
@@ -13,17 +15,19 @@ import org.jetbrains.exposed.v1.core.ResultRow
 import org.jetbrains.exposed.v1.core.SortOrder
 import org.jetbrains.exposed.v1.core.and
 import org.jetbrains.exposed.v1.core.count
+import org.jetbrains.exposed.v1.core.dao.id.EntityID
 import org.jetbrains.exposed.v1.core.eq
 import org.jetbrains.exposed.v1.core.greater
 import org.jetbrains.exposed.v1.core.inList
+import org.jetbrains.exposed.v1.core.statements.BatchUpdateStatement
 import org.jetbrains.exposed.v1.jdbc.andWhere
 import org.jetbrains.exposed.v1.jdbc.select
+import org.jetbrains.exposed.v1.jdbc.statements.toExecutable
 import org.jetbrains.exposed.v1.jdbc.transactions.transaction
-import org.jetbrains.exposed.v1.jdbc.update
 import suwayomi.tachidesk.manga.impl.ChapterDownloadHelper
 import suwayomi.tachidesk.manga.impl.chapter.getChapterDownloadReady
-import suwayomi.tachidesk.manga.impl.chapter.refreshChapterPageList
 import suwayomi.tachidesk.manga.impl.chapter.updateChapterPersistence
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
 import suwayomi.tachidesk.manga.model.table.SourceTable
@@ -34,6 +38,8 @@ import suwayomi.tachidesk.opds.dto.OpdsLibraryUpdateAcqEntry
 import suwayomi.tachidesk.server.serverConfig
 
 object ChapterRepository {
+    private const val MAX_CONCURRENT_FILESYSTEM_CHECKS = 4
+
     private val opdsItemsPerPageBounded: Int
         get() = serverConfig.opdsItemsPerPage.value
     private val logger = KotlinLogging.logger {}
@@ -82,14 +88,28 @@ object ChapterRepository {
                         .select(ChapterTable.columns)
                         .where(finalCondition)
 
-                val totalCount = baseQuery.count()
+                val countKey = "chapters:$mangaId:$filter:${serverConfig.opdsShowOnlyDownloadedChapters.value}"
+                val totalCount = OpdsFeedCache.getCount(countKey) { baseQuery.copy().count() }
 
+                val keysetSort =
+                    when {
+                        sortOrder != SortOrder.ASC && sortOrder != SortOrder.DESC -> null
+                        sortColumn == ChapterTable.sourceOrder -> KeysetSort(ChapterTable.sourceOrder, ChapterTable.id, sortOrder, String::toInt)
+                        sortColumn == ChapterTable.date_upload -> KeysetSort(ChapterTable.date_upload, ChapterTable.id, sortOrder, String::toLong)
+                        else -> null
+                    }
                 val chapters =
-                    baseQuery
-                        .orderBy(sortColumn to sortOrder)
-                        .limit(opdsItemsPerPageBounded)
-                        .offset(((pageNum - 1) * opdsItemsPerPageBounded).toLong())
-                        .map { it.toOpdsChapterListAcqEntry() }
+                    if (keysetSort != null) {
+                        baseQuery
+                            .keysetPage("$countKey:$sortColumn:$sortOrder", keysetSort, pageNum, opdsItemsPerPageBounded)
+                            .map { it.toOpdsChapterListAcqEntry() }
+                    } else {
+                        baseQuery
+                            .orderBy(sortColumn to sortOrder)
+                            .limit(opdsItemsPerPageBounded)
+                            .offset(((pageNum - 1) * opdsItemsPerPageBounded).toLong())
+                            .map { it.toOpdsChapterListAcqEntry() }
+                    }
 
                 Pair(chapters, totalCount)
             }
@@ -99,80 +119,97 @@ object ChapterRepository {
             return Pair(rawChapters, totalCount)
         }
 
-        // If skipping metadata, enrich DTOs with page count and file size
+        // the manifests of completed downloads already contain the page count and size, only the download itself gets stat'ed
+        val manifests = DownloadManifest.get(rawChapters.filter { it.downloaded }.map { it.id })
+
+        // If skipping metadata, enrich DTOs with page count and file size.
+        // Only the local files get checked, the page lists of chapters without page count get fetched in the background
+        val filesystemPermits = Semaphore(MAX_CONCURRENT_FILESYSTEM_CHECKS)
+        val rawChaptersById = rawChapters.associateBy { it.id }
         val enrichedChapters =
             coroutineScope {
                 rawChapters.map { entry ->
                     async(Dispatchers.IO) {
-                        var pageCount = entry.pageCount
-                        var isDownloaded = entry.downloaded
+                        val manifest = manifests[entry.id]?.let { DownloadManifest.takeIfUnchanged(entry.mangaId, it) }
+                        if (manifest != null) {
+                            return@async entry.copy(
+                                pageCount = manifest.pages.size,
+                                cbzFileSize = manifest.totalBytes,
+                            )
+                        }
 
                         // Verify physical files if page count is unknown or the DB marks it as downloaded
-                        if (pageCount <= 0 || isDownloaded) {
-                            val physicalPageCount =
-                                runCatching {
-                                    ChapterDownloadHelper.getImageCount(entry.mangaId, entry.id)
-                                }.getOrDefault(0)
-
-                            if (physicalPageCount > 0) {
-                                // Files exist! Sync DB if needed
-                                if (updateChapterPersistence(
-                                        chapterId = entry.id,
-                                        isMarkedAsDownloaded = isDownloaded,
-                                        dbPageCount = pageCount,
-                                        downloadPageCount = physicalPageCount,
-                                        lastPageRead = entry.lastPageRead,
-                                        logger = logger,
-                                    )
-                                ) {
-                                    pageCount = physicalPageCount
-                                    isDownloaded = true
-                                }
-                            } else {
-                                if (isDownloaded) {
-                                    // Fix DB state if marked as downloaded but physical files are missing
-                                    transaction {
-                                        ChapterTable.update({ ChapterTable.id eq entry.id }) {
-                                            it[ChapterTable.isDownloaded] = false
-                                        }
-                                    }
-                                    isDownloaded = false
-                                }
-
-                                if (pageCount <= 0) {
-                                    // No files, and DB has no page count. Fetch from network
-                                    pageCount =
-                                        runCatching {
-                                            refreshChapterPageList(entry.mangaId, entry.id)
-                                        }.onFailure {
-                                            logger.warn(it) { "Failed to fetch page count for chapter ${entry.id}" }
-                                        }.getOrDefault(0)
-                                }
-                            }
+                        if (entry.pageCount > 0 && !entry.downloaded) {
+                            return@async entry
                         }
 
-                        // Calculate CBZ size if downloaded
-                        val cbzFileSize =
-                            if (isDownloaded) {
-                                runCatching {
-                                    ChapterDownloadHelper.getChapterArchiveSize(entry.mangaId, entry.id)
-                                }.getOrNull()
-                            } else {
-                                null
-                            }
-
-                        entry.copy(
-                            pageCount = pageCount,
-                            downloaded = isDownloaded,
-                            cbzFileSize = cbzFileSize,
-                        )
+                        filesystemPermits.withPermit { verifyDownload(entry) }
                     }
                 }
             }.awaitAll()
-                // Exclude unreachable chapters that are not downloaded and have no page count
-                .filter { it.downloaded || it.pageCount > 0 }
 
-        return Pair(enrichedChapters, totalCount)
+        // Fix the DB state of chapters marked as downloaded but whose physical files are missing in one go
+        val missingDownloads = enrichedChapters.filter { !it.downloaded && rawChaptersById.getValue(it.id).downloaded }
+        if (missingDownloads.isNotEmpty()) {
+            transaction {
+                BatchUpdateStatement(ChapterTable)
+                    .apply {
+                        missingDownloads.forEach {
+                            addBatch(EntityID(it.id, ChapterTable))
+
+                            this[ChapterTable.isDownloaded] = false
+                        }
+                    }.toExecutable()
+                    .execute(this)
+            }
+        }
+
+        // No files, and DB has no page count. Fetch from network
+        ChapterPageCountRefresher.refresh(
+            mangaId,
+            enrichedChapters.filter { !it.downloaded && it.pageCount <= 0 }.map { it.id },
+        )
+
+        // Exclude unreachable chapters that are not downloaded and have no page count
+        return Pair(enrichedChapters.filter { it.downloaded || it.pageCount > 0 }, totalCount)
+    }
+
+    /**
+     * Checks the physical files of the chapter, the DB gets synced via [updateChapterPersistence] in case they exist.
+     *
+     * @return the entry with the page count and download state of the physical files
+     */
+    private suspend fun verifyDownload(entry: OpdsChapterListAcqEntry): OpdsChapterListAcqEntry {
+        val physicalPageCount =
+            runCatching {
+                ChapterDownloadHelper.getImageCount(entry.mangaId, entry.id)
+            }.getOrDefault(0)
+
+        if (physicalPageCount <= 0) {
+            return entry.copy(downloaded = false)
+        }
+
+        // Files exist! Sync DB if needed
+        updateChapterPersistence(
+            chapterId = entry.id,
+            isMarkedAsDownloaded = entry.downloaded,
+            dbPageCount = entry.pageCount,
+            downloadPageCount = physicalPageCount,
+            lastPageRead = entry.lastPageRead,
+            logger = logger,
+        )
+
+        // Calculate CBZ size
+        val cbzFileSize =
+            runCatching {
+                ChapterDownloadHelper.getChapterArchiveSize(entry.mangaId, entry.id)
+            }.getOrNull()
+
+        return entry.copy(
+            pageCount = physicalPageCount,
+            downloaded = true,
+            cbzFileSize = cbzFileSize,
+        )
     }
 
     suspend fun getChapterDetailsForMetadataFeed(
@@ -0,0 +1,77 @@
+package suwayomi.tachidesk.opds.repository
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.Column
+import org.jetbrains.exposed.v1.core.Expression
+import org.jetbrains.exposed.v1.core.Op
+import org.jetbrains.exposed.v1.core.ResultRow
+import org.jetbrains.exposed.v1.core.SortOrder
+import org.jetbrains.exposed.v1.core.dao.id.EntityID
+import org.jetbrains.exposed.v1.jdbc.Query
+import org.jetbrains.exposed.v1.jdbc.andWhere
+import suwayomi.tachidesk.graphql.server.primitives.Cursor
+import suwayomi.tachidesk.graphql.server.primitives.greaterNotUnique
+import suwayomi.tachidesk.graphql.server.primitives.lessNotUnique
+
+/**
+ * A sort by a single column with the id as tiebreaker, which allows continuing after the last entry of the previous
+ * page instead of skipping all previous entries.
+ */
+class KeysetSort<T : Comparable<T>>(
+    private val column: Column<T>,
+    private val idColumn: Column<EntityID<Int>>,
+    val order: SortOrder,
+    private val toValue: (String) -> T,
+) {
+    val orderBy: Array<Pair<Expression<*>, SortOrder>>
+        get() = arrayOf(column to order, idColumn to order)
+
+    fun after(cursor: Cursor): Op<Boolean> =
+        if (order == SortOrder.ASC) {
+            greaterNotUnique(column, idColumn, cursor, toValue)
+        } else {
+            lessNotUnique(column, idColumn, cursor, toValue)
+        }
+
+    fun cursorOf(row: ResultRow): Cursor = Cursor("${row[idColumn].value}-${row[column]}")
+}
+
+/**
+ * Selects the page of the feed.
+ *
+ * In case the end of the previous page is known from a previous request, the page starts right after it, otherwise
+ * all previous entries get skipped via OFFSET. The end of the selected page gets cached for the request of the next
+ * page.
+ *
+ * @param feedKey identifies the feed, has to contain all of its filters and its sort
+ */
+fun Query.keysetPage(
+    feedKey: String,
+    sort: KeysetSort<*>,
+    pageNum: Int,
+    itemsPerPage: Int,
+): List<ResultRow> {
+    val version = OpdsFeedCache.getQueryVersion()
+    val pageKey = "$feedKey:$itemsPerPage"
+
+    orderBy(*sort.orderBy)
+    limit(itemsPerPage)
+
+    val previousPageEnd = if (pageNum > 1) OpdsFeedCache.getPageEnd(pageKey, pageNum - 1) else null
+    if (previousPageEnd != null) {
+        andWhere { sort.after(previousPageEnd) }
+    } else {
+        offset(((pageNum - 1) * itemsPerPage).toLong())
+    }
+
+    val rows = toList()
+    rows.lastOrNull()?.let { OpdsFeedCache.putPageEnd(pageKey, pageNum, sort.cursorOf(it), version) }
+
+    return rows
+}
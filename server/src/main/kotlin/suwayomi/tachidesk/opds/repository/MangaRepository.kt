@@ -144,29 +144,15 @@ object MangaRepository {
         filter: String?,
     ): OpdsLibraryFeedResult =
         transaction {
-            val unreadCountExpr = Case().When(ChapterTable.isRead eq false, intLiteral(1)).Else(intLiteral(0)).sum()
-            val unreadCount = unreadCountExpr.alias("unread_count")
-
-            // Base query with necessary joins for filtering and sorting
+            // Base join with necessary joins for filtering, the chapters only get joined for sorting by them
             var baseJoin =
                 MangaTable
                     .join(SourceTable, JoinType.INNER, MangaTable.sourceReference, SourceTable.id)
-                    .join(ChapterTable, JoinType.LEFT, MangaTable.id, ChapterTable.manga)
 
             if (criteria.categoryId != null) {
                 baseJoin = baseJoin.join(CategoryMangaTable, JoinType.LEFT, MangaTable.id, CategoryMangaTable.manga)
             }
 
-            val query =
-                baseJoin
-                    .select(MangaTable.columns + SourceTable.lang + SourceTable.name + unreadCount)
-                    .where { MangaTable.inLibrary eq true }
-
-            query.applyOpdsMangaFilter(criteria)
-            applyMangaLibrarySort(query, sort)
-
-            query.groupBy(MangaTable.id, SourceTable.lang, SourceTable.name)
-
             // Efficiently get the name of the primary filter item
             val specificFilterName =
                 when (criteria.primaryFilter) {
@@ -209,12 +195,47 @@ object MangaRepository {
                     }
                 }
 
-            val totalCount = query.count()
+            // the filters don't depend on the sort, thus the count can be shared by all sorts
+            val countKey = "library:${criteria.copy(sort = null)}"
+            val totalCount =
+                OpdsFeedCache.getCount(countKey) {
+                    baseJoin
+                        .select(MangaTable.id)
+                        .where { MangaTable.inLibrary eq true }
+                        .withDistinct()
+                        .apply { applyOpdsMangaFilter(criteria) }
+                        .count()
+                }
+
+            val keysetSort = getMangaLibraryKeysetSort(sort)
             val mangas =
-                query
-                    .limit(opdsItemsPerPageBounded)
-                    .offset(((pageNum - 1) * opdsItemsPerPageBounded).toLong())
-                    .map { it.toOpdsMangaAcqEntry() }
+                if (keysetSort != null) {
+                    baseJoin
+                        .select(MangaTable.columns + SourceTable.lang + SourceTable.name)
+                        .where { MangaTable.inLibrary eq true }
+                        .apply { applyOpdsMangaFilter(criteria) }
+                        .keysetPage("$countKey:$sort", keysetSort, pageNum, opdsItemsPerPageBounded)
+                        .map { it.toOpdsMangaAcqEntry() }
+                } else {
+                    // sorts by the chapters of the manga have to join and group them, thus can't be paginated by keyset
+                    val unreadCountExpr = Case().When(ChapterTable.isRead eq false, intLiteral(1)).Else(intLiteral(0)).sum()
+                    val unreadCount = unreadCountExpr.alias("unread_count")
+
+                    val query =
+                        baseJoin
+                            .join(ChapterTable, JoinType.LEFT, MangaTable.id, ChapterTable.manga)
+                            .select(MangaTable.columns + SourceTable.lang + SourceTable.name + unreadCount)
+                            .where { MangaTable.inLibrary eq true }
+
+                    query.applyOpdsMangaFilter(criteria)
+                    applyMangaLibrarySort(query, sort)
+
+                    query
+                        .groupBy(MangaTable.id, SourceTable.lang, SourceTable.name)
+                        .limit(opdsItemsPerPageBounded)
+                        .offset(((pageNum - 1) * opdsItemsPerPageBounded).toLong())
+                        .map { it.toOpdsMangaAcqEntry() }
+                }
 
             OpdsLibraryFeedResult(mangas, totalCount, specificFilterName)
         }
@@ -331,18 +352,26 @@ object MangaRepository {
         val lastReadAtExpr = ChapterTable.lastReadAt.max()
         val latestChapterDateExpr = ChapterTable.date_upload.max()
 
-        // Apply sorting
+        // Apply sorting, the id keeps the order of entries with equal values stable across pages
         when (sort) {
-            "alpha_asc" -> query.orderBy(MangaTable.title to SortOrder.ASC)
-            "alpha_desc" -> query.orderBy(MangaTable.title to SortOrder.DESC)
-            "last_read_desc" -> query.orderBy(lastReadAtExpr to SortOrder.DESC_NULLS_LAST)
-            "latest_chapter_desc" -> query.orderBy(latestChapterDateExpr to SortOrder.DESC_NULLS_LAST)
-            "date_added_desc" -> query.orderBy(MangaTable.inLibraryAt to SortOrder.DESC)
-            "unread_desc" -> query.orderBy(unreadCountExpr to SortOrder.DESC)
-            else -> query.orderBy(MangaTable.title to SortOrder.ASC) // Default sort
+            "last_read_desc" -> query.orderBy(lastReadAtExpr to SortOrder.DESC_NULLS_LAST, MangaTable.id to SortOrder.DESC)
+            "latest_chapter_desc" -> query.orderBy(latestChapterDateExpr to SortOrder.DESC_NULLS_LAST, MangaTable.id to SortOrder.DESC)
+            "unread_desc" -> query.orderBy(unreadCountExpr to SortOrder.DESC, MangaTable.id to SortOrder.DESC)
+            else -> getMangaLibraryKeysetSort(sort)?.let { query.orderBy(*it.orderBy) }
         }
     }
 
+    /**
+     * @return the sort in case it's by a column of the manga, null for sorts by the chapters of the manga
+     */
+    private fun getMangaLibraryKeysetSort(sort: String?): KeysetSort<*>? =
+        when (sort) {
+            "alpha_desc" -> KeysetSort(MangaTable.title, MangaTable.id, SortOrder.DESC) { it }
+            "date_added_desc" -> KeysetSort(MangaTable.inLibraryAt, MangaTable.id, SortOrder.DESC, String::toLong)
+            "last_read_desc", "latest_chapter_desc", "unread_desc" -> null
+            else -> KeysetSort(MangaTable.title, MangaTable.id, SortOrder.ASC) { it } // Default sort, also "alpha_asc"
+        }
+
     /**
      * Calculates the count of manga for various library filter facets, respecting other active cross-filters.
      * @param activeFilters The currently active filters to respect during count calculation.
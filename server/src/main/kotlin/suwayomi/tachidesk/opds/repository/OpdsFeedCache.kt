@@ -0,0 +1,235 @@
+package suwayomi.tachidesk.opds.repository
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.reactivecircus.cache4k.Cache
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.combine
+import org.jetbrains.exposed.v1.core.Column
+import org.jetbrains.exposed.v1.core.Table
+import org.jetbrains.exposed.v1.core.Transaction
+import org.jetbrains.exposed.v1.core.statements.GlobalStatementInterceptor
+import org.jetbrains.exposed.v1.core.statements.Statement
+import org.jetbrains.exposed.v1.core.statements.StatementContext
+import org.jetbrains.exposed.v1.core.statements.StatementType
+import org.jetbrains.exposed.v1.core.statements.UpdateStatement
+import suwayomi.tachidesk.graphql.server.primitives.Cursor
+import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
+import suwayomi.tachidesk.manga.model.table.CategoryTable
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.SourceTable
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Caches the total counts of the OPDS feeds and the positions at which their pages end.
+ *
+ * Knowing where the previous page ended allows fetching a page by seeking to that position (keyset pagination) instead
+ * of skipping all previous entries via OFFSET. OPDS clients usually follow the "next" links, thus the previous page is
+ * known in most cases.
+ *
+ * Everything gets dropped once a transaction that wrote to one of the tables the feeds are based on got committed, see
+ * [OpdsFeedCacheInvalidator]. Writes of chapter columns that are only rendered, e.g. the reading progress, keep the
+ * counts and page ends. The [version] identifies the current state of the feeds for ETags.
+ */
+object OpdsFeedCache {
+    private const val MAX_COUNTS = 1_000L
+    private const val MAX_PAGE_ENDS = 10_000L
+
+    val tables: Set<Table> = setOf(MangaTable, ChapterTable, CategoryTable, CategoryMangaTable, SourceTable)
+
+    /** Chapter columns that are not part of any feed */
+    val ignoredColumns: Set<Column<*>> =
+        setOf(
+            ChapterTable.url,
+            ChapterTable.isBookmarked,
+            ChapterTable.realUrl,
+            ChapterTable.koreaderHash,
+            ChapterTable.lastModifiedAt,
+            ChapterTable.version,
+            ChapterTable.isSyncing,
+            ChapterTable.memo,
+        )
+
+    /** Chapter columns that are rendered by the feeds, but no cached count or page end depends on */
+    val renderedOnlyColumns: Set<Column<*>> =
+        setOf(
+            ChapterTable.name,
+            ChapterTable.chapter_number,
+            ChapterTable.scanlator,
+            ChapterTable.lastPageRead,
+            ChapterTable.lastReadAt,
+            ChapterTable.fetchedAt,
+            ChapterTable.pageCount,
+        )
+
+    /**
+     * @param millis milliseconds since epoch of the change
+     * @param isOnlyChangeOfItsSecond whether no other change happened in the same second. The Last-Modified header has no
+     * milliseconds, thus it only identifies the state of the feeds in this case
+     */
+    data class LastChange(
+        val millis: Long,
+        val isOnlyChangeOfItsSecond: Boolean,
+    )
+
+    private val version = AtomicLong()
+    private val queryVersion = AtomicLong()
+
+    @Volatile
+    var lastChange = LastChange(System.currentTimeMillis(), isOnlyChangeOfItsSecond = true)
+        private set
+
+    private val counts: Cache<String, Long> =
+        Cache
+            .Builder<String, Long>()
+            .maximumCacheSize(MAX_COUNTS)
+            .build()
+
+    private val pageEnds: Cache<String, Cursor> =
+        Cache
+            .Builder<String, Cursor>()
+            .maximumCacheSize(MAX_PAGE_ENDS)
+            .build()
+
+    init {
+        val opdsSettings: List<Flow<Any>> =
+            listOf(
+                serverConfig.opdsItemsPerPage,
+                serverConfig.opdsUseBinaryFileSizes,
+                serverConfig.opdsEnablePageReadProgress,
+                serverConfig.opdsMarkAsReadOnDownload,
+                serverConfig.opdsShowOnlyUnreadChapters,
+                serverConfig.opdsShowOnlyDownloadedChapters,
+                serverConfig.opdsChapterSortOrder,
+                serverConfig.opdsCbzMimetype,
+                serverConfig.opdsSkipChapterMetadataFeed,
+            )
+        serverConfig.subscribeTo(combine(opdsSettings) { it.toList() }, { _ -> invalidate() })
+    }
+
+    fun getVersion(): Long = version.get()
+
+    /** Identifies the state of the cached counts and page ends */
+    fun getQueryVersion(): Long = queryVersion.get()
+
+    fun invalidate() {
+        queryVersion.incrementAndGet()
+        counts.invalidateAll()
+        pageEnds.invalidateAll()
+        invalidateRendered()
+    }
+
+    /**
+     * Only changes the [version] of the feeds, for changes that don't affect the cached counts and page ends
+     */
+    @Synchronized
+    fun invalidateRendered() {
+        version.incrementAndGet()
+
+        val now = System.currentTimeMillis()
+        lastChange = LastChange(now, isOnlyChangeOfItsSecond = now / 1000 != lastChange.millis / 1000)
+    }
+
+    /**
+     * @param key identifies the query, has to contain all of its filters
+     */
+    fun getCount(
+        key: String,
+        count: () -> Long,
+    ): Long {
+        val versionedKey = "${queryVersion.get()}:$key"
+        return counts.get(versionedKey) ?: count().also { counts.put(versionedKey, it) }
+    }
+
+    /**
+     * @param key identifies the feed, has to contain all of its filters, its sort and the page size
+     * @return the last entry of the page, null in case it's unknown
+     */
+    fun getPageEnd(
+        key: String,
+        pageNum: Int,
+    ): Cursor? = pageEnds.get("${queryVersion.get()}:$key:$pageNum")
+
+    fun putPageEnd(
+        key: String,
+        pageNum: Int,
+        cursor: Cursor,
+        version: Long,
+    ) {
+        // the page was read before a change, thus it might not be where the page ends anymore
+        if (version != queryVersion.get()) {
+            return
+        }
+
+        pageEnds.put("$version:$key:$pageNum", cursor)
+    }
+}
+
+/**
+ * Invalidates the [OpdsFeedCache] once a transaction that wrote to one of its tables got committed.
+ *
+ * Registered via META-INF/services, thus applied to all transactions.
+ */
+class OpdsFeedCacheInvalidator : GlobalStatementInterceptor {
+    /** Whether the transaction wrote anything the cached counts or page ends depend on */
+    private val writingTransactions = ConcurrentHashMap<Transaction, Boolean>()
+
+    override fun beforeExecution(
+        transaction: Transaction,
+        context: StatementContext,
+    ) {
+        val statement = context.statement
+        if (statement.type == StatementType.SELECT) {
+            return
+        }
+
+        val writtenTables = statement.targets.filter { it in OpdsFeedCache.tables }
+        if (writtenTables.isEmpty()) {
+            return
+        }
+
+        val writtenColumns = getWrittenChapterColumns(statement)?.filterNot { it in OpdsFeedCache.ignoredColumns }
+        if (writtenTables == listOf(ChapterTable) && writtenColumns != null) {
+            if (writtenColumns.isEmpty()) {
+                return
+            }
+
+            val affectsQueries = !OpdsFeedCache.renderedOnlyColumns.containsAll(writtenColumns)
+            writingTransactions.merge(transaction, affectsQueries, Boolean::or)
+            return
+        }
+
+        writingTransactions[transaction] = true
+    }
+
+    /**
+     * @return the columns written by an update of chapters, null for any other statement
+     */
+    private fun getWrittenChapterColumns(statement: Statement<*>): List<Column<*>>? {
+        if (statement !is UpdateStatement || statement.targets != listOf(ChapterTable)) {
+            return null
+        }
+
+        return statement.firstDataSet.map { (column, _) -> column }
+    }
+
+    override fun afterCommit(transaction: Transaction) {
+        when (writingTransactions.remove(transaction)) {
+            true -> OpdsFeedCache.invalidate()
+            false -> OpdsFeedCache.invalidateRendered()
+            null -> {}
+        }
+    }
+
+    override fun afterRollback(transaction: Transaction) {
+        writingTransactions.remove(transaction)
+    }
+}
@@ -24,7 +24,6 @@ import io.javalin.json.JavalinJackson3
 import io.javalin.rendering.template.JavalinJte
 import io.javalin.websocket.WsContext
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.flow.first
@@ -32,18 +31,21 @@ import kotlinx.coroutines.future.future
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withTimeoutOrNull
 import org.eclipse.jetty.server.ServerConnector
+import org.eclipse.jetty.util.VirtualThreads
 import suwayomi.tachidesk.global.GlobalAPI
 import suwayomi.tachidesk.graphql.GraphQL
 import suwayomi.tachidesk.graphql.types.AuthMode
 import suwayomi.tachidesk.i18n.LocalizationHelper
 import suwayomi.tachidesk.manga.MangaAPI
 import suwayomi.tachidesk.opds.OpdsAPI
+import suwayomi.tachidesk.server.metrics.ServerMetrics
 import suwayomi.tachidesk.server.user.ForbiddenException
 import suwayomi.tachidesk.server.user.UnauthorizedException
 import suwayomi.tachidesk.server.user.UserType
 import suwayomi.tachidesk.server.user.getUserFromContext
 import suwayomi.tachidesk.server.user.getUserFromWsContext
 import suwayomi.tachidesk.server.util.Browser
+import suwayomi.tachidesk.server.util.ServerDispatchers
 import suwayomi.tachidesk.server.util.ServerSubpath
 import suwayomi.tachidesk.server.util.WebInterfaceManager
 import java.io.IOException
@@ -60,7 +62,7 @@ import kotlin.time.Duration.Companion.seconds
 object JavalinSetup {
     private val logger = KotlinLogging.logger {}
 
-    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val scope = CoroutineScope(SupervisorJob() + ServerDispatchers.blocking)
 
     fun <T> future(block: suspend CoroutineScope.() -> T): CompletableFuture<T> = scope.future(block = block)
 
@@ -79,6 +81,11 @@ object JavalinSetup {
                 var connectorAdded = false
                 config.jetty.modifyServer { server ->
                     if (!connectorAdded) {
+                        if (ServerDispatchers.virtualThreadsEnabled) {
+                            (server.threadPool as? VirtualThreads.Configurable)?.virtualThreadsExecutor =
+                                ServerDispatchers.virtualThreadExecutor
+                        }
+
                         val connector =
                             ServerConnector(server).apply {
                                 host = serverConfig.ip.value
@@ -107,6 +114,15 @@ object JavalinSetup {
                     }
                 }
 
+                config.requestLogger.http { ctx, executionTimeMs ->
+                    ServerMetrics.httpRequestDuration.observe(
+                        executionTimeMs / 1000.0,
+                        ctx.method().name,
+                        ctx.endpoints().lastHttpEndpoint()?.path ?: "unmatched",
+                        ctx.statusCode().toString(),
+                    )
+                }
+
                 config.bundledPlugins.enableCors { cors ->
                     cors.addRule {
                         it.allowCredentials = true
@@ -180,6 +196,9 @@ object JavalinSetup {
 
     fun RoutesConfig.defineCore() {
         val loginPath = ServerSubpath.maybeAddAsPrefix("/login.html")
+        val metricsPath = ServerSubpath.maybeAddAsPrefix("/metrics")
+
+        get(metricsPath) { ctx -> ServerMetrics.serve(ctx) }
 
         get(loginPath) { ctx ->
             val locale: Locale = LocalizationHelper.ctxToLocale(ctx)
@@ -238,7 +257,8 @@ object JavalinSetup {
                     !ctx.path().substring(1).contains('/') &&
                     listOf(".png", ".jpg", ".ico").any { ctx.path().endsWith(it) }
             val isPreFlight = ctx.method() == HandlerType.OPTIONS
-            val isApi = ctx.path().startsWith(ServerSubpath.maybeAddAsPrefix("/api/"))
+            // metrics get scraped by clients that can't log in via the login page
+            val isApi = ctx.path().startsWith(ServerSubpath.maybeAddAsPrefix("/api/")) || ctx.path() == metricsPath
 
             val requiresAuthentication = !isPreFlight && !isPageIcon && !isWebManifest
             if (!requiresAuthentication) {
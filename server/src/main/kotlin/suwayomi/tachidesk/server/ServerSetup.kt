@@ -41,11 +41,18 @@ import suwayomi.tachidesk.global.impl.sync.SyncManager
 import suwayomi.tachidesk.graphql.types.DatabaseType
 import suwayomi.tachidesk.i18n.LocalizationHelper
 import suwayomi.tachidesk.manga.impl.backup.proto.ProtoBackupExport
+import suwayomi.tachidesk.manga.impl.chapter.ChapterProgressBuffer
+import suwayomi.tachidesk.manga.impl.download.DownloadBandwidth
 import suwayomi.tachidesk.manga.impl.download.DownloadManager
+import suwayomi.tachidesk.manga.impl.download.DownloadManifest
 import suwayomi.tachidesk.manga.impl.extension.ExtensionStoreService
+import suwayomi.tachidesk.manga.impl.sync.KoreaderHashPrecomputer
+import suwayomi.tachidesk.manga.impl.track.TrackerOutbox
 import suwayomi.tachidesk.manga.impl.update.IUpdater
 import suwayomi.tachidesk.manga.impl.update.Updater
 import suwayomi.tachidesk.manga.impl.util.lang.renameTo
+import suwayomi.tachidesk.manga.impl.util.storage.ImageCache
+import suwayomi.tachidesk.manga.impl.util.storage.PageBlobStore
 import suwayomi.tachidesk.server.database.databaseUp
 import suwayomi.tachidesk.server.generated.BuildConfig
 import suwayomi.tachidesk.server.settings.SettingsRegistry
@@ -53,6 +60,7 @@ import suwayomi.tachidesk.server.util.AppMutex.handleAppMutex
 import suwayomi.tachidesk.server.util.CEFManager
 import suwayomi.tachidesk.server.util.ConfigTypeRegistration
 import suwayomi.tachidesk.server.util.ExitCode
+import suwayomi.tachidesk.server.util.StartupTimeline
 import suwayomi.tachidesk.server.util.SystemTray
 import suwayomi.tachidesk.server.util.shutdownApp
 import uy.kohesive.injekt.Injekt
@@ -60,6 +68,7 @@ import uy.kohesive.injekt.api.get
 import xyz.nulldev.androidcompat.AndroidCompat
 import xyz.nulldev.androidcompat.AndroidCompatInitializer
 import xyz.nulldev.androidcompat.androidCompatModule
+import xyz.nulldev.androidcompat.io.sharedprefs.PreferencesBackend
 import xyz.nulldev.androidcompat.webkit.KcefWebViewProvider
 import xyz.nulldev.ts.config.ApplicationRootDir
 import xyz.nulldev.ts.config.BASE_LOGGER_NAME
@@ -92,11 +101,14 @@ class ApplicationDirs(
 
     val tempThumbnailCacheRoot = "$tempRoot/thumbnails"
     val tempMangaCacheRoot = "$tempRoot/manga-cache"
+    val tempPageTileCacheRoot = "$tempRoot/page-tiles"
 
     val thumbnailDownloadsRoot
         get() = "$downloadsRoot/thumbnails"
     val mangaDownloadsRoot
         get() = "$downloadsRoot/mangas"
+    val pageBlobsRoot
+        get() = "$downloadsRoot/page-blobs"
 
     val cacheDir = "$dataRoot/cache"
 }
@@ -266,6 +278,7 @@ fun applicationSetup() {
     )
 
     setupLogLevelUpdating(serverConfig.debugLogsEnabled, listOf(BASE_LOGGER_NAME))
+    StartupTimeline.mark("Config and logging")
 
     logger.info { "Running Suwayomi-Server ${BuildConfig.VERSION}" }
 
@@ -298,6 +311,7 @@ fun applicationSetup() {
         applicationDirs.downloadsRoot,
         applicationDirs.localMangaRoot,
     ).forEach { File(it).mkdirs() }
+    StartupTimeline.mark("Directories")
 
     // initialize Koin modules
     val app = App()
@@ -339,6 +353,10 @@ fun applicationSetup() {
 
     // Make sure only one instance of the app is running
     handleAppMutex()
+    StartupTimeline.mark("Dependency injection and app mutex")
+
+    // has to be set before any preferences get opened
+    PreferencesBackend.journaledNamespaces = serverConfig.journaledPreferences.value
 
     // Load Android compatibility dependencies
     AndroidCompatInitializer().init()
@@ -351,6 +369,7 @@ fun applicationSetup() {
         .userAgentFlow
         .onEach { System.setProperty("http.agent", it) }
         .launchIn(GlobalScope)
+    StartupTimeline.mark("Android compat")
 
     // create or update conf file if doesn't exist
     try {
@@ -393,8 +412,10 @@ fun applicationSetup() {
     }
 
     runMigrations(applicationDirs)
+    StartupTimeline.mark("Config file, localization and migrations")
 
     databaseUp()
+    StartupTimeline.mark("Database")
 
     try {
         LocalSource.register()
@@ -402,6 +423,7 @@ fun applicationSetup() {
         logger.error(e) { "Failed to setup LocalSource" }
         shutdownApp(ExitCode.LocalSourceSetupFailure)
     }
+    StartupTimeline.mark("Local source")
 
     serverConfig.subscribeTo(
         combine<Any, DatabaseSettings>(
@@ -449,6 +471,8 @@ fun applicationSetup() {
         ignoreInitialValue = false,
     )
 
+    StartupTimeline.mark("System tray")
+
     setLogLevelFor("org.eclipse.jetty", Level.OFF)
     setLogLevelFor("com.zaxxer.hikari", Level.WARN)
 
@@ -515,9 +539,30 @@ fun applicationSetup() {
     // start automated backups
     ProtoBackupExport.scheduleAutomatedBackupTask()
 
+    // limit the bandwidth of downloads before they get resumed
+    DownloadBandwidth.start()
+
     // start DownloadManager and restore + resume downloads
     DownloadManager.restoreAndResumeDownloads()
 
+    // detect downloads changed outside the server
+    DownloadManifest.start()
+
+    // limit the size of the cached pages and thumbnails
+    ImageCache.start()
+
+    // store identical pages of folder downloads once
+    PageBlobStore.start()
+
+    // periodically write the reading progress reported by readers
+    ChapterProgressBuffer.start()
+
+    // resume pending tracker progress updates
+    TrackerOutbox.start()
+
+    // compute the Koreader hashes of downloaded chapters before their progress gets synced
+    KoreaderHashPrecomputer.start()
+
     SyncManager.scheduleSyncTask()
 
     // asynchronously initialize CEF
@@ -532,4 +577,5 @@ fun applicationSetup() {
         },
         ignoreInitialValue = false,
     )
+    StartupTimeline.mark("Background services")
 }
@@ -9,6 +9,7 @@ package suwayomi.tachidesk.server.database
 
 import com.zaxxer.hikari.HikariConfig
 import com.zaxxer.hikari.HikariDataSource
+import com.zaxxer.hikari.HikariPoolMXBean
 import de.neonew.exposed.migrations.loadMigrationsFrom
 import de.neonew.exposed.migrations.runMigrations
 import io.github.oshai.kotlinlogging.KotlinLogging
@@ -28,6 +29,7 @@ import suwayomi.tachidesk.server.util.ExitCode
 import suwayomi.tachidesk.server.util.shutdownApp
 import uy.kohesive.injekt.Injekt
 import uy.kohesive.injekt.api.get
+import java.util.concurrent.CopyOnWriteArrayList
 import kotlin.time.Duration.Companion.minutes
 import kotlin.time.Duration.Companion.seconds
 
@@ -130,11 +132,30 @@ object DBManager {
         }.also { db = it }
     }
 
+    private val beforeShutdown = CopyOnWriteArrayList<() -> Unit>()
+
+    /**
+     * Registers a function that has to write to the database before it gets closed on shutdown.
+     */
+    fun doBeforeShutdown(block: () -> Unit) {
+        beforeShutdown.add(block)
+    }
+
     fun shutdown() {
+        beforeShutdown.forEach {
+            try {
+                it()
+            } catch (e: Exception) {
+                logger.error(e) { "Failed to write to the database before shutdown" }
+            }
+        }
+
         hikariDataSource?.close()
         hikariDataSource = null
     }
 
+    fun getPoolMXBean(): HikariPoolMXBean? = hikariDataSource?.hikariPoolMXBean
+
     fun getPoolStats(): String? =
         hikariDataSource?.let { ds ->
             "DB Pool Stats - Active: ${ds.hikariPoolMXBean.activeConnections}, " +
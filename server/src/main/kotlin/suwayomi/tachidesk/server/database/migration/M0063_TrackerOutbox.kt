@@ -0,0 +1,37 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.AddTableMigration
+import org.jetbrains.exposed.v1.core.ReferenceOption
+import org.jetbrains.exposed.v1.core.Table
+import org.jetbrains.exposed.v1.core.dao.id.IntIdTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+
+@Suppress("ClassName", "unused")
+class M0063_TrackerOutbox : AddTableMigration() {
+    private class TrackerOutboxTable : IntIdTable() {
+        val mangaId = reference("manga_id", MangaTable, ReferenceOption.CASCADE)
+        val trackerId = integer("tracker_id")
+        val lastChapterRead = double("last_chapter_read")
+        val attempts = integer("attempts").default(0)
+        val createdAt = long("created_at")
+        val updatedAt = long("updated_at")
+        val nextAttemptAt = long("next_attempt_at")
+
+        init {
+            uniqueIndex(mangaId, trackerId)
+        }
+    }
+
+    override val tables: Array<Table>
+        get() =
+            arrayOf(
+                TrackerOutboxTable(),
+            )
+}
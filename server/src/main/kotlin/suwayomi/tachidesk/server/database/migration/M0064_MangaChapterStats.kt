@@ -0,0 +1,177 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLMigration
+import suwayomi.tachidesk.graphql.types.DatabaseType
+import suwayomi.tachidesk.server.serverConfig
+
+@Suppress("ClassName", "unused")
+class M0064_MangaChapterStats : SQLMigration() {
+    override val sql =
+        when (serverConfig.databaseType.value) {
+            DatabaseType.POSTGRESQL -> postgresQuery()
+            DatabaseType.H2 -> h2Query()
+        }
+
+    private val createTableQuery =
+        """
+        CREATE TABLE IF NOT EXISTS MANGACHAPTERSTATS (
+            manga INT NOT NULL,
+            chapter_count INT NOT NULL DEFAULT 0,
+            unread_count INT NOT NULL DEFAULT 0,
+            download_count INT NOT NULL DEFAULT 0,
+            bookmark_count INT NOT NULL DEFAULT 0,
+            last_read_at BIGINT NOT NULL DEFAULT 0,
+            revision BIGINT NOT NULL DEFAULT 0,
+            computed_revision BIGINT NOT NULL DEFAULT -1,
+            last_read_chapter INT NULL,
+            latest_read_chapter INT NULL,
+            latest_fetched_chapter INT NULL,
+            latest_uploaded_chapter INT NULL,
+            first_unread_chapter INT NULL,
+            highest_numbered_chapter INT NULL,
+            CONSTRAINT pk_MangaChapterStats PRIMARY KEY (manga),
+            CONSTRAINT fk_mangachapterstats_manga_id FOREIGN KEY (manga) REFERENCES MANGA(id) ON DELETE CASCADE
+        );
+
+        INSERT INTO MANGACHAPTERSTATS (manga, chapter_count, unread_count, download_count, bookmark_count, last_read_at, revision)
+        SELECT m.id,
+            COUNT(c.id),
+            COALESCE(SUM(CASE WHEN c.read = FALSE THEN 1 ELSE 0 END), 0),
+            COALESCE(SUM(CASE WHEN c.is_downloaded = TRUE THEN 1 ELSE 0 END), 0),
+            COALESCE(SUM(CASE WHEN c.bookmark = TRUE THEN 1 ELSE 0 END), 0),
+            COALESCE(MAX(c.last_read_at), 0),
+            1
+        FROM MANGA m
+        LEFT JOIN CHAPTER c ON c.manga = m.id
+        GROUP BY m.id;
+        """.trimIndent()
+
+    // language=postgresql
+    fun postgresQuery(): String =
+        """
+        $createTableQuery
+
+        CREATE OR REPLACE FUNCTION update_manga_chapter_stats()
+        RETURNS trigger AS $$
+        BEGIN
+            IF TG_OP = 'UPDATE' AND OLD.manga = NEW.manga THEN
+                IF ROW(OLD.read, OLD.last_read_at, OLD.fetched_at, OLD.date_upload, OLD.source_order, OLD.chapter_number)
+                       IS NOT DISTINCT FROM
+                       ROW(NEW.read, NEW.last_read_at, NEW.fetched_at, NEW.date_upload, NEW.source_order, NEW.chapter_number)
+                   AND OLD.is_downloaded = NEW.is_downloaded
+                   AND OLD.bookmark = NEW.bookmark
+                THEN
+                    RETURN NULL;
+                END IF;
+
+                UPDATE mangachapterstats SET
+                    unread_count = unread_count + (CASE WHEN OLD.read THEN 0 ELSE 1 END) - (CASE WHEN NEW.read THEN 0 ELSE 1 END),
+                    download_count = download_count + NEW.is_downloaded::int - OLD.is_downloaded::int,
+                    bookmark_count = bookmark_count + NEW.bookmark::int - OLD.bookmark::int,
+                    last_read_at =
+                        CASE
+                            WHEN NEW.last_read_at < OLD.last_read_at
+                                THEN (SELECT COALESCE(MAX(last_read_at), 0) FROM chapter WHERE manga = NEW.manga)
+                            ELSE GREATEST(last_read_at, NEW.last_read_at)
+                        END,
+                    revision = revision +
+                        CASE
+                            WHEN ROW(OLD.read, OLD.last_read_at, OLD.fetched_at, OLD.date_upload, OLD.source_order, OLD.chapter_number)
+                                IS DISTINCT FROM
+                                ROW(NEW.read, NEW.last_read_at, NEW.fetched_at, NEW.date_upload, NEW.source_order, NEW.chapter_number)
+                            THEN 1
+                            ELSE 0
+                        END
+                WHERE manga = NEW.manga;
+
+                RETURN NULL;
+            END IF;
+
+            IF TG_OP = 'UPDATE' OR TG_OP = 'DELETE' THEN
+                UPDATE mangachapterstats SET
+                    chapter_count = chapter_count - 1,
+                    unread_count = unread_count - (CASE WHEN OLD.read THEN 0 ELSE 1 END),
+                    download_count = download_count - OLD.is_downloaded::int,
+                    bookmark_count = bookmark_count - OLD.bookmark::int,
+                    last_read_at =
+                        CASE
+                            WHEN OLD.last_read_at > 0
+                                THEN (SELECT COALESCE(MAX(last_read_at), 0) FROM chapter WHERE manga = OLD.manga)
+                            ELSE last_read_at
+                        END,
+                    revision = revision + 1
+                WHERE manga = OLD.manga;
+            END IF;
+
+            IF TG_OP = 'UPDATE' OR TG_OP = 'INSERT' THEN
+                UPDATE mangachapterstats SET
+                    chapter_count = chapter_count + 1,
+                    unread_count = unread_count + (CASE WHEN NEW.read THEN 0 ELSE 1 END),
+                    download_count = download_count + NEW.is_downloaded::int,
+                    bookmark_count = bookmark_count + NEW.bookmark::int,
+                    last_read_at = GREATEST(last_read_at, NEW.last_read_at),
+                    revision = revision + 1
+                WHERE manga = NEW.manga;
+
+                IF NOT FOUND THEN
+                    INSERT INTO mangachapterstats (manga, chapter_count, unread_count, download_count, bookmark_count, last_read_at, revision)
+                    SELECT NEW.manga,
+                        COUNT(id),
+                        COALESCE(SUM(CASE WHEN read = FALSE THEN 1 ELSE 0 END), 0),
+                        COALESCE(SUM(CASE WHEN is_downloaded = TRUE THEN 1 ELSE 0 END), 0),
+                        COALESCE(SUM(CASE WHEN bookmark = TRUE THEN 1 ELSE 0 END), 0),
+                        COALESCE(MAX(last_read_at), 0),
+                        1
+                    FROM chapter WHERE manga = NEW.manga
+                    ON CONFLICT DO NOTHING;
+                END IF;
+            END IF;
+
+            RETURN NULL;
+        END;
+        $$ LANGUAGE plpgsql;
+
+        CREATE TRIGGER update_manga_chapter_stats
+        AFTER INSERT OR UPDATE OR DELETE ON chapter
+        FOR EACH ROW
+        EXECUTE FUNCTION update_manga_chapter_stats();
+
+
+        CREATE OR REPLACE FUNCTION insert_manga_chapter_stats()
+        RETURNS trigger AS $$
+        BEGIN
+            INSERT INTO mangachapterstats (manga) VALUES (NEW.id) ON CONFLICT DO NOTHING;
+
+            RETURN NULL;
+        END;
+        $$ LANGUAGE plpgsql;
+
+        CREATE TRIGGER insert_manga_chapter_stats
+        AFTER INSERT ON manga
+        FOR EACH ROW
+        EXECUTE FUNCTION insert_manga_chapter_stats();
+        """.trimIndent()
+
+    // language=h2
+    fun h2Query(): String =
+        """
+        $createTableQuery
+
+        CREATE TRIGGER IF NOT EXISTS update_manga_chapter_stats
+        AFTER INSERT, UPDATE, DELETE ON chapter
+        FOR EACH ROW
+        CALL "suwayomi.tachidesk.server.database.trigger.UpdateMangaChapterStatsTrigger";
+
+        CREATE TRIGGER IF NOT EXISTS insert_manga_chapter_stats
+        AFTER INSERT ON manga
+        FOR EACH ROW
+        CALL "suwayomi.tachidesk.server.database.trigger.InsertMangaChapterStatsTrigger";
+        """.trimIndent()
+}
@@ -0,0 +1,34 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.AddTableMigration
+import org.jetbrains.exposed.v1.core.ReferenceOption
+import org.jetbrains.exposed.v1.core.Table
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+
+@Suppress("ClassName", "unused")
+class M0065_DownloadManifest : AddTableMigration() {
+    private class DownloadManifestTable : Table() {
+        val chapter = reference("chapter", ChapterTable, ReferenceOption.CASCADE)
+        val format = varchar("format", 16)
+        val pages = text("pages")
+        val totalBytes = long("total_bytes")
+        val hash = varchar("hash", 64).nullable()
+        val lastModified = long("last_modified")
+        val createdAt = long("created_at")
+
+        override val primaryKey = PrimaryKey(chapter)
+    }
+
+    override val tables: Array<Table>
+        get() =
+            arrayOf(
+                DownloadManifestTable(),
+            )
+}
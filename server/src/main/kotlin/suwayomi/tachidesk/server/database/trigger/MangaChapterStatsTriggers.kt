@@ -0,0 +1,152 @@
+package suwayomi.tachidesk.server.database.trigger
+
+import org.h2.tools.TriggerAdapter
+import java.sql.Connection
+import java.sql.ResultSet
+
+private val STATS_AFFECTING_COLUMNS = listOf("read", "last_read_at", "fetched_at", "date_upload", "source_order", "chapter_number")
+
+private fun ResultSet.flag(column: String): Int = if (getBoolean(column)) 1 else 0
+
+private fun Connection.updateMangaChapterStats(
+    mangaId: Int,
+    chapterDelta: Int,
+    unreadDelta: Int,
+    downloadDelta: Int,
+    bookmarkDelta: Int,
+    lastReadAt: Long,
+    recalculateLastReadAt: Boolean,
+    bumpRevision: Boolean,
+): Int {
+    val lastReadAtExpression =
+        if (recalculateLastReadAt) {
+            "(SELECT COALESCE(MAX(last_read_at), 0) FROM CHAPTER WHERE manga = ?)"
+        } else {
+            "GREATEST(last_read_at, ?)"
+        }
+
+    return prepareStatement(
+        """
+        UPDATE MANGACHAPTERSTATS SET
+            chapter_count = chapter_count + ?,
+            unread_count = unread_count + ?,
+            download_count = download_count + ?,
+            bookmark_count = bookmark_count + ?,
+            last_read_at = $lastReadAtExpression,
+            revision = revision + ?
+        WHERE manga = ?
+        """.trimIndent(),
+    ).use {
+        it.setInt(1, chapterDelta)
+        it.setInt(2, unreadDelta)
+        it.setInt(3, downloadDelta)
+        it.setInt(4, bookmarkDelta)
+        if (recalculateLastReadAt) {
+            it.setInt(5, mangaId)
+        } else {
+            it.setLong(5, lastReadAt)
+        }
+        it.setLong(6, if (bumpRevision) 1 else 0)
+        it.setInt(7, mangaId)
+        it.executeUpdate()
+    }
+}
+
+private fun Connection.insertMangaChapterStats(mangaId: Int) {
+    prepareStatement(
+        """
+        INSERT INTO MANGACHAPTERSTATS (manga, chapter_count, unread_count, download_count, bookmark_count, last_read_at, revision)
+        SELECT ?, COUNT(id),
+            COALESCE(SUM(CASE WHEN read = FALSE THEN 1 ELSE 0 END), 0),
+            COALESCE(SUM(CASE WHEN is_downloaded = TRUE THEN 1 ELSE 0 END), 0),
+            COALESCE(SUM(CASE WHEN bookmark = TRUE THEN 1 ELSE 0 END), 0),
+            COALESCE(MAX(last_read_at), 0),
+            1
+        FROM CHAPTER WHERE manga = ?
+        """.trimIndent(),
+    ).use {
+        it.setInt(1, mangaId)
+        it.setInt(2, mangaId)
+        it.executeUpdate()
+    }
+}
+
+@Suppress("unused")
+class InsertMangaChapterStatsTrigger : TriggerAdapter() {
+    override fun fire(
+        conn: Connection,
+        oldRow: ResultSet?,
+        newRow: ResultSet,
+    ) {
+        conn.insertMangaChapterStats(newRow.getInt("id"))
+    }
+}
+
+@Suppress("unused")
+class UpdateMangaChapterStatsTrigger : TriggerAdapter() {
+    override fun fire(
+        conn: Connection,
+        oldRow: ResultSet?,
+        newRow: ResultSet?,
+    ) {
+        val oldMangaId = oldRow?.getInt("manga")
+        val newMangaId = newRow?.getInt("manga")
+
+        if (oldRow != null && newRow != null && oldMangaId == newMangaId) {
+            val hasChanged = STATS_AFFECTING_COLUMNS.any { oldRow.getObject(it) != newRow.getObject(it) }
+            val oldLastReadAt = oldRow.getLong("last_read_at")
+            val newLastReadAt = newRow.getLong("last_read_at")
+
+            val unreadDelta = oldRow.flag("read") - newRow.flag("read")
+            val downloadDelta = newRow.flag("is_downloaded") - oldRow.flag("is_downloaded")
+            val bookmarkDelta = newRow.flag("bookmark") - oldRow.flag("bookmark")
+
+            if (!hasChanged && downloadDelta == 0 && bookmarkDelta == 0) {
+                return
+            }
+
+            conn.updateMangaChapterStats(
+                mangaId = newMangaId!!,
+                chapterDelta = 0,
+                unreadDelta = unreadDelta,
+                downloadDelta = downloadDelta,
+                bookmarkDelta = bookmarkDelta,
+                lastReadAt = newLastReadAt,
+                recalculateLastReadAt = newLastReadAt < oldLastReadAt,
+                bumpRevision = hasChanged,
+            )
+            return
+        }
+
+        if (oldRow != null) {
+            conn.updateMangaChapterStats(
+                mangaId = oldMangaId!!,
+                chapterDelta = -1,
+                unreadDelta = -(1 - oldRow.flag("read")),
+                downloadDelta = -oldRow.flag("is_downloaded"),
+                bookmarkDelta = -oldRow.flag("bookmark"),
+                lastReadAt = 0,
+                recalculateLastReadAt = oldRow.getLong("last_read_at") > 0,
+                bumpRevision = true,
+            )
+        }
+
+        if (newRow != null) {
+            val updatedRows =
+                conn.updateMangaChapterStats(
+                    mangaId = newMangaId!!,
+                    chapterDelta = 1,
+                    unreadDelta = 1 - newRow.flag("read"),
+                    downloadDelta = newRow.flag("is_downloaded"),
+                    bookmarkDelta = newRow.flag("bookmark"),
+                    lastReadAt = newRow.getLong("last_read_at"),
+                    recalculateLastReadAt = false,
+                    bumpRevision = true,
+                )
+
+            if (updatedRows == 0) {
+                conn.insertMangaChapterStats(newMangaId)
+            }
+        }
+    }
+}
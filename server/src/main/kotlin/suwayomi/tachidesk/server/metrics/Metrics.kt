@@ -0,0 +1,207 @@
+package suwayomi.tachidesk.server.metrics
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.atomic.DoubleAdder
+import java.util.concurrent.atomic.LongAdder
+
+data class MetricSample(
+    val labelValues: List<String>,
+    val value: Double,
+    val suffix: String = "",
+    val extraLabel: Pair<String, String>? = null,
+)
+
+abstract class Metric(
+    val name: String,
+    val help: String,
+    val type: String,
+    val labelNames: List<String>,
+) {
+    abstract fun collect(): List<MetricSample>
+
+    protected fun checkLabels(labelValues: Array<out String>) {
+        require(labelValues.size == labelNames.size) { "Metric $name expects labels $labelNames" }
+    }
+}
+
+class Counter(
+    name: String,
+    help: String,
+    vararg labelNames: String,
+) : Metric(name, help, "counter", labelNames.toList()) {
+    private val values = ConcurrentHashMap<List<String>, DoubleAdder>()
+
+    fun inc(
+        vararg labelValues: String,
+        amount: Double = 1.0,
+    ) {
+        checkLabels(labelValues)
+        values.getOrPut(labelValues.toList()) { DoubleAdder() }.add(amount)
+    }
+
+    override fun collect(): List<MetricSample> = values.map { (labelValues, value) -> MetricSample(labelValues, value.sum()) }
+}
+
+class Histogram(
+    name: String,
+    help: String,
+    vararg labelNames: String,
+    private val buckets: List<Double> = DEFAULT_BUCKETS,
+) : Metric(name, help, "histogram", labelNames.toList()) {
+    private class Data(
+        bucketCount: Int,
+    ) {
+        val bucketCounts = List(bucketCount) { LongAdder() }
+        val sum = DoubleAdder()
+        val count = LongAdder()
+    }
+
+    private val values = ConcurrentHashMap<List<String>, Data>()
+
+    fun observe(
+        value: Double,
+        vararg labelValues: String,
+    ) {
+        checkLabels(labelValues)
+        val data = values.getOrPut(labelValues.toList()) { Data(buckets.size) }
+        val bucketIndex = buckets.indexOfFirst { value <= it }
+        if (bucketIndex >= 0) {
+            data.bucketCounts[bucketIndex].increment()
+        }
+        data.sum.add(value)
+        data.count.increment()
+    }
+
+    /**
+     * Observes the duration of [block] in seconds.
+     */
+    inline fun <T> time(
+        vararg labelValues: String,
+        block: () -> T,
+    ): T {
+        val start = System.nanoTime()
+        try {
+            return block()
+        } finally {
+            observe((System.nanoTime() - start) / 1_000_000_000.0, *labelValues)
+        }
+    }
+
+    override fun collect(): List<MetricSample> =
+        values.flatMap { (labelValues, data) ->
+            var cumulativeCount = 0L
+            val bucketSamples =
+                buckets.mapIndexed { index, bound ->
+                    cumulativeCount += data.bucketCounts[index].sum()
+                    MetricSample(labelValues, cumulativeCount.toDouble(), "_bucket", "le" to bound.toString())
+                }
+            val count = data.count.sum().toDouble()
+
+            bucketSamples +
+                listOf(
+                    MetricSample(labelValues, count, "_bucket", "le" to "+Inf"),
+                    MetricSample(labelValues, data.sum.sum(), "_sum"),
+                    MetricSample(labelValues, count, "_count"),
+                )
+        }
+
+    companion object {
+        val DEFAULT_BUCKETS = listOf(0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0, 30.0, 60.0)
+    }
+}
+
+/**
+ * Metric whose values get read from somewhere else on every scrape, e.g. already existing statistics.
+ */
+class CallbackMetric(
+    name: String,
+    help: String,
+    type: String,
+    vararg labelNames: String,
+    private val read: () -> Map<List<String>, Number>,
+) : Metric(name, help, type, labelNames.toList()) {
+    override fun collect(): List<MetricSample> = read().map { (labelValues, value) -> MetricSample(labelValues, value.toDouble()) }
+}
+
+/**
+ * Registry of all metrics, rendered in the Prometheus text exposition format.
+ */
+object Metrics {
+    private val metrics = CopyOnWriteArrayList<Metric>()
+
+    fun <T : Metric> register(metric: T): T = metric.also { metrics.add(it) }
+
+    fun counter(
+        name: String,
+        help: String,
+        vararg labelNames: String,
+    ): Counter = register(Counter(name, help, *labelNames))
+
+    fun histogram(
+        name: String,
+        help: String,
+        vararg labelNames: String,
+        buckets: List<Double> = Histogram.DEFAULT_BUCKETS,
+    ): Histogram = register(Histogram(name, help, *labelNames, buckets = buckets))
+
+    fun gauge(
+        name: String,
+        help: String,
+        vararg labelNames: String,
+        read: () -> Map<List<String>, Number>,
+    ): CallbackMetric = register(CallbackMetric(name, help, "gauge", *labelNames, read = read))
+
+    fun callbackCounter(
+        name: String,
+        help: String,
+        vararg labelNames: String,
+        read: () -> Map<List<String>, Number>,
+    ): CallbackMetric = register(CallbackMetric(name, help, "counter", *labelNames, read = read))
+
+    private fun String.escapeLabelValue(): String = replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")
+
+    private fun formatValue(value: Double): String =
+        when {
+            value.isNaN() -> "NaN"
+            value == Double.POSITIVE_INFINITY -> "+Inf"
+            value == Double.NEGATIVE_INFINITY -> "-Inf"
+            value == value.toLong().toDouble() -> value.toLong().toString()
+            else -> value.toString()
+        }
+
+    fun scrape(): String =
+        buildString {
+            metrics.forEach { metric ->
+                val samples =
+                    try {
+                        metric.collect()
+                    } catch (_: Exception) {
+                        // a failing collector must not break the whole scrape
+                        emptyList()
+                    }
+
+                appendLine("# HELP ${metric.name} ${metric.help}")
+                appendLine("# TYPE ${metric.name} ${metric.type}")
+                samples.forEach { sample ->
+                    append(metric.name)
+                    append(sample.suffix)
+
+                    val labels = metric.labelNames.zip(sample.labelValues) + listOfNotNull(sample.extraLabel)
+                    if (labels.isNotEmpty()) {
+                        append(labels.joinToString(",", "{", "}") { (name, value) -> "$name=\"${value.escapeLabelValue()}\"" })
+                    }
+
+                    append(' ')
+                    appendLine(formatValue(sample.value))
+                }
+            }
+        }
+}
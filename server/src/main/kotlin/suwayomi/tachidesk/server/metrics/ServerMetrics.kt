@@ -0,0 +1,211 @@
+package suwayomi.tachidesk.server.metrics
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import com.zaxxer.hikari.HikariPoolMXBean
+import eu.kanade.tachiyomi.network.interceptor.RateLimitBucket
+import eu.kanade.tachiyomi.network.interceptor.RateLimitScheduler
+import io.javalin.http.Context
+import io.javalin.http.NotFoundResponse
+import suwayomi.tachidesk.graphql.cache.EntityCache
+import suwayomi.tachidesk.manga.impl.download.DownloadManager
+import suwayomi.tachidesk.manga.impl.util.storage.ImageCache
+import suwayomi.tachidesk.server.database.DBManager
+import suwayomi.tachidesk.server.serverConfig
+import java.lang.management.ManagementFactory
+import com.sun.management.OperatingSystemMXBean as SunOperatingSystemMXBean
+
+/**
+ * The metrics of the server, exposed via the /metrics endpoint.
+ */
+object ServerMetrics {
+    private const val PREFIX = "suwayomi"
+
+    val httpRequestDuration =
+        Metrics.histogram(
+            "${PREFIX}_http_request_duration_seconds",
+            "Duration of handled http requests per route",
+            "method",
+            "route",
+            "status",
+        )
+
+    val graphqlOperationDuration =
+        Metrics.histogram(
+            "${PREFIX}_graphql_operation_duration_seconds",
+            "Duration of executed GraphQL operations per operation name",
+            "operation",
+            "result",
+        )
+
+    val downloadedPages =
+        Metrics.counter(
+            "${PREFIX}_download_pages_total",
+            "Number of downloaded pages per source",
+            "source",
+        )
+
+    val downloadedBytes =
+        Metrics.counter(
+            "${PREFIX}_download_bytes_total",
+            "Size of the downloaded pages per source",
+            "source",
+        )
+
+    val updaterJobDuration =
+        Metrics.histogram(
+            "${PREFIX}_updater_job_duration_seconds",
+            "Duration of library update jobs per source",
+            "source",
+            "status",
+        )
+
+    val imageConversionDuration =
+        Metrics.histogram(
+            "${PREFIX}_image_conversion_duration_seconds",
+            "Duration of page image conversions",
+            "method",
+            "target",
+        )
+
+    init {
+        registerDatabasePool()
+        registerDownloader()
+        registerCaches()
+        registerRateLimits()
+        registerJvm()
+    }
+
+    private fun registerDatabasePool() {
+        fun poolGauge(
+            name: String,
+            help: String,
+            read: (HikariPoolMXBean) -> Int,
+        ) = Metrics.gauge("${PREFIX}_db_pool_$name", help) {
+            DBManager.getPoolMXBean()?.let { mapOf(emptyList<String>() to read(it)) }.orEmpty()
+        }
+
+        poolGauge("active_connections", "Active connections of the database connection pool") { it.activeConnections }
+        poolGauge("idle_connections", "Idle connections of the database connection pool") { it.idleConnections }
+        poolGauge("total_connections", "Total connections of the database connection pool") { it.totalConnections }
+        poolGauge("pending_threads", "Threads waiting for a connection of the database connection pool") { it.threadsAwaitingConnection }
+    }
+
+    private fun registerDownloader() {
+        Metrics.gauge("${PREFIX}_download_queue_size", "Number of chapters in the download queue per state", "state") {
+            DownloadManager
+                .getStatus()
+                .queue
+                .groupingBy { it.state.name }
+                .eachCount()
+                .mapKeys { (state) -> listOf(state) }
+        }
+    }
+
+    private fun registerCaches() {
+        Metrics.gauge("${PREFIX}_entity_cache_size", "Number of cached GraphQL entities per region", "region") {
+            EntityCache.getStats().associate { listOf(it.name) to it.size }
+        }
+        Metrics.callbackCounter("${PREFIX}_entity_cache_hits_total", "GraphQL entity cache hits per region", "region") {
+            EntityCache.getStats().associate { listOf(it.name) to it.hits }
+        }
+        Metrics.callbackCounter("${PREFIX}_entity_cache_misses_total", "GraphQL entity cache misses per region", "region") {
+            EntityCache.getStats().associate { listOf(it.name) to it.misses }
+        }
+        Metrics.callbackCounter("${PREFIX}_entity_cache_evictions_total", "GraphQL entity cache evictions per region", "region") {
+            EntityCache.getStats().associate { listOf(it.name) to it.evictions }
+        }
+
+        Metrics.gauge("${PREFIX}_image_cache_size_bytes", "Size of the cached images per cache", "cache") {
+            ImageCache.getStats().associate { listOf(it.name) to it.size }
+        }
+        Metrics.gauge("${PREFIX}_image_cache_files", "Number of cached images per cache", "cache") {
+            ImageCache.getStats().associate { listOf(it.name) to it.entries }
+        }
+        Metrics.callbackCounter("${PREFIX}_image_cache_hits_total", "Image cache hits per cache", "cache") {
+            ImageCache.getStats().associate { listOf(it.name) to it.hits }
+        }
+        Metrics.callbackCounter("${PREFIX}_image_cache_misses_total", "Image cache misses per cache", "cache") {
+            ImageCache.getStats().associate { listOf(it.name) to it.misses }
+        }
+        Metrics.callbackCounter("${PREFIX}_image_cache_evictions_total", "Image cache evictions per cache", "cache") {
+            ImageCache.getStats().associate { listOf(it.name) to it.evictions }
+        }
+    }
+
+    private fun registerRateLimits() {
+        // buckets without a specific host are identified by the hosts they got used for
+        fun RateLimitScheduler.rateLimitStats(read: (RateLimitBucket.Stats) -> Number) =
+            getStats()
+                .filter { it.requests > 0 }
+                .groupBy { listOf(it.host ?: it.requestHosts.sorted().joinToString(",")) }
+                .mapValues { (_, stats) -> stats.sumOf { read(it).toDouble() } }
+
+        Metrics.gauge("${PREFIX}_rate_limit_queue_depth", "Requests waiting for a rate limit slot", "host") {
+            RateLimitScheduler.rateLimitStats { it.queueDepth }
+        }
+        Metrics.callbackCounter("${PREFIX}_rate_limit_requests_total", "Requests passing a rate limit", "host") {
+            RateLimitScheduler.rateLimitStats { it.requests }
+        }
+        Metrics.callbackCounter("${PREFIX}_rate_limit_delayed_requests_total", "Requests delayed by a rate limit", "host") {
+            RateLimitScheduler.rateLimitStats { it.delayedRequests }
+        }
+        Metrics.callbackCounter("${PREFIX}_rate_limit_wait_seconds_total", "Time requests waited for a rate limit slot", "host") {
+            RateLimitScheduler.rateLimitStats { it.totalWait.inWholeMilliseconds / 1000.0 }
+        }
+    }
+
+    private fun registerJvm() {
+        val memory = ManagementFactory.getMemoryMXBean()
+        Metrics.gauge("jvm_memory_used_bytes", "Used memory per area", "area") {
+            mapOf(listOf("heap") to memory.heapMemoryUsage.used, listOf("nonheap") to memory.nonHeapMemoryUsage.used)
+        }
+        Metrics.gauge("jvm_memory_committed_bytes", "Committed memory per area", "area") {
+            mapOf(listOf("heap") to memory.heapMemoryUsage.committed, listOf("nonheap") to memory.nonHeapMemoryUsage.committed)
+        }
+        Metrics.gauge("jvm_memory_max_bytes", "Max memory of the heap") {
+            mapOf(emptyList<String>() to memory.heapMemoryUsage.max)
+        }
+        Metrics.gauge("jvm_memory_pool_used_bytes", "Used memory per memory pool", "pool") {
+            ManagementFactory.getMemoryPoolMXBeans().associate { listOf(it.name) to it.usage.used }
+        }
+
+        Metrics.callbackCounter("jvm_gc_collections_total", "Garbage collections per collector", "gc") {
+            ManagementFactory.getGarbageCollectorMXBeans().associate { listOf(it.name) to it.collectionCount }
+        }
+        Metrics.callbackCounter("jvm_gc_collection_seconds_total", "Time spent in garbage collections per collector", "gc") {
+            ManagementFactory.getGarbageCollectorMXBeans().associate { listOf(it.name) to it.collectionTime / 1000.0 }
+        }
+
+        val threads = ManagementFactory.getThreadMXBean()
+        Metrics.gauge("jvm_threads", "Current live threads") { mapOf(emptyList<String>() to threads.threadCount) }
+        Metrics.gauge("jvm_threads_daemon", "Current live daemon threads") { mapOf(emptyList<String>() to threads.daemonThreadCount) }
+
+        val classLoading = ManagementFactory.getClassLoadingMXBean()
+        Metrics.gauge("jvm_classes_loaded", "Currently loaded classes") { mapOf(emptyList<String>() to classLoading.loadedClassCount) }
+
+        val runtime = ManagementFactory.getRuntimeMXBean()
+        Metrics.gauge("process_uptime_seconds", "Uptime of the JVM") { mapOf(emptyList<String>() to runtime.uptime / 1000.0) }
+
+        val os = ManagementFactory.getOperatingSystemMXBean()
+        Metrics.callbackCounter("process_cpu_seconds_total", "CPU time used by the process") {
+            (os as? SunOperatingSystemMXBean)
+                ?.let { mapOf(emptyList<String>() to it.processCpuTime / 1_000_000_000.0) }
+                .orEmpty()
+        }
+    }
+
+    fun serve(ctx: Context) {
+        if (!serverConfig.metricsEnabled.value) {
+            throw NotFoundResponse()
+        }
+
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8")
+        ctx.result(Metrics.scrape())
+    }
+}
@@ -0,0 +1,41 @@
+package suwayomi.tachidesk.server.util
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asCoroutineDispatcher
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+object ServerDispatchers {
+    val virtualThreadsEnabled: Boolean by lazy { serverConfig.virtualThreadsEnabled.value }
+
+    /**
+     * Executor starting a new virtual thread per task, used for Jetty request handling in case virtual threads are
+     * enabled.
+     */
+    val virtualThreadExecutor: ExecutorService by lazy {
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("virtual-", 0).factory())
+    }
+
+    /**
+     * Dispatcher for coroutines doing blocking work (database transactions, filesystem) while handling requests.
+     *
+     * Either runs on virtual threads or on [Dispatchers.IO], whose threads are shared with background jobs like the
+     * library update and the downloader.
+     */
+    val blocking: CoroutineDispatcher by lazy {
+        if (virtualThreadsEnabled) {
+            virtualThreadExecutor.asCoroutineDispatcher()
+        } else {
+            Dispatchers.IO
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package suwayomi.tachidesk.server.util
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.github.oshai.kotlinlogging.KotlinLogging
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.time.Duration
+import kotlin.time.Duration.Companion.milliseconds
+import kotlin.time.Duration.Companion.nanoseconds
+
+/**
+ * Records how long the phases of the startup took.
+ *
+ * Sequential phases are ended via [mark], each one starting where the previous one ended. Work running concurrently to
+ * them (e.g. the GraphQL schema generation) is recorded via [recordConcurrent].
+ */
+object StartupTimeline {
+    private val logger = KotlinLogging.logger {}
+
+    private data class Phase(
+        val name: String,
+        val start: Duration,
+        val duration: Duration,
+        val concurrent: Boolean,
+    )
+
+    /** [System.nanoTime] of the JVM start */
+    private val origin = System.nanoTime() - ManagementFactory.getRuntimeMXBean().uptime.milliseconds.inWholeNanoseconds
+
+    private val phases = CopyOnWriteArrayList<Phase>()
+
+    @Volatile
+    private var lastMark = origin
+
+    @Volatile
+    private var reported = false
+
+    private fun sinceOrigin(nanoTime: Long): Duration = (nanoTime - origin).nanoseconds
+
+    @Synchronized
+    fun mark(name: String) {
+        val now = System.nanoTime()
+        phases.add(Phase(name, sinceOrigin(lastMark), (now - lastMark).nanoseconds, concurrent = false))
+        lastMark = now
+    }
+
+    fun recordConcurrent(
+        name: String,
+        startNanoTime: Long,
+    ) {
+        val duration = (System.nanoTime() - startNanoTime).nanoseconds
+        phases.add(Phase(name, sinceOrigin(startNanoTime), duration, concurrent = true))
+
+        if (reported) {
+            logger.info { "Startup: $name took $duration (concurrently)" }
+        }
+    }
+
+    fun report() {
+        reported = true
+
+        logger.info {
+            buildString {
+                appendLine("Startup took ${sinceOrigin(lastMark)}:")
+                phases.sortedBy { it.start }.forEach { phase ->
+                    append("  ${phase.start.toString().padStart(10)} +${phase.duration.toString().padEnd(10)} ${phase.name}")
+                    if (phase.concurrent) {
+                        append(" (concurrently)")
+                    }
+                    appendLine()
+                }
+            }.trimEnd()
+        }
+    }
+}
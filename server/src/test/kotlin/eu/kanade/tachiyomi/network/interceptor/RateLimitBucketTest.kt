@@ -0,0 +1,82 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+import kotlin.random.Random
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import kotlin.time.Duration.Companion.seconds
+
+class RateLimitBucketTest {
+    private val permits = 5
+    private val period = 1.seconds
+    private val periodNanos = period.inWholeNanoseconds
+
+    private fun assertAtMostPermitsPerPeriod(slots: List<Long>) {
+        val sortedSlots = slots.sorted()
+        sortedSlots.forEachIndexed { index, slot ->
+            val slotsInPeriod = sortedSlots.drop(index).takeWhile { it < slot + periodNanos }.size
+            assertTrue(slotsInPeriod <= permits, "$slotsInPeriod requests within the period starting at $slot")
+        }
+    }
+
+    @Test
+    fun burstIsLimitedToPermitsPerPeriod() {
+        val bucket = RateLimitBucket(null, permits, period)
+        val slots = List(permits * 4) { bucket.reserve(now = 0) }
+
+        assertAtMostPermitsPerPeriod(slots)
+        // the first permits requests are not delayed, every following batch waits for the next period
+        assertEquals(List(permits) { 0L }, slots.take(permits))
+        assertEquals(List(permits) { periodNanos }, slots.subList(permits, permits * 2))
+    }
+
+    @Test
+    fun randomArrivalsAreLimitedToPermitsPerPeriod() {
+        val bucket = RateLimitBucket(null, permits, period)
+        val random = Random(0)
+        var now = 0L
+        val slots =
+            List(1_000) {
+                now += random.nextLong(periodNanos / 2)
+                bucket.reserve(now)
+            }
+
+        assertAtMostPermitsPerPeriod(slots)
+    }
+
+    @Test
+    fun releasedSlotsKeepTheLimit() {
+        val bucket = RateLimitBucket(null, permits, period)
+        val random = Random(1)
+        var now = 0L
+        val slots = mutableListOf<Long>()
+        repeat(1_000) {
+            now += random.nextLong(periodNanos / 4)
+            val slot = bucket.reserve(now)
+            if (random.nextInt(4) == 0) {
+                bucket.release(slot)
+            } else {
+                slots += slot
+            }
+        }
+
+        assertAtMostPermitsPerPeriod(slots)
+    }
+
+    @Test
+    fun spareSlotsLeaveASlotToOtherRequests() {
+        val bucket = RateLimitBucket(null, permits, period)
+        val spareSlots = List(permits) { bucket.tryReserveSpare(now = 0) }
+
+        assertEquals(List(permits - 1) { 0L }, spareSlots.take(permits - 1))
+        assertNull(spareSlots.last(), "the last free slot has to be left to the other requests")
+        assertEquals(0L, bucket.reserve(now = 0))
+
+        // no spare slots while other requests wait for theirs
+        bucket.reserve(now = 0)
+        assertNull(bucket.tryReserveSpare(now = periodNanos / 2))
+        assertNotNull(bucket.tryReserveSpare(now = periodNanos * 3))
+    }
+}
@@ -0,0 +1,71 @@
+package suwayomi.tachidesk
+
+import suwayomi.tachidesk.manga.impl.util.KoreaderHelper
+import suwayomi.tachidesk.manga.impl.util.storage.StoredZipArchive
+import java.io.File
+import java.nio.file.Files
+import java.util.zip.ZipFile
+import kotlin.random.Random
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+
+class StoredZipArchiveTest {
+    private lateinit var folder: File
+    private lateinit var files: List<File>
+
+    @BeforeTest
+    fun setup() {
+        folder = Files.createTempDirectory("stored-zip-test").toFile()
+        val random = Random(0)
+        files =
+            listOf(0, 100, 5_000, 300_000, 1_200_000).mapIndexed { index, size ->
+                File(folder, "%03d.jpg".format(index + 1)).apply { writeBytes(random.nextBytes(size)) }
+            }
+    }
+
+    @AfterTest
+    fun tearDown() {
+        folder.deleteRecursively()
+    }
+
+    @Test
+    fun streamIsValidZip() {
+        val archive = StoredZipArchive(files)
+        val zipFile = File(folder, "chapter.cbz").apply { writeBytes(archive.openStream().use { it.readBytes() }) }
+
+        assertEquals(archive.size, zipFile.length())
+        ZipFile(zipFile).use { zip ->
+            assertEquals(files.map { it.name }, zip.entries().toList().map { it.name })
+            files.forEach { file ->
+                assertContentEquals(file.readBytes(), zip.getInputStream(zip.getEntry(file.name)).use { it.readBytes() })
+            }
+        }
+    }
+
+    @Test
+    fun readMatchesStream() {
+        val archive = StoredZipArchive(files)
+        val bytes = archive.openStream().use { it.readBytes() }
+
+        listOf(0L, 20L, 1024L, 4096L, 65536L, 1_048_576L, archive.size - 10).forEach { position ->
+            val buffer = ByteArray(1024)
+            val read = archive.read(position, buffer)
+            val expected = bytes.copyOfRange(position.toInt(), minOf(bytes.size, position.toInt() + buffer.size))
+
+            assertEquals(expected.size, read)
+            assertContentEquals(expected, buffer.copyOf(read))
+        }
+        assertEquals(-1, archive.read(archive.size, ByteArray(1024)))
+    }
+
+    @Test
+    fun koreaderHashMatchesBuiltArchive() {
+        val archive = StoredZipArchive(files)
+        val zipFile = File(folder, "chapter.cbz").apply { writeBytes(archive.openStream().use { it.readBytes() }) }
+
+        assertEquals(KoreaderHelper.hashContents(zipFile), KoreaderHelper.hashContents(archive))
+    }
+}
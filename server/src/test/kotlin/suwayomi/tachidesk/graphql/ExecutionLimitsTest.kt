@@ -0,0 +1,80 @@
+package suwayomi.tachidesk.graphql
+
+import graphql.execution.CoercedVariables
+import graphql.parser.Parser
+import graphql.schema.GraphQLSchema
+import graphql.schema.idl.RuntimeWiring
+import graphql.schema.idl.SchemaGenerator
+import graphql.schema.idl.SchemaParser
+import suwayomi.tachidesk.graphql.server.ExecutionLimitsInstrumentation
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ExecutionLimitsTest {
+    private val schema: GraphQLSchema =
+        SchemaGenerator().makeExecutableSchema(
+            SchemaParser().parse(
+                """
+                type Query {
+                    mangas(first: Int, last: Int): MangaNodeList!
+                }
+
+                type MangaNodeList {
+                    nodes: [Manga!]!
+                    totalCount: Int!
+                }
+
+                type Manga {
+                    title: String!
+                    chapters: ChapterNodeList!
+                    related(first: Int, last: Int): MangaNodeList!
+                }
+
+                type ChapterNodeList {
+                    nodes: [Chapter!]!
+                }
+
+                type Chapter {
+                    name: String!
+                }
+                """.trimIndent(),
+            ),
+            RuntimeWiring.newRuntimeWiring().build(),
+        )
+
+    private fun analyze(query: String) =
+        ExecutionLimitsInstrumentation.analyze(schema, Parser.parse(query), null, CoercedVariables.emptyVariables())
+
+    @Test
+    fun paginatedListIsMultipliedByFirst() {
+        val analysis = analyze("{ mangas(first: 10) { nodes { title } } }")
+
+        assertEquals(30, analysis.cost)
+        assertEquals(3, analysis.depth)
+    }
+
+    @Test
+    fun aliasedSiblingFieldsDoNotOverflow() {
+        val mangas = "mangas(first: 100000000) { nodes { chapters { nodes { name } } } }"
+        val analysis = analyze("{ a: $mangas b: $mangas c: $mangas }")
+
+        assertTrue(analysis.cost > Int.MAX_VALUE, "cost ${analysis.cost}")
+    }
+
+    @Test
+    fun hugeCostIsSaturated() {
+        val related = (1..5).fold("title") { selection, _ -> "related(first: 2000000000) { nodes { $selection } }" }
+        val analysis = analyze("{ mangas(first: 2000000000) { nodes { $related } } }")
+
+        assertEquals(Long.MAX_VALUE, analysis.cost)
+    }
+
+    @Test
+    fun introspectionIsFree() {
+        val analysis = analyze("{ __schema { types { name fields { name type { name ofType { name ofType { name } } } } } } }")
+
+        assertEquals(0, analysis.cost)
+        assertEquals(0, analysis.depth)
+    }
+}
@@ -0,0 +1,99 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.v1.core.and
+import org.jetbrains.exposed.v1.core.eq
+import org.jetbrains.exposed.v1.core.lessEq
+import org.jetbrains.exposed.v1.jdbc.deleteWhere
+import org.jetbrains.exposed.v1.jdbc.selectAll
+import org.jetbrains.exposed.v1.jdbc.transactions.transaction
+import org.jetbrains.exposed.v1.jdbc.update
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaChapterStatsTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.test.ApplicationTest
+import suwayomi.tachidesk.test.clearTables
+import suwayomi.tachidesk.test.createChapters
+import suwayomi.tachidesk.test.createLibraryManga
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ChapterStatsTest : ApplicationTest() {
+    private fun getStats(mangaId: Int) =
+        transaction {
+            ChapterStats.refreshChapterReferences(listOf(mangaId))
+            MangaChapterStatsTable.selectAll().where { MangaChapterStatsTable.manga eq mangaId }.first()
+        }
+
+    private fun getChapterId(
+        mangaId: Int,
+        sourceOrder: Int,
+    ) = transaction {
+        ChapterTable
+            .selectAll()
+            .where { (ChapterTable.manga eq mangaId) and (ChapterTable.sourceOrder eq sourceOrder) }
+            .first()[ChapterTable.id]
+            .value
+    }
+
+    @Test
+    fun `stats are kept up to date on chapter changes`() {
+        val mangaId = createLibraryManga("Berserk")
+        assertEquals(0, getStats(mangaId)[MangaChapterStatsTable.chapterCount], "New manga should have empty stats")
+
+        createChapters(mangaId, 5, true)
+        createChapters(mangaId, 5, false, start = 6)
+
+        getStats(mangaId).let {
+            assertEquals(10, it[MangaChapterStatsTable.chapterCount])
+            assertEquals(5, it[MangaChapterStatsTable.unreadCount])
+            assertEquals(getChapterId(mangaId, 5), it[MangaChapterStatsTable.latestReadChapter])
+            assertEquals(getChapterId(mangaId, 6), it[MangaChapterStatsTable.firstUnreadChapter])
+        }
+
+        transaction {
+            ChapterTable.update({ (ChapterTable.manga eq mangaId) and (ChapterTable.sourceOrder eq 6) }) {
+                it[isRead] = true
+                it[isDownloaded] = true
+                it[lastReadAt] = 1000
+            }
+        }
+
+        getStats(mangaId).let {
+            assertEquals(4, it[MangaChapterStatsTable.unreadCount])
+            assertEquals(1, it[MangaChapterStatsTable.downloadCount])
+            assertEquals(1000, it[MangaChapterStatsTable.lastReadAt])
+            assertEquals(getChapterId(mangaId, 6), it[MangaChapterStatsTable.lastReadChapter])
+            assertEquals(getChapterId(mangaId, 7), it[MangaChapterStatsTable.firstUnreadChapter])
+        }
+
+        transaction {
+            ChapterTable.deleteWhere { (ChapterTable.manga eq mangaId) and (ChapterTable.sourceOrder lessEq 6) }
+        }
+
+        getStats(mangaId).let {
+            assertEquals(4, it[MangaChapterStatsTable.chapterCount])
+            assertEquals(4, it[MangaChapterStatsTable.unreadCount])
+            assertEquals(0, it[MangaChapterStatsTable.downloadCount])
+            assertEquals(0, it[MangaChapterStatsTable.lastReadAt])
+            assertEquals(null, it[MangaChapterStatsTable.latestReadChapter])
+        }
+    }
+
+    @AfterEach
+    internal fun tearDown() {
+        clearTables(
+            ChapterTable,
+            MangaTable,
+        )
+    }
+}
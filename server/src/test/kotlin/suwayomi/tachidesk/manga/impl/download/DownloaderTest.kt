@@ -0,0 +1,115 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.local.LocalSource
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.junit.jupiter.api.assertDoesNotThrow
+import org.junit.jupiter.api.assertThrows
+import suwayomi.tachidesk.manga.impl.download.model.DownloadQueueItem
+import suwayomi.tachidesk.manga.impl.download.model.DownloadState
+import suwayomi.tachidesk.server.serverConfig
+import suwayomi.tachidesk.test.ApplicationTest
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.time.Duration.Companion.seconds
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class DownloaderTest : ApplicationTest() {
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+
+    // chapters of the local source are already downloaded, they finish without any request
+    private fun createQueue(size: Int) =
+        CopyOnWriteArrayList(
+            List(size) { index ->
+                DownloadQueueItem(chapterId = index, chapterIndex = index, mangaId = 1, sourceId = LocalSource.ID, pageCount = 1)
+            },
+        )
+
+    private fun createDownloader(
+        queue: CopyOnWriteArrayList<DownloadQueueItem>,
+        shouldYield: () -> Boolean = { false },
+        onComplete: () -> Unit = {},
+    ) = Downloader(
+        scope = scope,
+        sourceId = LocalSource.ID,
+        downloadQueue = queue,
+        notifier = { _, _ -> },
+        onComplete = onComplete,
+        onDownloadFinished = {},
+        shouldYield = shouldYield,
+    )
+
+    private fun runToCompletion(
+        queue: CopyOnWriteArrayList<DownloadQueueItem>,
+        shouldYield: () -> Boolean,
+    ) {
+        val completed = CompletableDeferred<Unit>()
+        createDownloader(queue, shouldYield) { completed.complete(Unit) }.start()
+        runBlocking { withTimeout(10.seconds) { completed.await() } }
+    }
+
+    @AfterEach
+    fun resetConfig() {
+        serverConfig.downloadChaptersInParallel.value = 1
+    }
+
+    @Test
+    fun `all chapters get downloaded in parallel batches`() {
+        serverConfig.downloadChaptersInParallel.value = 2
+        val queue = createQueue(5)
+
+        runToCompletion(queue, shouldYield = { false })
+
+        assertEquals(emptyList<DownloadQueueItem>(), queue)
+    }
+
+    @Test
+    fun `yielding stops starting further chapters`() {
+        serverConfig.downloadChaptersInParallel.value = 2
+        val queue = createQueue(5)
+        val remaining = queue.drop(2)
+
+        runToCompletion(queue, shouldYield = { true })
+
+        // the chapters of the first window finished, the others are left to the next start of the downloader
+        assertEquals(remaining, queue.toList())
+    }
+
+    @Test
+    fun `chapters moved out of the download window get paused`() {
+        serverConfig.downloadChaptersInParallel.value = 2
+        val queue = createQueue(3)
+        val (first, second, third) = queue.toList()
+        val downloader = createDownloader(queue)
+
+        assertDoesNotThrow { downloader.ensureInDownloadWindow(second) }
+        assertThrows<Downloader.PauseDownloadException> { downloader.ensureInDownloadWindow(third) }
+
+        // failed chapters don't occupy the window
+        first.state = DownloadState.Error
+        assertDoesNotThrow { downloader.ensureInDownloadWindow(third) }
+
+        // reordering the queue moves chapters out of the window
+        first.state = DownloadState.Queued
+        queue.remove(third)
+        queue.add(0, third)
+        assertThrows<Downloader.PauseDownloadException> { downloader.ensureInDownloadWindow(second) }
+
+        queue.remove(third)
+        assertThrows<Downloader.StopDownloadException> { downloader.ensureInDownloadWindow(third) }
+    }
+}
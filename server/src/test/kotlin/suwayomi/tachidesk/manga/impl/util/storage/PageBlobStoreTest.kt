@@ -0,0 +1,95 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) Contributors to the Suwayomi project
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.serverConfig
+import suwayomi.tachidesk.test.ApplicationTest
+import uy.kohesive.injekt.injectLazy
+import java.io.File
+import java.nio.file.Files
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class PageBlobStoreTest : ApplicationTest() {
+    private val applicationDirs: ApplicationDirs by injectLazy()
+
+    private val sourceFolder: File
+        get() = File(applicationDirs.mangaDownloadsRoot, "PageBlobStoreTest")
+
+    private fun createChapter(
+        name: String,
+        pages: List<String>,
+    ): File =
+        File(sourceFolder, name).apply {
+            mkdirs()
+            pages.forEachIndexed { index, content -> File(this, "%03d.jpg".format(index)).writeText(content) }
+        }
+
+    private fun getBlobs(): List<File> =
+        File(applicationDirs.pageBlobsRoot)
+            .walkTopDown()
+            .filter { it.isFile && !it.name.startsWith(".") }
+            .toList()
+
+    private fun linkCount(file: File): Int = Files.getAttribute(file.toPath(), "unix:nlink") as Int
+
+    @BeforeEach
+    fun setUp() {
+        serverConfig.downloadDeduplication.value = true
+        File(applicationDirs.mangaDownloadsRoot).mkdirs()
+        assumeTrue(PageBlobStore.isEnabled(), "the filesystem does not support hardlinks")
+    }
+
+    @AfterEach
+    fun tearDown() {
+        serverConfig.downloadDeduplication.value = false
+        sourceFolder.deleteRecursively()
+        File(applicationDirs.pageBlobsRoot).deleteRecursively()
+    }
+
+    @Test
+    fun `identical pages get linked to one blob that is deleted with its last page`() {
+        val first = createChapter("first", listOf("credits", "page of the first chapter"))
+        val second = createChapter("second", listOf("credits", "page of the second chapter"))
+
+        PageBlobStore.deduplicateFolder(first)
+        PageBlobStore.deduplicateFolder(second)
+
+        assertEquals(3, getBlobs().size)
+        // the blob and the pages of both chapters
+        assertEquals(3, linkCount(File(first, "000.jpg")))
+        assertEquals("credits", File(second, "000.jpg").readText())
+
+        FileDeletionHelper.deleteDownloadFolder(first)
+        assertEquals(2, getBlobs().size, "only the blob of the page of the first chapter gets deleted")
+        assertEquals(2, linkCount(File(second, "000.jpg")))
+
+        FileDeletionHelper.deleteDownloadFolder(second)
+        assertEquals(emptyList<File>(), getBlobs())
+    }
+
+    @Test
+    fun `blobs of downloads deleted outside the server get collected`() {
+        val chapter = createChapter("deleted", listOf("credits", "page"))
+        PageBlobStore.deduplicateFolder(chapter)
+        val kept = createChapter("kept", listOf("credits"))
+        PageBlobStore.deduplicateFolder(kept)
+
+        chapter.deleteRecursively()
+
+        assertEquals(1, PageBlobStore.collectGarbage())
+        assertEquals(1, getBlobs().size)
+        assertEquals(2, linkCount(File(kept, "000.jpg")))
+    }
+}